@@ -33,6 +33,7 @@ import dr.app.checkpoint.BeastCheckpointer;
 import dr.app.plugin.PluginLoader;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.evomodel.substmodel.EigenDecompositionCache;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmcmc.MCMCMC;
 import dr.inference.mcmcmc.MCMCMCOptions;
@@ -240,6 +241,11 @@ public class BeastMain {
                 mc3.run();
             }
 
+            if (System.getProperty(EigenDecompositionCache.MEMORY_PROPERTY) != null &&
+                    EigenDecompositionCache.getSharedCache() != null) {
+                infoLogger.info(EigenDecompositionCache.getSharedCache().getReport());
+            }
+
         } catch (java.io.IOException ioe) {
             infoLogger.severe("File error: " + ioe.getMessage());
             throw new RuntimeException("Terminate");
@@ -374,9 +380,11 @@ public class BeastMain {
                         new Arguments.LongOption("seed", "Specify a random number generator seed"),
                         new Arguments.StringOption("prefix", "PREFIX", "Specify a prefix for all output log filenames"),
                         new Arguments.Option("overwrite", "Allow overwriting of log files"),
+                        new Arguments.Option("async_logs", "Write log files on a background thread"),
                         new Arguments.IntegerOption("errors", "Specify maximum number of numerical errors before stopping"),
                         new Arguments.IntegerOption("threads", "The maximum number of computational threads to use (default auto)"),
                         new Arguments.Option("fail_threads", "Exit with error on uncaught exception in thread"),
+                        new Arguments.IntegerOption("eigen_cache", 0, Integer.MAX_VALUE, "Cache substitution model eigendecompositions and transition matrices in up to this many MB (default off)"),
                         new Arguments.Option("ignore_versions", "Ignore mismatches between XML and BEAST versions"),
                         new Arguments.Option("java", "Use Java only, no native implementations"),
                         new Arguments.LongOption("tests", "The number of full evaluation tests to perform (default 1000)"),
@@ -431,6 +439,8 @@ public class BeastMain {
                         new Arguments.LongOption("save_every", "Specify a frequency to save the state file"),
                         new Arguments.StringOption("save_state", "FILENAME", "Specify a filename to save state to"),
                         new Arguments.Option("full_checkpoint_precision", "Use hex-encoded doubles in checkpoint files"),
+                        new Arguments.Option("binary_checkpoint", "Write checkpoint files in a compact binary format on a background thread"),
+                        new Arguments.IntegerOption("checkpoint_full_every", "For binary checkpoints, write a full state every n saves and only the changes in between"),
                         new Arguments.Option("force_resume", "Force resuming from a saved state"),
 
                         new Arguments.StringOption("citations_file", "FILENAME", "Specify a filename to write a citation list to"),
@@ -688,6 +698,10 @@ public class BeastMain {
             }
         }
 
+        if (arguments.hasOption("eigen_cache")) {
+            System.setProperty(EigenDecompositionCache.MEMORY_PROPERTY, Integer.toString(arguments.getIntegerOption("eigen_cache")));
+        }
+
         if (arguments.hasOption("fail_threads")) {
 
             Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
@@ -771,6 +785,14 @@ public class BeastMain {
                 System.setProperty(BeastCheckpointer.FULL_CHECKPOINT_PRECISION, "true");
             }
 
+            if (arguments.hasOption("binary_checkpoint")) {
+                System.setProperty(BeastCheckpointer.CHECKPOINT_FORMAT, BeastCheckpointer.BINARY_FORMAT);
+            }
+
+            if (arguments.hasOption("checkpoint_full_every")) {
+                System.setProperty(BeastCheckpointer.CHECKPOINT_FULL_EVERY, Integer.toString(arguments.getIntegerOption("checkpoint_full_every")));
+            }
+
             if (arguments.hasOption("force_resume")) {
                 System.setProperty("force.resume", Boolean.TRUE.toString());
             }
@@ -973,6 +995,10 @@ public class BeastMain {
             System.setProperty("log.allow.overwrite", "true");
         }
 
+        if (arguments.hasOption("async_logs")) {
+            System.setProperty("log.async", "true");
+        }
+
         additionalParsers.add("beagle");
 
         if (beagleFlags != 0) {
@@ -73,6 +73,10 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     public final static String FULL_CHECKPOINT_PRECISION = "full.checkpoint.precision";
 
+    public final static String CHECKPOINT_FORMAT = "checkpoint.format";
+    public final static String BINARY_FORMAT = "binary";
+    public final static String CHECKPOINT_FULL_EVERY = "checkpoint.full.every";
+
     private String loadStateFileName;
     private String saveStateFileName;
     private String stemFileName;
@@ -81,6 +85,9 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     private boolean useFullPrecision;
 
+    // writes binary checkpoints in the background (null for text checkpoints)
+    private CheckpointWriter checkpointWriter = null;
+
     private final List<MarkovChainListener> listeners = new ArrayList<MarkovChainListener>();
 
     public static synchronized BeastCheckpointer getInstance(String checkpointFileName, int checkpointEvery, int checkpointFinal, boolean overwrite) {
@@ -130,6 +137,11 @@ public class BeastCheckpointer implements StateLoaderSaver {
         useFullPrecision = (System.getProperty(FULL_CHECKPOINT_PRECISION) != null) &&
                 System.getProperty(FULL_CHECKPOINT_PRECISION).equalsIgnoreCase("true");
 
+        if (BINARY_FORMAT.equalsIgnoreCase(System.getProperty(CHECKPOINT_FORMAT))) {
+            int fullEvery = Integer.parseInt(System.getProperty(CHECKPOINT_FULL_EVERY, "1"));
+            checkpointWriter = new CheckpointWriter(fullEvery);
+        }
+
         Factory.INSTANCE = new Factory() {
             @Override
             public StateLoader getInitialStateLoader() {
@@ -268,6 +280,11 @@ public class BeastCheckpointer implements StateLoaderSaver {
     }
 
     protected boolean writeStateToFile(File file, long state, double lnL, MarkovChain markovChain) {
+        if (checkpointWriter != null) {
+            // take a copy of the state here and write it out on a background thread
+            return checkpointWriter.save(file, CheckpointState.capture(state, lnL, markovChain));
+        }
+
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
 
         OutputStream fileOut = null;
@@ -285,6 +302,18 @@ public class BeastCheckpointer implements StateLoaderSaver {
             }
             out.println();
 
+            // the independent per-chain random number streams (if any)
+            for (Map.Entry<Integer, int[]> entry : MathUtils.getRandomStreamStates().entrySet()) {
+                out.print("rng.stream");
+                out.print("\t");
+                out.print(entry.getKey());
+                for (int value : entry.getValue()) {
+                    out.print("\t");
+                    out.print(value);
+                }
+                out.println();
+            }
+
             out.print("state\t");
             out.println(state);
 
@@ -417,6 +446,14 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     protected long readStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
 
+        try {
+            if (BinaryCheckpointFormat.isBinary(file)) {
+                return readBinaryStateFromFile(file, markovChain, lnL);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to read file: " + ioe.getMessage());
+        }
+
         DoubleParser parser = useFullPrecision ? DoubleParser.HEX : DoubleParser.TEXT;
 
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
@@ -449,6 +486,22 @@ public class BeastCheckpointer implements StateLoaderSaver {
                 fields = line.split("\t");
             }
 
+            Map<Integer, int[]> rngStreamStates = new TreeMap<Integer, int[]>();
+            while (fields[0].equals("rng.stream")) {
+                try {
+                    int[] streamState = new int[fields.length - 2];
+                    for (int i = 0; i < streamState.length; i++) {
+                        streamState[i] = Integer.parseInt(fields[i + 2]);
+                    }
+                    rngStreamStates.put(Integer.parseInt(fields[1]), streamState);
+                } catch (NumberFormatException nfe) {
+                    throw new RuntimeException("Unable to read random number stream from state file");
+                }
+
+                line = in.readLine();
+                fields = line.split("\t");
+            }
+
             try {
                 if (!fields[0].equals("state")) {
                     throw new RuntimeException("Unable to read state number from state file");
@@ -724,11 +777,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
                 }
             }
 
-            if (System.getProperty(BeastCheckpointer.CHECKPOINT_SEED) != null) {
-                MathUtils.setSeed(Long.parseLong(System.getProperty(BeastCheckpointer.CHECKPOINT_SEED)));
-            } else if (rngState != null) {
-                MathUtils.setRandomState(rngState);
-            }
+            restoreRandomState(rngState, rngStreamStates);
 
             in.close();
             fileIn.close();
@@ -745,6 +794,118 @@ public class BeastCheckpointer implements StateLoaderSaver {
         return state;
     }
 
+    private void restoreRandomState(int[] rngState, Map<Integer, int[]> rngStreamStates) {
+        if (System.getProperty(BeastCheckpointer.CHECKPOINT_SEED) != null) {
+            MathUtils.setSeed(Long.parseLong(System.getProperty(BeastCheckpointer.CHECKPOINT_SEED)));
+        } else if (rngState != null) {
+            MathUtils.setRandomState(rngState);
+            for (Map.Entry<Integer, int[]> entry : rngStreamStates.entrySet()) {
+                MathUtils.setRandomStreamState(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Loads a checkpoint written in the binary format. The values are matched up with the
+     * parameters, operators and trees in the same way as for the text format.
+     */
+    private long readBinaryStateFromFile(File file, MarkovChain markovChain, double[] lnL) throws IOException {
+        CheckpointState checkpoint = BinaryCheckpointFormat.read(file);
+
+        if (lnL != null) {
+            lnL[0] = checkpoint.lnL;
+        }
+
+        Iterator<CheckpointState.ParameterState> parameterStates = checkpoint.parameters.iterator();
+        for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            if (!parameter.isImmutable()) {
+                if (!parameterStates.hasNext()) {
+                    throw new RuntimeException("Unable to match state parameter: " + parameter.getParameterName());
+                }
+                CheckpointState.ParameterState parameterState = parameterStates.next();
+                double[] values = parameterState.values;
+
+                if (values.length != parameter.getDimension()) {
+                    System.err.println("Unable to match state parameter dimension: " + values.length + ", expecting " + parameter.getDimension() + " for parameter: " + parameter.getParameterName());
+                }
+
+                if (parameterState.name.equals("branchRates.categories.rootNodeNumber")) {
+                    parameter.setParameterValue(0, values[0]);
+                } else {
+                    for (int dim = 0; dim < Math.min(values.length, parameter.getDimension()); dim++) {
+                        try {
+                            parameter.setParameterUntransformedValue(dim, values[dim]);
+                        } catch (RuntimeException rte) {
+                            System.err.println(rte);
+                        }
+                    }
+                }
+            }
+        }
+
+        OperatorSchedule operatorSchedule = markovChain.getSchedule();
+        if (operatorSchedule.getOperatorCount() != checkpoint.operators.size()) {
+            throw new RuntimeException("Number of operators in the state file does not match: " + checkpoint.operators.size() +
+                    ", expecting " + operatorSchedule.getOperatorCount());
+        }
+        for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
+            MCMCOperator operator = operatorSchedule.getOperator(i);
+            CheckpointState.OperatorState operatorState = checkpoint.operators.get(i);
+            if (!operatorState.name.equals(operator.getOperatorName())) {
+                throw new RuntimeException("Unable to match " + operator.getOperatorName() + " operator: " + operatorState.name);
+            }
+            operator.setAcceptCount(operatorState.acceptCount);
+            operator.setRejectCount(operatorState.rejectCount);
+            if (operator instanceof AdaptableMCMCOperator) {
+                if (!operatorState.adaptable) {
+                    throw new RuntimeException("Coercable operator missing parameter: " + operatorState.name);
+                }
+                ((AdaptableMCMCOperator) operator).setAdaptableParameter(operatorState.adaptableParameter);
+                ((AdaptableMCMCOperator) operator).setAdaptationCount(operatorState.adaptationCount);
+            }
+        }
+
+        // load the tree models last as we get the node heights from the tree
+        ArrayList<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
+        Set<String> expectedTreeModelNames = new LinkedHashSet<>();
+        for (Model model : Model.CONNECTED_MODEL_SET) {
+            if (model instanceof TreeModel) {
+                expectedTreeModelNames.add(model.getModelName());
+            }
+            if (model instanceof TreeParameterModel) {
+                traitModels.add((TreeParameterModel) model);
+            }
+        }
+
+        for (CheckpointState.TreeState treeState : checkpoint.trees) {
+            for (Model model : Model.CONNECTED_MODEL_SET) {
+                if (model instanceof TreeModel && treeState.name.equals(model.getModelName())) {
+                    TreeModel treeModel = (TreeModel) model;
+                    treeModel.beginTreeEdit();
+                    treeModel.adoptTreeStructure(treeState.parents, treeState.heights, treeState.childOrder, treeState.taxa);
+                    if (traitModels.size() > 0) {
+                        treeModel.adoptTraitData(treeState.parents, traitModels, treeState.traits, treeState.taxa);
+                    }
+                    treeModel.endTreeEdit();
+
+                    expectedTreeModelNames.remove(model.getModelName());
+                }
+            }
+        }
+
+        if (expectedTreeModelNames.size() > 0) {
+            StringBuilder sb = new StringBuilder();
+            for (String notFoundName : expectedTreeModelNames) {
+                sb.append("Expecting, but unable to match state parameter:" + notFoundName + "\n");
+            }
+            throw new RuntimeException("\n" + sb.toString());
+        }
+
+        restoreRandomState(checkpoint.rngState, checkpoint.rngStreamStates);
+
+        return checkpoint.state;
+    }
+
     class CheckpointPrintStream extends PrintStream {
         public CheckpointPrintStream(OutputStream out) {
             super(out);
@@ -0,0 +1,446 @@
+/*
+ * BinaryCheckpointFormat.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.checkpoint;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes checkpoints in a compact binary format.
+ * <p/>
+ * A file starts with a magic number, the format version and the kind of checkpoint followed by
+ * the length of the payload, the payload and a CRC32 checksum of the payload. Doubles are stored
+ * as their raw bits so the state is restored exactly. Files are written to a temporary file
+ * which is synced and then renamed over the destination so a checkpoint is never left half
+ * written.
+ * <p/>
+ * A full checkpoint contains the complete state. A delta checkpoint names a full (base)
+ * checkpoint and its checksum and only contains the parameters and tree nodes that differ from
+ * it (plus the random number states, the state number, lnL and the operator tuning which are
+ * always written).
+ *
+ * @author agent
+ */
+public final class BinaryCheckpointFormat {
+
+    private BinaryCheckpointFormat() {
+    }
+
+    private static final byte[] MAGIC = {'B', 'E', 'A', 'S', 'T', 'C', 'K', 'P'};
+    private static final int VERSION = 1;
+
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+
+    /**
+     * @return true if the file starts with the binary checkpoint magic number
+     */
+    public static boolean isBinary(File file) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(magic);
+        } catch (EOFException eofe) {
+            return false;
+        } finally {
+            in.close();
+        }
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Writes a full checkpoint.
+     *
+     * @return the checksum of the file's payload
+     */
+    public static long writeFull(File file, CheckpointState checkpoint) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        writeHeader(out, checkpoint);
+
+        out.writeInt(checkpoint.parameters.size());
+        for (CheckpointState.ParameterState parameter : checkpoint.parameters) {
+            out.writeUTF(nonNull(parameter.name));
+            writeDoubles(out, parameter.values);
+        }
+
+        out.writeInt(checkpoint.trees.size());
+        for (CheckpointState.TreeState tree : checkpoint.trees) {
+            out.writeUTF(nonNull(tree.name));
+            out.writeInt(tree.taxa.length);
+            for (String taxon : tree.taxa) {
+                out.writeUTF(taxon);
+            }
+            writeDoubles(out, tree.heights);
+            writeInts(out, tree.parents);
+            writeInts(out, tree.childOrder);
+            out.writeInt(tree.traits.length);
+            for (double[] trait : tree.traits) {
+                writeDoubles(out, trait);
+            }
+        }
+
+        out.flush();
+        return writeFile(file, FULL, bytes.toByteArray());
+    }
+
+    /**
+     * Writes a delta checkpoint that only contains the parameters and tree nodes which differ
+     * from the base checkpoint.
+     *
+     * @param base         the state in the base checkpoint
+     * @param baseFileName the name of the base checkpoint file (in the same directory)
+     * @param baseChecksum the checksum of the base checkpoint file
+     */
+    public static void writeDelta(File file, CheckpointState checkpoint, CheckpointState base,
+                           String baseFileName, long baseChecksum) throws IOException {
+        if (checkpoint.parameters.size() != base.parameters.size() ||
+                checkpoint.trees.size() != base.trees.size()) {
+            throw new IllegalArgumentException("Checkpoint does not match its base");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeUTF(baseFileName);
+        out.writeLong(baseChecksum);
+
+        writeHeader(out, checkpoint);
+
+        int changedCount = 0;
+        for (int i = 0; i < checkpoint.parameters.size(); i++) {
+            if (!Arrays.equals(checkpoint.parameters.get(i).values, base.parameters.get(i).values)) {
+                changedCount++;
+            }
+        }
+        out.writeInt(changedCount);
+        for (int i = 0; i < checkpoint.parameters.size(); i++) {
+            double[] values = checkpoint.parameters.get(i).values;
+            if (!Arrays.equals(values, base.parameters.get(i).values)) {
+                out.writeInt(i);
+                writeDoubles(out, values);
+            }
+        }
+
+        out.writeInt(checkpoint.trees.size());
+        for (int t = 0; t < checkpoint.trees.size(); t++) {
+            CheckpointState.TreeState tree = checkpoint.trees.get(t);
+            CheckpointState.TreeState baseTree = base.trees.get(t);
+            if (tree.getNodeCount() != baseTree.getNodeCount() || tree.traits.length != baseTree.traits.length) {
+                throw new IllegalArgumentException("Checkpoint tree does not match its base");
+            }
+
+            changedCount = 0;
+            for (int i = 0; i < tree.getNodeCount(); i++) {
+                if (!tree.isNodeEqual(baseTree, i)) {
+                    changedCount++;
+                }
+            }
+            out.writeInt(changedCount);
+            for (int i = 0; i < tree.getNodeCount(); i++) {
+                if (!tree.isNodeEqual(baseTree, i)) {
+                    out.writeInt(i);
+                    out.writeDouble(tree.heights[i]);
+                    out.writeInt(tree.parents[i]);
+                    out.writeInt(tree.childOrder[i]);
+                    for (double[] trait : tree.traits) {
+                        out.writeDouble(trait[i]);
+                    }
+                }
+            }
+        }
+
+        out.flush();
+        writeFile(file, DELTA, bytes.toByteArray());
+    }
+
+    /**
+     * Reads a checkpoint. If it is a delta checkpoint then the base checkpoint it names is read
+     * and the changes applied to it.
+     */
+    public static CheckpointState read(File file) throws IOException {
+        long[] checksum = new long[1];
+        byte[] kind = new byte[1];
+        byte[] payload = readFile(file, kind, checksum);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        if (kind[0] == FULL) {
+            return readFull(in);
+        }
+
+        String baseFileName = in.readUTF();
+        long baseChecksum = in.readLong();
+
+        File baseFile = new File(file.getAbsoluteFile().getParentFile(), baseFileName);
+        if (!baseFile.exists()) {
+            throw new IOException("Base checkpoint file, " + baseFile + ", for the delta checkpoint file, " + file + ", is missing");
+        }
+        byte[] basePayload = readFile(baseFile, kind, checksum);
+        if (kind[0] != FULL || checksum[0] != baseChecksum) {
+            throw new IOException("Base checkpoint file, " + baseFile + ", does not match the delta checkpoint file, " + file);
+        }
+        CheckpointState base = readFull(new DataInputStream(new ByteArrayInputStream(basePayload)));
+
+        // the header in the delta replaces the one in the base
+        CheckpointState checkpoint = new CheckpointState();
+        readHeader(in, checkpoint);
+
+        for (CheckpointState.ParameterState parameter : base.parameters) {
+            checkpoint.parameters.add(parameter);
+        }
+        int changedCount = in.readInt();
+        for (int i = 0; i < changedCount; i++) {
+            int index = in.readInt();
+            String name = base.parameters.get(index).name;
+            checkpoint.parameters.set(index, new CheckpointState.ParameterState(name, readDoubles(in)));
+        }
+
+        int treeCount = in.readInt();
+        if (treeCount != base.trees.size()) {
+            throw new IOException("Delta checkpoint file, " + file + ", does not match its base");
+        }
+        for (int t = 0; t < treeCount; t++) {
+            CheckpointState.TreeState tree = base.trees.get(t);
+            changedCount = in.readInt();
+            for (int i = 0; i < changedCount; i++) {
+                int node = in.readInt();
+                tree.heights[node] = in.readDouble();
+                tree.parents[node] = in.readInt();
+                tree.childOrder[node] = in.readInt();
+                for (double[] trait : tree.traits) {
+                    trait[node] = in.readDouble();
+                }
+            }
+            checkpoint.trees.add(tree);
+        }
+
+        return checkpoint;
+    }
+
+    private static CheckpointState readFull(DataInputStream in) throws IOException {
+        CheckpointState checkpoint = new CheckpointState();
+        readHeader(in, checkpoint);
+
+        int parameterCount = in.readInt();
+        for (int i = 0; i < parameterCount; i++) {
+            String name = in.readUTF();
+            checkpoint.parameters.add(new CheckpointState.ParameterState(name, readDoubles(in)));
+        }
+
+        int treeCount = in.readInt();
+        for (int t = 0; t < treeCount; t++) {
+            CheckpointState.TreeState tree = new CheckpointState.TreeState();
+            tree.name = in.readUTF();
+            tree.taxa = new String[in.readInt()];
+            for (int i = 0; i < tree.taxa.length; i++) {
+                tree.taxa[i] = in.readUTF();
+            }
+            tree.heights = readDoubles(in);
+            tree.parents = readInts(in);
+            tree.childOrder = readInts(in);
+            tree.traits = new double[in.readInt()][];
+            for (int j = 0; j < tree.traits.length; j++) {
+                tree.traits[j] = readDoubles(in);
+            }
+            checkpoint.trees.add(tree);
+        }
+        return checkpoint;
+    }
+
+    private static void writeHeader(DataOutputStream out, CheckpointState checkpoint) throws IOException {
+        writeInts(out, checkpoint.rngState);
+
+        out.writeInt(checkpoint.rngStreamStates.size());
+        for (Map.Entry<Integer, int[]> entry : checkpoint.rngStreamStates.entrySet()) {
+            out.writeInt(entry.getKey());
+            writeInts(out, entry.getValue());
+        }
+
+        out.writeLong(checkpoint.state);
+        out.writeDouble(checkpoint.lnL);
+
+        out.writeInt(checkpoint.operators.size());
+        for (CheckpointState.OperatorState operator : checkpoint.operators) {
+            out.writeUTF(operator.name);
+            out.writeLong(operator.acceptCount);
+            out.writeLong(operator.rejectCount);
+            out.writeBoolean(operator.adaptable);
+            if (operator.adaptable) {
+                out.writeDouble(operator.adaptableParameter);
+                out.writeLong(operator.adaptationCount);
+            }
+        }
+    }
+
+    private static void readHeader(DataInputStream in, CheckpointState checkpoint) throws IOException {
+        checkpoint.rngState = readInts(in);
+
+        int streamCount = in.readInt();
+        for (int i = 0; i < streamCount; i++) {
+            int index = in.readInt();
+            checkpoint.rngStreamStates.put(index, readInts(in));
+        }
+
+        checkpoint.state = in.readLong();
+        checkpoint.lnL = in.readDouble();
+
+        int operatorCount = in.readInt();
+        for (int i = 0; i < operatorCount; i++) {
+            CheckpointState.OperatorState operator = new CheckpointState.OperatorState();
+            operator.name = in.readUTF();
+            operator.acceptCount = in.readLong();
+            operator.rejectCount = in.readLong();
+            operator.adaptable = in.readBoolean();
+            if (operator.adaptable) {
+                operator.adaptableParameter = in.readDouble();
+                operator.adaptationCount = in.readLong();
+            }
+            checkpoint.operators.add(operator);
+        }
+    }
+
+    private static long writeFile(File file, byte kind, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        long checksum = crc.getValue();
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            FileOutputStream fileOut = new FileOutputStream(tempFile);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeByte(kind);
+                out.writeInt(payload.length);
+                out.write(payload);
+                out.writeLong(checksum);
+                out.flush();
+
+                // make sure it is on the disk before it replaces the previous checkpoint
+                FileChannel channel = fileOut.getChannel();
+                channel.force(true);
+            } finally {
+                fileOut.close();
+            }
+
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+
+        return checksum;
+    }
+
+    private static byte[] readFile(File file, byte[] kind, long[] checksum) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("File, " + file + ", is not a binary checkpoint file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Binary checkpoint file, " + file + ", has an unsupported version: " + version);
+            }
+            kind[0] = in.readByte();
+            if (kind[0] != FULL && kind[0] != DELTA) {
+                throw new IOException("Binary checkpoint file, " + file + ", is corrupt (unknown kind: " + kind[0] + ")");
+            }
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) {
+                // a damaged length - don't try to allocate it
+                throw new IOException("Binary checkpoint file, " + file + ", is truncated");
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            checksum[0] = in.readLong();
+
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            if (crc.getValue() != checksum[0]) {
+                throw new IOException("Binary checkpoint file, " + file + ", is corrupt (checksum does not match)");
+            }
+            return payload;
+        } catch (EOFException eofe) {
+            throw new IOException("Binary checkpoint file, " + file + ", is truncated");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String nonNull(String name) {
+        return (name != null ? name : "");
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * CheckpointState.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.checkpoint;
+
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptableMCMCOperator;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.math.MathUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A copy of everything that goes into a checkpoint held as primitive arrays. This is captured on
+ * the MCMC thread (which is just copying) and can then be encoded and written on another thread
+ * while the chain carries on.
+ * <p/>
+ * It contains the same information as the text checkpoint: the random number generator states,
+ * the unconstrained values of all the free parameters, the operator tuning and the structure,
+ * node heights and node traits of each tree.
+ *
+ * @author agent
+ */
+public class CheckpointState {
+
+    public int[] rngState;
+    public final Map<Integer, int[]> rngStreamStates = new TreeMap<Integer, int[]>();
+
+    public long state;
+    public double lnL;
+
+    public final List<ParameterState> parameters = new ArrayList<ParameterState>();
+    public final List<OperatorState> operators = new ArrayList<OperatorState>();
+    public final List<TreeState> trees = new ArrayList<TreeState>();
+
+    public static class ParameterState {
+        public ParameterState(String name, double[] values) {
+            this.name = name;
+            this.values = values;
+        }
+
+        public final String name;
+        public final double[] values;
+    }
+
+    public static class OperatorState {
+        public String name;
+        public long acceptCount;
+        public long rejectCount;
+        public boolean adaptable;
+        public double adaptableParameter;
+        public long adaptationCount;
+    }
+
+    public static class TreeState {
+        public String name;
+        public String[] taxa;        // the taxon ids of the external nodes
+        public double[] heights;     // by node number
+        public int[] parents;        // by node number, -1 for the root
+        public int[] childOrder;     // 0 for a left child, 1 for a right child, -1 for the root
+        public double[][] traits;    // by tree parameter model and then by node number
+
+        int getNodeCount() {
+            return heights.length;
+        }
+
+        boolean isNodeEqual(TreeState other, int node) {
+            if (heights[node] != other.heights[node] ||
+                    parents[node] != other.parents[node] ||
+                    childOrder[node] != other.childOrder[node]) {
+                return false;
+            }
+            for (int j = 0; j < traits.length; j++) {
+                if (traits[j][node] != other.traits[j][node]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Copies the current state of the chain.
+     */
+    static CheckpointState capture(long state, double lnL, MarkovChain markovChain) {
+        CheckpointState checkpoint = new CheckpointState();
+
+        checkpoint.rngState = MathUtils.getRandomState();
+        checkpoint.rngStreamStates.putAll(MathUtils.getRandomStreamStates());
+
+        checkpoint.state = state;
+        checkpoint.lnL = lnL;
+
+        for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            if (!parameter.isImmutable()) {
+                double[] values = new double[parameter.getDimension()];
+                for (int dim = 0; dim < values.length; dim++) {
+                    values[dim] = parameter.getParameterUntransformedValue(dim);
+                }
+                checkpoint.parameters.add(new ParameterState(parameter.getParameterName(), values));
+            }
+        }
+
+        OperatorSchedule operatorSchedule = markovChain.getSchedule();
+        for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
+            MCMCOperator operator = operatorSchedule.getOperator(i);
+            OperatorState operatorState = new OperatorState();
+            operatorState.name = operator.getOperatorName();
+            operatorState.acceptCount = operator.getAcceptCount();
+            operatorState.rejectCount = operator.getRejectCount();
+            if (operator instanceof AdaptableMCMCOperator) {
+                operatorState.adaptable = true;
+                operatorState.adaptableParameter = ((AdaptableMCMCOperator) operator).getAdaptableParameter();
+                operatorState.adaptationCount = ((AdaptableMCMCOperator) operator).getAdaptationCount();
+            }
+            checkpoint.operators.add(operatorState);
+        }
+
+        List<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
+        for (Model model : Model.CONNECTED_MODEL_SET) {
+            if (model instanceof TreeParameterModel) {
+                traitModels.add((TreeParameterModel) model);
+            }
+        }
+
+        for (Model model : Model.CONNECTED_MODEL_SET) {
+            if (model instanceof TreeModel) {
+                checkpoint.trees.add(captureTree((TreeModel) model, traitModels));
+            }
+        }
+
+        return checkpoint;
+    }
+
+    private static TreeState captureTree(TreeModel tree, List<TreeParameterModel> traitModels) {
+        List<TreeParameterModel> linkedModels = new ArrayList<TreeParameterModel>();
+        for (TreeParameterModel tpm : traitModels) {
+            if (tpm.getTreeModel() == tree) {
+                linkedModels.add(tpm);
+            }
+        }
+
+        int nodeCount = tree.getNodeCount();
+
+        TreeState treeState = new TreeState();
+        treeState.name = tree.getModelName();
+        treeState.taxa = new String[tree.getExternalNodeCount()];
+        treeState.heights = new double[nodeCount];
+        treeState.parents = new int[nodeCount];
+        treeState.childOrder = new int[nodeCount];
+        treeState.traits = new double[linkedModels.size()][nodeCount];
+
+        Arrays.fill(treeState.parents, -1);
+        Arrays.fill(treeState.childOrder, -1);
+
+        for (int i = 0; i < nodeCount; i++) {
+            NodeRef node = tree.getNode(i);
+            int number = node.getNumber();
+            treeState.heights[number] = tree.getNodeHeight(node);
+            if (tree.isExternal(node)) {
+                treeState.taxa[number] = tree.getNodeTaxon(node).getId();
+            }
+
+            NodeRef parent = tree.getParent(node);
+            if (parent != null) {
+                treeState.parents[number] = parent.getNumber();
+                if (tree.getChild(parent, 0) == node) {
+                    treeState.childOrder[number] = 0;
+                } else if (tree.getChild(parent, 1) == node) {
+                    treeState.childOrder[number] = 1;
+                } else {
+                    throw new RuntimeException("Operation currently only supported for nodes with 2 children.");
+                }
+                for (int j = 0; j < linkedModels.size(); j++) {
+                    treeState.traits[j][number] = linkedModels.get(j).getNodeValue(tree, node);
+                }
+            }
+        }
+
+        return treeState;
+    }
+}
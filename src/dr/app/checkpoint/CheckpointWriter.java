@@ -0,0 +1,162 @@
+/*
+ * CheckpointWriter.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.checkpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+
+/**
+ * Writes binary checkpoints on a background thread.
+ * <p/>
+ * Only one checkpoint is written at a time - if the chain asks for another before the previous
+ * one is finished then it waits. If fullEvery is greater than 1 then only every fullEvery'th
+ * checkpoint is a full one (written to a base file next to the checkpoint file) and the others
+ * are deltas against the last full one. The checkpoint file itself is then always a delta which
+ * names its base.
+ *
+ * @author agent
+ */
+public class CheckpointWriter {
+
+    public CheckpointWriter(int fullEvery) {
+        this.fullEvery = fullEvery;
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "checkpoint-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // don't lose the final checkpoint if the program exits straight after asking for it
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                awaitCompletion();
+            }
+        }));
+    }
+
+    /**
+     * Queues a checkpoint to be written.
+     *
+     * @return false if the previous checkpoint could not be written
+     */
+    public synchronized boolean save(final File file, final CheckpointState checkpoint) {
+        boolean success = awaitCompletion();
+
+        pending = executor.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                try {
+                    write(file, checkpoint);
+                    return true;
+                } catch (IOException ioe) {
+                    System.err.println("Unable to write file: " + ioe.getMessage());
+                    return false;
+                } catch (RuntimeException re) {
+                    System.err.println("Unable to write file: " + re.getMessage());
+                    return false;
+                }
+            }
+        });
+
+        return success;
+    }
+
+    /**
+     * Waits for the checkpoint currently being written (if any).
+     *
+     * @return false if it could not be written
+     */
+    public boolean awaitCompletion() {
+        Future<Boolean> future = pending;
+        if (future == null) {
+            return true;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            return false;
+        } catch (ExecutionException ee) {
+            return false;
+        }
+    }
+
+    private void write(File file, CheckpointState checkpoint) throws IOException {
+        if (fullEvery <= 1) {
+            BinaryCheckpointFormat.writeFull(file, checkpoint);
+            return;
+        }
+
+        if (base == null || saveCount % fullEvery == 0 || !baseMatches(checkpoint)) {
+            File previousBaseFile = baseFile;
+
+            baseFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".base." + checkpoint.state);
+            baseChecksum = BinaryCheckpointFormat.writeFull(baseFile, checkpoint);
+            base = checkpoint;
+
+            BinaryCheckpointFormat.writeDelta(file, checkpoint, base, baseFile.getName(), baseChecksum);
+
+            // the checkpoint file no longer refers to the previous base (unless each checkpoint
+            // has its own file in which case the earlier ones still need it)
+            if (previousBaseFile != null && file.equals(previousFile) && !previousBaseFile.equals(baseFile)) {
+                previousBaseFile.delete();
+            }
+        } else {
+            BinaryCheckpointFormat.writeDelta(file, checkpoint, base, baseFile.getName(), baseChecksum);
+        }
+        previousFile = file;
+        saveCount++;
+    }
+
+    private boolean baseMatches(CheckpointState checkpoint) {
+        if (checkpoint.parameters.size() != base.parameters.size() ||
+                checkpoint.trees.size() != base.trees.size()) {
+            return false;
+        }
+        for (int i = 0; i < checkpoint.trees.size(); i++) {
+            if (checkpoint.trees.get(i).getNodeCount() != base.trees.get(i).getNodeCount() ||
+                    checkpoint.trees.get(i).traits.length != base.trees.get(i).traits.length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final int fullEvery;
+    private final ExecutorService executor;
+    private volatile Future<Boolean> pending = null;
+
+    // only accessed by the writer thread
+    private CheckpointState base = null;
+    private File baseFile = null;
+    private long baseChecksum;
+    private File previousFile = null;
+    private int saveCount = 0;
+}
@@ -111,6 +111,12 @@ public class CheckPointModifier extends BeastCheckpointer {
                 fields = line.split("\t");
             }
 
+            // skip any per-chain random number streams
+            while (fields[0].equals("rng.stream")) {
+                line = in.readLine();
+                fields = line.split("\t");
+            }
+
             try {
                 if (!fields[0].equals("state")) {
                     throw new RuntimeException("Unable to read state number from state file");
@@ -29,8 +29,7 @@ package dr.app.tools;
 
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
-import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
+import dr.evolution.io.ParallelNexusTreeImporter;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.Taxon;
 
@@ -96,8 +95,8 @@ public class BaseTreeTool {
         progressPrinter.printReadingTrees();
 
 
-        FileReader fileReader = new FileReader(inputFileName);
-        TreeImporter importer = new NexusImporter(fileReader, false);
+        // the trees are parsed in parallel but returned in order
+        ParallelNexusTreeImporter importer = new ParallelNexusTreeImporter(new File(inputFileName));
 
         try {
             totalTrees = 0;
@@ -122,7 +121,7 @@ public class BaseTreeTool {
             return;
         }
 
-        fileReader.close();
+        importer.close();
 
         progressPrinter.printSummary(totalTrees, totalUsedTrees, burnIn);
 
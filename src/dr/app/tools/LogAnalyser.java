@@ -38,6 +38,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 public class LogAnalyser {
@@ -47,7 +50,7 @@ public class LogAnalyser {
 
     public LogAnalyser(int burnin, String inputFileName, String outputFileName, boolean verbose,
                        boolean hpds, boolean ess, boolean stdErr,
-                       String marginalLikelihood) throws java.io.IOException, TraceException {
+                       String marginalLikelihood, int threadCount, boolean rHat) throws java.io.IOException, TraceException {
 
         File parentFile = new File(inputFileName);
 
@@ -65,12 +68,18 @@ public class LogAnalyser {
             System.setOut(new PrintStream(outputStream));
         }
 
-        analyze(parentFile, burnin, verbose, new boolean[]{true}, hpds, ess, stdErr, marginalLikelihood);
+        if (rHat) {
+            List<File> files = new ArrayList<File>();
+            collectFiles(parentFile, verbose, files);
+            TraceAnalysis.reportRuns(files, burnin, threadCount);
+        } else {
+            analyze(parentFile, burnin, verbose, new boolean[]{true}, hpds, ess, stdErr, marginalLikelihood, threadCount);
+        }
     }
 
     public LogAnalyser(int burnin, File[] files, String outputFileName, boolean verbose,
                        boolean hpds, boolean ess, boolean stdErr,
-                       String marginalLikelihood) throws java.io.IOException, TraceException {
+                       String marginalLikelihood, int threadCount, boolean rHat) throws java.io.IOException, TraceException {
 
         for (File f : files) {
             if (f.isFile()) {
@@ -86,7 +95,13 @@ public class LogAnalyser {
             }
             
 //            setDefaultDir(f);
-            analyze(f, burnin, verbose, new boolean[]{true}, hpds, ess, stdErr, marginalLikelihood);
+            if (!rHat) {
+                analyze(f, burnin, verbose, new boolean[]{true}, hpds, ess, stdErr, marginalLikelihood, threadCount);
+            }
+        }
+
+        if (rHat) {
+            TraceAnalysis.reportRuns(Arrays.asList(files), burnin, threadCount);
         }
     }
 //
@@ -110,21 +125,22 @@ public class LogAnalyser {
      * @param drawHeader if boolean value in the zeroth position of this array is true then a head is drawn for the short reports.
      * @param hpds       if true then report 95% hpds
      * @param stdErr     if true then report standard error of the mean
+     * @param threadCount the number of threads to analyse the statistics of each file with
      * @throws dr.inference.trace.TraceException
      *          if the trace file is in the wrong format or corrupted
      */
     private void analyze(File file, int burnin, boolean verbose, boolean[] drawHeader,
                          boolean hpds, boolean ess, boolean stdErr,
-                         String marginalLikelihood) throws TraceException {
+                         String marginalLikelihood, int threadCount) throws TraceException {
 
         if (file.isFile()) {
             try {
 
                 String name = file.getCanonicalPath();
                 if (verbose) {
-                    TraceAnalysis.report(name, burnin, marginalLikelihood);
+                    TraceAnalysis.report(name, burnin, marginalLikelihood, true, threadCount);
                 } else {
-                    TraceAnalysis.shortReport(name, burnin, drawHeader[0], hpds, ess, stdErr, marginalLikelihood);
+                    TraceAnalysis.shortReport(name, burnin, drawHeader[0], hpds, ess, stdErr, marginalLikelihood, threadCount);
                     drawHeader[0] = false;
                 }
             } catch (IOException e) {
@@ -134,9 +150,32 @@ public class LogAnalyser {
             File[] files = file.listFiles();
             for (File f : files) {
                 if (f.isDirectory()) {
-                    analyze(f, burnin, verbose, drawHeader, hpds, ess, stdErr, marginalLikelihood);
+                    analyze(f, burnin, verbose, drawHeader, hpds, ess, stdErr, marginalLikelihood, threadCount);
                 } else if (f.getName().endsWith(".log") || f.getName().endsWith(".p")) {
-                    analyze(f, burnin, verbose, drawHeader, hpds, ess, stdErr, marginalLikelihood);
+                    analyze(f, burnin, verbose, drawHeader, hpds, ess, stdErr, marginalLikelihood, threadCount);
+                } else {
+                    if (verbose) System.out.println("Ignoring file: " + f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recursively collects the log files to be analysed together as independent runs.
+     *
+     * @param file    the file (if this is a directory then the log files within it are collected)
+     * @param verbose if true then report the files that are ignored
+     * @param files   the list to add the files to
+     */
+    private void collectFiles(File file, boolean verbose, List<File> files) {
+        if (file.isFile()) {
+            files.add(file);
+        } else {
+            for (File f : file.listFiles()) {
+                if (f.isDirectory()) {
+                    collectFiles(f, verbose, files);
+                } else if (f.getName().endsWith(".log") || f.getName().endsWith(".p")) {
+                    files.add(f);
                 } else {
                     if (verbose) System.out.println("Ignoring file: " + f);
                 }
@@ -174,10 +213,11 @@ public class LogAnalyser {
 
     public static void printUsage(Arguments arguments) {
 
-        arguments.printUsage("loganalyser", "[-burnin <burnin>] [-short][-hpd] [-std] [<input-file-name> [<output-file-name>]]");
+        arguments.printUsage("loganalyser", "[-burnin <burnin>] [-short][-hpd] [-std] [-threads <n>] [-rhat] [<input-file-name> [<output-file-name>]]");
         System.out.println();
         System.out.println("  Example: loganalyser test.log");
         System.out.println("  Example: loganalyser -burnin 10000 trees.log out.txt");
+        System.out.println("  Example: loganalyser -rhat runs_directory out.txt");
         System.out.println();
 
     }
@@ -199,6 +239,8 @@ public class LogAnalyser {
                         new Arguments.Option("ess", "use this option to produce ESSs for each trace"),
                         new Arguments.Option("stdErr", "use this option to produce standard Error"),
                         new Arguments.StringOption("marginal", "trace_name", "specify the trace to use to calculate the marginal likelihood"),
+                        new Arguments.IntegerOption("threads", "the number of threads to analyse the statistics with (default is the number of processors)"),
+                        new Arguments.Option("rhat", "analyse the log files (or those below the directory) together as runs of the same model and report R-hat"),
 //				new Arguments.Option("html", "format output as html"),
 //				new Arguments.Option("svg", "generate svg graphics"),
                         new Arguments.Option("help", "option to print this message")
@@ -226,6 +268,12 @@ public class LogAnalyser {
         boolean ess = arguments.hasOption("ess");
         boolean stdErr = arguments.hasOption("stdErr");
         boolean shortReport = arguments.hasOption("short");
+        boolean rHat = arguments.hasOption("rhat");
+
+        int threadCount = 0;
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+        }
 
         String marginalLikelihood = null;
         if (arguments.hasOption("marginal")) {
@@ -256,11 +304,11 @@ public class LogAnalyser {
 //            inputFileName = Utils.getLoadFileName("LogAnalyser " + version.getVersionString() + " - Select log file to analyse");
             File[] files = Utils.getLoadFiles("LogAnalyser " + version.getVersionString() + " - Select log file to analyse",
                     openDefaultDirectory, "BEAST log (*.log) Files", "log", "txt");
-            new LogAnalyser(burnin, files, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood);
+            new LogAnalyser(burnin, files, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood, threadCount, rHat);
 
         } else {
 
-            new LogAnalyser(burnin, inputFileName, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood);
+            new LogAnalyser(burnin, inputFileName, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood, threadCount, rHat);
         }
 
         System.exit(0);
@@ -28,11 +28,10 @@
 package dr.app.tools;
 
 import dr.evolution.io.Importer;
-import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
+import dr.evolution.io.ParallelNexusTreeImporter;
 import dr.evolution.tree.Tree;
 
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 
 
@@ -49,15 +48,14 @@ public class SequentialTreeReader {
     private Tree currentTree;
     private int currentIndex;
 
-    private final FileReader reader;
-    private final TreeImporter importer;
+    private final ParallelNexusTreeImporter importer;
 
 
     SequentialTreeReader(String inputFileName, int burnin) throws IOException {
         this.inputFileName = inputFileName;
         this.burnin = burnin;
-        this.reader = new FileReader(inputFileName);
-        this.importer = new NexusImporter(reader, false);
+        // the trees are parsed ahead in parallel but returned in order
+        this.importer = new ParallelNexusTreeImporter(new File(inputFileName));
 
     }
 
@@ -95,7 +93,7 @@ public class SequentialTreeReader {
                         currentTree = importer.importNextTree();
                         totalTrees++;
                     } else {
-                        reader.close();
+                        importer.close();
                         progressPrinter.printSummary(totalTrees, totalUsedTrees, burnin);
                         return null;
                     }
@@ -107,7 +105,7 @@ public class SequentialTreeReader {
             }
 
         } catch (Importer.ImportException e) {
-            reader.close();
+            importer.close();
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             return null;
         }
@@ -63,6 +63,19 @@ public class TopologyTracer {
                           final String outputFile,
                           final ArrayList<Double> lambdaValues,
                           final boolean pairwise) {
+        this(burninStates, burninTrees, metric, treeFile, treeFile2, focalTreeFileName, outputFile, lambdaValues, pairwise, 1);
+    }
+
+    public TopologyTracer(final int burninStates,
+                          final int burninTrees,
+                          final String metric,
+                          final String treeFile,
+                          final String treeFile2,
+                          final String focalTreeFileName,
+                          final String outputFile,
+                          final ArrayList<Double> lambdaValues,
+                          final boolean pairwise,
+                          final int threadCount) {
 
         // output to stdout
         PrintStream progressStream = System.out;
@@ -276,6 +289,15 @@ public class TopologyTracer {
 
                 }
 
+                // the clade height metric isn't supported by the batch computation
+                TreeDistanceMatrix matrix = null;
+                if (treeMetric.getType() != TreeMetric.Type.CLADE_HEIGHT) {
+                    progressStream.println("\nComputing distances ...");
+                    double lambda = (treeMetric instanceof KendallColijnPathDifferenceMetric ?
+                            ((KendallColijnPathDifferenceMetric) treeMetric).getLambda() : 0.0);
+                    matrix = new BatchTreeMetric(treeMetric.getType(), lambda).getDistances(trees, threadCount);
+                }
+
                 progressStream.println("\nWriting log file ...");
 
                 BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
@@ -292,9 +314,13 @@ public class TopologyTracer {
                     Tree tree1 = trees.get(i);
                     for (int j = 0; j < trees.size(); j++) {
                         if (j < i) {
-                            Tree tree2 = trees.get(j);
+                            if (matrix != null) {
+                                writer.write("," + matrix.get(i, j));
+                            } else {
+                                Tree tree2 = trees.get(j);
 
-                            writer.write("," + treeMetric.getMetric(tree1, tree2));
+                                writer.write("," + treeMetric.getMetric(tree1, tree2));
+                            }
                         } else {
                             writer.write(",");
                         }
@@ -352,6 +378,7 @@ public class TopologyTracer {
                                 "which tree metric to use ('kc', 'sp', 'rf', 'clade', 'branch') [default = all]"
                         ),
                         new Arguments.RealOption("lambda", "the lambda value to be used for the 'Kendall-Colijn metric' [default = {0,0.5,1}]"),
+                        new Arguments.IntegerOption("threads", "the number of threads used to compute the 'pairwise' distances [default = number of processors]"),
                         new Arguments.Option("help", "option to print this message")
                 });
 
@@ -408,6 +435,11 @@ public class TopologyTracer {
             lambdaValues.add(0.5);
         }
 
+        int threadCount = 0;
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+        }
+
         String focalTreeFileName = null;
         if (arguments.hasOption("tree")) {
             focalTreeFileName = arguments.getStringOption("tree");
@@ -446,7 +478,7 @@ public class TopologyTracer {
             inputFileName = Utils.getLoadFileName("TopologyTracer " + version.getVersionString() + " - Select log file to analyse");
         }
 
-        new TopologyTracer(burninStates, burninTrees, metric, inputFileName, inputFileName2, focalTreeFileName, outputFileName, lambdaValues, pairwise);
+        new TopologyTracer(burninStates, burninTrees, metric, inputFileName, inputFileName2, focalTreeFileName, outputFileName, lambdaValues, pairwise, threadCount);
 
         System.exit(0);
 
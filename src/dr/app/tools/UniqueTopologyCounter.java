@@ -31,6 +31,7 @@ import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.TreeImporter;
+import dr.evolution.tree.TopologyFingerprint;
 import dr.evolution.tree.Tree;
 import dr.evolution.tree.TreeUtils;
 
@@ -50,11 +51,14 @@ import java.util.Locale;
 public class UniqueTopologyCounter {
 
     private long totalTrees;
-    private HashMap<String, Integer> treeCounter;
+    private HashMap<TopologyFingerprint, Integer> treeCounter;
+    // the newick of the first tree seen with each topology, only made for reporting
+    private HashMap<TopologyFingerprint, String> treeStrings;
 
     public UniqueTopologyCounter(String inputFileName, int burninTrees) {
         this.totalTrees = 0;
-        this.treeCounter = new HashMap<String, Integer>();
+        this.treeCounter = new HashMap<TopologyFingerprint, Integer>();
+        this.treeStrings = new HashMap<TopologyFingerprint, String>();
 
         int counter = 0;
 
@@ -66,15 +70,15 @@ public class UniqueTopologyCounter {
 
             while (importer.hasTree()) {
                 Tree tree = importer.importNextTree();
-                String treeString = TreeUtils.uniqueNewick(tree, tree.getRoot());
-                //String treeString = TreeUtils.newickNoLengths(tree);
                 counter++;
                 if (counter > burninTrees) {
-                    if (treeCounter.containsKey(treeString)) {
-                        int count = treeCounter.remove(treeString);
-                        treeCounter.put(treeString, count + 1);
+                    TopologyFingerprint fingerprint = new TopologyFingerprint(tree);
+                    Integer count = treeCounter.get(fingerprint);
+                    if (count != null) {
+                        treeCounter.put(fingerprint, count + 1);
                     } else {
-                        treeCounter.put(treeString, 1);
+                        treeCounter.put(fingerprint, 1);
+                        treeStrings.put(fingerprint, TreeUtils.uniqueNewick(tree, tree.getRoot()));
                     }
                     this.totalTrees++;
                 }
@@ -83,8 +87,8 @@ public class UniqueTopologyCounter {
             System.out.println(this.totalTrees + " trees read from file " + inputFileName);
             System.out.println(counter + " trees processed after removing " + burninTrees + " as burn-in");
             System.out.println(treeCounter.size() + " unique trees found");
-            for (String s : treeCounter.keySet()) {
-                System.out.println(s + " : " + treeCounter.get(s));
+            for (TopologyFingerprint fingerprint : treeCounter.keySet()) {
+                System.out.println(treeStrings.get(fingerprint) + " : " + treeCounter.get(fingerprint));
             }
         } catch (FileNotFoundException fnfe) {
             System.err.println("burninTrees = " + burninTrees);
@@ -48,6 +48,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -59,9 +60,25 @@ public class LogCombiner {
 
     private final static Version version = new BeastVersion();
 
+    /**
+     * The number of decoded lines or trees that each input file may have waiting to be written.
+     */
+    private static final int QUEUE_CAPACITY = 256;
+
     public LogCombiner(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
                        boolean convertToDecimal, boolean stripAnnotations,
                        boolean renumberOutput, boolean useScale, double scale) throws IOException {
+        this(burnins, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal, stripAnnotations,
+                renumberOutput, useScale, scale, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Combines the input files. Up to 'threads' input files are read and decoded in parallel, each
+     * into a bounded queue, and these are written out in the order of the input files.
+     */
+    public LogCombiner(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
+                       boolean convertToDecimal, boolean stripAnnotations,
+                       boolean renumberOutput, boolean useScale, double scale, int threads) throws IOException {
 
         System.out.println("Creating combined " + (treeFiles ? "tree" : "log") + " file: '" + outputFileName + "'");
 
@@ -83,344 +100,508 @@ public class LogCombiner {
 
         System.out.println();
 
-        PrintWriter writer = new PrintWriter(new FileOutputStream(outputFileName));
-
-        boolean firstFile = true;
-        boolean firstTree = true;
-        long stateCount = (renumberOutput ? -1 : 0);
-        long stateStep = -1;
-        int columnCount = 0;
-
-        String[] titles = null;
-
-        System.out.println();
-        for (int i = 0; i < inputFileNames.length; i++) {
-            File inputFile = new File(inputFileNames[i]);
+        for (String inputFileName : inputFileNames) {
+            File inputFile = new File(inputFileName);
 
             if (!inputFile.exists()) {
-                System.err.println(inputFileNames[i] + " does not exist!");
+                System.err.println(inputFileName + " does not exist!");
                 return;
             } else if (inputFile.isDirectory()) {
-                System.err.println(inputFileNames[i] + " is a directory.");
+                System.err.println(inputFileName + " is a directory.");
                 return;
             }
+        }
 
-            long burnin = burnins[0];
-            if (burnins.length > i) {
-                burnin = burnins[i];
-            }
+        boolean processTrees = treeFiles && (stripAnnotations || convertToDecimal);
 
-            if (burnin > 0) {
-                System.out.print("Combining file: '" + inputFileNames[i] + "' removing burnin: " + burnin);
-            } else {
-                System.out.print("Combining file: '" + inputFileNames[i] + "' without removing burnin");
+        if (processTrees) {
+            // the taxon numbering is taken from the first tree in the first file (with a tree)
+            for (int i = 0; i < inputFileNames.length && headerText == null; i++) {
+                readHeader(new File(inputFileNames[i]), stripAnnotations);
             }
+        }
 
-            if (resample > 0) {
-                System.out.print(", resampling with frequency: " + resample);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LogCombiner decoder");
+                thread.setDaemon(true);
+                return thread;
             }
+        });
 
-            if (useScale) {
-                System.out.println(", rescaling by: " + scale);
-            } else {
-                System.out.println();
+        // the decoders are started in the order of the files so the one being written out is always running
+        FileDecoder[] decoders = new FileDecoder[inputFileNames.length];
+        for (int i = 0; i < inputFileNames.length; i++) {
+            long burnin = burnins[0];
+            if (burnins.length > i) {
+                burnin = burnins[i];
             }
+            decoders[i] = new FileDecoder(new File(inputFileNames[i]), burnin, i == 0, treeFiles, processTrees,
+                    stripAnnotations, convertToDecimal, useScale, scale);
+            executor.execute(decoders[i]);
+        }
 
-            boolean processTrees = stripAnnotations || convertToDecimal;
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(outputFileName), 1 << 20));
 
-            if (treeFiles) {
+        try {
+            if (processTrees && headerText != null) {
+                writer.print(headerText);
+            }
 
-                if (processTrees) { // then we need to read each tree and write it.
-                    TreeImporter importer = new NexusImporter(new FileReader(inputFile), stripAnnotations);
-                    try {
-                        while (importer.hasTree()) {
-                            Tree tree = importer.importNextTree();
-                            if (firstTree) {
-                                startLog(tree, writer);
-                                firstTree = false;
-                            }
+            System.out.println();
+            for (int i = 0; i < inputFileNames.length; i++) {
+                long burnin = decoders[i].burnin;
 
-                            String name = tree.getId();
-                            if (name == null) {
-                                System.err.println("ERROR: Trees do not give state numbers as tree attributes.");
-                                return;
-                            }
+                if (burnin > 0) {
+                    System.out.print("Combining file: '" + inputFileNames[i] + "' removing burnin: " + burnin);
+                } else {
+                    System.out.print("Combining file: '" + inputFileNames[i] + "' without removing burnin");
+                }
 
-                            // split on underscore in STATE_xxxx
-                            String[] bits = name.split("_");
-                            long state = Long.parseLong(bits[1]);
+                if (resample > 0) {
+                    System.out.print(", resampling with frequency: " + resample);
+                }
 
-                            if (stateStep < 0 && state > 0) {
-                                stateStep = state;
-                            }
+                if (useScale) {
+                    System.out.println(", rescaling by: " + scale);
+                } else {
+                    System.out.println();
+                }
 
-                            if (state >= burnin) {
-                                if (stateStep > 0) {
-                                    if (!renumberOutput) {
-                                        stateCount += stateStep;
-                                    } else {
-                                        stateCount += 1;
-                                    }
-                                }
+                if (!combineFile(decoders[i], inputFileNames[i], treeFiles, resample, renumberOutput, writer)) {
+                    return;
+                }
+            }
 
-                                if (resample >= 0) {
-                                    if (resample % stateStep != 0) {
-                                        System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
-                                        return;
-                                    }
-                                }
+            if (treeFiles) {
+                stopLog(writer);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while combining files");
+        } finally {
+            executor.shutdownNow();
+            writer.close();
+        }
+    }
 
-                                boolean logThis;
-                                if (resample < 0) {
-                                    // not resampling, log every state
-                                    logThis = true;
-                                } else if (!renumberOutput) {
-                                    // resampling but not renumbering
-                                    logThis = (stateCount % resample == 0);
-                                } else {
-                                    logThis = (stateCount * stateStep % resample == 0);
-                                }
+    private long stateCount;
+    private long stateStep = -1;
+    private int columnCount = 0;
+    private String[] titles = null;
+
+    /**
+     * Writes out the entries decoded from one file, renumbering and resampling the states.
+     *
+     * @return false if there was an error
+     */
+    private boolean combineFile(FileDecoder decoder, String inputFileName, boolean treeFiles,
+                                long resample, boolean renumberOutput, PrintWriter writer) throws InterruptedException {
+
+        if (decoder.isFirstFile) {
+            stateCount = (renumberOutput ? -1 : 0);
+        }
 
-                                long stateLineEntry;
-                                if (!renumberOutput) {
-                                    stateLineEntry = stateCount;
-                                } else {
-                                    stateLineEntry = stateCount / (resample / stateStep);
-                                }
+        while (true) {
+            Entry entry = decoder.queue.take();
 
-                                if (logThis) {
-                                    writeTree(stateLineEntry, tree, convertToDecimal, writer);
-                                }
+            switch (entry.type) {
+                case END:
+                    return true;
+
+                case ERROR:
+                    System.err.println(entry.text);
+                    return false;
 
+                case HEADER:
+                    if (decoder.isFirstFile) {
+                        writer.println(entry.text);
+                    }
+                    break;
+
+                case TITLES:
+                    if (decoder.isFirstFile) {
+                        titles = entry.text.split("\t");
+                        writer.println(entry.text);
+                    } else {
+                        String[] newTitles = entry.text.split("\t");
+                        if (newTitles.length != titles.length) {
+                            System.err.println("ERROR: The number of columns in file, " + inputFileName + ", does not match that of the first file");
+                            return false;
+                        }
+                        for (int k = 0; k < newTitles.length; k++) {
+                            if (!newTitles[k].equals(titles[k])) {
+                                System.err.println("WARNING: The column heading, " + newTitles[k] + " in file, " + inputFileName + ", does not match the first file's heading, " + titles[k]);
                             }
                         }
-                    } catch (Importer.ImportException e) {
-                        System.err.println("Error Parsing Input Tree: " + e.getMessage());
-                        return;
                     }
-                } else {
-                    BufferedReader reader = new BufferedReader(new FileReader(inputFile));
+                    break;
+
+                case SKIPPED:
+                case STATE:
+                    if (stateStep < 0 && entry.state > 0) {
+                        stateStep = entry.state;
+                        columnCount = entry.columnCount;
+                    }
 
-                    String line = reader.readLine();
+                    // if the columnCount is not the same then perhaps the line is corrupt so skip it.
+                    if (entry.type == EntryType.SKIPPED || !entry.valid ||
+                            (!treeFiles && entry.columnCount != columnCount)) {
+                        break;
+                    }
 
-                    // skip (or write) the headers
-                    while (line != null && !line.trim().startsWith("tree ")) {
-                        if (firstFile) {
-                            writer.println(line);
+                    if (stateStep > 0) {
+                        if (!renumberOutput) {
+                            stateCount += stateStep;
+                        } else {
+                            stateCount += 1;
                         }
-                        line = reader.readLine();
                     }
 
-                    Pattern pattern = Pattern.compile("tree STATE_(\\d+)(\\s.*)");
+                    if (resample >= 0) {
+                        if (resample % stateStep != 0) {
+                            System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
+                            return false;
+                        }
+                    }
 
-                    while (line != null) {
-                        Matcher m = pattern.matcher(line);
-                        if (m.matches()) {
+                    boolean logThis;
+                    if (resample < 0) {
+                        // not resampling, log every state
+                        logThis = true;
+                    } else if (!renumberOutput) {
+                        // resampling but not renumbering
+                        logThis = (stateCount % resample == 0);
+                    } else {
+                        logThis = ((stateCount * stateStep) % resample == 0);
+                    }
+
+                    long stateLineEntry;
+                    if (!renumberOutput) {
+                        stateLineEntry = stateCount;
+                    } else {
+                        stateLineEntry = stateCount / (resample / stateStep);
+                    }
 
-                            long state = Long.parseLong(m.group(1));
+                    if (logThis) {
+                        if (treeFiles) {
+                            writer.print("tree STATE_");
+                        }
+                        writer.print(stateLineEntry);
+                        writer.println(entry.text);
+                    }
+                    break;
+            }
+        }
+    }
 
-                            String treeString = m.group(2);
+    private enum EntryType {
+        HEADER,
+        TITLES,
+        STATE,
+        SKIPPED,
+        ERROR,
+        END
+    }
 
-                            boolean skip = false;
-                            if (!skip) {
-                                if (stateStep < 0 && state > 0) {
-                                    stateStep = state;
-                                }
+    /**
+     * A line or tree decoded from an input file. For states the text is everything after the state number.
+     */
+    private static class Entry {
+        Entry(EntryType type, String text) {
+            this(type, -1, 0, true, text);
+        }
 
-                                // if the columnCount is not the same then perhaps the line is corrupt so skip it.
-                                if (state >= burnin) {
-                                    if (stateStep > 0) {
-                                        if (!renumberOutput) {
-                                            stateCount += stateStep;
-                                        } else {
-                                            stateCount += 1;
-                                        }
-                                    }
+        Entry(EntryType type, long state, int columnCount, boolean valid, String text) {
+            this.type = type;
+            this.state = state;
+            this.columnCount = columnCount;
+            this.valid = valid;
+            this.text = text;
+        }
 
-                                    if (resample >= 0) {
-                                        if (resample % stateStep != 0) {
-                                            System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
-                                            return;
-                                        }
-                                    }
+        final EntryType type;
+        final long state;
+        final int columnCount;
+        final boolean valid;
+        final String text;
+    }
 
-                                    boolean logThis;
-                                    if (resample < 0) {
-                                        logThis = true;
-                                    } else if (!renumberOutput) {
-                                        logThis = (stateCount % resample == 0);
-                                    } else {
-                                        logThis = ((stateCount * stateStep) % resample == 0);
-                                    }
+    /**
+     * Reads and decodes a single input file into a bounded queue. Lines before the burn-in are
+     * skipped by reading their state numbers, without decoding them.
+     */
+    private class FileDecoder implements Runnable {
+
+        FileDecoder(File file, long burnin, boolean isFirstFile, boolean treeFiles, boolean processTrees,
+                    boolean stripAnnotations, boolean convertToDecimal, boolean useScale, double scale) {
+            this.file = file;
+            this.burnin = burnin;
+            this.isFirstFile = isFirstFile;
+            this.treeFiles = treeFiles;
+            this.processTrees = processTrees;
+            this.stripAnnotations = stripAnnotations;
+            this.convertToDecimal = convertToDecimal;
+            this.useScale = useScale;
+            this.scale = scale;
+        }
 
-                                    long stateLineEntry;
-                                    if (!renumberOutput) {
-                                        stateLineEntry = stateCount;
-                                    } else {
+        public void run() {
+            try {
+                try {
+                    if (processTrees) {
+                        decodeTrees();
+                    } else if (treeFiles) {
+                        passTrees();
+                    } else {
+                        decodeLog();
+                    }
+                    queue.put(new Entry(EntryType.END, null));
+                } catch (IOException ioe) {
+                    queue.put(new Entry(EntryType.ERROR, "Error reading file, " + file.getName() + ": " + ioe.getMessage()));
+                } catch (Importer.ImportException ie) {
+                    queue.put(new Entry(EntryType.ERROR, "Error Parsing Input Tree: " + ie.getMessage()));
+                } catch (RuntimeException re) {
+                    queue.put(new Entry(EntryType.ERROR, "Error decoding file, " + file.getName() + ": " + re.getMessage()));
+                }
+            } catch (InterruptedException e) {
+                // the combining has been abandoned
+            }
+        }
 
-//                                	System.out.println("stateCount: " + stateCount);
-//                                	System.out.println("resample: " + resample);
-//                                	System.out.println("stateStep: " + stateStep);
-//                                	System.out.println("resample / stateStep: " + (resample / stateStep));
+        /**
+         * Reports the first non-zero state number if it is in the burn-in as this is used to determine
+         * the sampling frequency.
+         */
+        private void skipped(long state, int fieldCount) throws InterruptedException {
+            if (!firstStateReported && state > 0) {
+                queue.put(new Entry(EntryType.SKIPPED, state, fieldCount, true, null));
+            }
+            firstStateReported |= state > 0;
+        }
 
-                                        stateLineEntry = stateCount / (resample / stateStep);
-                                    }
+        /**
+         * Tree files where no conversion is required are copied line by line.
+         */
+        private void passTrees() throws IOException, InterruptedException {
+            LogLineReader reader = new LogLineReader(file);
+            try {
+                boolean more = reader.nextLine();
 
-                                    if (logThis) {
-                                        writer.print("tree STATE_");
-                                        writer.print(stateLineEntry);
-                                        writer.println(treeString);
-                                    }
-                                }
+                // skip (or write) the headers
+                while (more && !reader.startsWith("tree ")) {
+                    if (isFirstFile) {
+                        queue.put(new Entry(EntryType.HEADER, reader.getLine()));
+                    }
+                    more = reader.nextLine();
+                }
+
+                while (more) {
+                    long state = reader.getState(LogLineReader.TREE_PREFIX);
+                    if (state >= 0) {
+                        if (state < burnin) {
+                            skipped(state, 0);
+                        } else {
+                            firstStateReported |= state > 0;
+                            String line = reader.getLine();
+                            Matcher m = TREE_PATTERN.matcher(line);
+                            if (m.matches()) {
+                                queue.put(new Entry(EntryType.STATE, state, 0, true, m.group(2)));
                             }
                         }
-                        line = reader.readLine();
-                        //lineCount++;
                     }
+                    more = reader.nextLine();
                 }
+            } finally {
+                reader.close();
+            }
+        }
 
-                firstFile = false;
+        /**
+         * Tree files where the trees are converted are parsed, skipping the trees in the burn-in.
+         */
+        private void decodeTrees() throws IOException, Importer.ImportException, InterruptedException {
+            BurninFilterReader filterReader = new BurninFilterReader(new LogLineReader(file));
+            TreeImporter importer = new NexusImporter(filterReader, stripAnnotations);
+            try {
+                while (importer.hasTree()) {
+                    Tree tree = importer.importNextTree();
 
+                    String name = tree.getId();
+                    if (name == null) {
+                        queue.put(new Entry(EntryType.ERROR, "ERROR: Trees do not give state numbers as tree attributes."));
+                        return;
+                    }
 
-            } else {
-                BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-                //int lineCount = 1;
-                String line = reader.readLine();
+                    // split on underscore in STATE_xxxx
+                    String[] bits = name.split("_");
+                    long state = Long.parseLong(bits[1]);
+
+                    firstStateReported |= state > 0;
+                    if (state >= burnin) {
+                        queue.put(new Entry(EntryType.STATE, state, 0, true, formatTree(tree, convertToDecimal)));
+                    }
+                }
+            } finally {
+                filterReader.close();
+            }
+        }
+
+        private void decodeLog() throws IOException, InterruptedException {
+            LogLineReader reader = new LogLineReader(file);
+            try {
+                boolean more = reader.nextLine();
 
                 // lines starting with [ are ignored, assuming comments in MrBayes file
                 // lines starting with # are ignored, assuming comments in Migrate or BEAST file
-                while (line.startsWith("[") || line.startsWith("#")) {
-
-                    line = reader.readLine();
+                while (more && (reader.startsWith("[") || reader.startsWith("#"))) {
+                    more = reader.nextLine();
+                }
+                if (!more) {
+                    return;
                 }
 
+                String titleLine = reader.getLine();
+                String[] fileTitles = titleLine.split("\t");
+                queue.put(new Entry(EntryType.TITLES, titleLine));
 
-                if (firstFile) {
-                    titles = line.split("\t");
-                    writer.println(line);
-                } else {
-                    String[] newTitles = line.split("\t");
-                    if (newTitles.length != titles.length) {
-                        System.err.println("ERROR: The number of columns in file, " + inputFileNames[i] + ", does not match that of the first file");
-                        return;
+                while (reader.nextLine()) {
+                    long state = reader.getState("");
+                    if (state < 0) {
+                        continue;
                     }
-                    for (int k = 0; k < newTitles.length; k++) {
-                        if (!newTitles[k].equals(titles[k])) {
-                            System.err.println("WARNING: The column heading, " + newTitles[k] + " in file, " + inputFileNames[i] + ", does not match the first file's heading, " + titles[k]);
-                        }
-                    }
-                }
-                line = reader.readLine();
-                //lineCount++;
-
-                while (line != null) {
-                    String[] parts = line.split("\t");
 
-                    long state = -1;
+                    if (state < burnin) {
+                        skipped(state, firstStateReported ? 0 : reader.getFieldCount());
+                        continue;
+                    }
 
-                    boolean skip = false;
-                    try {
-                        state = Long.parseLong(parts[0]);
-                    } catch (NumberFormatException nfe) {
-                        skip = true;
+                    String[] parts = reader.getLine().split("\t");
+                    if (!firstStateReported && state > 0) {
+                        firstStateReported = true;
                     }
 
-                    if (!skip) {
-                        if (stateStep < 0 && state > 0) {
-                            stateStep = state;
-                            columnCount = parts.length;
+                    boolean valid = true;
+                    for (int j = 1; j < parts.length; j++) {
+                        try {
+                            if (!parts[j].startsWith("{")) {
+                                // complex log values start with a curly bracket - otherwise attempt to parse
+                                // it as a number. If it fails, skip the line as a possible corruption.
+                                Double.parseDouble(parts[j]);
+                            }
+                        } catch (NumberFormatException nfe) {
+                            valid = false;
+                            break;
                         }
+                    }
 
-                        // if the columnCount is not the same then perhaps the line is corrupt so skip it.
-                        if (state >= burnin && parts.length == columnCount) {
-                            for (int j = 1; j < parts.length; j++) {
-                                try {
-                                    if (!parts[j].startsWith("{")) {
-                                        // complex log values start with a curly bracket - otherwise attempt to parse
-                                        // it as a number. If it fails, skip the line as a possible corruption.
-
-                                        // attempt to convert the column value...
-                                        double value = Double.valueOf(parts[j]);
+                    StringBuilder text = new StringBuilder();
+                    if (valid) {
+                        for (int j = 1; j < parts.length; j++) {
+                            String value = parts[j];
+
+                            if (useScale) {
+                                if (j < fileTitles.length) {
+                                    if (fileTitles[j].equals("clock.rate") || fileTitles[j].startsWith("skyline.popSize")) {
+                                        value = reformatNumbers(value, convertToDecimal, true, 1.0 / scale);
+                                    } else if (fileTitles[j].equals("treeModel.rootHeight")) {
+                                        value = reformatNumbers(value, convertToDecimal, true, scale);
                                     }
-                                } catch (NumberFormatException nfe) {
-                                    skip = true;
-                                    break;
                                 }
+                            } else if (convertToDecimal) {
+                                value = reformatNumbers(value, convertToDecimal, false, 1.0);
                             }
+                            text.append("\t").append(value);
+                        }
+                    }
 
-                            if (!skip) {
-
-                                if (stateStep > 0) {
-                                    if (!renumberOutput) {
-                                        stateCount += stateStep;
-                                    } else {
-                                        stateCount += 1;
-                                    }
-                                }
-
-                                if (resample >= 0) {
-                                    if (resample % stateStep != 0) {
-                                        System.err.println("ERROR: Resampling frequency is not a multiple of existing sampling frequency");
-                                        return;
-                                    }
-                                }
-
-                                boolean logThis;
-                                if (resample < 0) {
-                                    logThis = true;
-                                } else if (!renumberOutput){
-                                    logThis = (stateCount % resample == 0);
-                                } else {
-                                    logThis = ((stateCount * stateStep) % resample == 0);
-                                }
-
-                                long stateLineEntry;
-                                if (!renumberOutput){
-                                    stateLineEntry = stateCount;
-                                } else {
+                    queue.put(new Entry(EntryType.STATE, state, parts.length, valid, text.toString()));
+                }
+            } finally {
+                reader.close();
+            }
+        }
 
-//                                	System.out.println("stateCount: " + stateCount);
-//                                	System.out.println("resample: " + resample);
-//                                	System.out.println("stateStep: " + stateStep);
-//                                	System.out.println("resample / stateStep: " + (resample / stateStep));
+        /**
+         * Presents the file to the NexusImporter without the tree lines in the burn-in.
+         */
+        private class BurninFilterReader extends Reader {
 
-                                    stateLineEntry = stateCount / (resample / stateStep);
-                                }
-
-                                if (logThis) {
-                                    writer.print(stateLineEntry);
-                                    for (int j = 1; j < parts.length; j++) {
-                                        String value = parts[j];
-
-                                        if (useScale) {
-                                            if (titles[j].equals("clock.rate") || titles[j].startsWith("skyline.popSize")) {
-                                                value = reformatNumbers(value, convertToDecimal, true, 1.0 / scale);
-                                            } else if (titles[j].equals("treeModel.rootHeight")) {
-                                                value = reformatNumbers(value, convertToDecimal, true, scale);
-                                            }
-                                        } else  if (convertToDecimal) {
-                                            value = reformatNumbers(value, convertToDecimal, false, 1.0);
-                                        }
-                                        writer.print("\t" + value);
-                                    }
-                                    writer.println();
-                                }
-                            }
+            BurninFilterReader(LogLineReader reader) {
+                this.reader = reader;
+            }
 
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                while (current == null || position >= current.length()) {
+                    if (!reader.nextLine()) {
+                        return -1;
+                    }
+                    long state = reader.getState(LogLineReader.TREE_PREFIX);
+                    if (state >= 0 && state < burnin) {
+                        try {
+                            skipped(state, 0);
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
                         }
+                        continue;
                     }
-                    line = reader.readLine();
-                    //lineCount++;
+                    current = reader.getLine() + "\n";
+                    position = 0;
                 }
+                int n = Math.min(len, current.length() - position);
+                current.getChars(position, position + n, cbuf, off);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
             }
 
-            firstFile = false;
+            private final LogLineReader reader;
+            private String current = null;
+            private int position = 0;
         }
 
-        if (treeFiles) {
-            stopLog(writer);
+        private final File file;
+        private final long burnin;
+        private final boolean isFirstFile;
+        private final boolean treeFiles;
+        private final boolean processTrees;
+        private final boolean stripAnnotations;
+        private final boolean convertToDecimal;
+        private final boolean useScale;
+        private final double scale;
+
+        private boolean firstStateReported = false;
+
+        private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(QUEUE_CAPACITY);
+    }
+
+    private static final Pattern TREE_PATTERN = Pattern.compile("tree STATE_(\\d+)(\\s.*)");
+
+    private String headerText = null;
+
+    /**
+     * Reads the first tree of a file to write the taxa block and translate table.
+     */
+    private void readHeader(File file, boolean stripAnnotations) throws IOException {
+        Reader reader = new FileReader(file);
+        try {
+            TreeImporter importer = new NexusImporter(reader, stripAnnotations);
+            if (importer.hasTree()) {
+                StringWriter header = new StringWriter();
+                PrintWriter writer = new PrintWriter(header);
+                startLog(importer.importNextTree(), writer);
+                writer.flush();
+                headerText = header.toString();
+            }
+        } catch (Importer.ImportException e) {
+            // the error will be reported when the file is decoded
+        } finally {
+            reader.close();
         }
-        writer.close();
     }
 
     private void rescaleTree(Tree tree, double scale) {
@@ -477,10 +658,12 @@ public class LogCombiner {
         writer.println("\t\t;");
     }
 
-    private void writeTree(long state, Tree tree, boolean convertToDecimal, PrintWriter writer) {
+    /**
+     * @return the tree's attributes and newick string, i.e., what follows the state number in the tree line.
+     */
+    private String formatTree(Tree tree, boolean convertToDecimal) {
 
-        StringBuilder buffer = new StringBuilder("tree STATE_");
-        buffer.append(state);
+        StringBuilder buffer = new StringBuilder();
 //        Double lnP = (Double) tree.getAttribute("lnP");
 //        if (lnP != null) {
 //            buffer.append(" [&lnP=").append(lnP).append("]");
@@ -511,7 +694,7 @@ public class LogCombiner {
         writeTree(tree, tree.getRoot(), taxonMap, convertToDecimal, buffer);
 
         buffer.append(";");
-        writer.println(buffer.toString());
+        return buffer.toString();
     }
 
     private String formatValue(Object value) {
@@ -572,7 +755,7 @@ public class LogCombiner {
         if (parent != null) {
             buffer.append(":");
             double length = tree.getBranchLength(node);
-            buffer.append(convertToDecimal ? decimalFormatter.format(length) : scientificFormatter.format(length));
+            buffer.append(convertToDecimal ? decimalFormatter.get().format(length) : scientificFormatter.get().format(length));
         }
     }
 
@@ -580,14 +763,26 @@ public class LogCombiner {
         writer.println("End;");
     }
 
-    private static final DecimalFormat decimalFormatter = new DecimalFormat("#.############", new DecimalFormatSymbols(Locale.US));
-    private static final DecimalFormat scientificFormatter = new DecimalFormat("#.############E0", new DecimalFormatSymbols(Locale.US));
+    // DecimalFormat is not thread safe and the files are decoded in parallel
+    private static final ThreadLocal<DecimalFormat> decimalFormatter = new ThreadLocal<DecimalFormat>() {
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat("#.############", new DecimalFormatSymbols(Locale.US));
+        }
+    };
+    private static final ThreadLocal<DecimalFormat> scientificFormatter = new ThreadLocal<DecimalFormat>() {
+        @Override
+        protected DecimalFormat initialValue() {
+            return new DecimalFormat("#.############E0", new DecimalFormatSymbols(Locale.US));
+        }
+    };
+
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+\\.\\d+(E[\\-\\d\\.]+)?");
 
     private String reformatNumbers(String line, boolean convertDecimal, boolean useScale, double scale) {
         StringBuilder outLine = new StringBuilder();
 
-        Pattern pattern = Pattern.compile("\\d+\\.\\d+(E[\\-\\d\\.]+)?");
-        Matcher matcher = pattern.matcher(line);
+        Matcher matcher = NUMBER_PATTERN.matcher(line);
 
         int lastEnd = 0;
         while (matcher.find()) {
@@ -597,7 +792,7 @@ public class LogCombiner {
             if (useScale) {
                 value *= scale;
             }
-            String outToken = (convertDecimal ? decimalFormatter.format(value) : scientificFormatter.format(value));
+            String outToken = (convertDecimal ? decimalFormatter.get().format(value) : scientificFormatter.get().format(value));
 
             outLine.append(line.substring(lastEnd, start));
             outLine.append(outToken);
@@ -743,6 +938,7 @@ public class LogCombiner {
                             new Arguments.RealOption("scale", "a scaling factor that will multiply any time units by this value"),
                             new Arguments.Option("strip", "strip out all annotations (trees only)"),
                             new Arguments.Option("renumber", "this option renumbers output states consecutively"),
+                            new Arguments.IntegerOption("threads", "the number of input files to read in parallel (default the number of processors)"),
                             new Arguments.Option("help", "option to print this message")
                     });
 
@@ -784,6 +980,11 @@ public class LogCombiner {
                 useScale = true;
             }
 
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (arguments.hasOption("threads")) {
+                threads = arguments.getIntegerOption("threads");
+            }
+
             String[] args2 = arguments.getLeftoverArguments();
 
             if (args2.length < 2) {
@@ -798,7 +999,7 @@ public class LogCombiner {
             String outputFileName = args2[args2.length - 1];
 
             new LogCombiner(new long[]{burnin}, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal,
-                    stripAnnotations, renumberOutput, useScale, scale);
+                    stripAnnotations, renumberOutput, useScale, scale, threads);
 
             System.out.println("Finished.");
         }
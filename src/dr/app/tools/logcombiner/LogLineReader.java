@@ -0,0 +1,187 @@
+/*
+ * LogLineReader.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.tools.logcombiner;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Reads a log or tree file a line at a time as bytes so that the state number at the start of a
+ * line can be read without decoding it. Lines in the burn-in can then be skipped without creating
+ * a string for each (which for large trees is most of the cost of reading them).
+ *
+ * @author agent
+ */
+class LogLineReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    static final String TREE_PREFIX = "tree STATE_";
+
+    LogLineReader(File file) throws FileNotFoundException {
+        this.in = new FileInputStream(file);
+    }
+
+    /**
+     * Reads the next line, without its line terminator, into the line buffer.
+     *
+     * @return false if the end of the file has been reached
+     */
+    boolean nextLine() throws IOException {
+        lineLength = 0;
+        boolean read = false;
+        while (true) {
+            if (position >= limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return read;
+                }
+            }
+            read = true;
+
+            int start = position;
+            while (position < limit && buffer[position] != '\n') {
+                position++;
+            }
+            append(start, position);
+
+            if (position < limit) {
+                // skip the new line
+                position++;
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                return true;
+            }
+        }
+    }
+
+    private void append(int start, int end) {
+        int length = end - start;
+        if (lineLength + length > line.length) {
+            byte[] newLine = new byte[Math.max(line.length * 2, lineLength + length)];
+            System.arraycopy(line, 0, newLine, 0, lineLength);
+            line = newLine;
+        }
+        System.arraycopy(buffer, start, line, lineLength, length);
+        lineLength += length;
+    }
+
+    /**
+     * @return the current line as a string
+     */
+    String getLine() {
+        return new String(line, 0, lineLength, CHARSET);
+    }
+
+    /**
+     * @return true if the line starts with the given (ASCII) prefix after any leading white space
+     */
+    boolean startsWith(String prefix) {
+        int i = skipWhiteSpace();
+        if (lineLength - i < prefix.length()) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            if (line[i + k] != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the state number at the start of the line, after any leading white space and the
+     * given prefix. The number must be followed by white space or the end of the line.
+     *
+     * @return the state, or -1 if the line doesn't start with the prefix and a state number
+     */
+    long getState(String prefix) {
+        if (!startsWith(prefix)) {
+            return -1;
+        }
+        int i = skipWhiteSpace() + prefix.length();
+        int start = i;
+        long state = 0;
+        while (i < lineLength && line[i] >= '0' && line[i] <= '9') {
+            state = state * 10 + (line[i] - '0');
+            i++;
+        }
+        if (i == start || (i < lineLength && !isWhiteSpace(line[i]))) {
+            return -1;
+        }
+        return state;
+    }
+
+    /**
+     * @return the number of tab separated fields in the line (not counting trailing empty fields,
+     * as String.split would).
+     */
+    int getFieldCount() {
+        int end = lineLength;
+        while (end > 0 && line[end - 1] == '\t') {
+            end--;
+        }
+        int count = 1;
+        for (int i = 0; i < end; i++) {
+            if (line[i] == '\t') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int skipWhiteSpace() {
+        int i = 0;
+        while (i < lineLength && isWhiteSpace(line[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // the default charset, as FileReader uses
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    private byte[] line = new byte[1024];
+    private int lineLength = 0;
+}
@@ -97,85 +97,41 @@ public class AnnotationAction implements CladeAction {
             }
         }
 
+        AttributeColumns columns = clade.getAttributeColumns();
         int i = 0;
         for (String attributeName : attributeNames) {
-            if (clade.getAttributeValues() != null && !clade.getAttributeValues().isEmpty()) {
-                double[] values = new double[clade.getAttributeValues().size()];
-
-                HashMap<Object, Integer> hashMap = new HashMap<>();
-
-                Object[] v = clade.getAttributeValues().get(0);
-                if (v[i] != null) {
+            if (columns != null && columns.getSampleCount() > 0) {
+                AttributeColumns.Type type = columns.getType(i);
+                if (type != AttributeColumns.Type.NONE) {
 
                     final boolean isHeight = attributeName.equals("height");
-                    boolean isBoolean = v[i] instanceof Boolean;
-
-                    boolean isDiscrete = v[i] instanceof String;
+                    boolean isBoolean = type == AttributeColumns.Type.BOOLEAN;
 
-                    if (forceIntegerToDiscrete && v[i] instanceof Integer) isDiscrete = true;
+                    boolean isDiscrete = type == AttributeColumns.Type.DISCRETE;
 
-                    double minValue = Double.MAX_VALUE;
-                    double maxValue = -Double.MAX_VALUE;
-
-                    final boolean isArray = v[i] instanceof Object[];
-                    boolean isDoubleArray = isArray && ((Object[]) v[i])[0] instanceof Double;
-                    // This is Java, friends - first value type does not imply all.
-                    if (isDoubleArray) {
-                        for (Object n : (Object[]) v[i]) {
-                            if (!(n instanceof Double)) {
-                                isDoubleArray = false;
-                                break;
-                            }
-                        }
-                    }
+                    boolean isDoubleArray = type == AttributeColumns.Type.DOUBLE_ARRAY;
                     // todo Handle other types of arrays
 
+                    double[] values;
                     double[][] valuesArray = null;
-                    double[] minValueArray = null;
-                    double[] maxValueArray = null;
                     int lenArray = 0;
 
-                    if (isDoubleArray) {
-                        lenArray = ((Object[]) v[i]).length;
-
-                        valuesArray = new double[lenArray][clade.getAttributeValues().size()];
-                        minValueArray = new double[lenArray];
-                        maxValueArray = new double[lenArray];
+                    HashMap<Object, Integer> hashMap = null;
 
+                    if (isDoubleArray) {
+                        values = new double[columns.getSampleCount()];
+                        lenArray = columns.getElementCount(i);
+                        valuesArray = new double[lenArray][];
                         for (int k = 0; k < lenArray; k++) {
-                            minValueArray[k] = Double.MAX_VALUE;
-                            maxValueArray[k] = -Double.MAX_VALUE;
+                            valuesArray[k] = columns.getValues(i, k);
                         }
+                    } else {
+                        values = columns.getValues(i);
                     }
-
-                    for (int j = 0; j < clade.getAttributeValues().size(); j++) {
-                        Object value = clade.getAttributeValues().get(j)[i];
-                        if (isDiscrete) {
-                            final Object s = value;
-                            if (hashMap.containsKey(s)) {
-                                hashMap.put(s, hashMap.get(s) + 1);
-                            } else {
-                                hashMap.put(s, 1);
-                            }
-                        } else if (isBoolean) {
-                            values[j] = (((Boolean) value) ? 1.0 : 0.0);
-                        } else if (isDoubleArray) {
-                            // Forcing to Double[] causes a cast exception. MAS
-                            Object[] array = (Object[]) value;
-                            for (int k = 0; k < lenArray; k++) {
-                                valuesArray[k][j] = ((Double) array[k]);
-                                if (valuesArray[k][j] < minValueArray[k]) minValueArray[k] = valuesArray[k][j];
-                                if (valuesArray[k][j] > maxValueArray[k]) maxValueArray[k] = valuesArray[k][j];
-                            }
-                        } else {
-                            // Ignore other (unknown) types
-                            if (value instanceof Number) {
-                                values[j] = ((Number) value).doubleValue();
-                                if (values[j] < minValue) minValue = values[j];
-                                if (values[j] > maxValue) maxValue = values[j];
-                            }
-                        }
+                    if (isDiscrete) {
+                        hashMap = columns.getCounts(i);
                     }
+
                     if (isHeight) {
                         if (heightsOption == TreeAnnotator.HeightsSummary.MEAN_HEIGHTS) {
                             final double mean = DiscreteStatistics.mean(values);
@@ -209,7 +165,7 @@ public class AnnotationAction implements CladeAction {
                                 annotateModeAttribute(tree, node, attributeName, hashMap);
                                 annotateFrequencyAttribute(tree, node, attributeName, hashMap);
                             }
-                            if (!isBoolean && minValue < maxValue && !isDiscrete && !isDoubleArray) {
+                            if (!isBoolean && !isDiscrete && !isDoubleArray && columns.isVariable(i, 0)) {
                                 // Basically, if it is a boolean (0, 1) then we don't need the distribution information
                                 // Likewise if it doesn't vary.
                                 annotateMedianAttribute(tree, node, attributeName + "_median", values);
@@ -232,7 +188,7 @@ public class AnnotationAction implements CladeAction {
                                     want2d = false;
                                 }
                                 for (int k = 0; k < lenArray; k++) {
-                                    if (minValueArray[k] < maxValueArray[k]) {
+                                    if (columns.isVariable(i, k)) {
                                         annotateMedianAttribute(tree, node, name + (k + 1) + "_median", valuesArray[k]);
                                         annotateRangeAttribute(tree, node, name + (k + 1) + "_range", valuesArray[k]);
                                         annotatePositiveProbability(tree, node, name + (k + 1) + "_positiveProb", valuesArray[k]);
@@ -243,8 +199,8 @@ public class AnnotationAction implements CladeAction {
                                 // 2D contours
                                 if (want2d) {
 
-                                    boolean variationInFirst = (minValueArray[0] < maxValueArray[0]);
-                                    boolean variationInSecond = (minValueArray[1] < maxValueArray[1]);
+                                    boolean variationInFirst = columns.isVariable(i, 0);
+                                    boolean variationInSecond = columns.isVariable(i, 1);
 
                                     if (variationInFirst && !variationInSecond)
                                         annotateHPDAttribute(tree, node, name + "1" + "_95%_HPD", 0.95, valuesArray[0]);
@@ -0,0 +1,222 @@
+/*
+ * AttributeColumns.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.tools.treeannotator;
+
+import java.util.HashMap;
+
+/**
+ * The values of the attributes collected for a clade, kept in one column per attribute rather than
+ * as an Object[] of boxed values per tree. The type of each column is decided by the first value
+ * seen, as AnnotationAction always did: numbers and booleans go into a growable double array, arrays
+ * of doubles into one double array per element and discrete values (strings and, optionally,
+ * integers) are just counted.
+ *
+ * @author agent
+ */
+final class AttributeColumns {
+
+    enum Type {
+        NONE,
+        NUMBER,
+        BOOLEAN,
+        DISCRETE,
+        DOUBLE_ARRAY
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    AttributeColumns(int attributeCount, boolean forceIntegerToDiscrete) {
+        this.forceIntegerToDiscrete = forceIntegerToDiscrete;
+        columns = new Column[attributeCount];
+    }
+
+    /**
+     * Adds the values of the attributes (in the order of the attribute names) from one tree.
+     */
+    synchronized void add(Object[] values) {
+        if (capacity == 0 || sampleCount == capacity) {
+            capacity = Math.max(INITIAL_CAPACITY, capacity * 2);
+            for (Column column : columns) {
+                if (column != null) {
+                    column.grow(capacity);
+                }
+            }
+        }
+
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] == null) {
+                columns[i] = createColumn(values[i], capacity);
+            }
+            columns[i].add(sampleCount, values[i]);
+        }
+        sampleCount++;
+    }
+
+    private Column createColumn(Object value, int capacity) {
+        if (value == null) {
+            return new Column(Type.NONE, 0, capacity);
+        }
+        if (value instanceof Boolean) {
+            return new Column(Type.BOOLEAN, 1, capacity);
+        }
+        if (value instanceof String || (forceIntegerToDiscrete && value instanceof Integer)) {
+            return new Column(Type.DISCRETE, 0, capacity);
+        }
+        if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            boolean isDoubleArray = array.length > 0;
+            for (Object n : array) {
+                if (!(n instanceof Double)) {
+                    isDoubleArray = false;
+                    break;
+                }
+            }
+            if (isDoubleArray) {
+                return new Column(Type.DOUBLE_ARRAY, array.length, capacity);
+            }
+        }
+        // other (unknown) types are recorded as zeros
+        return new Column(Type.NUMBER, 1, capacity);
+    }
+
+    int getSampleCount() {
+        return sampleCount;
+    }
+
+    Type getType(int attribute) {
+        return columns[attribute].type;
+    }
+
+    /**
+     * @return the number of elements in a column of arrays (1 for numbers and booleans)
+     */
+    int getElementCount(int attribute) {
+        return columns[attribute].values.length;
+    }
+
+    /**
+     * @return a copy of the values of a number or boolean column, or zeros for a discrete column
+     */
+    double[] getValues(int attribute) {
+        Column column = columns[attribute];
+        if (column.values.length == 0) {
+            return new double[sampleCount];
+        }
+        return getValues(attribute, 0);
+    }
+
+    /**
+     * @return a copy of the values of one element of a column of arrays
+     */
+    double[] getValues(int attribute, int element) {
+        double[] values = new double[sampleCount];
+        System.arraycopy(columns[attribute].values[element], 0, values, 0, sampleCount);
+        return values;
+    }
+
+    /**
+     * @return whether the numerical values of an element of a column are not all the same
+     * (booleans and unknown types are never counted as varying)
+     */
+    boolean isVariable(int attribute, int element) {
+        Column column = columns[attribute];
+        return column.minValues[element] < column.maxValues[element];
+    }
+
+    /**
+     * @return the number of times each value of a discrete column was seen
+     */
+    HashMap<Object, Integer> getCounts(int attribute) {
+        return columns[attribute].counts;
+    }
+
+    private static final class Column {
+        Column(Type type, int elementCount, int capacity) {
+            this.type = type;
+            values = new double[elementCount][capacity];
+            minValues = new double[elementCount];
+            maxValues = new double[elementCount];
+            for (int k = 0; k < elementCount; k++) {
+                minValues[k] = Double.MAX_VALUE;
+                maxValues[k] = -Double.MAX_VALUE;
+            }
+            counts = (type == Type.DISCRETE ? new HashMap<>() : null);
+        }
+
+        void grow(int capacity) {
+            for (int k = 0; k < values.length; k++) {
+                double[] newValues = new double[capacity];
+                System.arraycopy(values[k], 0, newValues, 0, values[k].length);
+                values[k] = newValues;
+            }
+        }
+
+        void add(int sample, Object value) {
+            switch (type) {
+                case NONE:
+                    break;
+                case BOOLEAN:
+                    values[0][sample] = (((Boolean) value) ? 1.0 : 0.0);
+                    break;
+                case DISCRETE:
+                    Integer count = counts.get(value);
+                    counts.put(value, count == null ? 1 : count + 1);
+                    break;
+                case DOUBLE_ARRAY:
+                    Object[] array = (Object[]) value;
+                    for (int k = 0; k < values.length; k++) {
+                        record(k, sample, (Double) array[k]);
+                    }
+                    break;
+                case NUMBER:
+                    // Ignore other (unknown) types
+                    if (value instanceof Number) {
+                        record(0, sample, ((Number) value).doubleValue());
+                    }
+                    break;
+            }
+        }
+
+        private void record(int element, int sample, double value) {
+            values[element][sample] = value;
+            if (value < minValues[element]) minValues[element] = value;
+            if (value > maxValues[element]) maxValues[element] = value;
+        }
+
+        final Type type;
+        final double[][] values;
+        final double[] minValues;
+        final double[] maxValues;
+        final HashMap<Object, Integer> counts;
+    }
+
+    private final boolean forceIntegerToDiscrete;
+    private final Column[] columns;
+    private int sampleCount = 0;
+    private int capacity = 0;
+}
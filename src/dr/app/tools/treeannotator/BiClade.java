@@ -118,15 +118,20 @@ class BiClade implements Clade {
     }
 
     @Override
-    public void addAttributeValues(Object[] values) {
-        synchronized (attributeValues) {
-            attributeValues.add(values);
+    public void addAttributeValues(Object[] values, boolean forceIntegerToDiscrete) {
+        AttributeColumns columns;
+        synchronized (this) {
+            if (attributeColumns == null) {
+                attributeColumns = new AttributeColumns(values.length, forceIntegerToDiscrete);
+            }
+            columns = attributeColumns;
         }
+        columns.add(values);
     }
 
     @Override
-    public List<Object[]> getAttributeValues() {
-        return attributeValues;
+    public AttributeColumns getAttributeColumns() {
+        return attributeColumns;
     }
 
     @Override
@@ -164,20 +169,7 @@ class BiClade implements Clade {
     }
 
     public static Object makeKey(Object key1, Object key2) {
-        BitSet bits = new BitSet();
-        if (key1 instanceof Integer) {
-            bits.set((Integer) key1);
-        } else {
-            assert key1 instanceof BitSet;
-            bits.or((BitSet) key1);
-        }
-        if (key2 instanceof Integer) {
-            bits.set((Integer) key2);
-        } else {
-            assert key2 instanceof BitSet;
-            bits.or((BitSet) key2);
-        }
-        return bits;
+        return CladeKey.combine(key1, key2);
     }
 
 //    public boolean equals(Object o) {
@@ -214,5 +206,6 @@ class BiClade implements Clade {
 
     double bestSubTreeScore = Double.NaN;
 
-    private final List<Object[]> attributeValues = new ArrayList<>();
+    // only created for the clades that values are collected for
+    private AttributeColumns attributeColumns = null;
 }
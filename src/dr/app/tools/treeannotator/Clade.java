@@ -29,8 +29,6 @@ package dr.app.tools.treeannotator;
 
 import dr.evolution.util.Taxon;
 
-import java.util.List;
-
 /**
  * @author Andrew Rambaut
  * @version $
@@ -55,8 +53,8 @@ public interface Clade {
 
     Object getKey();
 
-    void addAttributeValues(Object[] values);
+    void addAttributeValues(Object[] values, boolean forceIntegerToDiscrete);
 
-    List<Object[]> getAttributeValues();
+    AttributeColumns getAttributeColumns();
 
 }
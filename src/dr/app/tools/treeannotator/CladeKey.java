@@ -0,0 +1,100 @@
+/*
+ * CladeKey.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.tools.treeannotator;
+
+/**
+ * A compact, fixed size key for a clade. Each tip is given a pseudo-random 128 bit value and the
+ * key of a clade is the sum (modulo 2^64 in each half) of the values of its tips, so the key of a
+ * parent is just the sum of the keys of its children and can be made without knowing which tips
+ * are below it. Two different sets of tips share a key with probability about 2^-128, which is
+ * negligible even for billions of clades. This replaces a BitSet of the tips which takes n / 8 bytes
+ * per clade and has to be copied and OR-ed at every node.
+ *
+ * @author agent
+ */
+final class CladeKey {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private CladeKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Makes the key of a clade from the keys of its two children. A key is either an Integer (the
+     * index of a tip) or a CladeKey.
+     */
+    static CladeKey combine(Object key1, Object key2) {
+        return new CladeKey(getHigh(key1) + getHigh(key2), getLow(key1) + getLow(key2));
+    }
+
+    private static long getHigh(Object key) {
+        if (key instanceof Integer) {
+            return mix(GOLDEN_GAMMA * (2L * (Integer) key + 1));
+        }
+        return ((CladeKey) key).high;
+    }
+
+    private static long getLow(Object key) {
+        if (key instanceof Integer) {
+            return mix(GOLDEN_GAMMA * (2L * (Integer) key + 2));
+        }
+        return ((CladeKey) key).low;
+    }
+
+    /**
+     * The SplitMix64 finalizer - a bijection so distinct tips get distinct values.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CladeKey)) return false;
+        CladeKey key = (CladeKey) o;
+        return high == key.high && low == key.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    private final long high;
+    private final long low;
+}
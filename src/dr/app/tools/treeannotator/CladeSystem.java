@@ -37,6 +37,7 @@ import dr.stats.DiscreteStatistics;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Andrew Rambaut
@@ -44,7 +45,7 @@ import java.util.concurrent.*;
  */
 public final class CladeSystem {
     private final boolean keepSubClades;
-    private double treeCount = 0;
+    private final AtomicInteger treeCount = new AtomicInteger(0);
 
     /**
      * Constructor starting with an empty clade system
@@ -73,7 +74,7 @@ public final class CladeSystem {
             }
         }
 
-        if (treeCount == 0) {
+        if (treeCount.get() == 0) {
             // these will always be the same so create them once
             synchronized (tipClades) {
                 addTipClades(tree);
@@ -90,7 +91,7 @@ public final class CladeSystem {
         assert rootClade == this.rootClade;
         assert rootClade.getSize() == tree.getExternalNodeCount();
 
-        treeCount += 1;
+        treeCount.incrementAndGet();
     }
 
     public void setTaxonList(TaxonList taxonList) {
@@ -138,9 +139,7 @@ public final class CladeSystem {
 
             Clade clade1 = addClades(tree, tree.getChild(node, 0));
             Clade clade2 = addClades(tree, tree.getChild(node, 1));
-            synchronized (cladeMap) {
-                clade = getOrAddClade(clade1, clade2);
-            }
+            clade = getOrAddClade(clade1, clade2);
         }
         assert clade != null;
 
@@ -152,23 +151,28 @@ public final class CladeSystem {
     }
 
     /**
-     * see if a clade exists otherwise create it
+     * see if a clade exists otherwise create it. The clade map is concurrent so trees can be added
+     * from many threads without locking the whole map.
      */
     private Clade getOrAddClade(Clade child1, Clade child2) {
         Object key = BiClade.makeKey(child1.getKey(), child2.getKey());
         BiClade clade = (BiClade) cladeMap.get(key);
         if (clade == null) {
+            BiClade newClade;
             if (keepSubClades) {
-                clade = new BiClade(child1, child2);
+                newClade = new BiClade(child1, child2);
             } else {
-                clade = new BiClade(key, child1.getSize() + child2.getSize());
+                newClade = new BiClade(key, child1.getSize() + child2.getSize());
             }
-            cladeMap.put(clade.getKey(), clade);
-        } else {
+            clade = (BiClade) cladeMap.putIfAbsent(key, newClade);
+            if (clade == null) {
+                return newClade;
+            }
+        }
+
+        if (keepSubClades) {
             synchronized (clade) {
-                if (keepSubClades) {
-                    clade.addSubClades(child1, child2);
-                }
+                clade.addSubClades(child1, child2);
             }
         }
 
@@ -182,6 +186,32 @@ public final class CladeSystem {
         return cladeMap.get(key);
     }
 
+    /**
+     * Returns the keys of all the clades in a tree (including the tips) as they would be made by
+     * this clade system, whether or not the clades are in it.
+     */
+    public Set<Object> getCladeKeys(Tree tree) {
+        Set<Object> keys = new HashSet<>();
+        getCladeKeys(tree, tree.getRoot(), keys);
+        return keys;
+    }
+
+    private Object getCladeKeys(Tree tree, NodeRef node, Set<Object> keys) {
+        Object key;
+        if (tree.isExternal(node)) {
+            key = node.getNumber();
+            if (taxonNumberMap != null) {
+                key = taxonNumberMap.get(tree.getNodeTaxon(node));
+            }
+        } else {
+            Object key1 = getCladeKeys(tree, tree.getChild(node, 0), keys);
+            Object key2 = getCladeKeys(tree, tree.getChild(node, 1), keys);
+            key = BiClade.makeKey(key1, key2);
+        }
+        keys.add(key);
+        return key;
+    }
+
     public void traverseTree(Tree tree, CladeAction action) {
         traverseTree(tree, tree.getRoot(), action);
     }
@@ -410,7 +440,7 @@ public final class CladeSystem {
     private final Map<Taxon, Integer> taxonNumberMap = new HashMap<>();
 
     private final Map<Object, Clade> tipClades = new HashMap<>();
-    private final Map<Object, Clade> cladeMap = new HashMap<>();
+    private final Map<Object, Clade> cladeMap = new ConcurrentHashMap<>();
 
     Clade rootClade;
 
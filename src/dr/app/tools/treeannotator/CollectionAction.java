@@ -36,6 +36,12 @@ import java.util.Set;
 
 class CollectionAction implements CladeAction {
     private final Set<String> attributeNames = new HashSet<>();
+    private final boolean forceIntegerToDiscrete;
+    private Set<Object> cladeKeys = null;
+
+    CollectionAction(boolean forceIntegerToDiscrete) {
+        this.forceIntegerToDiscrete = forceIntegerToDiscrete;
+    }
 
     public void addAttributeName(String attributeName) {
         this.attributeNames.add(attributeName);
@@ -44,8 +50,21 @@ class CollectionAction implements CladeAction {
         this.attributeNames.addAll(attributeNames);
     }
 
+    /**
+     * Restricts the collection to the clades with the given keys (usually those in the target
+     * tree) so that values are not kept for every clade in every tree.
+     *
+     * @param cladeKeys the keys or null to collect for all clades
+     */
+    public void setCladeKeys(Set<Object> cladeKeys) {
+        this.cladeKeys = cladeKeys;
+    }
+
     @Override
     public void actOnClade(Clade clade, Tree tree, NodeRef node) {
+        if (cladeKeys != null && !cladeKeys.contains(clade.getKey())) {
+            return;
+        }
         collectAttributesForClade(clade, attributeNames, tree, node);
     }
 
@@ -73,6 +92,6 @@ class CollectionAction implements CladeAction {
             values[i] = value;
             i++;
         }
-        clade.addAttributeValues(values);
+        clade.addAttributeValues(values, forceIntegerToDiscrete);
     }
 }
@@ -0,0 +1,337 @@
+/*
+ * ParallelTreeReader.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.app.tools.treeannotator;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.Tree;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads the trees in a NEXUS trees file using a pool of threads. The calling thread only splits the
+ * file into tree statements (and works out the burn-in from the tree names) and hands chunks of
+ * statements to the pool. Each chunk is parsed by its own NexusImporter, after the header of the
+ * file (the taxa block and the translate table) so the trees are numbered exactly as they would be
+ * if the file was read by a single importer. Trees in the burn-in are never parsed.
+ *
+ * @author agent
+ */
+final class ParallelTreeReader {
+
+    interface TreeHandler {
+        /**
+         * Called for each tree after the burn-in. The first tree used is handled on the calling thread
+         * before any others, after that trees are handled concurrently and in no particular order.
+         *
+         * @param index the number of the tree in the file (starting at 0)
+         * @param tree  the tree
+         */
+        void handleTree(int index, Tree tree);
+    }
+
+    // the minimum size of a chunk in characters and as a multiple of the size of the header
+    private static final int MIN_CHUNK_SIZE = 1 << 22;
+    private static final int HEADER_CHUNK_FACTOR = 16;
+
+    private static final int MAX_CHUNK_TREES = 256;
+
+    /**
+     * @param fileName           the trees file
+     * @param ignoreMetaComments whether to ignore the attributes in the trees
+     * @param threadCount        the number of threads (<= 0 for the number of processors)
+     */
+    ParallelTreeReader(String fileName, boolean ignoreMetaComments, int threadCount) {
+        this.fileName = fileName;
+        this.ignoreMetaComments = ignoreMetaComments;
+        this.threadCount = (threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Print a '*' to the stream every stepSize trees read (including those in the burn-in).
+     */
+    void setProgressStream(PrintStream progressStream, long stepSize) {
+        this.progressStream = progressStream;
+        this.stepSize = stepSize;
+    }
+
+    /**
+     * Reads all the trees. The burn-in can be given as a number of trees or a number of states (or
+     * both in which case both must be passed). The state is read from tree names of the form STATE_n.
+     *
+     * @return the number of trees in the file
+     */
+    int read(int burninTrees, long burninStates, TreeHandler handler) throws IOException, Importer.ImportException {
+        treeCount = 0;
+        usedTreeCount = 0;
+        burnin = -1;
+        firstTree = null;
+
+        ExecutorService pool = (threadCount > 1 ? Executors.newFixedThreadPool(threadCount) : null);
+        // limit the number of chunks waiting to be parsed so the file isn't read into memory
+        Semaphore available = new Semaphore(threadCount * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            StringBuilder header = new StringBuilder();
+            StringBuilder statement = null;
+            StringBuilder chunk = new StringBuilder();
+            int chunkStart = -1;
+            int chunkTreeCount = 0;
+            int chunkSize = MIN_CHUNK_SIZE;
+
+            boolean inTreesBlock = false;
+            boolean headerRead = false;
+
+            String line;
+            while ((line = reader.readLine()) != null && failure.get() == null) {
+                String trimmed = line.trim();
+
+                if (statement == null) {
+                    String lower = trimmed.toLowerCase();
+                    if (!inTreesBlock) {
+                        if (lower.startsWith("begin trees")) {
+                            inTreesBlock = true;
+                        }
+                        header.append(line).append('\n');
+                        continue;
+                    }
+                    if (lower.startsWith("end;") || lower.startsWith("endblock;")) {
+                        break;
+                    }
+                    if (!lower.startsWith("tree ") && !lower.startsWith("utree ")) {
+                        if (!headerRead) {
+                            // the translate table and anything else before the first tree
+                            header.append(line).append('\n');
+                        }
+                        continue;
+                    }
+                    if (!headerRead) {
+                        headerRead = true;
+                        chunkSize = Math.max(MIN_CHUNK_SIZE, header.length() * HEADER_CHUNK_FACTOR);
+                    }
+                    statement = new StringBuilder();
+                }
+
+                statement.append(line).append('\n');
+                if (!trimmed.endsWith(";")) {
+                    // the statement continues on the next line
+                    continue;
+                }
+
+                int index = treeCount;
+                treeCount++;
+
+                boolean isUsed = false;
+                if (index >= burninTrees) {
+                    long state = 0;
+                    if (burninStates > 0) {
+                        state = getState(statement);
+                    }
+                    isUsed = state >= burninStates;
+                }
+
+                if (index == 0 || (isUsed && burnin < 0)) {
+                    // the first tree in the file is kept (for the taxa) and the first tree used is
+                    // handled on this thread before any others
+                    Tree tree = parse(header, statement, 1).get(0);
+                    if (index == 0) {
+                        firstTree = tree;
+                    }
+                    if (isUsed) {
+                        burnin = index;
+                        handler.handleTree(index, tree);
+                        usedTreeCount++;
+                    }
+                } else if (isUsed) {
+                    if (chunkStart < 0) {
+                        chunkStart = index;
+                    }
+                    chunk.append(statement);
+                    chunkTreeCount++;
+                    usedTreeCount++;
+                }
+                statement = null;
+
+                if (chunkTreeCount > 0 && (chunk.length() >= chunkSize || chunkTreeCount >= MAX_CHUNK_TREES)) {
+                    submit(pool, available, futures, failure, header, chunk, chunkStart, chunkTreeCount, handler);
+                    chunk = new StringBuilder();
+                    chunkStart = -1;
+                    chunkTreeCount = 0;
+                }
+
+                if (progressStream != null && index > 0 && index % stepSize == 0) {
+                    progressStream.print("*");
+                    progressStream.flush();
+                }
+            }
+
+            if (chunkTreeCount > 0 && failure.get() == null) {
+                submit(pool, available, futures, failure, header, chunk, chunkStart, chunkTreeCount, handler);
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // the failure is reported below
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            reader.close();
+        }
+
+        Throwable t = failure.get();
+        if (t != null) {
+            if (t instanceof Importer.ImportException) {
+                throw (Importer.ImportException) t;
+            }
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            throw new RuntimeException(t);
+        }
+
+        return treeCount;
+    }
+
+    private void submit(ExecutorService pool, Semaphore available, List<Future<?>> futures,
+                        AtomicReference<Throwable> failure, CharSequence header, CharSequence chunk,
+                        int chunkStart, int chunkTreeCount, TreeHandler handler) throws InterruptedException {
+        Runnable task = () -> {
+            try {
+                List<Tree> trees = parse(header, chunk, chunkTreeCount);
+                for (int i = 0; i < trees.size(); i++) {
+                    handler.handleTree(chunkStart + i, trees.get(i));
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                available.release();
+            }
+        };
+
+        available.acquire();
+        if (pool != null) {
+            futures.add(pool.submit(task));
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Parses a chunk of tree statements by putting them in a trees block after the header.
+     */
+    private List<Tree> parse(CharSequence header, CharSequence statements, int expectedCount)
+            throws IOException, Importer.ImportException {
+        StringBuilder document = new StringBuilder(header.length() + statements.length() + 8);
+        document.append(header).append(statements).append("End;\n");
+
+        NexusImporter importer = new NexusImporter(new StringReader(document.toString()), ignoreMetaComments);
+        List<Tree> trees = new ArrayList<>(expectedCount);
+        while (importer.hasTree()) {
+            trees.add(importer.importNextTree());
+        }
+        if (trees.size() != expectedCount) {
+            throw new Importer.ImportException("Expected " + expectedCount + " trees but read " + trees.size());
+        }
+        return trees;
+    }
+
+    /**
+     * @return the state from a tree name of the form STATE_n or 1 if the name isn't of that form
+     */
+    private static long getState(CharSequence statement) {
+        String text = statement.toString().trim();
+        // skip the 'tree' or 'utree' and any white space
+        int start = text.indexOf(' ');
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        int end = start;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end)) && text.charAt(end) != '=') {
+            end++;
+        }
+        String name = text.substring(start, end).replace("'", "").replace("\"", "");
+        if (name.startsWith("STATE_")) {
+            try {
+                return Long.parseLong(name.split("_")[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                return 1;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return the first tree in the file
+     */
+    Tree getFirstTree() {
+        return firstTree;
+    }
+
+    /**
+     * @return the number of the first tree used (i.e., the number of trees in the burn-in) or -1 if
+     * no trees were used.
+     */
+    int getBurnin() {
+        return burnin;
+    }
+
+    int getTreeCount() {
+        return treeCount;
+    }
+
+    int getUsedTreeCount() {
+        return usedTreeCount;
+    }
+
+    private final String fileName;
+    private final boolean ignoreMetaComments;
+    private final int threadCount;
+
+    private PrintStream progressStream = null;
+    private long stepSize = 1;
+
+    private int treeCount;
+    private int usedTreeCount;
+    private int burnin;
+    private Tree firstTree;
+}
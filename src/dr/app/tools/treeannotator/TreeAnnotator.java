@@ -51,10 +51,6 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 /**
  * @author Andrew Rambaut
@@ -137,7 +133,7 @@ public class TreeAnnotator extends BaseTreeTool {
 
         long totalStartTime = System.currentTimeMillis();
 
-        collectionAction = new CollectionAction();
+        collectionAction = new CollectionAction(true);
 
         collectionAction.addAttributeName("height");
         collectionAction.addAttributeName("length");
@@ -219,7 +215,7 @@ public class TreeAnnotator extends BaseTreeTool {
             progressStream.println();
         }
 
-        collectNodeAttributes(cladeSystem, inputFileName, burnin);
+        collectNodeAttributes(cladeSystem, targetTree, inputFileName, burnin);
 
         annotateTargetTree(cladeSystem, heightsOption, targetTree);
 
@@ -270,96 +266,17 @@ public class TreeAnnotator extends BaseTreeTool {
         startTime = System.currentTimeMillis();
 
         try {
-            // read the first tree using NexusImport to get the taxon list and tip number to taxon mapping
-//            Reader reader = new BufferedReader(new FileReader(inputFileName));
-//            NexusImporter nexusImporter = new NexusImporter(reader, true);
-//            taxa = nexusImporter.importTree(null);
-//
-//            reader = new BufferedReader(new FileReader(inputFileName));
-//            BEASTTreesImporter importer = new BEASTTreesImporter(reader, false);
-//            importer.setTaxonList(taxa);
-
-            Reader reader = new BufferedReader(new FileReader(inputFileName));
-            NexusImporter importer = new NexusImporter(reader, true);
-
-            ExecutorService pool;
-            List<Future<?>> futures;
-            if (THREADED_READING) {
-                if (threadCount <= 0) {
-                    pool = Executors.newCachedThreadPool();
-                } else {
-                    pool = Executors.newFixedThreadPool(threadCount);
-                }
-                futures = new ArrayList<>();
-            }
-            totalTrees = 0;
-            boolean firstTree = true;
-            while (importer.hasTree()) {
-                final Tree tree = importer.importNextTree();
-                long state = 0;
-
-                if (taxa == null) {
-                    taxa = new Taxa(tree);
-                }
-
-                if (burninStates > 0) {
-                    // if burnin has been specified in states, try to parse it out...
-                    String name = tree.getId().trim();
-
-                    long maxState;
-                    if (name.startsWith("STATE_")) {
-                        state = Long.parseLong(name.split("_")[1]);
-                        maxState = state;
-                    } else {
-                        maxState = state;
-                        state += 1;
-                    }
-                }
-
-                if (totalTrees >= burninTrees && state >= burninStates) {
-                    // if either of the two burnin thresholds have been reached...
-
-                    if (burnin < 0) {
-                        // if this is the first time this point has been reached,
-                        // record the number of trees this represents for future use...
-                        burnin = totalTrees;
-                    }
-
-                    if (firstTree) {
-                        // for the first tree do it outside a thread
-                        cladeSystem.add(tree);
-                        firstTree = false;
-                    } else {
-                        if (THREADED_READING) {
-                            futures.add(pool.submit(() -> {
-                                cladeSystem.add(tree);
-                            }));
-                        } else {
-                            cladeSystem.add(tree);
-                        }
-                    }
-                    totalTreesUsed += 1;
-                }
-
-                if (totalTrees > 0 && totalTrees % stepSize == 0) {
-                    progressStream.print("*");
-                    progressStream.flush();
-                }
-                totalTrees++;
-            }
-
-            if (THREADED_READING) {
-                try {
-                    // wait for all the threads to run to completion
-                    for (Future<?> f : futures) {
-                        f.get();
-                    }
-                } catch (InterruptedException | ExecutionException e) {
-                    throw new RuntimeException(e);
-                }
+            // the trees are parsed in parallel, the first one used is added before any others so the
+            // clade system can set up its tips
+            ParallelTreeReader reader = new ParallelTreeReader(inputFileName, true, getReadingThreadCount());
+            reader.setProgressStream(progressStream, stepSize);
+            totalTrees = reader.read(burninTrees, burninStates, (index, tree) -> cladeSystem.add(tree));
+            totalTreesUsed = reader.getUsedTreeCount();
+            burnin = reader.getBurnin();
+
+            if (reader.getFirstTree() != null) {
+                taxa = new Taxa(reader.getFirstTree());
             }
-
-            reader.close();
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             System.exit(1);
@@ -381,7 +298,7 @@ public class TreeAnnotator extends BaseTreeTool {
         return burnin;
     }
 
-    private void collectNodeAttributes(CladeSystem cladeSystem, String inputFileName, int burnin) throws IOException {
+    private void collectNodeAttributes(CladeSystem cladeSystem, Tree targetTree, String inputFileName, int burnin) throws IOException {
         progressStream.println("Collecting node information...");
         progressStream.println("0              25             50             75            100");
         progressStream.println("|--------------|--------------|--------------|--------------|");
@@ -389,65 +306,22 @@ public class TreeAnnotator extends BaseTreeTool {
         int stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
-        Reader reader = new BufferedReader(new FileReader(inputFileName));
-//         TreeImporter importer = new BEASTTreesImporter(reader, true);
-        TreeImporter importer = new NexusImporter(reader, false);
+        // only the clades in the target tree get annotated so only collect values for those
+        collectionAction.setCladeKeys(cladeSystem.getCladeKeys(targetTree));
 
         long startTime = System.currentTimeMillis();
 
-        totalTreesUsed = 0;
         try {
-            ExecutorService pool;
-            List<Future<?>> futures;
-            if (THREADED_READING) {
-                if (threadCount <= 0) {
-                    pool = Executors.newCachedThreadPool();
-                } else {
-                    pool = Executors.newFixedThreadPool(threadCount);
-                }
-
-                futures = new ArrayList<>();
-            }
-
-            boolean firstTree = true;
-            int counter = 0;
-
-            while (importer.hasTree()) {
-                final Tree tree = importer.importNextTree();
-
-                if (counter >= burnin) {
-                    if (firstTree) {
-                        setupAttributes(tree);
-                        firstTree = false;
-                    }
-
-                    if (THREADED_READING) {
-                        futures.add(pool.submit(() -> {
-                            cladeSystem.traverseTree(tree, collectionAction);
-                        }));
-                    } else {
-                        cladeSystem.traverseTree(tree, collectionAction);
-                    }
-                    totalTreesUsed += 1;
-                }
-                if (counter > 0 && counter % stepSize == 0) {
-                    progressStream.print("*");
-                    progressStream.flush();
+            ParallelTreeReader reader = new ParallelTreeReader(inputFileName, false, getReadingThreadCount());
+            reader.setProgressStream(progressStream, stepSize);
+            reader.read(burnin, 0, (index, tree) -> {
+                if (index == burnin) {
+                    // the first tree is handled before any others
+                    setupAttributes(tree);
                 }
-                counter++;
-
-            }
-
-            if (THREADED_READING) {
-                try {
-                    // wait for all the threads to run to completion
-                    for (Future<?> f : futures) {
-                        f.get();
-                    }
-                } catch (InterruptedException | ExecutionException e) {
-                    throw new RuntimeException(e);
-                }
-            }
+                cladeSystem.traverseTree(tree, collectionAction);
+            });
+            totalTreesUsed = reader.getUsedTreeCount();
 
             cladeSystem.calculateCladeCredibilities(totalTreesUsed);
         } catch (Importer.ImportException e) {
@@ -457,7 +331,10 @@ public class TreeAnnotator extends BaseTreeTool {
         long timeElapsed =  (System.currentTimeMillis() - startTime) / 1000;
         progressStream.println("* [" + timeElapsed + " secs]");
         progressStream.println();
-        reader.close();
+    }
+
+    private int getReadingThreadCount() {
+        return THREADED_READING ? threadCount : 1;
     }
 
     public void setupAttributes(Tree tree) {
@@ -522,8 +399,9 @@ public class TreeAnnotator extends BaseTreeTool {
 
         long startTime = System.currentTimeMillis();
 
-        Tree bestTree = null;
-        double bestScore = Double.NEGATIVE_INFINITY;
+        final Tree[] bestTree = {null};
+        final double[] bestScore = {Double.NEGATIVE_INFINITY};
+        final int[] bestTreeNumber = {0};
 
         progressStream.println("Analyzing " + totalTreesUsed + " trees...");
         progressStream.println("0              25             50             75            100");
@@ -532,29 +410,22 @@ public class TreeAnnotator extends BaseTreeTool {
         int stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
-        int counter = 0;
-        int bestTreeNumber = 0;
 //        TreeImporter importer = new BEASTTreesImporter(new FileReader(inputFileName), false);
-        TreeImporter importer = new NexusImporter(new FileReader(inputFileName), true);
         try {
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
-
-                if (counter >= burnin) {
-                    double score = scoreTree(tree, cladeSystem);
-//                    progressStream.println(score);
-                    if (score > bestScore) {
-                        bestTree = tree;
-                        bestScore = score;
-                        bestTreeNumber = counter + 1;
+            ParallelTreeReader reader = new ParallelTreeReader(inputFileName, true, getReadingThreadCount());
+            reader.setProgressStream(progressStream, stepSize);
+            reader.read(burnin, 0, (index, tree) -> {
+                double score = scoreTree(tree, cladeSystem);
+                synchronized (bestTree) {
+                    // the trees are scored in no particular order so of equal scores, keep the first
+                    if (score > bestScore[0] ||
+                            (score == bestScore[0] && bestTree[0] != null && index + 1 < bestTreeNumber[0])) {
+                        bestTree[0] = tree;
+                        bestScore[0] = score;
+                        bestTreeNumber[0] = index + 1;
                     }
                 }
-                if (counter > 0 && counter % stepSize == 0) {
-                    progressStream.print("*");
-                    progressStream.flush();
-                }
-                counter++;
-            }
+            });
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             System.exit(1);
@@ -563,13 +434,13 @@ public class TreeAnnotator extends BaseTreeTool {
         long timeElapsed =  (System.currentTimeMillis() - startTime) / 1000;
         progressStream.println("* [" + timeElapsed + " secs]");
         progressStream.println();
-        progressStream.println("Best tree: " + bestTree.getId() + " (tree number " + bestTreeNumber + ")");
-        progressStream.println("Best tree's log clade credibility: " + String.format("%.4f", bestScore));
-        reportStatistics(cladeSystem, bestTree);
-//        reportStatisticTables(cladeSystem, bestTree);
+        progressStream.println("Best tree: " + bestTree[0].getId() + " (tree number " + bestTreeNumber[0] + ")");
+        progressStream.println("Best tree's log clade credibility: " + String.format("%.4f", bestScore[0]));
+        reportStatistics(cladeSystem, bestTree[0]);
+//        reportStatisticTables(cladeSystem, bestTree[0]);
         progressStream.println();
 
-        return bestTree;
+        return bestTree[0];
     }
 
     private MutableTree getHIPSTRTree(CladeSystem cladeSystem) {
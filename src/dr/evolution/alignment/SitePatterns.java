@@ -36,6 +36,7 @@ import dr.evolution.util.TaxonList;
 import dr.util.Pair;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 import static dr.evolution.alignment.SitePatterns.CompressionType.*;
 
@@ -67,6 +68,11 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     public static final int MINIMUM_UNAMBIGUOUS = 2;
 
+    // the number of sites read as a block by one thread and the number of sites above which
+    // the blocks are read in parallel
+    private static final int SITE_BLOCK_SIZE = 1024;
+    private static final int PARALLEL_SITE_THRESHOLD = 4 * SITE_BLOCK_SIZE;
+
     private final boolean isCompressed;
 
     /**
@@ -265,6 +271,8 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             System.err.println("Creating SitePatterns using compression type: " + compression.toString());
         }
 
+        PatternIndex patternIndex = (compression != UNCOMPRESSED ? new PatternIndex(siteCount) : null);
+
         if (compression == AMBIGUOUS_CONSTANT || compression == AMBIGUOUS_UNIQUE) {
             // if the patterns are to be compressed then create the constant sites initially
             for (int i = 0; i < siteList.getStateCount(); i++) {
@@ -272,34 +280,37 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
                 for (int j = 0; j < siteList.getPatternLength(); j++) {
                     pattern[j] = i;
                 }
-                addPattern(pattern, constantSiteCounts != null ? constantSiteCounts[i] : 0, null);
+                addPattern(pattern, hashPattern(pattern), constantSiteCounts != null ? constantSiteCounts[i] : 0, patternIndex);
             }
         }
 
-        int site = 0;
         int count = 0;
 
-        for (int i = from; i <= to; i += every) {
-            int[] pattern = siteList.getSitePattern(i);
-            double weight = siteList.getPatternWeight(i);
-
-            if (uncertainSites) {
+        if (uncertainSites) {
+            int site = 0;
+            for (int i = from; i <= to; i += every) {
+                int[] pattern = siteList.getSitePattern(i);
+                double weight = siteList.getPatternWeight(i);
                 sitePatternIndices[site] = addUncertainPattern(pattern, weight, siteList.getUncertainSitePattern(i));
-            } else{
-                // @todo - what is `strip` being used for?
-                if (!strip || !isInvariant(pattern, false) ||
-                        (!isGapped(pattern) &&
-                                !isAmbiguous(pattern) &&
-                                !isUnknown(pattern))) {
-
-                    sitePatternIndices[site] = addPattern(pattern, weight, compression);
-
+                site++;
+            }
+        } else {
+            int n = ((to - from) / every) + 1;
+            int[][] sitePatterns = new int[n][];
+            double[] siteWeights = new double[n];
+            int[] siteHashes = new int[n];
+            extractSitePatterns(siteList, from, every, strip, sitePatterns, siteWeights, siteHashes);
+
+            // the patterns are added in site order so the pattern indices are the same
+            // as if they had been added one at a time
+            for (int site = 0; site < n; site++) {
+                if (sitePatterns[site] != null) {
+                    sitePatternIndices[site] = addPattern(sitePatterns[site], siteHashes[site], siteWeights[site], patternIndex);
                     count += 1;
                 } else {
                     sitePatternIndices[site] = -1;
                 }
             }
-            site++;
         }
 
         if (DEBUG) {
@@ -352,21 +363,52 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
     }
 
     /**
-     * adds a pattern to the pattern list with the given weight
+     * Reads the patterns of the sites from, from + every, ... into sitePatterns along with their
+     * weights and hashes. Sites that are to be stripped are left as null. Large alignments are
+     * read in blocks of sites in parallel.
+     */
+    private void extractSitePatterns(final SiteList siteList, final int from, final int every, final boolean strip,
+                                     final int[][] sitePatterns, final double[] siteWeights, final int[] siteHashes) {
+        final int n = sitePatterns.length;
+        IntStream blocks = IntStream.range(0, (n + SITE_BLOCK_SIZE - 1) / SITE_BLOCK_SIZE);
+        if (n >= PARALLEL_SITE_THRESHOLD) {
+            blocks = blocks.parallel();
+        }
+        blocks.forEach(block -> {
+            int end = Math.min(n, (block + 1) * SITE_BLOCK_SIZE);
+            for (int site = block * SITE_BLOCK_SIZE; site < end; site++) {
+                int i = from + site * every;
+                int[] pattern = siteList.getSitePattern(i);
+
+                // @todo - what is `strip` being used for?
+                if (!strip || !isInvariant(pattern, false) ||
+                        (!isGapped(pattern) &&
+                                !isAmbiguous(pattern) &&
+                                !isUnknown(pattern))) {
+                    sitePatterns[site] = pattern;
+                    siteWeights[site] = siteList.getPatternWeight(i);
+                    siteHashes[site] = hashPattern(pattern);
+                }
+            }
+        });
+    }
+
+    /**
+     * adds a pattern to the pattern list with the given weight. If an index is given then
+     * this is used to find an identical pattern already in the list to add the weight to.
      *
      * @return the index of the pattern in the pattern list
      */
-    private int addPattern(int[] pattern, double weight, CompressionType compression) {
+    private int addPattern(int[] pattern, int hash, double weight, PatternIndex patternIndex) {
 
-        if (compression != UNCOMPRESSED) {
+        if (patternIndex != null) {
             // this will compress unique patterns, further compression of ambiguously similar
             // patterns is done in a later step
-            for (int i = 0; i < patternCount; i++) {
-                if (comparePatterns(patterns[i], pattern, false)) {
-                    patterns[i] = pattern;
-                    weights[i] += weight;
-                    return i;
-                }
+            int i = patternIndex.find(patterns, pattern, hash);
+            if (i >= 0) {
+                patterns[i] = pattern;
+                weights[i] += weight;
+                return i;
             }
         }
 
@@ -375,6 +417,10 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         patterns[index] = pattern;
         weights[index] = weight;
 
+        if (patternIndex != null) {
+            patternIndex.add(index, hash);
+        }
+
         patternCount++;
 
         return index;
@@ -441,29 +487,60 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         }
     }
 
+    /**
+     * Merges each pattern into the first earlier pattern that it matches once ambiguities are
+     * allowed for (or only into the constant patterns if constantOnly is true). In the unique case
+     * the earlier patterns are indexed by their states at a few anchor sites so only those that can
+     * possibly match are compared.
+     */
     private void compressAmbiguousPatterns(boolean constantOnly, double ambiguityThreshold) {
         int minimumUnambiguous = (int)((1.0 - ambiguityThreshold) * getPatternLength());
         minimumUnambiguous = Math.min(minimumUnambiguous, 2);
 
+        int[] canonicalStateCounts = new int[patternCount];
+        for (int i = 0; i < patternCount; i++) {
+            canonicalStateCounts[i] = getCanonicalStateCount(patterns[i]);
+        }
+
+        AmbiguousPatternIndex index = null;
+        if (!constantOnly) {
+            index = new AmbiguousPatternIndex();
+            for (int j = 0; j < getStateCount(); j++) {
+                index.add(j);
+            }
+        }
+
         // the first stateCount patterns are the constant ones
         for (int i = getStateCount(); i < patternCount; i++) {
-            int count = constantOnly ? getStateCount() : i;
-            for (int j = 0; j < count; j++) {
-                if (patterns[j] != null) {
-                    // the pattern should have at least 2 non-ambiguous characters
-                    if (getCanonicalStateCount(patterns[i]) >= minimumUnambiguous &&
-                            comparePatterns(patterns[i], patterns[j], true)) {
-                        if (!constantOnly && getCanonicalStateCount(patterns[i]) > getCanonicalStateCount(patterns[j])) {
-                            // if this is a less ambiguous pattern then this becomes the 'type' pattern
-                            patterns[j] = patterns[i];
+            int match = -1;
+            // the pattern should have at least 2 non-ambiguous characters
+            if (canonicalStateCounts[i] >= minimumUnambiguous) {
+                if (constantOnly) {
+                    for (int j = 0; j < getStateCount(); j++) {
+                        if (comparePatterns(patterns[i], patterns[j], true)) {
+                            match = j;
+                            break;
                         }
-                        weights[j] += weights[i];
-                        weights[i] = 0.0;
-                        patterns[i] = null;
-                        break;
                     }
+                } else {
+                    match = index.findFirstMatch(i);
                 }
             }
+
+            if (match >= 0) {
+                if (!constantOnly && canonicalStateCounts[i] > canonicalStateCounts[match]) {
+                    // if this is a less ambiguous pattern then this becomes the 'type' pattern
+                    index.remove(match);
+                    patterns[match] = patterns[i];
+                    canonicalStateCounts[match] = canonicalStateCounts[i];
+                    index.add(match);
+                }
+                weights[match] += weights[i];
+                weights[i] = 0.0;
+                patterns[i] = null;
+            } else if (index != null) {
+                index.add(i);
+            }
         }
 
         // compress out all the nulls
@@ -897,4 +974,316 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         xhtml += "</pre>";
         return xhtml;
     }
+
+    /**
+     * A polynomial hash of the states of a pattern.
+     */
+    private static int hashPattern(int[] pattern) {
+        long hash = 0;
+        for (int state : pattern) {
+            hash = (hash + state + 1) * HASH_MULTIPLIER;
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * An open addressing hash table from pattern hashes to the indices of the patterns with
+     * that hash, used to find identical patterns without comparing against all of them.
+     */
+    private static final class PatternIndex {
+
+        PatternIndex(int capacity) {
+            int size = Integer.highestOneBit(Math.max(16, capacity * 2 - 1)) << 1;
+            slots = new int[size];
+            Arrays.fill(slots, -1);
+            mask = size - 1;
+            hashes = new int[capacity];
+        }
+
+        /**
+         * @return the index of the pattern identical to the given one, or -1 if there isn't one
+         */
+        int find(int[][] patterns, int[] pattern, int hash) {
+            int slot = hash & mask;
+            while (slots[slot] >= 0) {
+                int index = slots[slot];
+                if (hashes[index] == hash && Arrays.equals(patterns[index], pattern)) {
+                    return index;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        void add(int index, int hash) {
+            hashes[index] = hash;
+            int slot = hash & mask;
+            while (slots[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = index;
+        }
+
+        private final int[] slots;
+        private final int mask;
+        private final int[] hashes;
+    }
+
+    /**
+     * Indexes patterns by their states at a few 'anchor' sites, chosen to be those that are
+     * least often ambiguous and most variable. Two patterns that both have a single state at all
+     * the anchors can only match if these are the same so only the patterns with the same key and
+     * those with an ambiguity at an anchor need to be compared. Patterns are listed in order so the
+     * first match found is the same as a linear search would give.
+     */
+    private final class AmbiguousPatternIndex {
+
+        AmbiguousPatternIndex() {
+            int maxCode = 0;
+            for (int i = 0; i < patternCount; i++) {
+                for (int state : patterns[i]) {
+                    maxCode = Math.max(maxCode, state);
+                }
+            }
+
+            // tabulate the state sets of the codes so patterns can be compared without creating them
+            boolean[][] stateSets = new boolean[maxCode + 1][];
+            singleStates = new int[maxCode + 1];
+            for (int code = 0; code <= maxCode; code++) {
+                stateSets[code] = getDataType().getStateSet(code);
+                int stateCount = 0;
+                for (int state = 0; state < stateSets[code].length; state++) {
+                    if (stateSets[code][state]) {
+                        singleStates[code] = state;
+                        stateCount++;
+                    }
+                }
+                if (stateCount != 1) {
+                    singleStates[code] = -1;
+                }
+            }
+            compatible = new boolean[maxCode + 1][maxCode + 1];
+            for (int code1 = 0; code1 <= maxCode; code1++) {
+                for (int code2 = 0; code2 <= maxCode; code2++) {
+                    compatible[code1][code2] = !getDataType().areUnambiguouslyDifferent(code1, code2);
+                }
+            }
+
+            anchors = chooseAnchors();
+            keys = new long[patternCount];
+        }
+
+        /**
+         * Greedily chooses anchor sites to minimise the expected number of comparisons per pattern,
+         * estimated from a sample of the patterns. A pattern is compared with those with the same key
+         * and all the unkeyed ones, and an unkeyed pattern with all of them.
+         */
+        private int[] chooseAnchors() {
+            int length = patterns[0].length;
+            int stateCount = getStateCount();
+
+            int sampleSize = Math.min(patternCount, ANCHOR_SAMPLE_SIZE);
+            int[][] sample = new int[sampleSize][];
+            for (int i = 0; i < sampleSize; i++) {
+                sample[i] = patterns[(int) ((long) i * patternCount / sampleSize)];
+            }
+
+            // the bucket of each sampled pattern given the anchors so far (-1 if unkeyed)
+            int[] groups = new int[sampleSize];
+            int groupCount = 1;
+            int[] counts = new int[sampleSize * stateCount];
+            int[] newGroups = new int[sampleSize * stateCount];
+
+            List<Integer> anchorList = new ArrayList<Integer>();
+            boolean[] used = new boolean[length];
+            double cost = sampleSize;
+
+            while (true) {
+                int best = -1;
+                double bestCost = cost;
+                for (int k = 0; k < length; k++) {
+                    if (used[k]) {
+                        continue;
+                    }
+                    int unkeyedCount = 0;
+                    long sumSquares = 0;
+                    for (int i = 0; i < sampleSize; i++) {
+                        int state = singleStates[sample[i][k]];
+                        if (groups[i] < 0 || state < 0) {
+                            unkeyedCount++;
+                        } else {
+                            int c = ++counts[groups[i] * stateCount + state];
+                            sumSquares += 2 * c - 1;
+                        }
+                    }
+                    for (int i = 0; i < sampleSize; i++) {
+                        int state = singleStates[sample[i][k]];
+                        if (groups[i] >= 0 && state >= 0) {
+                            counts[groups[i] * stateCount + state] = 0;
+                        }
+                    }
+                    double newCost = (double) sumSquares / sampleSize + 2.0 * unkeyedCount;
+                    if (newCost < bestCost) {
+                        bestCost = newCost;
+                        best = k;
+                    }
+                }
+                if (best < 0 || bestCost > 0.99 * cost) {
+                    break;
+                }
+
+                used[best] = true;
+                anchorList.add(best);
+                cost = bestCost;
+
+                Arrays.fill(newGroups, 0, groupCount * stateCount, -1);
+                int newGroupCount = 0;
+                for (int i = 0; i < sampleSize; i++) {
+                    int state = singleStates[sample[i][best]];
+                    if (groups[i] < 0 || state < 0) {
+                        groups[i] = -1;
+                    } else {
+                        int g = groups[i] * stateCount + state;
+                        if (newGroups[g] < 0) {
+                            newGroups[g] = newGroupCount;
+                            newGroupCount++;
+                        }
+                        groups[i] = newGroups[g];
+                    }
+                }
+                groupCount = newGroupCount;
+            }
+
+            int[] anchors = new int[anchorList.size()];
+            for (int k = 0; k < anchors.length; k++) {
+                anchors[k] = anchorList.get(k);
+            }
+            return anchors;
+        }
+
+        /**
+         * @return true if the patterns have at least one state in common at every site
+         */
+        private boolean matches(int[] pattern1, int[] pattern2) {
+            for (int k = 0; k < pattern1.length; k++) {
+                if (!compatible[pattern1[k]][pattern2[k]]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return a hash of the states at the anchors or NO_KEY if any are ambiguous
+         */
+        private long getKey(int[] pattern) {
+            long key = 0;
+            for (int k : anchors) {
+                int state = singleStates[pattern[k]];
+                if (state < 0) {
+                    return NO_KEY;
+                }
+                key = (key + state + 1) * HASH_MULTIPLIER;
+            }
+            return key == NO_KEY ? 0 : key;
+        }
+
+        void add(int index) {
+            long key = getKey(patterns[index]);
+            keys[index] = key;
+            if (key == NO_KEY) {
+                unkeyed.add(index);
+            } else {
+                IndexList bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new IndexList();
+                    buckets.put(key, bucket);
+                }
+                bucket.add(index);
+            }
+        }
+
+        void remove(int index) {
+            long key = keys[index];
+            if (key == NO_KEY) {
+                unkeyed.remove(index);
+            } else {
+                buckets.get(key).remove(index);
+            }
+        }
+
+        /**
+         * @return the index of the first pattern in the index that matches pattern i allowing for
+         * ambiguities, or -1 if there isn't one.
+         */
+        int findFirstMatch(int i) {
+            long key = getKey(patterns[i]);
+            if (key == NO_KEY) {
+                // ambiguous at an anchor so could match any pattern
+                for (int j = 0; j < i; j++) {
+                    if (patterns[j] != null && matches(patterns[i], patterns[j])) {
+                        return j;
+                    }
+                }
+                return -1;
+            }
+
+            // merge the bucket and the unkeyed patterns in order
+            IndexList bucket = buckets.get(key);
+            int bucketSize = (bucket != null ? bucket.size : 0);
+            int a = 0;
+            int b = 0;
+            while (a < bucketSize || b < unkeyed.size) {
+                int j;
+                if (b == unkeyed.size || (a < bucketSize && bucket.values[a] < unkeyed.values[b])) {
+                    j = bucket.values[a];
+                    a++;
+                } else {
+                    j = unkeyed.values[b];
+                    b++;
+                }
+                if (matches(patterns[i], patterns[j])) {
+                    return j;
+                }
+            }
+            return -1;
+        }
+
+        private final int[] anchors;
+        private final int[] singleStates;
+        private final boolean[][] compatible;
+        private final long[] keys;
+        private final Map<Long, IndexList> buckets = new HashMap<Long, IndexList>();
+        private final IndexList unkeyed = new IndexList();
+    }
+
+    private static final long NO_KEY = Long.MIN_VALUE;
+    private static final int ANCHOR_SAMPLE_SIZE = 4096;
+
+    /**
+     * A sorted list of pattern indices.
+     */
+    private static final class IndexList {
+
+        void add(int value) {
+            int position = -Arrays.binarySearch(values, 0, size, value) - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            System.arraycopy(values, position, values, position + 1, size - position);
+            values[position] = value;
+            size++;
+        }
+
+        void remove(int value) {
+            int position = Arrays.binarySearch(values, 0, size, value);
+            System.arraycopy(values, position + 1, values, position, size - position - 1);
+            size--;
+        }
+
+        private int[] values = new int[4];
+        private int size = 0;
+    }
 }
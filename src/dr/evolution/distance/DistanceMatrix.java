@@ -71,6 +71,14 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
         setPatterns(patterns);
     }
 
+    /**
+     * set the taxa without allocating the full matrix (for subclasses that store the distances themselves)
+     */
+    protected void setTaxa(TaxonList taxa) {
+        this.taxa = taxa;
+        dimension = taxa.getTaxonCount();
+    }
+
     /**
      * set the pattern source
      */
@@ -0,0 +1,182 @@
+/*
+ * PackedNucleotideDistanceMatrix.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.evolution.distance;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.datatype.Nucleotides;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uncorrected or Jukes-Cantor corrected distances for nucleotide patterns, calculated on the
+ * sequences packed two bits per site (plus a bit marking unambiguous states) so a pair of
+ * sequences is compared 64 sites at a time with a population count. Patterns are grouped by
+ * weight so the distances are those of DistanceMatrix and JukesCantorDistanceMatrix (up to rounding).
+ *
+ * @author agent
+ */
+public class PackedNucleotideDistanceMatrix extends TriangularDistanceMatrix {
+
+    /**
+     * constructor taking a pattern source
+     *
+     * @param jukesCantor  whether to apply the Jukes-Cantor correction
+     * @param threadCount  the number of threads used to calculate the distances (if <= 0 then the number of processors)
+     * @param memoryMapped whether to keep the distances in a memory-mapped file rather than on the heap
+     */
+    public PackedNucleotideDistanceMatrix(PatternList patterns, boolean jukesCantor, int threadCount, boolean memoryMapped) {
+        super(patterns, threadCount, memoryMapped);
+        if (!(patterns.getDataType() instanceof Nucleotides)) {
+            throw new IllegalArgumentException("Packed distances require nucleotide patterns");
+        }
+        this.jukesCantor = jukesCantor;
+    }
+
+    /**
+     * Calculate the distances
+     */
+    public void calculateDistances() {
+        packSequences();
+        super.calculateDistances();
+        packedSequences = null;
+    }
+
+    /**
+     * Packs each sequence into words of 64 sites as three interleaved bit planes: the low bit of
+     * the state, the high bit and whether the state is unambiguous. The patterns with the same
+     * weight are put in consecutive words.
+     */
+    private void packSequences() {
+        int patternCount = patterns.getPatternCount();
+
+        Map<Double, List<Integer>> weightGroups = new LinkedHashMap<Double, List<Integer>>();
+        totalWeight = 0.0;
+        for (int i = 0; i < patternCount; i++) {
+            double weight = patterns.getPatternWeight(i);
+            List<Integer> group = weightGroups.get(weight);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                weightGroups.put(weight, group);
+            }
+            group.add(i);
+            totalWeight += weight;
+        }
+
+        groupWeights = new double[weightGroups.size()];
+        groupEnds = new int[weightGroups.size()];
+        int wordCount = 0;
+        int g = 0;
+        for (Map.Entry<Double, List<Integer>> entry : weightGroups.entrySet()) {
+            groupWeights[g] = entry.getKey();
+            wordCount += (entry.getValue().size() + 63) / 64;
+            groupEnds[g] = wordCount;
+            g++;
+        }
+
+        packedSequences = new long[dimension][3 * wordCount];
+        int word = 0;
+        for (List<Integer> group : weightGroups.values()) {
+            int bit = 0;
+            for (int i : group) {
+                int[] pattern = patterns.getPattern(i);
+                long mask = 1L << bit;
+                for (int taxon = 0; taxon < dimension; taxon++) {
+                    int state = pattern[taxon];
+                    if (!dataType.isAmbiguousState(state)) {
+                        long[] packed = packedSequences[taxon];
+                        if ((state & 1) != 0) {
+                            packed[3 * word] |= mask;
+                        }
+                        if ((state & 2) != 0) {
+                            packed[3 * word + 1] |= mask;
+                        }
+                        packed[3 * word + 2] |= mask;
+                    }
+                }
+                bit++;
+                if (bit == 64) {
+                    bit = 0;
+                    word++;
+                }
+            }
+            if (bit > 0) {
+                word++;
+            }
+        }
+    }
+
+    /**
+     * Calculate a pairwise distance
+     */
+    protected double calculatePairwiseDistance(int taxon1, int taxon2) {
+        long[] packed1 = packedSequences[taxon1];
+        long[] packed2 = packedSequences[taxon2];
+
+        double sumDistance = 0.0;
+        int word = 0;
+        for (int g = 0; g < groupEnds.length; g++) {
+            long count = 0;
+            for (int end = groupEnds[g]; word < end; word++) {
+                int k = 3 * word;
+                long differences = ((packed1[k] ^ packed2[k]) | (packed1[k + 1] ^ packed2[k + 1])) &
+                        packed1[k + 2] & packed2[k + 2];
+                count += Long.bitCount(differences);
+            }
+            sumDistance += count * groupWeights[g];
+        }
+
+        final double obsDist = sumDistance / totalWeight;
+
+        if (!jukesCantor) {
+            return obsDist;
+        }
+
+        if (obsDist == 0.0) return 0.0;
+
+        if (obsDist >= CONST1) {
+            return MAX_DISTANCE;
+        }
+
+        final double expDist = -CONST1 * Math.log(1.0 - (CONST2 * obsDist));
+
+        return Math.min(expDist, MAX_DISTANCE);
+    }
+
+    // the Jukes-Cantor correction constants for four states
+    private static final double CONST1 = 3.0 / 4.0;
+    private static final double CONST2 = 4.0 / 3.0;
+
+    private final boolean jukesCantor;
+
+    private long[][] packedSequences = null;
+    private double[] groupWeights;
+    private int[] groupEnds;
+    private double totalWeight;
+}
@@ -0,0 +1,151 @@
+/*
+ * TriangularDistanceMatrix.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.evolution.distance;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.util.TaxonList;
+import dr.util.PackedLowerTriangle;
+import dr.util.ParallelBlocks;
+
+import java.io.IOException;
+
+/**
+ * A distance matrix that only stores the lower triangle (in a PackedLowerTriangle), either on the
+ * heap or in a memory-mapped temporary file, so it takes half the memory of the full matrix and
+ * isn't limited by the maximum size of an array. The pairwise distances are calculated in parallel
+ * a row at a time so calculatePairwiseDistance must be thread safe in subclasses.
+ *
+ * @author agent
+ */
+public class TriangularDistanceMatrix extends DistanceMatrix {
+
+    /**
+     * constructor for a matrix of the given taxa with all the distances set to zero
+     */
+    public TriangularDistanceMatrix(TaxonList taxa, boolean memoryMapped) {
+        super();
+        setTaxa(taxa);
+        this.threadCount = 1;
+        this.memoryMapped = memoryMapped;
+        allocate();
+        distancesKnown = true;
+    }
+
+    /**
+     * constructor taking a pattern source
+     *
+     * @param threadCount  the number of threads used to calculate the distances (if <= 0 then the number of processors)
+     * @param memoryMapped whether to keep the distances in a memory-mapped file rather than on the heap
+     */
+    public TriangularDistanceMatrix(PatternList patterns, int threadCount, boolean memoryMapped) {
+        super(patterns);
+        this.threadCount = ParallelBlocks.getThreadCount(threadCount);
+        this.memoryMapped = memoryMapped;
+    }
+
+    private void allocate() {
+        try {
+            triangle = (memoryMapped ?
+                    new PackedLowerTriangle(dimension, PackedLowerTriangle.createTempFile()) :
+                    new PackedLowerTriangle(dimension));
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to map distance matrix: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * set the pattern source (the distances are reallocated when they are next calculated)
+     */
+    @Override
+    public void setPatterns(PatternList patterns) {
+        super.setPatterns(patterns);
+        triangle = null;
+    }
+
+    /**
+     * @return an element
+     */
+    public double getElement(int row, int column) {
+        if (!distancesKnown) {
+            calculateDistances();
+        }
+        return triangle.get(row, column);
+    }
+
+    /**
+     * set an element (and its transpose) - this overwrites any existing elements
+     */
+    public void setElement(int row, int column, double value) {
+        if (!distancesKnown) {
+            calculateDistances();
+        }
+        if (row == column) {
+            if (value != 0.0) {
+                throw new IllegalArgumentException("The diagonal of a triangular distance matrix is fixed at zero");
+            }
+            return;
+        }
+        triangle.set(row, column, value);
+    }
+
+    /**
+     * Calculate the distances
+     */
+    public void calculateDistances() {
+        if (triangle == null) {
+            allocate();
+        }
+
+        // one block per row so the rows (which get longer) are spread over the threads
+        ParallelBlocks.forEachBlock(threadCount, dimension - 1, block -> {
+            int i = block + 1;
+            long index = PackedLowerTriangle.getIndex(i, 0);
+            for (int j = 0; j < i; j++) {
+                triangle.set(index, calculatePairwiseDistance(i, j));
+                index++;
+            }
+        });
+
+        distancesKnown = true;
+    }
+
+    /**
+     * Returns the mean pairwise distance of this matrix
+     */
+    public double getMeanDistance() {
+        if (!distancesKnown) {
+            calculateDistances();
+        }
+
+        return triangle.getSum() / triangle.getLength();
+    }
+
+    private final int threadCount;
+    private final boolean memoryMapped;
+
+    private PackedLowerTriangle triangle;
+}
@@ -0,0 +1,557 @@
+/*
+ * CompactTree.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evolution.io;
+
+import dr.evolution.tree.FlexibleNode;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A tree parsed from a NEXUS tree statement into flat arrays: the nodes are numbered in the order
+ * they are read (so a parent always comes before its children and siblings are in order) and the
+ * tips refer to the taxa by their index in the translation table. The statement is parsed directly
+ * from the bytes of the (memory mapped) file and without recursion so very deep trees are fine.
+ * The meta-comments are kept as strings and only parsed when the tree is converted to a
+ * FlexibleTree.
+ *
+ * @author agent
+ */
+final class CompactTree {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The translation of tip labels to taxon indices.
+     */
+    static final class Translation {
+        Translation(Taxon[] taxa, String[] labels, Map<Taxon, Integer> taxonNumberMap) {
+            this.taxa = taxa;
+            this.taxonNumberMap = taxonNumberMap;
+            labelIndices = new HashMap<String, Integer>();
+            int maxNumber = -1;
+            for (int i = 0; i < labels.length; i++) {
+                labelIndices.put(labels[i], i);
+                int number = parseNumber(labels[i]);
+                if (number > maxNumber && number < labels.length * 4 + 16) {
+                    maxNumber = number;
+                }
+            }
+            // labels that are small numbers (as BEAST writes them) are looked up in an array
+            numberIndices = new int[maxNumber + 1];
+            Arrays.fill(numberIndices, -1);
+            for (int i = 0; i < labels.length; i++) {
+                int number = parseNumber(labels[i]);
+                if (number >= 0 && number <= maxNumber) {
+                    numberIndices[number] = i;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return taxa.length == 0;
+        }
+
+        private static int parseNumber(String label) {
+            if (label.isEmpty() || label.length() > 9) {
+                return -1;
+            }
+            int number = 0;
+            for (int i = 0; i < label.length(); i++) {
+                char c = label.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                number = number * 10 + (c - '0');
+            }
+            return number;
+        }
+
+        final Taxon[] taxa;
+        final Map<Taxon, Integer> taxonNumberMap;
+        private final HashMap<String, Integer> labelIndices;
+        private final int[] numberIndices;
+    }
+
+    private CompactTree() {
+        parents = new int[INITIAL_CAPACITY];
+        lengths = new double[INITIAL_CAPACITY];
+        taxonIndices = new int[INITIAL_CAPACITY];
+        metaComments = new String[INITIAL_CAPACITY];
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the parent of a node (-1 for the root which is node 0)
+     */
+    int getParent(int node) {
+        return parents[node];
+    }
+
+    double getLength(int node) {
+        return lengths[node];
+    }
+
+    /**
+     * @return the index of the taxon in the translation table or -1 for an internal node
+     */
+    int getTaxonIndex(int node) {
+        return taxonIndices[node];
+    }
+
+    String getId() {
+        return id;
+    }
+
+    /**
+     * Makes a FlexibleTree the same as NexusImporter would.
+     */
+    Tree toFlexibleTree(Translation translation) {
+        FlexibleNode[] nodes = new FlexibleNode[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            FlexibleNode node = new FlexibleNode();
+            if (parents[i] >= 0) {
+                node.setLength(lengths[i]);
+                nodes[parents[i]].addChild(node);
+            }
+            if (tipLabels != null && tipLabels[i] != null) {
+                node.setTaxon(new Taxon(tipLabels[i]));
+            } else if (taxonIndices[i] >= 0) {
+                node.setTaxon(translation.taxa[taxonIndices[i]]);
+            }
+            if (metaComments[i] != null) {
+                try {
+                    NexusImporter.parseMetaCommentPairs(metaComments[i], node);
+                } catch (Importer.BadFormatException bfe) {
+                    // ignore it
+                }
+            }
+            nodes[i] = node;
+        }
+
+        FlexibleTree tree = new FlexibleTree(nodes[0], false, true, translation.taxonNumberMap);
+        tree.setId(id);
+
+        if (specialComment != null) {
+            // below is correct only if [&W] appears on it own
+            String c = specialComment;
+            while (!c.isEmpty()) {
+                final char ch = c.charAt(0);
+                if (ch == 'W') {
+                    int e = c.indexOf(';');
+                    if (e < 0) e = c.length();
+                    try {
+                        tree.setAttribute("weight", Float.parseFloat(c.substring(2, e)));
+                    } catch (NumberFormatException | StringIndexOutOfBoundsException ex) {
+                        // don't fail, ignore
+                    }
+                    c = c.substring(e);
+                } else {
+                    c = c.substring(1);
+                }
+            }
+        }
+
+        if (comment != null) {
+            try {
+                NexusImporter.parseMetaCommentPairs(comment, tree);
+            } catch (Importer.BadFormatException e) {
+                // set generic comment attribute
+                tree.setAttribute("comment", comment);
+            }
+        }
+
+        return tree;
+    }
+
+    // **************************************************************
+    // Parsing
+    // **************************************************************
+
+    /**
+     * Parses a TREE or UTREE statement.
+     *
+     * @param buffer             the bytes of the file (this is not modified)
+     * @param start              the first byte of the statement
+     * @param end                the byte after the terminating ';'
+     * @param translation        the translation of the tip labels
+     * @param ignoreMetaComments whether to ignore meta-comments on the nodes
+     * @param charset            the character set for labels and comments
+     */
+    static CompactTree parse(ByteBuffer buffer, int start, int end, Translation translation,
+                             boolean ignoreMetaComments, Charset charset) throws Importer.ImportException {
+        Parser parser = new Parser(buffer, start, end, translation, ignoreMetaComments, charset);
+        return parser.parse();
+    }
+
+    private int addNode(int parent) {
+        if (nodeCount == parents.length) {
+            int capacity = parents.length * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            taxonIndices = Arrays.copyOf(taxonIndices, capacity);
+            metaComments = Arrays.copyOf(metaComments, capacity);
+            if (tipLabels != null) {
+                tipLabels = Arrays.copyOf(tipLabels, capacity);
+            }
+        }
+        parents[nodeCount] = parent;
+        taxonIndices[nodeCount] = -1;
+        nodeCount++;
+        return nodeCount - 1;
+    }
+
+    private static final class Parser {
+
+        Parser(ByteBuffer buffer, int start, int end, Translation translation, boolean ignoreMetaComments,
+               Charset charset) {
+            this.buffer = buffer;
+            this.position = start;
+            this.end = end;
+            this.translation = translation;
+            this.ignoreMetaComments = ignoreMetaComments;
+            this.charset = charset;
+        }
+
+        CompactTree parse() throws Importer.ImportException {
+            CompactTree tree = new CompactTree();
+
+            // the TREE or UTREE command
+            skipWhiteSpace();
+            readToken();
+
+            skipWhiteSpace();
+            if (peek() == '*') {
+                // Star is used to specify a default tree - ignore it
+                position++;
+            }
+
+            tree.id = readToken();
+
+            // Save tree comment and attach it later
+            tree.comment = readComments(true);
+            if (peek() != '=') {
+                throw new Importer.BadFormatException("Missing label for tree'" + tree.id + "' or missing '=' in TREE command of TREES block");
+            }
+            position++;
+
+            // tree special comments
+            tree.specialComment = readComments(true);
+            if (peek() != '(') {
+                throw new Importer.BadFormatException("Missing tree definition in TREE command of TREES block");
+            }
+
+            int[] stack = new int[INITIAL_CAPACITY];
+            int depth = 0;
+
+            while (true) {
+                // read a node
+                skipWhiteSpace();
+                if (peek() == '(') {
+                    position++;
+                    int node = tree.addNode(depth > 0 ? stack[depth - 1] : -1);
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth] = node;
+                    depth++;
+                    continue;
+                }
+
+                if (depth == 0) {
+                    throw new Importer.BadFormatException("Missing tree definition in TREE command of TREES block");
+                }
+                int tip = tree.addNode(stack[depth - 1]);
+                readTip(tree, tip);
+                readBranch(tree, tip);
+
+                // close any nodes that are finished
+                boolean done = false;
+                while (!done) {
+                    readComments(false);
+                    int ch = peek();
+                    if (ch == ',') {
+                        position++;
+                        break;
+                    } else if (ch == ')') {
+                        position++;
+                        depth--;
+                        int node = stack[depth];
+                        // any label of an internal node is ignored (as NexusImporter does)
+                        readLabel();
+                        readBranch(tree, node);
+                        // the root is finished (any branch length it has is ignored)
+                        done = (depth == 0);
+                    } else {
+                        throw new Importer.BadFormatException("Missing closing ')' in tree in TREES block");
+                    }
+                }
+                if (done) {
+                    break;
+                }
+            }
+
+            if (readComments(false) != null || peek() != ';') {
+                throw new Importer.BadFormatException("Expecting ';' after tree, '" + tree.id + "', TREE command of TREES block");
+            }
+
+            tree.lengths[0] = 0.0;
+            return tree;
+        }
+
+        private void readTip(CompactTree tree, int tip) throws Importer.ImportException {
+            int labelStart = position;
+            int number = readNumberLabel();
+            if (number >= 0 && number < translation.numberIndices.length && translation.numberIndices[number] >= 0) {
+                // the usual case of a number in the translate table
+                tree.taxonIndices[tip] = translation.numberIndices[number];
+                return;
+            }
+            position = labelStart;
+            String label = readToken();
+            if (translation.isEmpty()) {
+                if (tree.tipLabels == null) {
+                    tree.tipLabels = new String[tree.parents.length];
+                }
+                tree.tipLabels[tip] = label;
+            } else {
+                Integer index = translation.labelIndices.get(label);
+                if (index == null) {
+                    // taxon not found in taxon list...
+                    throw new Importer.UnknownTaxonException("Taxon in tree, '" + label + "' is unknown");
+                }
+                tree.taxonIndices[tip] = index;
+            }
+        }
+
+        /**
+         * Reads any comments, the branch length and any comments after it.
+         */
+        private void readBranch(CompactTree tree, int node) throws Importer.ImportException {
+            addMetaComment(tree, node, readComments(!ignoreMetaComments));
+            if (peek() == ':') {
+                position++;
+                addMetaComment(tree, node, readComments(!ignoreMetaComments));
+                String length = readToken();
+                try {
+                    tree.lengths[node] = Double.parseDouble(length);
+                } catch (NumberFormatException nfe) {
+                    throw new Importer.BadFormatException("Number format error for branch length, '" + length + "'");
+                }
+                addMetaComment(tree, node, readComments(!ignoreMetaComments));
+            }
+        }
+
+        private void addMetaComment(CompactTree tree, int node, String comment) {
+            if (comment != null && !ignoreMetaComments) {
+                if (tree.metaComments[node] == null) {
+                    tree.metaComments[node] = comment;
+                } else {
+                    tree.metaComments[node] += "," + comment;
+                }
+            }
+        }
+
+        /**
+         * Reads a label that is just digits without making a string.
+         *
+         * @return the number or -1 if the label isn't just digits
+         */
+        private int readNumberLabel() {
+            int number = 0;
+            int digits = 0;
+            while (position < end) {
+                int ch = buffer.get(position) & 0xFF;
+                if (ch >= '0' && ch <= '9' && digits < 9) {
+                    number = number * 10 + (ch - '0');
+                    digits++;
+                    position++;
+                } else {
+                    break;
+                }
+            }
+            if (digits == 0 || !isDelimiter(peek())) {
+                return -1;
+            }
+            return number;
+        }
+
+        private void readLabel() {
+            skipWhiteSpace();
+            int ch = peek();
+            if (!isDelimiter(ch)) {
+                readToken();
+            }
+        }
+
+        /**
+         * Skips white space and any comments.
+         *
+         * @param keep whether to return the meta-comments
+         * @return the text of any meta-comments (those starting with '&') without the '&' joined by
+         * ';' as Importer does, or null
+         */
+        private String readComments(boolean keep) throws Importer.BadFormatException {
+            String meta = null;
+            skipWhiteSpace();
+            while (peek() == '[') {
+                int commentStart = position + 1;
+                int level = 0;
+                do {
+                    if (position >= end) {
+                        throw new Importer.BadFormatException("Unterminated comment in tree");
+                    }
+                    int ch = buffer.get(position) & 0xFF;
+                    if (ch == '[') {
+                        level++;
+                    } else if (ch == ']') {
+                        level--;
+                    }
+                    position++;
+                } while (level > 0);
+
+                if (keep && commentStart < position - 1 && buffer.get(commentStart) == '&') {
+                    String text = getString(commentStart + 1, position - 1);
+                    meta = (meta == null ? text : meta + ";" + text);
+                }
+                skipWhiteSpace();
+            }
+            return meta;
+        }
+
+        /**
+         * Reads a token which may be quoted. An unquoted token ends at white space or any of the
+         * delimiters of newick.
+         */
+        private String readToken() {
+            skipWhiteSpace();
+            int ch = peek();
+            if (ch == '\'' || ch == '"') {
+                int quote = ch;
+                position++;
+                StringBuilder token = new StringBuilder();
+                int from = position;
+                boolean space = false;
+                while (position < end) {
+                    ch = buffer.get(position) & 0xFF;
+                    if (ch == quote) {
+                        token.append(getString(from, position));
+                        position++;
+                        if (peek() == quote) {
+                            // a repeated quote character so add this to the token
+                            token.append((char) quote);
+                            position++;
+                            from = position;
+                        } else {
+                            return token.toString();
+                        }
+                    } else if (isWhiteSpace(ch)) {
+                        // compress multiple spaces into one
+                        token.append(getString(from, position));
+                        if (!space) {
+                            token.append(' ');
+                        }
+                        space = true;
+                        position++;
+                        from = position;
+                        continue;
+                    } else {
+                        position++;
+                    }
+                    space = false;
+                }
+                token.append(getString(from, position));
+                return token.toString();
+            }
+
+            int from = position;
+            while (position < end && !isDelimiter(buffer.get(position) & 0xFF)) {
+                position++;
+            }
+            return getString(from, position);
+        }
+
+        private static boolean isDelimiter(int ch) {
+            return ch < 0 || ch == '(' || ch == ')' || ch == ',' || ch == ':' || ch == ';' || ch == '=' ||
+                    ch == '[' || isWhiteSpace(ch);
+        }
+
+        /**
+         * ASCII white space and control characters (the bytes of multi-byte UTF-8 characters are all
+         * above this).
+         */
+        private static boolean isWhiteSpace(int ch) {
+            return ch >= 0 && ch <= ' ';
+        }
+
+        private void skipWhiteSpace() {
+            while (position < end && isWhiteSpace(buffer.get(position) & 0xFF)) {
+                position++;
+            }
+        }
+
+        private int peek() {
+            return position < end ? buffer.get(position) & 0xFF : -1;
+        }
+
+        private String getString(int from, int to) {
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(from + i);
+            }
+            return new String(bytes, charset);
+        }
+
+        private final ByteBuffer buffer;
+        private final int end;
+        private final Translation translation;
+        private final boolean ignoreMetaComments;
+        private final Charset charset;
+        private int position;
+    }
+
+    private int nodeCount = 0;
+    private int[] parents;
+    private double[] lengths;
+    private int[] taxonIndices;
+    private String[] metaComments;
+    private String[] tipLabels = null;
+
+    private String id;
+    private String comment;
+    private String specialComment;
+}
@@ -957,28 +957,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                     if (translationList != null) {
                         // this ensures that if a translation list is used, the external node numbers
                         // of the trees correspond as well.
-
-                        Map<Taxon, Integer> taxonNumberMap = new HashMap<Taxon, Integer>();
-                        int count = 0;
-                        for (String label : translationList.keySet()) {
-                            Taxon taxon = translationList.get(label);
-                            int number;
-
-                            if (taxonList != null) { // Map back to original numbering from TaxonList
-                                number =  taxonList.getTaxonIndex(taxon);
-                            } else { // Old functionality
-                                try {
-                                    number = Integer.parseInt(label) - 1;
-                                } catch (NumberFormatException nfe) {
-                                    number = count;
-                                }
-                            }
-
-                            taxonNumberMap.put(taxon, number);
-                            count++;
-                        }
-
-                        tree = new FlexibleTree(root, false, true, taxonNumberMap);
+                        tree = new FlexibleTree(root, false, true, getTaxonNumberMap(translationList, taxonList));
                     } else {
                         tree = new FlexibleTree(root, false, true, null);
                     }
@@ -1065,6 +1044,49 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         }
     }
 
+    /**
+     * Reads the blocks up to the start of the first trees block and its translation list, leaving
+     * the importer at the first tree. The trees themselves can then be read by another parser.
+     *
+     * @param taxonList a taxon list to look up the translated taxa in (or null to use the taxa block)
+     * @return the translation list (empty if there isn't one)
+     */
+    HashMap<String, Taxon> readTreesHeader(TaxonList taxonList) throws IOException, ImportException {
+        TaxonList[] aTaxonList = new TaxonList[1];
+        aTaxonList[0] = taxonList;
+        if (!startReadingTrees(aTaxonList)) {
+            throw new MissingBlockException("TREES block is missing");
+        }
+        return readTranslationList(aTaxonList[0], lastToken);
+    }
+
+    /**
+     * Gives the taxa in a translation list the numbers of their labels (if these are integers) so
+     * the external nodes of all the trees are numbered the same way.
+     */
+    static Map<Taxon, Integer> getTaxonNumberMap(HashMap<String, Taxon> translationList, TaxonList taxonList) {
+        Map<Taxon, Integer> taxonNumberMap = new HashMap<Taxon, Integer>();
+        int count = 0;
+        for (String label : translationList.keySet()) {
+            Taxon taxon = translationList.get(label);
+            int number;
+
+            if (taxonList != null) { // Map back to original numbering from TaxonList
+                number =  taxonList.getTaxonIndex(taxon);
+            } else { // Old functionality
+                try {
+                    number = Integer.parseInt(label) - 1;
+                } catch (NumberFormatException nfe) {
+                    number = count;
+                }
+            }
+
+            taxonNumberMap.put(taxon, number);
+            count++;
+        }
+        return taxonNumberMap;
+    }
+
     /**
      * Reads a branch in. This could be a node or a tip (calls readNode or readTip
      * accordingly). It then reads the branch length and SimpleNode that will
@@ -0,0 +1,473 @@
+/*
+ * ParallelNexusTreeImporter.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evolution.io;
+
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Imports the trees from a NEXUS file using a pool of threads. The file is memory mapped and the
+ * calling thread only scans the bytes for the boundaries of the tree statements (skipping comments
+ * and quoted labels). Each statement is then parsed straight from the mapped bytes, into a
+ * CompactTree and then a FlexibleTree, by one of the threads. The trees are returned in the order
+ * they are in the file so this can be used anywhere a NexusImporter reads a trees file from
+ * start to end. The trees are the same as NexusImporter would make (the taxa blocks and the
+ * translate table are read by a NexusImporter).
+ * <p/>
+ * The file is mapped, rather than read through a buffer as LogCombiner reads log files, because
+ * the statements are handed to other threads as ranges of bytes to parse in place. With a buffer
+ * each statement would have to be copied out before it could be handed over. The 2GB limit on a
+ * mapping is dealt with by mapping a window at a time. As in LogCombiner, the windows that are no
+ * longer needed are only released when they are garbage collected, but they are read-only and
+ * are all from the one file.
+ * <p/>
+ * A final tree statement without its terminating ';' (i.e., a file still being written) is ignored.
+ *
+ * @author agent
+ */
+public class ParallelNexusTreeImporter implements TreeImporter, Closeable {
+
+    // the smallest part of the file mapped at once
+    private static final long MIN_WINDOW_SIZE = 1L << 28;
+
+    // the number of trees parsed ahead of the one being returned, per thread
+    private static final int LOOK_AHEAD_PER_THREAD = 4;
+
+    // the default charset, as FileReader uses
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    public ParallelNexusTreeImporter(File file) throws IOException {
+        this(file, false, 0);
+    }
+
+    /**
+     * @param file               the NEXUS file
+     * @param ignoreMetaComments whether to ignore the meta-comments on the nodes
+     * @param threadCount        the number of threads to parse trees (<= 0 for the number of processors)
+     */
+    public ParallelNexusTreeImporter(File file, boolean ignoreMetaComments, int threadCount) throws IOException {
+        this.ignoreMetaComments = ignoreMetaComments;
+        if (threadCount <= 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        lookAhead = threadCount * LOOK_AHEAD_PER_THREAD;
+        if (threadCount > 1) {
+            pool = Executors.newFixedThreadPool(threadCount, runnable -> {
+                Thread thread = new Thread(runnable, "nexus-tree-parser");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            pool = null;
+        }
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        fileSize = channel.size();
+    }
+
+    /**
+     * Counts the trees by scanning the file for tree statements without parsing them. This can be
+     * called at any time without affecting the trees being imported.
+     */
+    @Override
+    public int countTrees() throws IOException {
+        Scanner counter = new Scanner();
+        counter.position = findHeaderEnd(counter);
+        int count = 0;
+        while (counter.nextStatement() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean hasTree() throws IOException, Importer.ImportException {
+        if (scanner == null) {
+            start(null);
+        }
+        fill();
+        return !pending.isEmpty();
+    }
+
+    @Override
+    public Tree importNextTree() throws IOException, Importer.ImportException {
+        if (!hasTree()) {
+            return null;
+        }
+        Future<Tree> next = pending.poll();
+        // keep the threads busy while we wait
+        fill();
+        return getTree(next);
+    }
+
+    /**
+     * Imports the first tree.
+     *
+     * @param taxonList if not null the taxa in the translate table are looked up in this
+     */
+    @Override
+    public Tree importTree(TaxonList taxonList) throws IOException, Importer.ImportException {
+        start(taxonList);
+        Tree tree = importNextTree();
+        if (tree == null) {
+            throw new Importer.BadFormatException("No trees defined in TREES block");
+        }
+        return tree;
+    }
+
+    /**
+     * Imports all the trees.
+     *
+     * @param taxonList if not null the taxa in the translate table are looked up in this
+     */
+    @Override
+    public List<Tree> importTrees(TaxonList taxonList) throws IOException, Importer.ImportException {
+        start(taxonList);
+        List<Tree> trees = new ArrayList<Tree>();
+        while (hasTree()) {
+            trees.add(importNextTree());
+        }
+        if (trees.isEmpty()) {
+            throw new Importer.BadFormatException("No trees defined in TREES block");
+        }
+        return trees;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<Tree> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+        channel.close();
+    }
+
+    /**
+     * Reads the header (up to the first tree statement) and gets ready to import the trees from the
+     * start.
+     */
+    private void start(TaxonList taxonList) throws IOException, Importer.ImportException {
+        for (Future<Tree> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+
+        scanner = new Scanner();
+        long headerEnd = findHeaderEnd(scanner);
+        if (headerEnd > Integer.MAX_VALUE) {
+            throw new Importer.BadFormatException("NEXUS header is too large");
+        }
+
+        byte[] bytes = new byte[(int) headerEnd];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) scanner.byteAt(i, 0);
+        }
+        String header = new String(bytes, CHARSET) + "\nEnd;\n";
+
+        NexusImporter importer = new NexusImporter(new StringReader(header), ignoreMetaComments);
+        HashMap<String, Taxon> translationList = importer.readTreesHeader(taxonList);
+
+        String[] labels = new String[translationList.size()];
+        Taxon[] taxa = new Taxon[translationList.size()];
+        int i = 0;
+        for (Map.Entry<String, Taxon> entry : translationList.entrySet()) {
+            labels[i] = entry.getKey();
+            taxa[i] = entry.getValue();
+            i++;
+        }
+        translation = new CompactTree.Translation(taxa, labels, NexusImporter.getTaxonNumberMap(translationList, null));
+
+        scanner.position = headerEnd;
+    }
+
+    /**
+     * Submits tree statements until there are enough parsing (or the end of the trees).
+     */
+    private void fill() throws IOException {
+        while (pending.size() < lookAhead) {
+            final Scanner.Statement statement = scanner.nextStatement();
+            if (statement == null) {
+                return;
+            }
+            final CompactTree.Translation translation = this.translation;
+            FutureTask<Tree> task = new FutureTask<Tree>(() -> {
+                CompactTree compactTree = CompactTree.parse(statement.buffer, statement.start, statement.end,
+                        translation, ignoreMetaComments, CHARSET);
+                return compactTree.toFlexibleTree(translation);
+            });
+            if (pool != null) {
+                pool.execute(task);
+            } else {
+                task.run();
+            }
+            pending.add(task);
+        }
+    }
+
+    private static Tree getTree(Future<Tree> future) throws IOException, Importer.ImportException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Importer.ImportException) {
+                throw (Importer.ImportException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Finds the first TREE command of the first TREES block.
+     *
+     * @return the position of the command (or of the end of the block or file if there are no trees)
+     */
+    private long findHeaderEnd(Scanner scanner) throws IOException {
+        long position = 0;
+        boolean inTreesBlock = false;
+        while (true) {
+            position = scanner.skipSpace(position, position);
+            if (position >= fileSize) {
+                return fileSize;
+            }
+            long start = position;
+            long end = scanner.skipWord(position, start);
+            String word = scanner.getWord(start, end);
+
+            if (!inTreesBlock) {
+                if (word.startsWith("#")) {
+                    // #NEXUS doesn't end in a ';'
+                    position = end;
+                    continue;
+                }
+                if (word.equals("begin")) {
+                    long blockStart = scanner.skipSpace(end, start);
+                    long blockEnd = scanner.skipWord(blockStart, start);
+                    inTreesBlock = scanner.getWord(blockStart, blockEnd).equals("trees");
+                }
+            } else if (word.equals("tree") || word.equals("utree") || word.equals("end") || word.equals("endblock")) {
+                return start;
+            }
+            position = scanner.skipCommand(end, start);
+            if (position < 0) {
+                return fileSize;
+            }
+        }
+    }
+
+    /**
+     * Scans the mapped file. Only a window of the file is mapped at a time and this is moved on (or
+     * made larger) as needed, always starting at a 'mark' so that the whole of the statement being
+     * scanned is in one buffer.
+     */
+    private final class Scanner {
+
+        final class Statement {
+            Statement(MappedByteBuffer buffer, int start, int end) {
+                this.buffer = buffer;
+                this.start = start;
+                this.end = end;
+            }
+
+            final MappedByteBuffer buffer;
+            final int start;
+            final int end;
+        }
+
+        /**
+         * @return the next tree statement or null if there are no more
+         */
+        Statement nextStatement() throws IOException {
+            while (true) {
+                position = skipSpace(position, position);
+                if (position >= fileSize) {
+                    return null;
+                }
+                long start = position;
+                long end = skipWord(position, start);
+                String word = getWord(start, end);
+                if (word.equals("end") || word.equals("endblock")) {
+                    position = fileSize;
+                    return null;
+                }
+
+                position = skipCommand(end, start);
+                if (position < 0) {
+                    // an incomplete statement at the end of the file
+                    position = fileSize;
+                    return null;
+                }
+
+                if (word.equals("tree") || word.equals("utree")) {
+                    // skipCommand left the whole statement in the window
+                    return new Statement(window, (int) (start - windowStart), (int) (position - windowStart));
+                }
+            }
+        }
+
+        /**
+         * @return the byte at a position (or -1 at the end of the file)
+         */
+        int byteAt(long position, long mark) throws IOException {
+            if (position < windowStart || position >= windowEnd) {
+                if (position >= fileSize) {
+                    return -1;
+                }
+                map(mark, position);
+            }
+            return window.get((int) (position - windowStart)) & 0xFF;
+        }
+
+        private void map(long mark, long position) throws IOException {
+            long size = Math.max(MIN_WINDOW_SIZE, (position - mark + 1) * 2);
+            size = Math.min(Math.min(size, fileSize - mark), Integer.MAX_VALUE);
+            if (position - mark >= size) {
+                throw new IOException("Tree statement is too long to map");
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, mark, size);
+            windowStart = mark;
+            windowEnd = mark + size;
+        }
+
+        /**
+         * Skips white space and comments.
+         */
+        long skipSpace(long position, long mark) throws IOException {
+            int level = 0;
+            while (true) {
+                int ch = byteAt(position, mark);
+                if (ch < 0) {
+                    return fileSize;
+                }
+                if (level > 0) {
+                    if (ch == '[') {
+                        level++;
+                    } else if (ch == ']') {
+                        level--;
+                    }
+                } else if (ch == '[') {
+                    level = 1;
+                } else if (ch > ' ') {
+                    return position;
+                }
+                position++;
+            }
+        }
+
+        long skipWord(long position, long mark) throws IOException {
+            while (true) {
+                int ch = byteAt(position, mark);
+                if (ch < 0 || ch <= ' ' || ch == ';' || ch == '[' || ch == '=') {
+                    return position;
+                }
+                position++;
+            }
+        }
+
+        /**
+         * @return the position after the ';' that ends the command (ignoring any in comments or
+         * quotes) or -1 if the file ends first
+         */
+        long skipCommand(long position, long mark) throws IOException {
+            int level = 0;
+            int quote = 0;
+            while (true) {
+                int ch = byteAt(position, mark);
+                if (ch < 0) {
+                    return -1;
+                }
+                position++;
+                if (level > 0) {
+                    if (ch == '[') {
+                        level++;
+                    } else if (ch == ']') {
+                        level--;
+                    }
+                } else if (quote != 0) {
+                    if (ch == quote) {
+                        quote = 0;
+                    }
+                } else if (ch == '[') {
+                    level = 1;
+                } else if (ch == '\'' || ch == '"') {
+                    quote = ch;
+                } else if (ch == ';') {
+                    return position;
+                }
+            }
+        }
+
+        /**
+         * @return the word in lower case
+         */
+        String getWord(long start, long end) throws IOException {
+            StringBuilder word = new StringBuilder();
+            for (long i = start; i < end && i - start < 16; i++) {
+                word.append(Character.toLowerCase((char) byteAt(i, start)));
+            }
+            return word.toString();
+        }
+
+        long position = 0;
+
+        private MappedByteBuffer window = null;
+        private long windowStart = 0;
+        private long windowEnd = 0;
+    }
+
+    private final boolean ignoreMetaComments;
+    private final int lookAhead;
+    private final ExecutorService pool;
+
+    private final FileChannel channel;
+    private final long fileSize;
+
+    private Scanner scanner = null;
+    private CompactTree.Translation translation = null;
+    private final Deque<Future<Tree>> pending = new ArrayDeque<Future<Tree>>();
+}
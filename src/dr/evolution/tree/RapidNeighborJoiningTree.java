@@ -0,0 +1,398 @@
+/*
+ * RapidNeighborJoiningTree.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.evolution.tree;
+
+import dr.evolution.distance.DistanceMatrix;
+import dr.evolution.distance.TriangularDistanceMatrix;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Constructs the same neighbor-joining tree as NeighborJoiningTree (up to ties) but prunes the
+ * search for the next pair as RapidNJ does (Simonsen, Mailund & Pedersen 2008). Each cluster keeps
+ * a short prefix of its row of distances sorted in increasing order and the scan of a row stops as
+ * soon as d_ij - u_i - u_max exceeds the best Q found so far, where u_i = r_i / (n - 2). A row whose
+ * prefix is exhausted is scanned in full and its prefix rebuilt. The working distances are kept in
+ * a triangular matrix (optionally memory-mapped) so only half the memory of the full matrix is used.
+ *
+ * @author agent
+ */
+public class RapidNeighborJoiningTree extends SimpleTree {
+
+    public static final int DEFAULT_PREFIX_LENGTH = 64;
+
+    /**
+     * construct NJ tree
+     *
+     * @param distanceMatrix distance matrix
+     */
+    public RapidNeighborJoiningTree(DistanceMatrix distanceMatrix) {
+        this(distanceMatrix, false, DEFAULT_PREFIX_LENGTH);
+    }
+
+    /**
+     * construct NJ tree
+     *
+     * @param distanceMatrix distance matrix
+     * @param memoryMapped   whether to keep the working distances in a memory-mapped file
+     * @param prefixLength   the number of sorted distances kept for each cluster
+     */
+    public RapidNeighborJoiningTree(DistanceMatrix distanceMatrix, boolean memoryMapped, int prefixLength) {
+
+        int n = distanceMatrix.getTaxonCount();
+        if (n < 3) {
+            throw new IllegalArgumentException("less than 3 taxa in distance matrix");
+        }
+        if (prefixLength < 1) {
+            throw new IllegalArgumentException("the prefix length must be at least 1");
+        }
+
+        init(distanceMatrix, memoryMapped, Math.min(prefixLength, n - 1));
+
+        while (activeCount > 2) {
+            findNextPair();
+            joinPair();
+        }
+
+        finish();
+    }
+
+    private void init(DistanceMatrix distanceMatrix, boolean memoryMapped, int prefixLength) {
+        int n = distanceMatrix.getTaxonCount();
+
+        distances = new TriangularDistanceMatrix(distanceMatrix, memoryMapped);
+        r = new double[n];
+        for (int i = 1; i < n; i++) {
+            for (int j = 0; j < i; j++) {
+                double d = distanceMatrix.getElement(i, j);
+                distances.setElement(i, j, d);
+                r[i] += d;
+                r[j] += d;
+            }
+        }
+
+        clusters = new SimpleNode[n];
+        activeSlots = new int[n];
+        slotPositions = new int[n];
+        active = new boolean[n];
+        generations = new int[n];
+        u = new double[n];
+        for (int i = 0; i < n; i++) {
+            clusters[i] = new SimpleNode();
+            clusters[i].setTaxon(distanceMatrix.getTaxon(i));
+            activeSlots[i] = i;
+            slotPositions[i] = i;
+            active[i] = true;
+        }
+        activeCount = n;
+
+        rowSlots = new int[n][prefixLength];
+        rowGenerations = new int[n][prefixLength];
+        rowDistances = new double[n][prefixLength];
+        rowLengths = new int[n];
+        rowComplete = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            buildRow(i);
+        }
+    }
+
+    /**
+     * Finds the pair of active clusters minimizing Q_ij = d_ij - u_i - u_j.
+     */
+    private void findNextPair() {
+        double scale = 1.0 / (activeCount - 2);
+        double uMax = Double.NEGATIVE_INFINITY;
+        for (int p = 0; p < activeCount; p++) {
+            int i = activeSlots[p];
+            u[i] = r[i] * scale;
+            if (u[i] > uMax) {
+                uMax = u[i];
+            }
+        }
+
+        double qMin = Double.POSITIVE_INFINITY;
+        besti = -1;
+        bestj = -1;
+
+        for (int p = 0; p < activeCount; p++) {
+            int i = activeSlots[p];
+            double ui = u[i];
+            int[] slots = rowSlots[i];
+            int[] rowGens = rowGenerations[i];
+            double[] dists = rowDistances[i];
+
+            boolean bounded = false;
+            for (int e = 0; e < rowLengths[i]; e++) {
+                int j = slots[e];
+                if (!active[j] || rowGens[e] != generations[j]) {
+                    // this cluster has since been joined
+                    continue;
+                }
+                double d = dists[e];
+                if (d - ui - uMax > qMin) {
+                    // the rest of the row (being sorted) can't do better
+                    bounded = true;
+                    break;
+                }
+                double q = d - ui - u[j];
+                if (q < qMin) {
+                    qMin = q;
+                    besti = i;
+                    bestj = j;
+                }
+            }
+
+            if (!bounded && !rowComplete[i]) {
+                // the prefix has been exhausted so scan the whole row and rebuild it
+                for (int p2 = 0; p2 < activeCount; p2++) {
+                    int j = activeSlots[p2];
+                    if (j != i) {
+                        double q = distances.getElement(i, j) - ui - u[j];
+                        if (q < qMin) {
+                            qMin = q;
+                            besti = i;
+                            bestj = j;
+                        }
+                    }
+                }
+                buildRow(i);
+            }
+        }
+    }
+
+    /**
+     * Joins besti and bestj into a new cluster which takes the slot of besti.
+     */
+    private void joinPair() {
+        int i = besti;
+        int j = bestj;
+
+        double scale = 1.0 / (activeCount - 2);
+        double dij = distances.getElement(i, j);
+        double li = (dij + (r[i] - r[j]) * scale) * 0.5;
+        double lj = dij - li;
+
+        if (li < 0.0)
+            li = 0.0;
+
+        if (lj < 0.0)
+            lj = 0.0;
+
+        // the heights hold the branch lengths until the tree is finished
+        clusters[i].setHeight(li);
+        clusters[j].setHeight(lj);
+
+        SimpleNode newCluster = new SimpleNode();
+        newCluster.addChild(clusters[i]);
+        newCluster.addChild(clusters[j]);
+
+        deactivate(j);
+
+        double rNew = 0.0;
+        for (int p = 0; p < activeCount; p++) {
+            int k = activeSlots[p];
+            if (k != i) {
+                double dki = distances.getElement(k, i);
+                double dkj = distances.getElement(k, j);
+                double dk = (dki + dkj - dij) * 0.5;
+                r[k] += dk - dki - dkj;
+                rNew += dk;
+                distances.setElement(k, i, dk);
+            }
+        }
+
+        r[i] = rNew;
+        clusters[i] = newCluster;
+        generations[i]++;
+        buildRow(i);
+    }
+
+    private void deactivate(int slot) {
+        int position = slotPositions[slot];
+        int last = activeSlots[activeCount - 1];
+        activeSlots[position] = last;
+        slotPositions[last] = position;
+        activeCount--;
+        active[slot] = false;
+        clusters[slot] = null;
+    }
+
+    /**
+     * Collects the smallest distances from the cluster in a slot to the other active clusters,
+     * in increasing order, using a bounded max-heap.
+     */
+    private void buildRow(int i) {
+        int[] slots = rowSlots[i];
+        double[] dists = rowDistances[i];
+        int capacity = slots.length;
+
+        int count = 0;
+        for (int p = 0; p < activeCount; p++) {
+            int j = activeSlots[p];
+            if (j == i) {
+                continue;
+            }
+            double d = distances.getElement(i, j);
+            if (count < capacity) {
+                // sift up
+                int c = count++;
+                while (c > 0) {
+                    int parent = (c - 1) >> 1;
+                    if (dists[parent] >= d) {
+                        break;
+                    }
+                    dists[c] = dists[parent];
+                    slots[c] = slots[parent];
+                    c = parent;
+                }
+                dists[c] = d;
+                slots[c] = j;
+            } else if (d < dists[0]) {
+                siftDown(dists, slots, d, j, count);
+            }
+        }
+
+        // heap sort into increasing order
+        for (int end = count - 1; end > 0; end--) {
+            double d = dists[end];
+            int j = slots[end];
+            dists[end] = dists[0];
+            slots[end] = slots[0];
+            siftDown(dists, slots, d, j, end);
+        }
+
+        for (int e = 0; e < count; e++) {
+            rowGenerations[i][e] = generations[slots[e]];
+        }
+        rowLengths[i] = count;
+        rowComplete[i] = (count == activeCount - 1);
+    }
+
+    /**
+     * Places d, j at the root of the max-heap of the given size and sifts it down.
+     */
+    private static void siftDown(double[] dists, int[] slots, double d, int j, int size) {
+        int c = 0;
+        while (true) {
+            int child = 2 * c + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && dists[child + 1] > dists[child]) {
+                child++;
+            }
+            if (dists[child] <= d) {
+                break;
+            }
+            dists[c] = dists[child];
+            slots[c] = slots[child];
+            c = child;
+        }
+        dists[c] = d;
+        slots[c] = j;
+    }
+
+    private void finish() {
+
+        // Connect up the final two clusters
+        int a = activeSlots[0];
+        int b = activeSlots[1];
+
+        double l = distances.getElement(a, b) * 0.5;
+        if (l < 0.0)
+            l = 0.0;
+        clusters[a].setHeight(l);
+        clusters[b].setHeight(l);
+
+        SimpleNode root = new SimpleNode();
+        root.setHeight(0.0);
+        root.addChild(clusters[a]);
+        root.addChild(clusters[b]);
+
+        // turn the branch lengths into distances from the root (without recursion as the
+        // tree may be very deep) and then into heights above the furthest tip
+        List<SimpleNode> nodes = new ArrayList<SimpleNode>();
+        Deque<SimpleNode> stack = new ArrayDeque<SimpleNode>();
+        stack.push(root);
+        double maxHeight = 0.0;
+        while (!stack.isEmpty()) {
+            SimpleNode node = stack.pop();
+            nodes.add(node);
+            if (node.isExternal()) {
+                if (node.getHeight() > maxHeight)
+                    maxHeight = node.getHeight();
+            } else {
+                for (int k = 0; k < node.getChildCount(); k++) {
+                    SimpleNode child = node.getChild(k);
+                    child.setHeight(child.getHeight() + node.getHeight());
+                    stack.push(child);
+                }
+            }
+        }
+        for (SimpleNode node : nodes) {
+            node.setHeight(maxHeight - node.getHeight());
+        }
+
+        adoptNodes(root);
+
+        distances = null;
+        clusters = null;
+        rowSlots = null;
+        rowGenerations = null;
+        rowDistances = null;
+    }
+
+    //
+    // Private stuff
+    //
+
+    private TriangularDistanceMatrix distances;
+
+    // the clusters, their row sums and generations (incremented when a slot is reused) by slot
+    private SimpleNode[] clusters;
+    private double[] r;
+    private double[] u;
+    private int[] generations;
+
+    // the slots of the active clusters and the position of each slot in this list
+    private int[] activeSlots;
+    private int[] slotPositions;
+    private boolean[] active;
+    private int activeCount;
+
+    // the sorted prefix of each row and whether it held all the other clusters when built
+    private int[][] rowSlots;
+    private int[][] rowGenerations;
+    private double[][] rowDistances;
+    private int[] rowLengths;
+    private boolean[] rowComplete;
+
+    private int besti, bestj;
+}
@@ -0,0 +1,133 @@
+/*
+ * TopologyFingerprint.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.evolution.tree;
+
+/**
+ * A canonical 128 bit fingerprint of the (rooted) topology of a tree, independent of the order
+ * of the children at each node and of the numbering of the nodes. Each taxon is given a
+ * pseudo-random 128 bit value from its id and the value of a clade is the sum (modulo 2^64 in
+ * each half) of the values of its taxa - in effect a hash of the clade's bitset. The fingerprint
+ * is then the sum of a mixed function of the values of all the internal clades, so it is made in
+ * one pass over the nodes, children before parents, using two long arrays.
+ * <p/>
+ * Two trees have the same fingerprint if they have the same set of clades, which is the same
+ * test as comparing their uniqueNewick strings (including any polytomies). Two different
+ * topologies share a fingerprint with probability about 2^-128. This is intended for counting
+ * and comparing topologies - TreeUtils.uniqueNewick should only be needed to report them.
+ *
+ * @author agent
+ */
+public final class TopologyFingerprint {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final long HIGH_SEED = 0x243f6a8885a308d3L;
+    private static final long LOW_SEED = 0x13198a2e03707344L;
+
+    public TopologyFingerprint(Tree tree) {
+        final int nodeCount = tree.getNodeCount();
+        final int[] postOrder = new int[nodeCount];
+        TreeUtils.postOrderTraversalList(tree, postOrder);
+
+        final long[] cladeHighs = new long[nodeCount];
+        final long[] cladeLows = new long[nodeCount];
+
+        long high = 0;
+        long low = 0;
+        for (int nodeNumber : postOrder) {
+            NodeRef node = tree.getNode(nodeNumber);
+            if (tree.isExternal(node)) {
+                String id = tree.getNodeTaxon(node).getId();
+                cladeHighs[nodeNumber] = hash(id, HIGH_SEED);
+                cladeLows[nodeNumber] = hash(id, LOW_SEED);
+            } else {
+                long cladeHigh = 0;
+                long cladeLow = 0;
+                for (int i = 0; i < tree.getChildCount(node); i++) {
+                    int child = tree.getChild(node, i).getNumber();
+                    cladeHigh += cladeHighs[child];
+                    cladeLow += cladeLows[child];
+                }
+                cladeHighs[nodeNumber] = cladeHigh;
+                cladeLows[nodeNumber] = cladeLow;
+
+                // the clade values are linear in the taxa so must be mixed before being summed
+                high += mix(cladeHigh ^ HIGH_SEED);
+                low += mix(cladeLow ^ LOW_SEED);
+            }
+        }
+
+        this.high = high;
+        this.low = low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    private static long hash(String id, long seed) {
+        long h = seed;
+        for (int i = 0; i < id.length(); i++) {
+            h = mix(h + GOLDEN_GAMMA * (id.charAt(i) + 1));
+        }
+        return mix(h + GOLDEN_GAMMA * id.length());
+    }
+
+    /**
+     * The SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TopologyFingerprint)) return false;
+        TopologyFingerprint fingerprint = (TopologyFingerprint) o;
+        return high == fingerprint.high && low == fingerprint.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (low ^ (low >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    private final long high;
+    private final long low;
+}
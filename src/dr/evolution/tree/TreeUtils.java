@@ -1207,7 +1207,17 @@ public class TreeUtils {
      */
     public static boolean equal(Tree tree1, Tree tree2) {
 
-        return uniqueNewick(tree1, tree1.getRoot()).equals(uniqueNewick(tree2, tree2.getRoot()));
+        return isSameTopology(tree1, tree2);
+    }
+
+    /**
+     * Compares 2 trees and returns true if they have the same rooted topology, by comparing
+     * their topology fingerprints rather than their uniqueNewick strings.
+     */
+    public static boolean isSameTopology(Tree tree1, Tree tree2) {
+
+        return tree1.getNodeCount() == tree2.getNodeCount() &&
+                new TopologyFingerprint(tree1).equals(new TopologyFingerprint(tree2));
     }
 
     private static Node convertToJebl(Tree tree, NodeRef node, SimpleRootedTree jtree) {
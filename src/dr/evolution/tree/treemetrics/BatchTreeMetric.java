@@ -0,0 +1,484 @@
+/*
+ * BatchTreeMetric.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.evolution.tree.treemetrics;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.util.ParallelBlocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the distances between all pairs of a set of trees. Each tree is encoded once into
+ * primitive arrays in depth-first post-order, with the taxa numbered by their ids so the trees
+ * don't need to share a node numbering. The rows of the matrix are computed in parallel on the
+ * shared fork-join pool (see ParallelBlocks).
+ * <p/>
+ * Clades are matched using Day's (1985) linear time algorithm: the taxa are ranked in the order
+ * they appear in the row tree so that each of its clades is an interval of ranks and can be looked
+ * up in a table indexed by one end. A clade of the other tree is then shared if its ranks form a
+ * contiguous interval that is in the table. This gives the Robinson-Foulds and branch score
+ * distances in O(n) per pair. The path difference metrics are O(n^2) per pair by definition but
+ * the path vector of the row tree is only made once per row and no other allocation is done.
+ * <p/>
+ * The distances are the same as those given by the corresponding TreeMetric except that the
+ * Robinson-Foulds distance is half the symmetric difference of the clade sets (which is the same
+ * for binary trees but keeps the matrix symmetric when there are polytomies).
+ *
+ * @author agent
+ */
+public class BatchTreeMetric {
+
+    /**
+     * @param type   the metric - one of ROBINSON_FOULDS, BRANCH_SCORE, ROOTED_BRANCH_SCORE,
+     *               STEEL_PENNY or KENDALL_COLIJN
+     * @param lambda the weighting of branch lengths against the number of edges for KENDALL_COLIJN
+     */
+    public BatchTreeMetric(TreeMetric.Type type, double lambda) {
+        switch (type) {
+            case ROBINSON_FOULDS:
+            case BRANCH_SCORE:
+            case ROOTED_BRANCH_SCORE:
+            case STEEL_PENNY:
+            case KENDALL_COLIJN:
+                break;
+            default:
+                throw new IllegalArgumentException("Metric type, " + type.getName() + ", is not supported for batch computation");
+        }
+        this.type = type;
+        this.lambda = lambda;
+    }
+
+    public BatchTreeMetric(TreeMetric.Type type) {
+        this(type, 0.0);
+    }
+
+    public TreeMetric.Type getType() {
+        return type;
+    }
+
+    /**
+     * Computes the distances between all pairs of trees into a matrix in a temporary file.
+     *
+     * @param trees       the trees, which must all have the same taxa
+     * @param threadCount the number of threads (if <= 0 then the number of processors is used)
+     */
+    public TreeDistanceMatrix getDistances(List<? extends Tree> trees, int threadCount) throws IOException {
+        return getDistances(trees, null, threadCount);
+    }
+
+    /**
+     * Computes the distances between all pairs of trees into a matrix in the given file (or a
+     * temporary file if this is null).
+     *
+     * @param trees       the trees, which must all have the same taxa
+     * @param file        the file to map the matrix in
+     * @param threadCount the number of threads (if <= 0 then the number of processors is used)
+     */
+    public TreeDistanceMatrix getDistances(List<? extends Tree> trees, File file, int threadCount) throws IOException {
+        final TreeDistanceMatrix matrix = (file != null ?
+                new TreeDistanceMatrix(file, trees.size()) : new TreeDistanceMatrix(trees.size()));
+
+        if (trees.size() < 2) {
+            return matrix;
+        }
+
+        Map<String, Integer> taxonIndices = new HashMap<String, Integer>();
+        Tree tree0 = trees.get(0);
+        for (int i = 0; i < tree0.getExternalNodeCount(); i++) {
+            taxonIndices.put(tree0.getNodeTaxon(tree0.getExternalNode(i)).getId(), i);
+        }
+
+        final EncodedTree[] encodedTrees = new EncodedTree[trees.size()];
+        for (int i = 0; i < encodedTrees.length; i++) {
+            encodedTrees[i] = new EncodedTree(trees.get(i), taxonIndices);
+        }
+
+        // one block per row of the lower triangle so the rows (which get longer) are spread over the threads
+        ParallelBlocks.forEachBlock(ParallelBlocks.getThreadCount(threadCount), encodedTrees.length - 1, block -> {
+            int i = block + 1;
+            Row row = new Row(encodedTrees[i]);
+            for (int j = 0; j < i; j++) {
+                matrix.set(i, j, row.getDistance(encodedTrees[j]));
+            }
+        });
+
+        return matrix;
+    }
+
+    /**
+     * Computes the distance between a single pair of trees.
+     */
+    public double getDistance(Tree tree1, Tree tree2) {
+        Map<String, Integer> taxonIndices = new HashMap<String, Integer>();
+        for (int i = 0; i < tree1.getExternalNodeCount(); i++) {
+            taxonIndices.put(tree1.getNodeTaxon(tree1.getExternalNode(i)).getId(), i);
+        }
+        EncodedTree encodedTree1 = new EncodedTree(tree1, taxonIndices);
+        EncodedTree encodedTree2 = new EncodedTree(tree2, taxonIndices);
+        return new Row(encodedTree1).getDistance(encodedTree2);
+    }
+
+    /**
+     * The tables for one tree (the row) against which others are compared, along with the work
+     * space for the other trees.
+     */
+    private class Row {
+
+        Row(EncodedTree tree) {
+            this.tree = tree;
+
+            final int taxonCount = tree.taxonCount;
+            final int nodeCount = tree.nodeCount;
+
+            if (type == TreeMetric.Type.STEEL_PENNY || type == TreeMetric.Type.KENDALL_COLIJN) {
+                path = new double[getPathLength(taxonCount)];
+                otherPath = new double[path.length];
+                getPath(tree, path);
+                return;
+            }
+
+            ranks = new int[taxonCount];
+            nodeMin = new int[nodeCount];
+            nodeMax = new int[nodeCount];
+            byRight = new int[taxonCount];
+            byLeft = new int[taxonCount];
+            matched = new boolean[nodeCount];
+
+            Arrays.fill(byRight, -1);
+            Arrays.fill(byLeft, -1);
+
+            int rank = 0;
+            for (int k = 0; k < nodeCount; k++) {
+                if (tree.taxa[k] >= 0) {
+                    ranks[tree.taxa[k]] = rank;
+                    nodeMin[k] = rank;
+                    nodeMax[k] = rank;
+                    rank++;
+                } else {
+                    // the first child is visited first so its minimum is the minimum of the clade
+                    nodeMin[k] = nodeMin[tree.firstChildren[k]];
+                    nodeMax[k] = rank - 1;
+                }
+            }
+
+            // In each chain of clades with the same right end only the top one can be the first
+            // child of its parent (or the root), and in each chain with the same left end only the
+            // top one can be a later child, so each table has at most one entry per rank.
+            for (int k = 0; k < nodeCount; k++) {
+                if (tree.taxa[k] < 0) {
+                    int parent = tree.parents[k];
+                    if (parent < 0 || tree.firstChildren[parent] == k) {
+                        byRight[nodeMax[k]] = k;
+                    } else {
+                        byLeft[nodeMin[k]] = k;
+                    }
+                }
+            }
+
+            // other trees may have a different number of nodes if there are polytomies
+            final int maxNodeCount = 2 * taxonCount - 1;
+            otherMin = new int[maxNodeCount];
+            otherMax = new int[maxNodeCount];
+            otherSize = new int[maxNodeCount];
+        }
+
+        /**
+         * @return the node in the row tree with the clade [min, max], or -1 if there isn't one
+         */
+        private int findClade(int min, int max) {
+            int node = byRight[max];
+            if (node >= 0 && nodeMin[node] == min) {
+                return node;
+            }
+            node = byLeft[min];
+            if (node >= 0 && nodeMax[node] == max) {
+                return node;
+            }
+            return -1;
+        }
+
+        double getDistance(EncodedTree other) {
+            if (other.taxonCount != tree.taxonCount) {
+                throw new IllegalArgumentException("Different number of taxa in both trees.");
+            }
+
+            if (path != null) {
+                getPath(other, otherPath);
+                double distance = 0.0;
+                for (int i = 0; i < path.length; i++) {
+                    double difference = path[i] - otherPath[i];
+                    distance += difference * difference;
+                }
+                return Math.sqrt(distance);
+            }
+
+            final boolean branchScore = type != TreeMetric.Type.ROBINSON_FOULDS;
+
+            Arrays.fill(matched, false);
+
+            int sharedCount = 0;
+            double distance = 0.0;
+            for (int k = 0; k < other.nodeCount; k++) {
+                int taxon = other.taxa[k];
+                if (taxon >= 0) {
+                    otherMin[k] = ranks[taxon];
+                    otherMax[k] = ranks[taxon];
+                    otherSize[k] = 1;
+                } else {
+                    int node = -1;
+                    if (otherMax[k] - otherMin[k] + 1 == otherSize[k]) {
+                        node = findClade(otherMin[k], otherMax[k]);
+                    }
+                    if (node >= 0) {
+                        matched[node] = true;
+                        sharedCount++;
+                    }
+                    if (branchScore) {
+                        double length = other.getBranchLength(k);
+                        if (node >= 0) {
+                            length -= tree.getBranchLength(node);
+                        }
+                        distance += length * length;
+                    }
+                }
+
+                // pass the clade up to the parent (which is later in the post-order)
+                int parent = other.parents[k];
+                if (parent >= 0) {
+                    if (other.firstChildren[parent] == k) {
+                        otherMin[parent] = otherMin[k];
+                        otherMax[parent] = otherMax[k];
+                        otherSize[parent] = otherSize[k];
+                    } else {
+                        otherMin[parent] = Math.min(otherMin[parent], otherMin[k]);
+                        otherMax[parent] = Math.max(otherMax[parent], otherMax[k]);
+                        otherSize[parent] += otherSize[k];
+                    }
+                }
+            }
+
+            if (!branchScore) {
+                return ((tree.internalNodeCount - sharedCount) + (other.internalNodeCount - sharedCount)) / 2.0;
+            }
+
+            for (int k = 0; k < tree.nodeCount; k++) {
+                if (tree.taxa[k] < 0 && !matched[k]) {
+                    double length = tree.getBranchLength(k);
+                    distance += length * length;
+                }
+            }
+
+            if (type == TreeMetric.Type.ROOTED_BRANCH_SCORE) {
+                for (int taxon = 0; taxon < tree.taxonCount; taxon++) {
+                    double difference = tree.getBranchLength(tree.tips[taxon]) - other.getBranchLength(other.tips[taxon]);
+                    distance += difference * difference;
+                }
+            }
+
+            return Math.sqrt(distance);
+        }
+
+        private final EncodedTree tree;
+
+        private int[] ranks;
+        private int[] nodeMin;
+        private int[] nodeMax;
+        private int[] byRight;
+        private int[] byLeft;
+        private boolean[] matched;
+
+        private int[] otherMin;
+        private int[] otherMax;
+        private int[] otherSize;
+
+        private double[] path;
+        private double[] otherPath;
+    }
+
+    private static int getPathLength(int taxonCount) {
+        // the pairs of taxa and the diagonal (which is only used by Kendall-Colijn)
+        return taxonCount * (taxonCount - 1) / 2 + taxonCount;
+    }
+
+    private static int getPathIndex(int taxon1, int taxon2) {
+        if (taxon1 < taxon2) {
+            return taxon2 * (taxon2 + 1) / 2 + taxon1;
+        }
+        return taxon1 * (taxon1 + 1) / 2 + taxon2;
+    }
+
+    /**
+     * Fills in the path vector of a tree. For Steel-Penny this is the path length between each
+     * pair of taxa and for Kendall-Colijn it is the weighted number of edges and length from the
+     * root to their common ancestor (and the branch above each tip on the diagonal). Each pair is
+     * visited at its common ancestor by pairing the taxa of each child with those of the earlier
+     * children, which are the ranks just before it in the tree's own order.
+     */
+    private void getPath(EncodedTree tree, double[] path) {
+        final boolean steelPenny = type == TreeMetric.Type.STEEL_PENNY;
+        final int nodeCount = tree.nodeCount;
+
+        final int[] tipTaxa = new int[tree.taxonCount];
+        final double[] tipHeights = new double[tree.taxonCount];
+        final int[] nodeMin = new int[nodeCount];
+        final int[] nodeMax = new int[nodeCount];
+
+        int rank = 0;
+        for (int k = 0; k < nodeCount; k++) {
+            if (tree.taxa[k] >= 0) {
+                tipTaxa[rank] = tree.taxa[k];
+                tipHeights[rank] = tree.heights[k];
+                nodeMin[k] = rank;
+                nodeMax[k] = rank;
+                rank++;
+            } else {
+                nodeMin[k] = nodeMin[tree.firstChildren[k]];
+                nodeMax[k] = rank - 1;
+            }
+        }
+
+        // the number of edges and length from the root to each node (parents are visited first)
+        final int[] depths = new int[nodeCount];
+        final double[] lengths = new double[nodeCount];
+        for (int k = nodeCount - 2; k >= 0; k--) {
+            int parent = tree.parents[k];
+            depths[k] = depths[parent] + 1;
+            lengths[k] = lengths[parent] + tree.getBranchLength(k);
+        }
+
+        for (int k = 0; k < nodeCount; k++) {
+            int parent = tree.parents[k];
+            if (tree.taxa[k] >= 0) {
+                path[getPathIndex(tree.taxa[k], tree.taxa[k])] = steelPenny ? 0.0 :
+                        (1.0 - lambda) + lambda * tree.getBranchLength(k);
+            }
+            if (parent < 0 || tree.firstChildren[parent] == k) {
+                continue;
+            }
+            double value = steelPenny ? 2.0 * tree.heights[parent] :
+                    (1.0 - lambda) * depths[parent] + lambda * lengths[parent];
+            for (int a = nodeMin[parent]; a < nodeMin[k]; a++) {
+                for (int b = nodeMin[k]; b <= nodeMax[k]; b++) {
+                    path[getPathIndex(tipTaxa[a], tipTaxa[b])] = steelPenny ?
+                            value - tipHeights[a] - tipHeights[b] : value;
+                }
+            }
+        }
+    }
+
+    /**
+     * A tree as arrays indexed by the position of each node in a depth-first post-order, so
+     * children come before their parents and the taxa of each clade are contiguous.
+     */
+    private static class EncodedTree {
+
+        EncodedTree(Tree tree, Map<String, Integer> taxonIndices) {
+            nodeCount = tree.getNodeCount();
+            taxonCount = tree.getExternalNodeCount();
+            internalNodeCount = tree.getInternalNodeCount();
+
+            if (taxonCount != taxonIndices.size()) {
+                throw new IllegalArgumentException("Different number of taxa in both trees.");
+            }
+
+            parents = new int[nodeCount];
+            firstChildren = new int[nodeCount];
+            taxa = new int[nodeCount];
+            heights = new double[nodeCount];
+            tips = new int[taxonCount];
+
+            // an explicit stack as trees can be too deep to recurse
+            final int[] positions = new int[nodeCount];
+            final NodeRef[] stack = new NodeRef[nodeCount];
+            final int[] nextChild = new int[nodeCount];
+            int top = 0;
+            stack[0] = tree.getRoot();
+            int position = 0;
+            while (top >= 0) {
+                NodeRef node = stack[top];
+                if (nextChild[top] < tree.getChildCount(node)) {
+                    NodeRef child = tree.getChild(node, nextChild[top]);
+                    nextChild[top]++;
+                    top++;
+                    stack[top] = child;
+                    nextChild[top] = 0;
+                } else {
+                    positions[node.getNumber()] = position;
+                    heights[position] = tree.getNodeHeight(node);
+                    if (tree.isExternal(node)) {
+                        String id = tree.getNodeTaxon(node).getId();
+                        Integer taxon = taxonIndices.get(id);
+                        if (taxon == null) {
+                            throw new IllegalArgumentException("Mismatch between taxa in trees: " + id + " not found");
+                        }
+                        taxa[position] = taxon;
+                        tips[taxon] = position;
+                    } else {
+                        taxa[position] = -1;
+                        firstChildren[position] = positions[tree.getChild(node, 0).getNumber()];
+                    }
+                    position++;
+                    top--;
+                }
+            }
+
+            for (int i = 0; i < nodeCount; i++) {
+                NodeRef node = tree.getNode(i);
+                parents[positions[i]] = tree.isRoot(node) ? -1 : positions[tree.getParent(node).getNumber()];
+            }
+        }
+
+        /**
+         * @return the length of the branch above a node (zero for the root)
+         */
+        double getBranchLength(int node) {
+            return parents[node] < 0 ? 0.0 : heights[parents[node]] - heights[node];
+        }
+
+        final int nodeCount;
+        final int taxonCount;
+        final int internalNodeCount;
+
+        // all indexed by post-order position
+        final int[] parents;
+        final int[] firstChildren;
+        final int[] taxa;
+        final double[] heights;
+
+        // the position of each taxon's tip
+        final int[] tips;
+    }
+
+    private final TreeMetric.Type type;
+    private final double lambda;
+}
@@ -120,6 +120,15 @@ public class BranchScoreMetric implements TreeMetric {
             }
         }
 
+        // the clades of the second tree that sort after all those of the first
+        while (indexClade2 < clades2.size()) {
+            clade2 = clades2.get(indexClade2);
+            parent2 = findParent(clade2, clades2);
+            height2 = parent2.getHeight() - clade2.getHeight();
+            distance += height2 * height2;
+            indexClade2++;
+        }
+
         return Math.sqrt(distance);
     }
 
@@ -71,6 +71,10 @@ public class KendallColijnPathDifferenceMetric implements TreeMetric {
         traverse(focalTree, focalTree.getRoot(), 0.0, 0, focalLargeM, focalSmallM);
     }
 
+    public double getLambda() {
+        return lambda;
+    }
+
     /**
      * Compute the metric between two trees. If tree1 is not the focal tree provided to the
      * constructor then it will store this as the new focal tree. If the focal tree is constant
@@ -0,0 +1,58 @@
+/*
+ * TreeDistanceMatrix.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.evolution.tree.treemetrics;
+
+import dr.util.PackedLowerTriangle;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A symmetric matrix of distances between trees, with a zero diagonal, held as the packed lower
+ * triangle in a memory-mapped file so that the matrix for many thousands of trees doesn't need to
+ * fit on the heap.
+ * <p/>
+ * Distinct elements can be set from different threads at the same time.
+ *
+ * @author agent
+ */
+public class TreeDistanceMatrix extends PackedLowerTriangle {
+
+    /**
+     * Creates a matrix in a temporary file that is deleted on exit.
+     */
+    public TreeDistanceMatrix(int size) throws IOException {
+        this(createTempFile(), size);
+    }
+
+    /**
+     * Creates a matrix in the given file. Any existing contents are overwritten.
+     */
+    public TreeDistanceMatrix(File file, int size) throws IOException {
+        super(size, file);
+    }
+}
@@ -477,7 +477,7 @@ public class NewAntigenicLikelihood extends AbstractModelLikelihood implements C
             core = new MassivelyParallelMDSImpl();
         } else {
             System.err.println("Compute mode found: " + flags);
-            core = new MultiDimensionalScalingCoreImpl();
+            core = new MultiThreadedMDSImpl();
         }
 
         if (isLeftTruncated) {
@@ -31,6 +31,7 @@ import dr.evolution.tree.*;
 import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
 import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.NodeChangeJournal;
 import dr.evomodel.tree.TreeChangedEvent;
 import dr.evomodel.tree.TreeModel;
 import dr.inference.model.Model;
@@ -41,7 +42,8 @@ import java.util.Iterator;
 
 /**
  * A model component for trees. This version uses flat arrays for nodes and heights to maximize
- * speed (particularly storing/restoring) on very large trees.
+ * speed (particularly storing/restoring) on very large trees. The nodes that change are journalled
+ * so storing and restoring only copy those rather than the whole tree.
  *
  * @author Andrew Rambaut
  */
@@ -91,6 +93,8 @@ public class BigFastTreeModel extends TreeModel {
         heights = new double[nodeCount];
         storedHeights = new double[nodeCount];
 
+        journal = new NodeChangeJournal(nodeCount);
+
         boolean done = false;
         NodeRef node = binaryTree.getRoot();
         do {
@@ -119,6 +123,8 @@ public class BigFastTreeModel extends TreeModel {
             heights[number] = binaryTree.getNodeHeight(node);
 
         } while (!done);
+
+        journal.allNodesChanged();
     }
 
     protected void copyTopology(Tree tree){
@@ -154,6 +160,8 @@ public class BigFastTreeModel extends TreeModel {
             heights[number] = binaryTree.getNodeHeight(node);
 
         } while (!done);
+
+        journal.allNodesChanged();
     };
 
 
@@ -341,12 +349,14 @@ public class BigFastTreeModel extends TreeModel {
     }
 
     private void setParent(int nodeNumber, int parentNumber) {
-         edges[(nodeNumber * 3)] = parentNumber;
+        edges[(nodeNumber * 3)] = parentNumber;
+        journal.nodeChanged(nodeNumber);
     }
 
     private void setChild(int nodeNumber, int i, int childNumber) {
         assert i == 0 || i == 1;
         edges[(nodeNumber * 3) + i + 1] = childNumber;
+        journal.nodeChanged(nodeNumber);
     }
 
     // *****************************************************************
@@ -432,12 +442,14 @@ public class BigFastTreeModel extends TreeModel {
     @Override
     public void setNodeHeight(NodeRef node, double height) {
         heights[node.getNumber()] = height;
+        journal.nodeChanged(node.getNumber());
         pushTreeChangedEvent(TreeChangedEvent.create(node, true));
     }
 
     @Override
     public void setNodeHeightQuietly(NodeRef n, double height) {
         heights[n.getNumber()] = height;
+        journal.nodeChanged(n.getNumber());
     }
 
     @Override
@@ -561,12 +573,15 @@ public class BigFastTreeModel extends TreeModel {
     // *****************************************************************
 
     /**
-     * Store current state
+     * Store current state. The stored arrays mirror the current ones except for the nodes that
+     * have changed since they were last stored (or restored) so only those need copying.
      */
     @Override
     protected void storeState() {
-        System.arraycopy(edges, 0, storedEdges, 0, edges.length);
-        System.arraycopy(heights, 0, storedHeights, 0, heights.length);
+        for (int i = 0, n = journal.getChangedNodeCount(); i < n; i++) {
+            copyNode(journal.getChangedNode(i), edges, heights, storedEdges, storedHeights);
+        }
+        journal.clear();
 
         storedRoot = root;
 
@@ -578,17 +593,23 @@ public class BigFastTreeModel extends TreeModel {
     @Override
     protected void restoreState() {
 
-        int[] tmp = storedEdges;
-        storedEdges = edges;
-        edges = tmp;
-
-        double[] tmp2 = storedHeights;
-        storedHeights = heights;
-        heights = tmp2;
+        for (int i = 0, n = journal.getChangedNodeCount(); i < n; i++) {
+            copyNode(journal.getChangedNode(i), storedEdges, storedHeights, edges, heights);
+        }
+        journal.clear();
 
         root = storedRoot;
     }
 
+    private static void copyNode(int nodeNumber, int[] sourceEdges, double[] sourceHeights,
+                                 int[] destinationEdges, double[] destinationHeights) {
+        final int k = nodeNumber * 3;
+        destinationEdges[k] = sourceEdges[k];
+        destinationEdges[k + 1] = sourceEdges[k + 1];
+        destinationEdges[k + 2] = sourceEdges[k + 2];
+        destinationHeights[nodeNumber] = sourceHeights[nodeNumber];
+    }
+
     /**
      * accept the stored state
      */
@@ -673,11 +694,16 @@ public class BigFastTreeModel extends TreeModel {
     /**
      * list of internal nodes (including root)
      */
-    private int[] edges = null;
-    private int[] storedEdges = null;
+    private final int[] edges;
+    private final int[] storedEdges;
+
+    private final double[] heights;
+    private final double[] storedHeights;
 
-    private double[] heights = null;
-    private double[] storedHeights = null;
+    /**
+     * the nodes that have changed since the stored arrays were last brought up to date
+     */
+    private final NodeChangeJournal journal;
 
     private final NodeRef[] nodes;
 
@@ -1092,10 +1092,10 @@ public class SpeciesTreeModel extends AbstractModel implements
         anyChange = false;
     }
 
-    String previousTopology = null;
+    TopologyFingerprint previousTopology = null;
 
     public boolean logNow(long state) {
-        final String curTop = TreeUtils.uniqueNewick(spTree, spTree.getRoot());
+        final TopologyFingerprint curTop = new TopologyFingerprint(spTree);
         if (state == 0 || !curTop.equals(previousTopology)) {
             previousTopology = curTop;
             return true;
@@ -105,6 +105,25 @@ public abstract class BaseSubstitutionModel extends AbstractModel
 
         q = new double[stateCount][stateCount];
 
+        setEigenDecompositionCache(EigenDecompositionCache.getSharedCache());
+
+        updateMatrix = true;
+    }
+
+    /**
+     * Sets the cache of decompositions and transition matrices (by default the shared cache,
+     * if it is turned on).
+     *
+     * @param cache the cache or null to turn off caching for this model
+     */
+    public void setEigenDecompositionCache(EigenDecompositionCache cache) {
+        if (eigenSystem == null) {
+            return;
+        }
+        this.cache = cache;
+        cacheValues = (cache != null ? new double[stateCount * stateCount + 1] : null);
+        cacheEntry = null;
+        storedCacheEntry = null;
         updateMatrix = true;
     }
 
@@ -151,8 +170,14 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         System.arraycopy(relativeRates, 0, storedRelativeRates, 0, rateCount);
 
         if (eigenDecomposition != null) {
-            storedEigenDecomposition = eigenDecomposition.copy();
+            if (getCacheEntry(eigenDecomposition) != null) {
+                // decompositions in the cache are never changed so can be shared
+                storedEigenDecomposition = eigenDecomposition;
+            } else {
+                storedEigenDecomposition = eigenDecomposition.copy();
+            }
         }
+        storedCacheEntry = cacheEntry;
     }
 
     /**
@@ -171,6 +196,9 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         storedEigenDecomposition = eigenDecomposition;
         eigenDecomposition = tmp;
 
+        EigenDecompositionCache.Entry tmp2 = storedCacheEntry;
+        storedCacheEntry = cacheEntry;
+        cacheEntry = tmp2;
     }
 
     protected void acceptState() {
@@ -209,6 +237,10 @@ public abstract class BaseSubstitutionModel extends AbstractModel
             return;
         }
 
+        if (getCachedTransitionProbabilities(eigen, distance, matrix)) {
+            return;
+        }
+
         double[] Evec = eigen.getEigenVectors();
         double[] Ievc = eigen.getInverseEigenVectors();
         double[] Eval = eigen.getEigenValues();
@@ -235,6 +267,41 @@ public abstract class BaseSubstitutionModel extends AbstractModel
                 u++;
             }
         }
+
+        cacheTransitionProbabilities(eigen, distance, matrix);
+    }
+
+    /**
+     * Copies the transition probability matrix for the given distance from the shared cache, if
+     * the decomposition came from the cache and the matrix has been computed before.
+     *
+     * @return true if the matrix was found
+     */
+    protected boolean getCachedTransitionProbabilities(EigenDecomposition eigen, double distance, double[] matrix) {
+        EigenDecompositionCache.Entry entry = getCacheEntry(eigen);
+        return entry != null && cache.getTransitionProbabilities(entry, distance, matrix);
+    }
+
+    /**
+     * Adds a transition probability matrix computed from the given decomposition to the shared
+     * cache, if the decomposition came from the cache.
+     */
+    protected void cacheTransitionProbabilities(EigenDecomposition eigen, double distance, double[] matrix) {
+        EigenDecompositionCache.Entry entry = getCacheEntry(eigen);
+        if (entry != null) {
+            cache.putTransitionProbabilities(entry, distance, matrix);
+        }
+    }
+
+    /**
+     * @return the cache entry of the given decomposition or null if it didn't come from the cache
+     * (e.g., a subclass has computed or restored its own).
+     */
+    private EigenDecompositionCache.Entry getCacheEntry(EigenDecomposition eigen) {
+        if (cacheEntry != null && cacheEntry.getEigenDecomposition() == eigen) {
+            return cacheEntry;
+        }
+        return null;
     }
 
     /**
@@ -270,11 +337,35 @@ public abstract class BaseSubstitutionModel extends AbstractModel
 
         double normalization = setupMatrix();
 
+        if (cache != null) {
+            int k = 0;
+            for (int i = 0; i < stateCount; i++) {
+                System.arraycopy(q[i], 0, cacheValues, k, stateCount);
+                k += stateCount;
+            }
+            cacheValues[k] = normalization;
+
+            cacheEntry = cache.getEntry(getClass(), eigenSystem.getClass(), cacheValues);
+            if (cacheEntry != null) {
+                eigenDecomposition = cacheEntry.getEigenDecomposition();
+                updateMatrix = false;
+                return;
+            }
+        }
+
         eigenDecomposition = eigenSystem.decomposeMatrix(q);
 
         if (eigenDecomposition != null)
             eigenDecomposition.normalizeEigenValues(normalization);
 
+        if (cache != null && eigenDecomposition != null) {
+            cacheEntry = cache.putEntry(getClass(), eigenSystem.getClass(), cacheValues, eigenDecomposition);
+            if (cacheEntry != null) {
+                // another model may have added the same matrix in the meantime
+                eigenDecomposition = cacheEntry.getEigenDecomposition();
+            }
+        }
+
         updateMatrix = false;
     }
 
@@ -416,4 +507,9 @@ public abstract class BaseSubstitutionModel extends AbstractModel
     protected EigenDecomposition eigenDecomposition;
     private EigenDecomposition storedEigenDecomposition;
 
+    // the optional cache shared between models and the entry of the current decomposition
+    private EigenDecompositionCache cache;
+    private double[] cacheValues;
+    private EigenDecompositionCache.Entry cacheEntry = null;
+    private EigenDecompositionCache.Entry storedCacheEntry = null;
 }
\ No newline at end of file
@@ -112,7 +112,14 @@ public class ComplexSubstitutionModel extends GeneralSubstitutionModel implement
      * @param matrix   an array to store the matrix
      */
     public void getTransitionProbabilities(double distance, double[] matrix) {
-        getTransitionProbabilities(distance, matrix, getEigenDecomposition());
+        EigenDecomposition eigen = getEigenDecomposition();
+        if (eigen != null && getCachedTransitionProbabilities(eigen, distance, matrix)) {
+            return;
+        }
+        getTransitionProbabilities(distance, matrix, eigen);
+        if (eigen != null) {
+            cacheTransitionProbabilities(eigen, distance, matrix);
+        }
     }
 
     protected void getTransitionProbabilities(double distance, double[] matrix, EigenDecomposition eigen) {
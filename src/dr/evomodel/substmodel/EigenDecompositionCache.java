@@ -0,0 +1,333 @@
+/*
+ * EigenDecompositionCache.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.evomodel.substmodel;
+
+import dr.xml.Reportable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A bounded, least recently used cache of normalized eigendecompositions, and the transition
+ * probability matrices computed from them, shared by all the substitution models in a run. The
+ * key is the full rate matrix (after the rates and frequencies have been set up) with its
+ * normalization, so branch-specific models with the same rate matrix share an entry, as does a
+ * model that returns to a rate matrix it had before a rejected move.
+ * <p/>
+ * Keys are compared element by element, not just by their hash, so a lookup can never return the
+ * decomposition of a different matrix. Cached decompositions are shared and must not be changed.
+ * <p/>
+ * The cache is turned off by default. It is turned on by setting the system property
+ * 'eigen.cache.memory' to a memory budget in megabytes (the BEAST option '-eigen_cache').
+ *
+ * @author agent
+ */
+public class EigenDecompositionCache implements Reportable {
+
+    public static final String MEMORY_PROPERTY = "eigen.cache.memory";
+
+    // rough allowances for the objects around each cached array
+    private static final long ENTRY_OVERHEAD = 256;
+    private static final long MATRIX_OVERHEAD = 64;
+
+    /**
+     * @return the cache shared by all substitution models or null if caching is turned off.
+     */
+    public static EigenDecompositionCache getSharedCache() {
+        synchronized (EigenDecompositionCache.class) {
+            if (!sharedCacheCreated) {
+                sharedCacheCreated = true;
+                long megabytes = 0;
+                try {
+                    megabytes = Long.parseLong(System.getProperty(MEMORY_PROPERTY, "0").trim());
+                } catch (NumberFormatException nfe) {
+                    Logger.getLogger("dr.evomodel").warning("Unable to parse the eigendecomposition cache size: " +
+                            System.getProperty(MEMORY_PROPERTY));
+                }
+                if (megabytes > 0) {
+                    sharedCache = new EigenDecompositionCache(megabytes << 20);
+                    Logger.getLogger("dr.evomodel").info("Caching eigendecompositions and transition matrices in up to " +
+                            megabytes + " MB");
+                }
+            }
+            return sharedCache;
+        }
+    }
+
+    /**
+     * @param maxBytes the approximate memory budget in bytes
+     */
+    public EigenDecompositionCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The cache size must be greater than zero");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up the decomposition of a rate matrix.
+     *
+     * @param model  the class of the model
+     * @param system the class of the eigen system used to decompose the matrix
+     * @param values the rate matrix and its normalization (not retained)
+     * @return the entry or null if the matrix is not in the cache
+     */
+    public synchronized Entry getEntry(Class model, Class system, double[] values) {
+        Entry entry = entries.get(new Key(model, system, values));
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the decomposition of a rate matrix, evicting the least recently used entries as needed.
+     *
+     * @param model         the class of the model
+     * @param system        the class of the eigen system used to decompose the matrix
+     * @param values        the rate matrix and its normalization (copied)
+     * @param decomposition the normalized decomposition which must not be changed after this call
+     * @return the entry or null if the decomposition is too large to be cached
+     */
+    public synchronized Entry putEntry(Class model, Class system, double[] values, EigenDecomposition decomposition) {
+        Key key = new Key(model, system, values.clone());
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            // added by another model in the meantime
+            return entry;
+        }
+
+        entry = new Entry(key, decomposition);
+        if (entry.bytes > maxBytes) {
+            return null;
+        }
+        entries.put(key, entry);
+        bytes += entry.bytes;
+        evict(entry);
+        return entry;
+    }
+
+    /**
+     * Copies the transition probability matrix for a distance into the given array if it is in the cache.
+     *
+     * @return true if the matrix was found
+     */
+    public synchronized boolean getTransitionProbabilities(Entry entry, double distance, double[] matrix) {
+        double[] cached = entry.matrices.get(distance);
+        if (cached == null) {
+            matrixMissCount++;
+            return false;
+        }
+        matrixHitCount++;
+        System.arraycopy(cached, 0, matrix, 0, cached.length);
+        return true;
+    }
+
+    /**
+     * Adds a copy of the transition probability matrix for a distance to an entry.
+     */
+    public synchronized void putTransitionProbabilities(Entry entry, double distance, double[] matrix) {
+        if (entry.evicted || entry.matrices.containsKey(distance)) {
+            return;
+        }
+        long matrixBytes = getMatrixBytes(matrix);
+        if (entry.bytes + matrixBytes > maxBytes) {
+            return;
+        }
+        entry.matrices.put(distance, matrix.clone());
+        entry.bytes += matrixBytes;
+        bytes += matrixBytes;
+        evict(entry);
+    }
+
+    /**
+     * Evicts the least recently used entries, and then the least recently used matrices of the given entry,
+     * until the cache fits within its budget.
+     */
+    private void evict(Entry keep) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry != keep) {
+                iterator.remove();
+                entry.evicted = true;
+                bytes -= entry.bytes;
+                evictionCount++;
+            }
+        }
+
+        Iterator<double[]> matrices = keep.matrices.values().iterator();
+        while (bytes > maxBytes && matrices.hasNext()) {
+            long matrixBytes = getMatrixBytes(matrices.next());
+            matrices.remove();
+            keep.bytes -= matrixBytes;
+            bytes -= matrixBytes;
+        }
+    }
+
+    private static long getMatrixBytes(double[] matrix) {
+        return 8L * matrix.length + MATRIX_OVERHEAD;
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.evicted = true;
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getMatrixHitCount() {
+        return matrixHitCount;
+    }
+
+    public synchronized long getMatrixMissCount() {
+        return matrixMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the approximate memory used in bytes
+     */
+    public synchronized long getSize() {
+        return bytes;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    public synchronized String getReport() {
+        return "Eigendecomposition cache: " +
+                hitCount + " hits, " + missCount + " misses (" + formatRatio(hitCount, missCount) + "); " +
+                "transition matrices: " + matrixHitCount + " hits, " + matrixMissCount + " misses (" +
+                formatRatio(matrixHitCount, matrixMissCount) + "); " +
+                entries.size() + " entries using " + (bytes >> 20) + " of " + (maxBytes >> 20) + " MB, " +
+                evictionCount + " evicted";
+    }
+
+    private static String formatRatio(long hits, long misses) {
+        if (hits + misses == 0) {
+            return "-";
+        }
+        return String.format("%.1f%%", 100.0 * hits / (hits + misses));
+    }
+
+    public static final class Entry {
+
+        private Entry(Key key, EigenDecomposition decomposition) {
+            this.decomposition = decomposition;
+            bytes = ENTRY_OVERHEAD + 8L * (key.values.length +
+                    decomposition.getEigenVectors().length +
+                    decomposition.getInverseEigenVectors().length +
+                    decomposition.getEigenValues().length);
+        }
+
+        public EigenDecomposition getEigenDecomposition() {
+            return decomposition;
+        }
+
+        private final EigenDecomposition decomposition;
+
+        // transition matrices keyed by distance in access order
+        private final Map<Double, double[]> matrices = new LinkedHashMap<Double, double[]>(16, 0.75f, true);
+
+        private long bytes;
+        private boolean evicted = false;
+    }
+
+    private static final class Key {
+
+        private Key(Class model, Class system, double[] values) {
+            this.model = model;
+            this.system = system;
+            this.values = values;
+
+            long h = 31L * model.hashCode() + system.hashCode();
+            for (double value : values) {
+                h = (h ^ Double.doubleToLongBits(value)) * 0x9E3779B97F4A7C15L;
+                h ^= h >>> 29;
+            }
+            hash = (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && model == other.model && system == other.system &&
+                    Arrays.equals(values, other.values);
+        }
+
+        private final Class model;
+        private final Class system;
+        private final double[] values;
+        private final int hash;
+    }
+
+    private static EigenDecompositionCache sharedCache = null;
+    private static boolean sharedCacheCreated = false;
+
+    private final long maxBytes;
+
+    // entries in access order so the eldest is the least recently used
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long matrixHitCount = 0;
+    private long matrixMissCount = 0;
+    private long evictionCount = 0;
+}
@@ -32,8 +32,10 @@ import dr.evolution.util.Taxon;
 import dr.inference.model.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -98,7 +100,11 @@ public class DefaultTreeModel extends TreeModel {
         nodeCount = internalNodeCount + externalNodeCount;
 
         nodes = new Node[nodeCount];
-        storedNodes = new Node[nodeCount];
+        storedEdges = new int[nodeCount * 3];
+        storedHeightParameters = new Parameter[nodeCount];
+        storedRateParameters = new Parameter[nodeCount];
+        storedTraitParameters = new ArrayList<Map<String, Parameter>>(
+                Collections.<Map<String, Parameter>>nCopies(nodeCount, null));
 
         int i = 0;
         int j = externalNodeCount;
@@ -112,22 +118,21 @@ public class DefaultTreeModel extends TreeModel {
                 node.number = i;
 
                 nodes[i] = node;
-                storedNodes[i] = new Node();
-                storedNodes[i].taxon = node.taxon;
-                storedNodes[i].number = i;
 
                 i++;
             } else {
                 node.number = j;
 
                 nodes[j] = node;
-                storedNodes[j] = new Node();
-                storedNodes[j].number = j;
 
                 j++;
             }
         } while (node != root);
 
+        // nothing has been stored yet
+        journal = new NodeChangeJournal(nodeCount);
+        journal.allNodesChanged();
+
         // must be done here to allow programmatic running of BEAST
         setupHeightBounds();
     }
@@ -461,11 +466,27 @@ public class DefaultTreeModel extends TreeModel {
     // *****************************************************************
 
     /**
-     * Store current state
+     * Store current state. The parameter values are automatically stored. The stored links and
+     * parameter objects mirror the current ones except for the nodes that have changed since they
+     * were last stored (or restored) so only those need copying.
      */
     protected void storeState() {
 
-        copyNodeStructure(storedNodes);
+        for (int i = 0, n = journal.getChangedNodeCount(); i < n; i++) {
+            Node node = nodes[journal.getChangedNode(i)];
+            final int number = node.getNumber();
+            final int k = number * 3;
+            storedEdges[k] = getNodeNumber(node.parent);
+            storedEdges[k + 1] = getNodeNumber(node.leftChild);
+            storedEdges[k + 2] = getNodeNumber(node.rightChild);
+
+            // the parameter objects are swapped between nodes when the root changes
+            storedHeightParameters[number] = node.heightParameter;
+            storedRateParameters[number] = node.rateParameter;
+            storedTraitParameters.set(number, node.traitParameters);
+        }
+        journal.clear();
+
         storedRootNumber = root.getNumber();
 
     }
@@ -475,78 +496,68 @@ public class DefaultTreeModel extends TreeModel {
      */
     protected void restoreState() {
 
-        Node[] tmp = storedNodes;
-        storedNodes = nodes;
-        nodes = tmp;
+        for (int i = 0, n = journal.getChangedNodeCount(); i < n; i++) {
+            Node node = nodes[journal.getChangedNode(i)];
+            final int number = node.getNumber();
+            final int k = number * 3;
+            node.parent = getNodeOrNull(storedEdges[k]);
+            node.leftChild = getNodeOrNull(storedEdges[k + 1]);
+            node.rightChild = getNodeOrNull(storedEdges[k + 2]);
 
-        root = nodes[storedRootNumber];
+            node.heightParameter = storedHeightParameters[number];
+            node.rateParameter = storedRateParameters[number];
+            node.traitParameters = storedTraitParameters.get(number);
+            remapParameterNodes(node);
+        }
+        journal.clear();
 
-        remapParameterNodes();
+        root = nodes[storedRootNumber];
 
     }
 
     private void remapParameterNodes() {
         for (Node node : nodes) {
-            parameterNodeMap.put(node.heightParameter, node);
-            if (hasRates) {
-                parameterNodeMap.put(node.rateParameter, node);
-            }
-            if (hasTraits) {
-                for (Parameter trait : node.traitParameters.values()) {
-                    parameterNodeMap.put(trait, node);
-                }
-            }
+            remapParameterNodes(node);
         }
     }
 
-    /**
-     * accept the stored state
-     */
-    protected void acceptState() {
-    } // nothing to do
-
-    /**
-     * Copies the node connections from this TreeModel's nodes array to the
-     * destination array. Basically it connects up the nodes in destination
-     * in the same way as this TreeModel is set up. This method is package
-     * private.
-     */
-    private void copyNodeStructure(Node[] destination) {
-
-        if (nodes.length != destination.length) {
-            throw new IllegalArgumentException("Node arrays are of different lengths");
+    private void remapParameterNodes(Node node) {
+        parameterNodeMap.put(node.heightParameter, node);
+        if (hasRates) {
+            parameterNodeMap.put(node.rateParameter, node);
         }
-
-        for (int i = 0, n = nodes.length; i < n; i++) {
-            Node node0 = nodes[i];
-            Node node1 = destination[i];
-
-            // the parameter values are automatically stored and restored
-            // just need to keep the links
-            node1.heightParameter = node0.heightParameter;
-            node1.rateParameter = node0.rateParameter;
-            node1.traitParameters = node0.traitParameters;
-
-            if (node0.parent != null) {
-                node1.parent = storedNodes[node0.parent.getNumber()];
-            } else {
-                node1.parent = null;
+        if (hasTraits) {
+            for (Parameter trait : node.traitParameters.values()) {
+                parameterNodeMap.put(trait, node);
             }
+        }
+    }
 
-            if (node0.leftChild != null) {
-                node1.leftChild = storedNodes[node0.leftChild.getNumber()];
-            } else {
-                node1.leftChild = null;
-            }
+    private static int getNodeNumber(Node node) {
+        return node != null ? node.getNumber() : -1;
+    }
 
-            if (node0.rightChild != null) {
-                node1.rightChild = storedNodes[node0.rightChild.getNumber()];
-            } else {
-                node1.rightChild = null;
-            }
+    private Node getNodeOrNull(int number) {
+        return number != -1 ? nodes[number] : null;
+    }
+
+    /**
+     * Records that the links or parameter objects of a node have changed so they will be copied
+     * by the next store or restore.
+     */
+    private void nodeChanged(Node node) {
+        // the journal is created after the nodes have been constructed and numbered
+        if (journal != null) {
+            journal.nodeChanged(node.getNumber());
         }
     }
 
+    /**
+     * accept the stored state
+     */
+    protected void acceptState() {
+    } // nothing to do
+
     /**
      * Copies a different tree into the current treeModel. Needs to reconnect
      * the existing internal and external nodes, taking into account that the
@@ -914,6 +925,9 @@ public class DefaultTreeModel extends TreeModel {
      */
     private void swapParameterObjects(Node n1, Node n2) {
 
+        nodeChanged(n1);
+        nodeChanged(n2);
+
         double height1 = n1.getHeight();
         double height2 = n2.getHeight();
 
@@ -1033,6 +1047,7 @@ public class DefaultTreeModel extends TreeModel {
                 rateParameter.addBounds(new Parameter.DefaultBounds(Double.POSITIVE_INFINITY, 0.0, 1));
                 parameterNodeMap.put(rateParameter, this);
                 addVariable(rateParameter);
+                nodeChanged(this);
             }
         }
 
@@ -1178,6 +1193,8 @@ public class DefaultTreeModel extends TreeModel {
                 throw new IllegalArgumentException("TreeModel.Nodes can only have 2 children");
             }
             node.parent = this;
+            nodeChanged(this);
+            nodeChanged(node);
         }
 
         /**
@@ -1194,6 +1211,8 @@ public class DefaultTreeModel extends TreeModel {
                 throw new IllegalArgumentException("Unknown child node");
             }
             node.parent = null;
+            nodeChanged(this);
+            nodeChanged(node);
             return node;
         }
 
@@ -1214,6 +1233,8 @@ public class DefaultTreeModel extends TreeModel {
                 throw new IllegalArgumentException("TreeModel.Nodes can only have 2 children");
             }
             node.parent = null;
+            nodeChanged(this);
+            nodeChanged(node);
             return node;
         }
 
@@ -1295,7 +1316,19 @@ public class DefaultTreeModel extends TreeModel {
      * list of internal nodes (including root)
      */
     private Node[] nodes = null;
-    private Node[] storedNodes = null;
+
+    /**
+     * the stored parent, left and right child numbers of each node (-1 for none)
+     */
+    private int[] storedEdges = null;
+    private Parameter[] storedHeightParameters = null;
+    private Parameter[] storedRateParameters = null;
+    private List<Map<String, Parameter>> storedTraitParameters = null;
+
+    /**
+     * the nodes that have changed since the stored state was last brought up to date
+     */
+    private NodeChangeJournal journal = null;
 
     /**
      * number of nodes (including root and tips)
@@ -47,6 +47,9 @@ import java.util.*;
  * Before it can be used, considerable refactoring is required to switch from using node rates and traits
  * to TreeParameterModel
  *
+ * The node objects are kept for the life of the model. Their links are stored as node numbers and only
+ * the nodes that have changed since the last store are copied when storing or restoring.
+ *
  * @author Andrew Rambaut
  * @author Alexei Drummond
  */
@@ -109,7 +112,7 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
         nodeCount = internalNodeCount + externalNodeCount;
 
         nodes = new Node[nodeCount];
-        storedNodes = new Node[nodeCount];
+        storedEdges = new int[nodeCount * 3];
 
         int i = 0;
         int j = externalNodeCount;
@@ -123,22 +126,21 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
                 node.number = i;
 
                 nodes[i] = node;
-                storedNodes[i] = new Node();
-                storedNodes[i].taxon = node.taxon;
-                storedNodes[i].number = i;
 
                 i++;
             } else {
                 node.number = j;
 
                 nodes[j] = node;
-                storedNodes[j] = new Node();
-                storedNodes[j].number = j;
 
                 j++;
             }
         } while (node != root);
 
+        // nothing has been stored yet
+        journal = new NodeChangeJournal(nodeCount);
+        journal.allNodesChanged();
+
         // must be done here to allow programmatic running of BEAST
         setupHeightBounds();
     }
@@ -527,11 +529,21 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
     // *****************************************************************
 
     /**
-     * Store current state
+     * Store current state. The parameter values are automatically stored and the stored links
+     * mirror the current ones except for the nodes that have changed since they were last stored
+     * (or restored) so only those need copying.
      */
     protected void storeState() {
 
-        copyNodeStructure(storedNodes);
+        for (int i = 0, n = journal.getChangedNodeCount(); i < n; i++) {
+            Node node = nodes[journal.getChangedNode(i)];
+            final int k = node.getNumber() * 3;
+            storedEdges[k] = getNodeNumber(node.parent);
+            storedEdges[k + 1] = getNodeNumber(node.leftChild);
+            storedEdges[k + 2] = getNodeNumber(node.rightChild);
+        }
+        journal.clear();
+
         storedRootNumber = root.getNumber();
 
     }
@@ -541,9 +553,14 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
      */
     protected void restoreState() {
 
-        Node[] tmp = storedNodes;
-        storedNodes = nodes;
-        nodes = tmp;
+        for (int i = 0, n = journal.getChangedNodeCount(); i < n; i++) {
+            Node node = nodes[journal.getChangedNode(i)];
+            final int k = node.getNumber() * 3;
+            node.parent = getNodeOrNull(storedEdges[k]);
+            node.leftChild = getNodeOrNull(storedEdges[k + 1]);
+            node.rightChild = getNodeOrNull(storedEdges[k + 2]);
+        }
+        journal.clear();
 
         root = nodes[storedRootNumber];
     }
@@ -554,43 +571,21 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
     protected void acceptState() {
     } // nothing to do
 
-    /**
-     * Copies the node connections from this TreeModel's nodes array to the
-     * destination array. Basically it connects up the nodes in destination
-     * in the same way as this TreeModel is set up. This method is package
-     * private.
-     */
-    private void copyNodeStructure(Node[] destination) {
-
-        if (nodes.length != destination.length) {
-            throw new IllegalArgumentException("Node arrays are of different lengths");
-        }
-
-        for (int i = 0, n = nodes.length; i < n; i++) {
-            Node node0 = nodes[i];
-            Node node1 = destination[i];
-
-            // the parameter values are automatically stored and restored
-            // just need to keep the links
-            node1.heightParameter = node0.heightParameter;
-
-            if (node0.parent != null) {
-                node1.parent = storedNodes[node0.parent.getNumber()];
-            } else {
-                node1.parent = null;
-            }
+    private static int getNodeNumber(Node node) {
+        return node != null ? node.getNumber() : -1;
+    }
 
-            if (node0.leftChild != null) {
-                node1.leftChild = storedNodes[node0.leftChild.getNumber()];
-            } else {
-                node1.leftChild = null;
-            }
+    private Node getNodeOrNull(int number) {
+        return number != -1 ? nodes[number] : null;
+    }
 
-            if (node0.rightChild != null) {
-                node1.rightChild = storedNodes[node0.rightChild.getNumber()];
-            } else {
-                node1.rightChild = null;
-            }
+    /**
+     * Records that the links of a node have changed so they will be copied by the next store or restore.
+     */
+    private void nodeChanged(Node node) {
+        // the journal is created after the nodes have been constructed and numbered
+        if (journal != null) {
+            journal.nodeChanged(node.getNumber());
         }
     }
 
@@ -950,10 +945,9 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
 
         if (parameter == null) throw new IllegalArgumentException("Parameter is null!");
 
-        for (Node node : nodes) {
-            if (node.heightParameter == parameter) {
-                return node;
-            }
+        Node node = parameterNodeMap.get(parameter);
+        if (node != null) {
+            return node;
         }
 
         throw new RuntimeException("Parameter not found in any nodes:" + parameter.getId() + " " + parameter.hashCode());
@@ -1043,6 +1037,7 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
 
             heightParameter = new Parameter.Default(tree.getNodeHeight(node));
             addVariable(heightParameter);
+            parameterNodeMap.put(heightParameter, this);
 
             number = node.getNumber();
             taxon = tree.getNodeTaxon(node);
@@ -1118,6 +1113,8 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
                 throw new IllegalArgumentException("TreeModel.Nodes can only have 2 children");
             }
             node.parent = this;
+            nodeChanged(this);
+            nodeChanged(node);
         }
 
         /**
@@ -1134,6 +1131,8 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
                 throw new IllegalArgumentException("Unknown child node");
             }
             node.parent = null;
+            nodeChanged(this);
+            nodeChanged(node);
             return node;
         }
 
@@ -1154,6 +1153,8 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
                 throw new IllegalArgumentException("TreeModel.Nodes can only have 2 children");
             }
             node.parent = null;
+            nodeChanged(this);
+            nodeChanged(node);
             return node;
         }
 
@@ -1243,7 +1244,18 @@ public class NewTreeModel extends AbstractModel implements MutableTree, Citable
      * list of internal nodes (including root)
      */
     private Node[] nodes = null;
-    private Node[] storedNodes = null;
+
+    /**
+     * the stored parent, left and right child numbers of each node (-1 for none)
+     */
+    private int[] storedEdges = null;
+
+    /**
+     * the nodes that have changed since the stored edges were last brought up to date
+     */
+    private NodeChangeJournal journal = null;
+
+    private final Map<Parameter, Node> parameterNodeMap = new HashMap<Parameter, Node>();
 
     /**
      * number of nodes (including root and tips)
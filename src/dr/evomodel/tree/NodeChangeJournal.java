@@ -0,0 +1,103 @@
+/*
+ * NodeChangeJournal.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.evomodel.tree;
+
+/**
+ * A journal of the nodes of a tree model that have changed since the model's stored copy of them
+ * was last brought up to date. A tree model keeps a stored copy of each node that mirrors the
+ * current one. Storing only has to copy the journalled nodes into the stored copy, and restoring
+ * only has to copy them back. So both cost O(changed nodes) rather than O(nodes).
+ * <p/>
+ * A node is journalled once however many times it changes. Each node is marked with a flag, and
+ * its number is kept in a list in the order it first changed.
+ *
+ * @author agent
+ */
+public class NodeChangeJournal {
+
+    /**
+     * @param nodeCount the number of nodes in the tree
+     */
+    public NodeChangeJournal(int nodeCount) {
+        isChanged = new boolean[nodeCount];
+        changedNodes = new int[nodeCount];
+    }
+
+    /**
+     * Records that a node has changed.
+     *
+     * @param nodeNumber the number of the node
+     */
+    public final void nodeChanged(int nodeNumber) {
+        if (!isChanged[nodeNumber]) {
+            isChanged[nodeNumber] = true;
+            changedNodes[changedCount] = nodeNumber;
+            changedCount++;
+        }
+    }
+
+    /**
+     * Records that every node has changed (e.g., when the stored copy has never been made).
+     */
+    public void allNodesChanged() {
+        for (int i = 0; i < isChanged.length; i++) {
+            isChanged[i] = true;
+            changedNodes[i] = i;
+        }
+        changedCount = isChanged.length;
+    }
+
+    public final boolean isNodeChanged(int nodeNumber) {
+        return isChanged[nodeNumber];
+    }
+
+    public final int getChangedNodeCount() {
+        return changedCount;
+    }
+
+    /**
+     * @param i the index in the journal
+     * @return the number of the ith node to have changed
+     */
+    public final int getChangedNode(int i) {
+        return changedNodes[i];
+    }
+
+    /**
+     * Empties the journal once the stored copy is up to date.
+     */
+    public final void clear() {
+        for (int i = 0; i < changedCount; i++) {
+            isChanged[changedNodes[i]] = false;
+        }
+        changedCount = 0;
+    }
+
+    private final boolean[] isChanged;
+    private final int[] changedNodes;
+    private int changedCount = 0;
+}
@@ -27,8 +27,8 @@
 
 package dr.evomodel.tree;
 
+import dr.evolution.tree.TopologyFingerprint;
 import dr.evolution.tree.Tree;
-import dr.evolution.tree.TreeUtils;
 import dr.evolution.tree.treemetrics.TreeMetric;
 
 /**
@@ -53,7 +53,7 @@ public class TreeMetricStatistic extends TreeStatistic {
         this.referenceTree = referenceTree;
         this.targetTree = targetTree;
         this.treeMetric = treeMetric;
-        this.focalNewick = TreeUtils.uniqueNewick(referenceTree, referenceTree.getRoot());
+        this.focalTopology = new TopologyFingerprint(referenceTree);
     }
 
     public void setTree(Tree tree) {
@@ -82,14 +82,14 @@ public class TreeMetricStatistic extends TreeStatistic {
     }
 
     private double compareTreesByTopology() {
-        final String targetNewick = TreeUtils.uniqueNewick(targetTree, targetTree.getRoot());
-        return targetNewick.equals(focalNewick) ? 1.0 : 0.0;
+        final TopologyFingerprint targetTopology = new TopologyFingerprint(targetTree);
+        return targetTopology.equals(focalTopology) ? 1.0 : 0.0;
     }
 
     private Tree targetTree;
     private final Tree referenceTree;
 
-    private final String focalNewick;
+    private final TopologyFingerprint focalTopology;
 
     private final TreeMetric treeMetric;
 }
@@ -30,6 +30,7 @@
  */
 package dr.evomodel.tree;
 
+import dr.evolution.tree.TopologyFingerprint;
 import dr.evolution.tree.Tree;
 import dr.evolution.tree.TreeUtils;
 import dr.inference.loggers.LogFormatter;
@@ -57,7 +58,10 @@ public class TreeSummary extends MCLogger {
 
     private HashMap<String, Integer> taxa = null;
 
-    private HashMap<String, Integer> treeOccurences = null;
+    private HashMap<TopologyFingerprint, Integer> treeOccurences = null;
+
+    // the newick (with the taxa replaced by their indices) of each topology, only made for reporting
+    private HashMap<TopologyFingerprint, String> treeStrings = null;
 
     private String outputFilename;
 
@@ -68,7 +72,8 @@ public class TreeSummary extends MCLogger {
         this.tree = tree;
         this.outputFilename = outputFilename;
 
-        treeOccurences = new HashMap<String, Integer>();
+        treeOccurences = new HashMap<TopologyFingerprint, Integer>();
+        treeStrings = new HashMap<TopologyFingerprint, String>();
     }
 
     public void startLogging() {
@@ -109,13 +114,14 @@ public class TreeSummary extends MCLogger {
     }
 
     private void addTree(Tree tree) {
-        String newick = TreeUtils.uniqueNewick(tree, tree.getRoot());
-        newick = replaceTaxa(newick);
+        TopologyFingerprint fingerprint = new TopologyFingerprint(tree);
 
-        if (treeOccurences.containsKey(newick)) {
-            treeOccurences.put(newick, treeOccurences.get(newick) + 1);
+        Integer count = treeOccurences.get(fingerprint);
+        if (count != null) {
+            treeOccurences.put(fingerprint, count + 1);
         } else {
-            treeOccurences.put(newick, 1);
+            treeOccurences.put(fingerprint, 1);
+            treeStrings.put(fingerprint, replaceTaxa(TreeUtils.uniqueNewick(tree, tree.getRoot())));
         }
     }
 
@@ -162,11 +168,11 @@ public class TreeSummary extends MCLogger {
     }
 
     private void printTrees() {
-        Set<String> keys = treeOccurences.keySet();
+        Set<TopologyFingerprint> keys = treeOccurences.keySet();
 
         List<Sample> samples = new ArrayList<Sample>();
-        for (String t : keys) {
-            samples.add(new Sample(t, treeOccurences.get(t)));
+        for (TopologyFingerprint t : keys) {
+            samples.add(new Sample(treeStrings.get(t), treeOccurences.get(t)));
         }
         Collections.sort(samples);
 
@@ -29,7 +29,6 @@ package dr.evomodel.tree;
 
 import dr.app.tools.NexusExporter;
 import dr.evolution.io.Importer;
-import dr.evolution.io.NewickImporter;
 import dr.evolution.io.TreeTrace;
 import dr.evolution.tree.*;
 import dr.util.FrequencySet;
@@ -39,9 +38,10 @@ import jebl.evolution.treemetrics.RobinsonsFouldMetric;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -106,8 +106,9 @@ public class TreeTraceAnalysis {
         boolean changesFound = false;
 
         cladeSet = new CladeSet(tree0);
-        treeSet = new FrequencySet<String>();
-        treeSet.add(TreeUtils.uniqueNewick(tree0, tree0.getRoot()));
+        treeSet = new FrequencySet<TopologyFingerprint>();
+        topologies = new HashMap<TopologyFingerprint, Tree>();
+        addTopology(tree0);
 
         final int reportRate = 60;
 
@@ -145,7 +146,7 @@ public class TreeTraceAnalysis {
                 }
 
                 cladeSet.add(tree);
-                treeSet.add(TreeUtils.uniqueNewick(tree, tree.getRoot()));
+                addTopology(tree);
 
                 if (verbose && i >= (int) Math.round(counter * stepSize) && counter <= reportRate) {
                     System.out.print("*");
@@ -173,6 +174,22 @@ public class TreeTraceAnalysis {
         }
     }
 
+    private void addTopology(Tree tree) {
+        TopologyFingerprint fingerprint = new TopologyFingerprint(tree);
+        treeSet.add(fingerprint);
+        if (!topologies.containsKey(fingerprint)) {
+            topologies.put(fingerprint, tree);
+        }
+    }
+
+    /**
+     * @return the uniqueNewick of the first tree in the trace with the given topology
+     */
+    private String getNewick(TopologyFingerprint fingerprint) {
+        Tree tree = topologies.get(fingerprint);
+        return TreeUtils.uniqueNewick(tree, tree.getRoot());
+    }
+
     private boolean getChanged(Tree tree, int j) {
         final Object o = tree.getNodeAttribute(tree.getNode(j), "changed");
         if (o instanceof Integer) return (Integer) o == 1;
@@ -182,27 +199,18 @@ public class TreeTraceAnalysis {
     /**
      * Actually analyzes a particular tree using the trace given the burnin
      *
-     * @param target a tree in uniqueNewick format
+     * @param target the fingerprint of a topology in the trace
      * @return a tree with mean node heights
      */
-    final MutableTree analyzeTree(String target) {
+    final MutableTree analyzeTree(TopologyFingerprint target) {
 
         final int n = getTreeCount();
 
-        FlexibleTree meanTree = null;
-
-        // todo using CladeSet may probably speed this a lot
-        for (int i = 0; i < n; i++) {
-            final Tree tree = getTree(i);
-
-            if (TreeUtils.uniqueNewick(tree, tree.getRoot()).equals(target)) {
-                meanTree = new FlexibleTree(tree);
-                break;
-            }
-        }
-        if (meanTree == null) {
+        final Tree targetTree = topologies.get(target);
+        if (targetTree == null) {
             throw new RuntimeException("No target tree in trace");
         }
+        FlexibleTree meanTree = new FlexibleTree(targetTree);
 
         final int inc = meanTree.getInternalNodeCount();
         for (int j = 0; j < inc; j++) {
@@ -311,15 +319,15 @@ public class TreeTraceAnalysis {
             if( show ) {
                 System.out.print("\t" + nf.formatDecimal(sumProp * 100.0, 2) + "%");
 
-                String newickTree = treeSet.get(i);
+                TopologyFingerprint fingerprint = treeSet.get(i);
 
                 if (freq > 100) {
                     // calculate conditional average node heights
-                    Tree meanTree = analyzeTree(newickTree);
+                    Tree meanTree = analyzeTree(fingerprint);
                     System.out.println("\t" + TreeUtils.newick(meanTree));
 
                 } else {
-                    System.out.println("\t" + newickTree);
+                    System.out.println("\t" + getNewick(fingerprint));
                 }
             }
 
@@ -364,16 +372,7 @@ public class TreeTraceAnalysis {
 
             sumFreq += treeSet.getFrequency(nt);
 
-            String newickTree = treeSet.get(nt);
-            NewickImporter importer = new NewickImporter(new StringReader(newickTree));
-
-            try {
-                Tree tree = importer.importNextTree();
-
-                tempCladeSet.add(tree);
-            } catch (Importer.ImportException e) {
-                System.err.println("Err");
-            }
+            tempCladeSet.add(topologies.get(treeSet.get(nt)));
 
             if (sumFreq >= fiveCredSet) {
                 System.out.println();
@@ -399,13 +398,13 @@ public class TreeTraceAnalysis {
 
     public void shortReport(String name, Tree tree, boolean drawHeader, double credSetProbability) {
 
-        String targetTree = "";
-        if (tree != null) targetTree = TreeUtils.uniqueNewick(tree, tree.getRoot());
+        TopologyFingerprint targetTree = null;
+        if (tree != null) targetTree = new TopologyFingerprint(tree);
 
         final int n = treeSet.size();
         final int totalTrees = treeSet.getSumFrequency();
         final double highestProp = ((double) treeSet.getFrequency(0)) / totalTrees;
-        String mapTree = treeSet.get(0);
+        String mapTree = getNewick(treeSet.get(0));
 
         if (drawHeader) {
             System.out.println("file\ttrees\tuniqueTrees\tp(MAP)\tMAP tree\t" + (int) credSetProbability * 100 + "credSize\ttrue_I\tp(true)\tcum(true)");
@@ -431,9 +430,7 @@ public class TreeTraceAnalysis {
             sumFreq += freq;
             final double sumProp = ((double) sumFreq) / totalTrees;
 
-            String newickTree = treeSet.get(i);
-
-            if (newickTree.equals(targetTree)) {
+            if (treeSet.get(i).equals(targetTree)) {
                 targetTreeIndex = i + 1;
                 targetTreeProb = prop;
                 targetTreeCum = sumProp;
@@ -474,9 +471,8 @@ public class TreeTraceAnalysis {
             if (prop < minTreeProbability) {
                 continue;
             }
-            final String newickTree = treeSet.get(i);
             // calculate conditional average node heights
-            final MutableTree tree = analyzeTree(newickTree);
+            final MutableTree tree = analyzeTree(treeSet.get(i));
             tree.setAttribute("weight", prop);
             double p = cladeSet.annotate(tree, "posterior");
             tree.setNodeAttribute(tree.getRoot(), "posterior", Math.exp(p / tree.getInternalNodeCount()));
@@ -527,5 +523,7 @@ public class TreeTraceAnalysis {
     private final TreeTrace[] traces;
 
     private CladeSet cladeSet;
-    private FrequencySet<String> treeSet;
+    private FrequencySet<TopologyFingerprint> treeSet;
+    // the first tree in the trace with each topology
+    private Map<TopologyFingerprint, Tree> topologies;
 }
\ No newline at end of file
@@ -50,6 +50,10 @@ public class BeagleFunctionality {
         return true;
     }
 
+    public static boolean IS_BEAGLE_AVAILABLE() {
+        return BeagleInfo.getVersionNumbers().length > 0;
+    }
+
     public static boolean IS_THREAD_COUNT_COMPATIBLE() {
         return checkGTEVersion(new int[]{3,1});
     }
@@ -0,0 +1,1023 @@
+/*
+ * JavaDataLikelihoodDelegate.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.UncertainSiteList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeTrait;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.treedatalikelihood.discrete.DiscreteTraitBranchRateDelegate;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.AbstractModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+import dr.util.ParallelBlocks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * JavaDataLikelihoodDelegate
+ *
+ * A DataLikelihoodDelegate that does the calculations in Java. This is used when BEAGLE is not
+ * installed or when Java only has been requested.
+ * <p/>
+ * The partials are held in primitive arrays ordered by category, pattern and then state (as in
+ * BEAGLE). The patterns are divided into blocks which are computed in parallel on the shared
+ * fork-join pool. Patterns are independent so each block does the whole traversal for its patterns and there
+ * is a single fork and join per evaluation. The inner loops run over contiguous states so they
+ * can be vectorized by the JIT.
+ * <p/>
+ * If pre-order is turned on then the gradient of the log likelihood with respect to the branch
+ * lengths (in substitutions) is provided as the same tree trait as the BEAGLE gradient delegate
+ * so the discrete trait branch rate gradients can use it.
+ *
+ * @author agent
+ */
+public class JavaDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate {
+
+    private static final boolean COUNT_CALCULATIONS = true; // keep a cumulative total of number of computations
+
+    // the smallest block of patterns worth giving to a thread
+    private static final int MIN_BLOCK_PATTERN_COUNT = 32;
+    // more blocks than threads so that the work is balanced
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    private long totalMatrixUpdateCount = 0;
+    private long totalPartialsUpdateCount = 0;
+    private long totalEvaluationCount = 0;
+
+    /**
+     * @param tree Used for configuration - shouldn't be watched for changes
+     * @param patternList List of patterns
+     * @param branchModel Specifies substitution model for each branch
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param rescalingScheme the scheme for rescaling the partials
+     * @param delayRescalingUntilUnderflow whether to start rescaling only after an underflow
+     * @param settings pre-order settings
+     * @param threadCount the number of threads to divide the patterns between
+     */
+    public JavaDataLikelihoodDelegate(Tree tree,
+                                      PatternList patternList,
+                                      BranchModel branchModel,
+                                      SiteRateModel siteRateModel,
+                                      boolean useAmbiguities,
+                                      PartialsRescalingScheme rescalingScheme,
+                                      boolean delayRescalingUntilUnderflow,
+                                      PreOrderSettings settings,
+                                      int threadCount) {
+
+        super("JavaDataLikelihoodDelegate");
+        final Logger logger = Logger.getLogger("dr.evomodel");
+
+        logger.info("\nCreating Java DataLikelihood Delegate");
+        setId(patternList.getId());
+
+        this.tree = tree;
+        this.dataType = patternList.getDataType();
+        this.patternList = patternList;
+        patternCount = patternList.getPatternCount();
+        stateCount = dataType.getStateCount();
+        matrixSize = stateCount * stateCount;
+
+        // Check for matching state counts
+        int stateCount2 = branchModel.getRootFrequencyModel().getFrequencyCount();
+        if (stateCount != stateCount2) {
+            throw new IllegalArgumentException("Pattern state count (" + stateCount
+                    + ") does not match substitution model state count (" + stateCount2 + ")");
+        }
+
+        patternWeights = patternList.getPatternWeights();
+
+        if (settings.usePreOrder && branchModel.requiresMatrixConvolution()) {
+            throw new IllegalArgumentException("The Java likelihood delegate cannot calculate pre-order gradients " +
+                    "for a branch model that convolves substitution models along a branch (e.g. an epoch model); " +
+                    "use BEAGLE or turn off the gradient.");
+        }
+
+        this.branchModel = branchModel;
+        addModel(this.branchModel);
+
+        this.siteRateModel = siteRateModel;
+        addModel(this.siteRateModel);
+
+        this.categoryCount = this.siteRateModel.getCategoryCount();
+
+        nodeCount = tree.getNodeCount();
+        tipCount = tree.getExternalNodeCount();
+
+        this.settings = settings;
+        this.rescalingScheme = rescalingScheme;
+        this.delayRescalingUntilUnderflow = delayRescalingUntilUnderflow;
+
+        switch (rescalingScheme) {
+            case NONE:
+            case DELAYED:
+                useScaling = false;
+                break;
+            case ALWAYS:
+                useScaling = true;
+                break;
+            default:
+                useScaling = !delayRescalingUntilUnderflow;
+        }
+
+        if (patternList instanceof UncertainSiteList) {
+            useAmbiguities = true;
+        }
+        this.useAmbiguities = useAmbiguities;
+
+        logger.info("    " + (settings.usePreOrder ? "Using" : "Ignoring") + " preOrder partials in tree likelihood.");
+        logger.info("    " + (useAmbiguities ? "Using" : "Ignoring") + " ambiguities in tree likelihood.");
+        logger.info("    With " + patternList.getPatternCount() + " unique site patterns.");
+
+        if (patternList.areUncertain() && !useAmbiguities) {
+            logger.info("    WARNING: Uncertain site patterns will be ignored.");
+        }
+
+        if (useAmbiguities) {
+            tipPartials = new double[tipCount][];
+            tipStates = null;
+        } else {
+            tipPartials = null;
+            tipStates = new int[tipCount][];
+        }
+
+        for (int i = 0; i < tipCount; i++) {
+            // Find the id of tip i in the patternList
+            String id = tree.getTaxonId(i);
+            int index = patternList.getTaxonIndex(id);
+
+            if (index == -1) {
+                throw new RuntimeException("Taxon, " + id + ", in tree, " + tree.getId() +
+                        ", is not found in patternList, " + patternList.getId());
+            }
+            if (useAmbiguities) {
+                tipPartials[i] = getTipPartials(index);
+            } else {
+                tipStates[i] = getTipStates(index);
+            }
+        }
+
+        final int partialsSize = categoryCount * patternCount * stateCount;
+
+        // two sets of partials, scale factors and matrices for each node for store/restore
+        partials = new double[2][nodeCount][];
+        scaleFactors = new double[2][nodeCount][];
+        for (int i = tipCount; i < nodeCount; i++) {
+            for (int j = 0; j < 2; j++) {
+                partials[j][i] = new double[partialsSize];
+                scaleFactors[j][i] = new double[patternCount];
+            }
+        }
+        partialsIndex = new int[nodeCount];
+        storedPartialsIndex = new int[nodeCount];
+
+        matrices = new double[2][nodeCount][categoryCount * matrixSize];
+        matrixIndex = new int[nodeCount];
+        storedMatrixIndex = new int[nodeCount];
+        matrix1 = new double[matrixSize];
+        matrix2 = new double[matrixSize];
+        matrix3 = new double[matrixSize];
+
+        operations = new int[nodeCount * 3];
+
+        patternLogLikelihoods = new double[patternCount];
+        storedPatternLogLikelihoods = new double[patternCount];
+
+        // divide the patterns into blocks
+        int blockCount = 1;
+        if (threadCount > 1) {
+            blockCount = Math.max(1, Math.min(threadCount * BLOCKS_PER_THREAD, patternCount / MIN_BLOCK_PATTERN_COUNT));
+        }
+        blockStarts = new int[blockCount + 1];
+        for (int i = 0; i <= blockCount; i++) {
+            blockStarts[i] = (int) ((long) i * patternCount / blockCount);
+        }
+        this.threadCount = threadCount;
+
+        if (blockCount > 1) {
+            logger.info("    Using " + threadCount + " threads for " + blockCount + " blocks of patterns.");
+        } else {
+            logger.info("    Using a single thread.");
+        }
+
+        String rescaleMessage = "    Using rescaling scheme : " + this.rescalingScheme.getText();
+        if (!useScaling && rescalingScheme != PartialsRescalingScheme.NONE) {
+            rescaleMessage += " (delay rescaling until first underflow)";
+        }
+        logger.info(rescaleMessage);
+
+        if (settings.usePreOrder) {
+            prePartials = new double[nodeCount][];
+            for (int i = tipCount; i < nodeCount; i++) {
+                prePartials[i] = new double[partialsSize];
+            }
+            blockGradients = new double[blockCount][nodeCount];
+            preOrderNodes = new int[nodeCount - 1];
+            preOrderParents = new int[nodeCount - 1];
+            preOrderSiblings = new int[nodeCount - 1];
+            nodeInfinitesimalMatrices = new double[nodeCount][];
+            gradient = new double[nodeCount - 1];
+        } else {
+            prePartials = null;
+            blockGradients = null;
+            preOrderNodes = null;
+            preOrderParents = null;
+            preOrderSiblings = null;
+            nodeInfinitesimalMatrices = null;
+            gradient = null;
+        }
+    }
+
+    @Override
+    public String getReport() {
+        return null;
+    }
+
+    @Override
+    public TreeTraversal.TraversalType getOptimalTraversalType() {
+        return TreeTraversal.TraversalType.POST_ORDER;
+    }
+
+    @Override
+    public int getTraitCount() {
+        return 1;
+    }
+
+    @Override
+    public int getTraitDim() {
+        return patternCount;
+    }
+
+    @Override
+    public RateRescalingScheme getRateRescalingScheme() {
+        return RateRescalingScheme.NONE;
+    }
+
+    public final BranchModel getBranchModel() {
+        return branchModel;
+    }
+
+    public PatternList getPatternList() {
+        return this.patternList;
+    }
+
+    public final SiteRateModel getSiteRateModel() {
+        return this.siteRateModel;
+    }
+
+    public final boolean isUsePreOrder() {
+        return this.settings.usePreOrder;
+    }
+
+    /**
+     * Gets the tip partials for a sequence in the pattern list (not repeated for each category).
+     */
+    private double[] getTipPartials(int sequenceIndex) {
+        double[] partials = new double[patternCount * stateCount];
+
+        int v = 0;
+        for (int i = 0; i < patternCount; i++) {
+
+            if (patternList instanceof UncertainSiteList) {
+                ((UncertainSiteList) patternList).fillPartials(sequenceIndex, i, partials, v);
+                v += stateCount;
+            } else if (patternList.areUncertain()) {
+
+                double[] prob = patternList.getUncertainPatternState(sequenceIndex, i);
+                System.arraycopy(prob, 0, partials, v, stateCount);
+                v += stateCount;
+
+            } else {
+                int state = patternList.getPatternState(sequenceIndex, i);
+                boolean[] stateSet = dataType.getStateSet(state);
+
+                for (int j = 0; j < stateCount; j++) {
+                    partials[v] = (stateSet[j] ? 1.0 : 0.0);
+                    v++;
+                }
+            }
+        }
+
+        return partials;
+    }
+
+    /**
+     * Gets the tip states for a sequence in the pattern list. Any state greater than or equal to
+     * the state count is treated as missing.
+     */
+    private int[] getTipStates(int sequenceIndex) {
+        int[] states = new int[patternCount];
+
+        for (int i = 0; i < patternCount; i++) {
+            states[i] = patternList.getPatternState(sequenceIndex, i);
+        }
+
+        return states;
+    }
+
+    /**
+     * Calculate the log likelihood of the current state.
+     *
+     * @return the log likelihood.
+     */
+    @Override
+    public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations, int rootNodeNumber) throws LikelihoodException {
+
+        categoryRates = siteRateModel.getCategoryRates();
+        if (categoryRates == null) {
+            // If this returns null then there was a numerical error calculating the category rates
+            // (probably a very small alpha) so reject the move.
+            return Double.NEGATIVE_INFINITY;
+        }
+        categoryWeights = siteRateModel.getCategoryProportions();
+        rootFrequencies = branchModel.getRootFrequencyModel().getFrequencies();
+
+        for (BranchOperation op : branchOperations) {
+            updateTransitionMatrices(op.getBranchNumber(), op.getBranchLength());
+        }
+
+        if (COUNT_CALCULATIONS) {
+            totalMatrixUpdateCount += branchOperations.size();
+        }
+
+        operationCount = 0;
+        for (NodeOperation op : nodeOperations) {
+            int nodeNum = op.getNodeNumber();
+
+            // write to the partials that aren't being kept for a restore
+            if (partialsIndex[nodeNum] == storedPartialsIndex[nodeNum]) {
+                partialsIndex[nodeNum] = 1 - storedPartialsIndex[nodeNum];
+            }
+
+            operations[operationCount * 3] = nodeNum;
+            operations[operationCount * 3 + 1] = op.getLeftChild();
+            operations[operationCount * 3 + 2] = op.getRightChild();
+            operationCount++;
+        }
+
+        this.rootNodeNumber = rootNodeNumber;
+
+        computeBlocks(false);
+
+        if (COUNT_CALCULATIONS) {
+            totalEvaluationCount += 1;
+            totalPartialsUpdateCount += operationCount;
+        }
+
+        gradientKnown = false;
+
+        double logL = 0.0;
+        for (int i = 0; i < patternCount; i++) {
+            logL += patternLogLikelihoods[i] * patternWeights[i];
+        }
+
+        if (Double.isNaN(logL) || Double.isInfinite(logL)) {
+            if (!useScaling && rescalingScheme != PartialsRescalingScheme.NONE) {
+                if (getId() != null) {
+                    Logger.getLogger("dr.evomodel").info("Underflow calculating likelihood. Attempting a rescaling... (" + getId() + ")");
+                } else {
+                    Logger.getLogger("dr.evomodel").info("Underflow calculating likelihood. Attempting a rescaling...");
+                }
+
+                // from now on rescale every node - TreeDataLikelihood will update all the nodes and try again
+                useScaling = true;
+
+                throw new LikelihoodUnderflowException();
+            }
+
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        return logL;
+    }
+
+    /**
+     * Computes the transition probability matrices for each category for a branch.
+     */
+    private void updateTransitionMatrices(int nodeNum, double branchLength) {
+        // write to the matrices that aren't being kept for a restore
+        if (matrixIndex[nodeNum] == storedMatrixIndex[nodeNum]) {
+            matrixIndex[nodeNum] = 1 - storedMatrixIndex[nodeNum];
+        }
+        double[] nodeMatrices = matrices[matrixIndex[nodeNum]][nodeNum];
+
+        BranchModel.Mapping mapping = branchModel.getBranchModelMapping(tree.getNode(nodeNum));
+        int[] order = mapping.getOrder();
+        List<SubstitutionModel> substitutionModels = branchModel.getSubstitutionModels();
+
+        if (order.length == 1) {
+            SubstitutionModel substitutionModel = substitutionModels.get(order[0]);
+            for (int i = 0; i < categoryCount; i++) {
+                substitutionModel.getTransitionProbabilities(branchLength * categoryRates[i], matrix1);
+                System.arraycopy(matrix1, 0, nodeMatrices, i * matrixSize, matrixSize);
+            }
+        } else {
+            // convolve the matrices for each part of the branch from rootward to tipward
+            double[] weights = mapping.getWeights();
+            double sum = 0.0;
+            for (double w : weights) {
+                sum += w;
+            }
+
+            for (int i = 0; i < categoryCount; i++) {
+                double length = branchLength * categoryRates[i] / sum;
+                substitutionModels.get(order[0]).getTransitionProbabilities(weights[0] * length, matrix1);
+                for (int j = 1; j < order.length; j++) {
+                    substitutionModels.get(order[j]).getTransitionProbabilities(weights[j] * length, matrix2);
+                    for (int k = 0; k < stateCount; k++) {
+                        for (int l = 0; l < stateCount; l++) {
+                            double value = 0.0;
+                            for (int m = 0; m < stateCount; m++) {
+                                value += matrix1[k * stateCount + m] * matrix2[m * stateCount + l];
+                            }
+                            matrix3[k * stateCount + l] = value;
+                        }
+                    }
+                    System.arraycopy(matrix3, 0, matrix1, 0, matrixSize);
+                }
+                System.arraycopy(matrix1, 0, nodeMatrices, i * matrixSize, matrixSize);
+            }
+        }
+    }
+
+    /**
+     * Runs the post-order (or pre-order) calculations for each block of patterns, in parallel
+     * if there is more than one block.
+     */
+    private void computeBlocks(boolean preOrder) {
+        ParallelBlocks.forEachBlock(threadCount, blockStarts.length - 1, block -> computeBlock(block, preOrder));
+    }
+
+    private void computeBlock(int block, boolean preOrder) {
+        if (preOrder) {
+            calculateBlockGradient(block, blockStarts[block], blockStarts[block + 1]);
+        } else {
+            updateBlockPartials(blockStarts[block], blockStarts[block + 1]);
+        }
+    }
+
+    /**
+     * Does all the node operations and then the root log likelihoods for a block of patterns.
+     */
+    private void updateBlockPartials(int fromPattern, int toPattern) {
+        for (int k = 0; k < operationCount; k++) {
+            int nodeNum = operations[k * 3];
+            double[] nodePartials = partials[partialsIndex[nodeNum]][nodeNum];
+            double[] nodeScaleFactors = scaleFactors[partialsIndex[nodeNum]][nodeNum];
+
+            propagate(operations[k * 3 + 1], nodePartials, fromPattern, toPattern, false);
+            propagate(operations[k * 3 + 2], nodePartials, fromPattern, toPattern, true);
+
+            if (useScaling) {
+                scalePartials(nodePartials, nodeScaleFactors, fromPattern, toPattern);
+            } else {
+                Arrays.fill(nodeScaleFactors, fromPattern, toPattern, 0.0);
+            }
+        }
+
+        if (rootNodeNumber >= tipCount) {
+            calculateRootLogLikelihoods(fromPattern, toPattern);
+        }
+    }
+
+    /**
+     * Calculates the partials at the top of a branch from those at the child node and either
+     * sets or multiplies the destination with them.
+     */
+    private void propagate(int child, double[] destination, int fromPattern, int toPattern, boolean multiply) {
+        final double[] childMatrices = matrices[matrixIndex[child]][child];
+
+        for (int l = 0; l < categoryCount; l++) {
+            final int m = l * matrixSize;
+
+            if (child < tipCount && tipStates != null) {
+                final int[] states = tipStates[child];
+
+                for (int k = fromPattern; k < toPattern; k++) {
+                    final int v = (l * patternCount + k) * stateCount;
+                    final int state = states[k];
+
+                    if (state < stateCount) {
+                        for (int i = 0; i < stateCount; i++) {
+                            final double value = childMatrices[m + i * stateCount + state];
+                            destination[v + i] = (multiply ? destination[v + i] * value : value);
+                        }
+                    } else if (!multiply) {
+                        // a missing state so the partials are all 1
+                        Arrays.fill(destination, v, v + stateCount, 1.0);
+                    }
+                }
+            } else {
+                final double[] childPartials;
+                final int offset;
+                if (child < tipCount) {
+                    // tip partials are the same for all categories
+                    childPartials = tipPartials[child];
+                    offset = 0;
+                } else {
+                    childPartials = partials[partialsIndex[child]][child];
+                    offset = l * patternCount * stateCount;
+                }
+
+                for (int k = fromPattern; k < toPattern; k++) {
+                    final int u = offset + k * stateCount;
+                    final int v = (l * patternCount + k) * stateCount;
+
+                    for (int i = 0; i < stateCount; i++) {
+                        final int w = m + i * stateCount;
+                        double sum = 0.0;
+                        for (int j = 0; j < stateCount; j++) {
+                            sum += childMatrices[w + j] * childPartials[u + j];
+                        }
+                        destination[v + i] = (multiply ? destination[v + i] * sum : sum);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Divides the partials for each pattern by the largest value across categories and states.
+     * If nodeScaleFactors is not null the log of the scale factors are stored in it.
+     */
+    private void scalePartials(double[] nodePartials, double[] nodeScaleFactors, int fromPattern, int toPattern) {
+        for (int k = fromPattern; k < toPattern; k++) {
+            double max = 0.0;
+            for (int l = 0; l < categoryCount; l++) {
+                final int v = (l * patternCount + k) * stateCount;
+                for (int i = 0; i < stateCount; i++) {
+                    if (nodePartials[v + i] > max) {
+                        max = nodePartials[v + i];
+                    }
+                }
+            }
+
+            if (max > 0.0) {
+                final double scale = 1.0 / max;
+                for (int l = 0; l < categoryCount; l++) {
+                    final int v = (l * patternCount + k) * stateCount;
+                    for (int i = 0; i < stateCount; i++) {
+                        nodePartials[v + i] *= scale;
+                    }
+                }
+                if (nodeScaleFactors != null) {
+                    nodeScaleFactors[k] = Math.log(max);
+                }
+            } else if (nodeScaleFactors != null) {
+                nodeScaleFactors[k] = 0.0;
+            }
+        }
+    }
+
+    private void calculateRootLogLikelihoods(int fromPattern, int toPattern) {
+        final double[] rootPartials = partials[partialsIndex[rootNodeNumber]][rootNodeNumber];
+
+        for (int k = fromPattern; k < toPattern; k++) {
+            double sum = 0.0;
+            for (int l = 0; l < categoryCount; l++) {
+                final int v = (l * patternCount + k) * stateCount;
+                double sumOverStates = 0.0;
+                for (int i = 0; i < stateCount; i++) {
+                    sumOverStates += rootFrequencies[i] * rootPartials[v + i];
+                }
+                sum += categoryWeights[l] * sumOverStates;
+            }
+            patternLogLikelihoods[k] = Math.log(sum);
+        }
+
+        if (useScaling) {
+            // the scale factors of all the internal nodes are included in the root partials
+            for (int i = tipCount; i < nodeCount; i++) {
+                final double[] nodeScaleFactors = scaleFactors[partialsIndex[i]][i];
+                for (int k = fromPattern; k < toPattern; k++) {
+                    patternLogLikelihoods[k] += nodeScaleFactors[k];
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the gradient of the log likelihood with respect to the length (in substitutions) of
+     * each branch, in node order excluding the root.
+     */
+    private double[] getBranchLengthGradient(Tree tree) {
+
+        // make sure the post-order partials are up to date
+        treeDataLikelihood.getLogLikelihood();
+
+        if (!gradientKnown) {
+            NodeRef root = tree.getRoot();
+            int n = 0;
+            for (int i = 0; i < tree.getChildCount(root); i++) {
+                n = setPreOrder(tree, tree.getChild(root, i), n);
+            }
+
+            List<SubstitutionModel> substitutionModels = branchModel.getSubstitutionModels();
+            double[][] infinitesimalMatrices = new double[substitutionModels.size()][];
+            for (int i = 0; i < nodeCount; i++) {
+                NodeRef node = tree.getNode(i);
+                if (!tree.isRoot(node)) {
+                    int[] order = branchModel.getBranchModelMapping(node).getOrder();
+                    if (order.length > 1) {
+                        // rejected in the constructor by requiresMatrixConvolution()
+                        throw new IllegalStateException("Branch model unexpectedly mapped more than one substitution model to a branch");
+                    }
+                    if (infinitesimalMatrices[order[0]] == null) {
+                        infinitesimalMatrices[order[0]] = new double[matrixSize];
+                        substitutionModels.get(order[0]).getInfinitesimalMatrix(infinitesimalMatrices[order[0]]);
+                    }
+                    nodeInfinitesimalMatrices[i] = infinitesimalMatrices[order[0]];
+                }
+            }
+
+            computeBlocks(true);
+
+            // sum over blocks in a fixed order so the result doesn't depend on the threading
+            Arrays.fill(gradient, 0.0);
+            for (double[] blockGradient : blockGradients) {
+                int v = 0;
+                for (int i = 0; i < nodeCount; i++) {
+                    if (i != rootNodeNumber) {
+                        gradient[v] += blockGradient[i];
+                        v++;
+                    }
+                }
+            }
+
+            gradientKnown = true;
+        }
+
+        return gradient.clone();
+    }
+
+    private int setPreOrder(Tree tree, NodeRef node, int n) {
+        if (tree.getChildCount(tree.getParent(node)) != 2) {
+            throw new RuntimeException("Operation currently only supported for nodes with 2 children.");
+        }
+
+        NodeRef parent = tree.getParent(node);
+        NodeRef sibling = tree.getChild(parent, 0) == node ? tree.getChild(parent, 1) : tree.getChild(parent, 0);
+
+        preOrderNodes[n] = node.getNumber();
+        preOrderParents[n] = parent.getNumber();
+        preOrderSiblings[n] = sibling.getNumber();
+        n++;
+
+        for (int i = 0; i < tree.getChildCount(node); i++) {
+            n = setPreOrder(tree, tree.getChild(node, i), n);
+        }
+        return n;
+    }
+
+    /**
+     * The pre-order traversal for a block of patterns. For each branch the probability of the
+     * data is the sum over the states at the parent of the pre-order partials times the partials
+     * at the top of the branch. Its derivative with respect to the branch length just replaces
+     * the transition probability matrix P(rt) with rQP(rt).
+     */
+    private void calculateBlockGradient(int block, int fromPattern, int toPattern) {
+        final double[] blockGradient = blockGradients[block];
+        Arrays.fill(blockGradient, 0.0);
+
+        final double[] top = new double[stateCount];
+        final double[] below = new double[stateCount];
+        final double[] numerators = new double[toPattern - fromPattern];
+        final double[] denominators = new double[toPattern - fromPattern];
+
+        for (int n = 0; n < preOrderNodes.length; n++) {
+            final int nodeNum = preOrderNodes[n];
+            final int parentNum = preOrderParents[n];
+            final int siblingNum = preOrderSiblings[n];
+
+            final double[] nodeMatrices = matrices[matrixIndex[nodeNum]][nodeNum];
+            final double[] siblingMatrices = matrices[matrixIndex[siblingNum]][siblingNum];
+            final double[] infinitesimalMatrix = nodeInfinitesimalMatrices[nodeNum];
+            final double[] parentPrePartials = (parentNum == rootNodeNumber ? null : prePartials[parentNum]);
+            final double[] nodePrePartials = (nodeNum < tipCount ? null : prePartials[nodeNum]);
+
+            Arrays.fill(numerators, 0.0);
+            Arrays.fill(denominators, 0.0);
+
+            for (int l = 0; l < categoryCount; l++) {
+                final int m = l * matrixSize;
+                final double rate = categoryRates[l];
+                final double weight = categoryWeights[l];
+
+                for (int k = fromPattern; k < toPattern; k++) {
+                    final int v = (l * patternCount + k) * stateCount;
+
+                    for (int i = 0; i < stateCount; i++) {
+                        final double above = (parentPrePartials == null ? rootFrequencies[i] : parentPrePartials[v + i]);
+                        top[i] = above * getChildSum(siblingNum, siblingMatrices, m + i * stateCount, l, k);
+                        below[i] = getChildSum(nodeNum, nodeMatrices, m + i * stateCount, l, k);
+                    }
+
+                    double numerator = 0.0;
+                    double denominator = 0.0;
+                    for (int i = 0; i < stateCount; i++) {
+                        double sum = 0.0;
+                        for (int j = 0; j < stateCount; j++) {
+                            sum += infinitesimalMatrix[i * stateCount + j] * below[j];
+                        }
+                        numerator += top[i] * sum;
+                        denominator += top[i] * below[i];
+                    }
+                    numerators[k - fromPattern] += weight * rate * numerator;
+                    denominators[k - fromPattern] += weight * denominator;
+
+                    if (nodePrePartials != null) {
+                        for (int j = 0; j < stateCount; j++) {
+                            double sum = 0.0;
+                            for (int i = 0; i < stateCount; i++) {
+                                sum += top[i] * nodeMatrices[m + i * stateCount + j];
+                            }
+                            nodePrePartials[v + j] = sum;
+                        }
+                    }
+                }
+            }
+
+            double sum = 0.0;
+            for (int k = fromPattern; k < toPattern; k++) {
+                sum += patternWeights[k] * numerators[k - fromPattern] / denominators[k - fromPattern];
+            }
+            blockGradient[nodeNum] = sum;
+
+            if (nodePrePartials != null) {
+                // the scale of the pre-order partials cancels out so just keep them in range
+                scalePartials(nodePrePartials, null, fromPattern, toPattern);
+            }
+        }
+    }
+
+    /**
+     * The sum over the child states of a row of the transition matrix times the child partials.
+     */
+    private double getChildSum(int child, double[] childMatrices, int row, int category, int pattern) {
+        final double[] childPartials;
+        final int offset;
+        if (child < tipCount) {
+            if (tipStates != null) {
+                final int state = tipStates[child][pattern];
+                return (state < stateCount ? childMatrices[row + state] : 1.0);
+            }
+            childPartials = tipPartials[child];
+            offset = pattern * stateCount;
+        } else {
+            childPartials = partials[partialsIndex[child]][child];
+            offset = (category * patternCount + pattern) * stateCount;
+        }
+
+        double sum = 0.0;
+        for (int j = 0; j < stateCount; j++) {
+            sum += childMatrices[row + j] * childPartials[offset + j];
+        }
+        return sum;
+    }
+
+    public double[] getSiteLogLikelihoods() {
+        return patternLogLikelihoods.clone();
+    }
+
+    public int getPartitionCat() {
+        // not meaningful for this delegate
+        return 0;
+    }
+
+    @Override
+    public void makeDirty() {
+        gradientKnown = false;
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        // Tell TreeDataLikelihood to update all nodes
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+    }
+
+    /**
+     * Stores the additional state other than model components
+     */
+    @Override
+    public void storeState() {
+        System.arraycopy(partialsIndex, 0, storedPartialsIndex, 0, nodeCount);
+        System.arraycopy(matrixIndex, 0, storedMatrixIndex, 0, nodeCount);
+        System.arraycopy(patternLogLikelihoods, 0, storedPatternLogLikelihoods, 0, patternCount);
+    }
+
+    /**
+     * Restore the additional stored state
+     */
+    @Override
+    public void restoreState() {
+        System.arraycopy(storedPartialsIndex, 0, partialsIndex, 0, nodeCount);
+        System.arraycopy(storedMatrixIndex, 0, matrixIndex, 0, nodeCount);
+
+        double[] tmp = storedPatternLogLikelihoods;
+        storedPatternLogLikelihoods = patternLogLikelihoods;
+        patternLogLikelihoods = tmp;
+
+        gradientKnown = false;
+    }
+
+    @Override
+    public void setCallback(TreeDataLikelihood treeDataLikelihood) {
+        this.treeDataLikelihood = treeDataLikelihood;
+
+        if (settings.usePreOrder) {
+            treeDataLikelihood.addTrait(new TreeTrait.DA() {
+                @Override
+                public String getTraitName() {
+                    return DiscreteTraitBranchRateDelegate.getName(null);
+                }
+
+                @Override
+                public Intent getIntent() {
+                    return Intent.BRANCH;
+                }
+
+                @Override
+                public double[] getTrait(Tree tree, NodeRef node) {
+                    return getBranchLengthGradient(tree);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void setComputePostOrderStatisticsOnly(boolean computePostOrderStatistic) {
+        // Do nothing
+    }
+
+    @Override
+    public boolean providesPostOrderStatisticsOnly() { return false; }
+
+    @Override
+    public int vectorizeNodeOperations(List<ProcessOnTreeDelegate.NodeOperation> nodeOperations, int[] operations) {
+        // the same layout as the operations used by calculateLikelihood()
+        int k = 0;
+        for (ProcessOnTreeDelegate.NodeOperation op : nodeOperations) {
+            operations[k] = op.getNodeNumber();
+            operations[k + 1] = op.getLeftChild();
+            operations[k + 2] = op.getRightChild();
+            k += 3;
+        }
+        return nodeOperations.size();
+    }
+
+    @Override
+    protected void acceptState() {
+    }
+
+    public PreOrderSettings getPreOrderSettings() {
+        return settings;
+    }
+
+    public boolean getPreferGPU() {
+        return false;
+    }
+
+    public boolean getUseAmbiguities() {
+        return useAmbiguities;
+    }
+
+    public PartialsRescalingScheme getRescalingScheme() {
+        return rescalingScheme;
+    }
+
+    public boolean getDelayRescalingUntilUnderflow() {
+        return delayRescalingUntilUnderflow;
+    }
+
+    // **************************************************************
+    // INSTANCE PROFILEABLE
+    // **************************************************************
+
+    @Override
+    public long getTotalCalculationCount() {
+        // Can only return one count at the moment so return the number of partials updated
+        return totalPartialsUpdateCount;
+    }
+
+    // **************************************************************
+    // INSTANCE VARIABLES
+    // **************************************************************
+
+    private final Tree tree;
+    private TreeDataLikelihood treeDataLikelihood = null;
+
+    private final int nodeCount;
+    private final int tipCount;
+    private final int patternCount;
+    private final int stateCount;
+    private final int categoryCount;
+    private final int matrixSize;
+
+    private final PatternList patternList;
+    private final DataType dataType;
+    private final double[] patternWeights;
+
+    private final BranchModel branchModel;
+    private final SiteRateModel siteRateModel;
+
+    private final PreOrderSettings settings;
+    private final PartialsRescalingScheme rescalingScheme;
+    private final boolean delayRescalingUntilUnderflow;
+    private final boolean useAmbiguities;
+    private boolean useScaling;
+
+    /**
+     * the tip data - either states or partials depending on whether ambiguities are used
+     */
+    private final int[][] tipStates;
+    private final double[][] tipPartials;
+
+    /**
+     * the partials and log scale factors of the internal nodes by buffer and then node number
+     */
+    private final double[][][] partials;
+    private final double[][][] scaleFactors;
+    private final int[] partialsIndex;
+    private final int[] storedPartialsIndex;
+
+    /**
+     * the transition probability matrices for each category by buffer and then node number
+     */
+    private final double[][][] matrices;
+    private final int[] matrixIndex;
+    private final int[] storedMatrixIndex;
+
+    // work space for computing and convolving matrices
+    private final double[] matrix1;
+    private final double[] matrix2;
+    private final double[] matrix3;
+
+    private final int[] operations;
+    private int operationCount;
+    private int rootNodeNumber;
+
+    private double[] categoryRates;
+    private double[] categoryWeights;
+    private double[] rootFrequencies;
+
+    private double[] patternLogLikelihoods;
+    private double[] storedPatternLogLikelihoods;
+
+    /**
+     * the first pattern of each block (and the pattern count at the end)
+     */
+    private final int[] blockStarts;
+    private final int threadCount;
+
+    /**
+     * pre-order partials, traversal and gradient
+     */
+    private final double[][] prePartials;
+    private final double[][] blockGradients;
+    private final int[] preOrderNodes;
+    private final int[] preOrderParents;
+    private final int[] preOrderSiblings;
+    private final double[][] nodeInfinitesimalMatrices;
+    private final double[] gradient;
+    private boolean gradientKnown = false;
+}
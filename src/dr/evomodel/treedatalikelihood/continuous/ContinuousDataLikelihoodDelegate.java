@@ -69,6 +69,9 @@ import java.util.logging.Logger;
 public class ContinuousDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate,
         ConjugateWishartStatisticsProvider, Citable {
 
+    // the number of threads over which to divide the traits (where the integrator supports it)
+    private static final String THREAD_COUNT = "cdi.thread.count";
+
     private final int numTraits;
     private final int dimTrait;
     private final int dimProcess;
@@ -228,13 +231,23 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
                             );
                         } else {
                             if (allowSingular) {
+                                int threadCount = 1;
+                                String tc = System.getProperty(THREAD_COUNT);
+                                if (tc != null) {
+                                    threadCount = Integer.parseInt(tc);
+                                }
+                                long flags = (threadCount > 1 ?
+                                        CDIFlag.THREADING_JAVA.getMask() : CDIFlag.THREADING_NONE.getMask());
+
                                 base = new SafeMultivariateIntegrator(
                                         precisionType,
                                         numTraits,
                                         dimTrait,
                                         dimTrait,
                                         partialBufferCount,
-                                        matrixBufferCount
+                                        matrixBufferCount,
+                                        flags,
+                                        threadCount
                                 );
                             } else {
                                 base = new MultivariateIntegrator(
@@ -48,6 +48,7 @@ public enum CDIFlag {
     VECTOR_NONE(4096L, "no vector computation"),
     THREADING_TBB(8192L, "TBB threading"),
     THREADING_NONE(16384L, "no threading"),
+    THREADING_JAVA(1073741824L, "Java thread pool threading across traits"),
     PROCESSOR_CPU(32768L, "use CPU as main processor"),
     PROCESSOR_GPU(65536L, "use GPU as main processor"),
     PROCESSOR_FPGA(131072L, "use FPGA as main processor"),
@@ -30,6 +30,7 @@ package dr.evomodel.treedatalikelihood.continuous.cdi;
 import dr.math.MathUtils;
 import dr.math.matrixAlgebra.WrappedVector;
 import dr.math.matrixAlgebra.missingData.InversionResult;
+import dr.util.ParallelBlocks;
 import org.ejml.data.DenseMatrix64F;
 import org.ejml.ops.CommonOps;
 
@@ -38,6 +39,10 @@ import static dr.math.matrixAlgebra.missingData.InversionResult.mult;
 import static dr.math.matrixAlgebra.missingData.MissingOps.*;
 
 /**
+ * If constructed with the THREADING_JAVA flag the traits are divided into blocks that are integrated
+ * in parallel, each with its own matrix workspace. Each trait is integrated exactly as it is serially
+ * so the log likelihoods are identical. The drift and OU subclasses are always serial.
+ *
  * @author Marc A. Suchard
  */
 
@@ -47,6 +52,12 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
     public SafeMultivariateIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int dimProcess,
                                       int bufferCount, int diffusionCount) {
+        this(precisionType, numTraits, dimTrait, dimProcess, bufferCount, diffusionCount,
+                CDIFlag.THREADING_NONE.getMask(), 1);
+    }
+
+    public SafeMultivariateIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int dimProcess,
+                                      int bufferCount, int diffusionCount, long flags, int threadCount) {
         super(precisionType, numTraits, dimTrait, dimProcess, bufferCount, diffusionCount);
 
         allocateStorage();
@@ -54,7 +65,33 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         effectiveDimensionOffset = PrecisionType.FULL.getEffectiveDimensionOffset(dimTrait);
         determinantOffset = PrecisionType.FULL.getDeterminantOffset(dimTrait);
 
-        System.err.println("Trying SafeMultivariateIntegrator");
+        sharedWorkspace = new Workspace(dimTrait, matrix0, matrix1, matrixPip, matrixPjp, matrixPk,
+                matrixQjPjp, vectorDelta, vectorPMk);
+
+        if (CDIFlag.THREADING_JAVA.isSet(flags) && getClass() != SafeMultivariateIntegrator.class) {
+            // subclasses integrate using their own shared temporaries
+            System.err.println("Trait-parallel integration is not available for " + getClass().getSimpleName());
+            flags = (flags & ~CDIFlag.THREADING_JAVA.getMask()) | CDIFlag.THREADING_NONE.getMask();
+        }
+
+        int blockCount = Math.min(threadCount, numTraits);
+        if (CDIFlag.THREADING_JAVA.isSet(flags) && blockCount > 1) {
+            traitBlockStarts = new int[blockCount + 1];
+            workspaces = new Workspace[blockCount];
+            for (int block = 0; block < blockCount; block++) {
+                traitBlockStarts[block] = (int) ((long) block * numTraits / blockCount);
+                workspaces[block] = new Workspace(dimTrait);
+            }
+            traitBlockStarts[blockCount] = numTraits;
+            System.err.println("Trying SafeMultivariateIntegrator with " + blockCount + " blocks of traits in parallel");
+        } else {
+            flags = (flags & ~CDIFlag.THREADING_JAVA.getMask()) | CDIFlag.THREADING_NONE.getMask();
+            traitBlockStarts = null;
+            workspaces = null;
+            System.err.println("Trying SafeMultivariateIntegrator");
+        }
+
+        getDetails().setFlags(flags);
     }
 
     private void allocateStorage() {
@@ -201,10 +238,24 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             final int jBuffer, // sibling
             final int jMatrix) {
 
+        forEachTraitBlock((fromTrait, toTrait, workspace) ->
+                updatePreOrderPartial(fromTrait, toTrait, workspace, kBuffer, iBuffer, iMatrix, jBuffer, jMatrix));
+    }
+
+    private void updatePreOrderPartial(
+            final int fromTrait,
+            final int toTrait,
+            final Workspace workspace,
+            final int kBuffer, // parent
+            final int iBuffer, // node
+            final int iMatrix,
+            final int jBuffer, // sibling
+            final int jMatrix) {
+
         // Determine buffer offsets
-        int kbo = dimPartial * kBuffer;
-        int ibo = dimPartial * iBuffer;
-        int jbo = dimPartial * jBuffer;
+        int kbo = dimPartial * kBuffer + dimPartialForTrait * fromTrait;
+        int ibo = dimPartial * iBuffer + dimPartialForTrait * fromTrait;
+        int jbo = dimPartial * jBuffer + dimPartialForTrait * fromTrait;
 
         // Determine matrix offsets
         final int imo = dimTrait * dimTrait * iMatrix;
@@ -229,8 +280,8 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             System.err.println("\tVdi: " + Vdi);
         }
 
-        // For each trait // TODO in parallel
-        for (int trait = 0; trait < numTraits; ++trait) {
+        // For each trait in the block
+        for (int trait = fromTrait; trait < toTrait; ++trait) {
 
             // A. Get current precision of k and j
             final DenseMatrix64F Pk = wrap(preOrderPartials, kbo + dimTrait, dimTrait, dimTrait);
@@ -241,21 +292,21 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
             // B. Inflate variance along sibling branch using matrix inversion
 //            final DenseMatrix64F Vjp = matrix0;
-            final DenseMatrix64F Pjp = matrixPjp;
-            increaseVariances(jbo, jBuffer, Vdj, Pdj, Pjp, false);
+            final DenseMatrix64F Pjp = workspace.matrixPjp;
+            increaseVariances(jbo, jBuffer, Vdj, Pdj, Pjp, false, workspace);
 
             // Actualize
-            final DenseMatrix64F QjPjp = matrixQjPjp;
+            final DenseMatrix64F QjPjp = workspace.matrixQjPjp;
             actualizePrecision(Pjp, QjPjp, jbo, jmo, jdo);
 
             // C. Compute prePartial mean
-            final DenseMatrix64F Pip = matrixPip;
+            final DenseMatrix64F Pip = workspace.matrixPip;
             CommonOps.add(Pk, Pjp, Pip);
 
-            final DenseMatrix64F Vip = matrix1;
+            final DenseMatrix64F Vip = workspace.matrix1;
             safeInvertPrecision(Pip, Vip, false);
 
-            final double[] delta = vectorDelta;
+            final double[] delta = workspace.vectorDelta;
             computeDelta(jbo, jdo, delta);
 
 //            final double[] tmp = vector0;
@@ -279,7 +330,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             actualizeVariance(Vip, ibo, imo, ido);
             inflateBranch(Vdi, Vip, Vi);
 
-            final DenseMatrix64F Pi = matrixPk;
+            final DenseMatrix64F Pi = workspace.matrixPk;
             safeInvert2(Vi, Pi, false);
 
             // X. Store precision results for node
@@ -352,10 +403,30 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             startTime("total");
         }
 
+        forEachTraitBlock((fromTrait, toTrait, workspace) ->
+                updatePartial(fromTrait, toTrait, workspace, kBuffer, iBuffer, iMatrix, jBuffer, jMatrix, computeRemainders));
+
+        if (TIMING) {
+            endTime("total");
+        }
+    }
+
+    private void updatePartial(
+            final int fromTrait,
+            final int toTrait,
+            final Workspace workspace,
+            final int kBuffer,
+            final int iBuffer,
+            final int iMatrix,
+            final int jBuffer,
+            final int jMatrix,
+            final boolean computeRemainders
+    ) {
+
         // Determine buffer offsets
-        int kbo = dimPartial * kBuffer;
-        int ibo = dimPartial * iBuffer;
-        int jbo = dimPartial * jBuffer;
+        int kbo = dimPartial * kBuffer + dimPartialForTrait * fromTrait;
+        int ibo = dimPartial * iBuffer + dimPartialForTrait * fromTrait;
+        int jbo = dimPartial * jBuffer + dimPartialForTrait * fromTrait;
 
         // Determine matrix offsets
         final int imo = dimTrait * dimTrait * iMatrix;
@@ -379,8 +450,8 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             System.err.println("\tVdj: " + Vdj);
         }
 
-        // For each trait // TODO in parallel
-        for (int trait = 0; trait < numTraits; ++trait) {
+        // For each trait in the block
+        for (int trait = fromTrait; trait < toTrait; ++trait) {
 
             // Layout, offset, dim
             // trait, 0, dT
@@ -390,12 +461,12 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
             // Increase variance along the branches i -> k and j -> k
 
-            final DenseMatrix64F Pip = matrixPip;
-            final DenseMatrix64F Pjp = matrixPjp;
+            final DenseMatrix64F Pip = workspace.matrixPip;
+            final DenseMatrix64F Pjp = workspace.matrixPjp;
 
 
-            InversionResult ci = increaseVariances(ibo, iBuffer, Vdi, Pdi, Pip, computeRemainders);
-            InversionResult cj = increaseVariances(jbo, jBuffer, Vdj, Pdj, Pjp, computeRemainders);
+            InversionResult ci = increaseVariances(ibo, iBuffer, Vdi, Pdi, Pip, computeRemainders, workspace);
+            InversionResult cj = increaseVariances(jbo, jBuffer, Vdj, Pdj, Pjp, computeRemainders, workspace);
 
             if (TIMING) {
                 endTime("peel2");
@@ -405,7 +476,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             // Compute partial mean and precision at node k
 
             // A. Partial precision and variance (for later use) using one matrix inversion
-            final DenseMatrix64F Pk = matrixPk;
+            final DenseMatrix64F Pk = workspace.matrixPk;
             computePartialPrecision(ido, jdo, imo, jmo, Pip, Pjp, Pk);
 
             if (TIMING) {
@@ -413,7 +484,12 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             }
 
             // B. Partial mean
-            partialMean(ibo, jbo, kbo, ido, jdo);
+            if (workspace == sharedWorkspace) {
+                partialMean(ibo, jbo, kbo, ido, jdo);
+            } else {
+                // only this class integrates traits in parallel
+                partialMean(ibo, jbo, kbo, workspace);
+            }
 
             if (TIMING) {
                 startTime("peel5");
@@ -448,7 +524,9 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
                 if (!(ci.getReturnCode() == NOT_OBSERVED || cj.getReturnCode() == NOT_OBSERVED)) {
 
                     // Inner products
-                    double SS = computeSS(ibo, Pip, jbo, Pjp, kbo, Pk, dimTrait);
+                    double SS = (workspace == sharedWorkspace ?
+                            computeSS(ibo, Pip, jbo, Pjp, kbo, Pk, dimTrait) :
+                            computeSS(ibo, Pip, jbo, Pjp, kbo, workspace));
 
                     remainder += -0.5 * SS;
 
@@ -491,10 +569,6 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             ibo += dimPartialForTrait;
             jbo += dimPartialForTrait;
         }
-
-        if (TIMING) {
-            endTime("total");
-        }
     }
 
     private void reportInversions(InversionResult ci, InversionResult cj,
@@ -510,7 +584,8 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
                                               final DenseMatrix64F Vdi,
                                               final DenseMatrix64F Pdi,
                                               final DenseMatrix64F Pip,
-                                              final boolean getDeterminant) {
+                                              final boolean getDeterminant,
+                                              final Workspace workspace) {
 
         if (TIMING) {
             startTime("peel1");
@@ -531,7 +606,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
         if (useVariancei) {
 
-            final DenseMatrix64F Vip = matrix0;
+            final DenseMatrix64F Vip = workspace.matrix0;
             final DenseMatrix64F Vi = wrap(partials, ibo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
             CommonOps.add(Vi, Vdi, Vip);
             if (allZeroOrInfinite(Vip)) {
@@ -541,9 +616,9 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
         } else {
 
-            final DenseMatrix64F tmp1 = matrix0;
+            final DenseMatrix64F tmp1 = workspace.matrix0;
             CommonOps.add(Pi, Pdi, tmp1);
-            final DenseMatrix64F tmp2 = matrix1;
+            final DenseMatrix64F tmp2 = workspace.matrix1;
             safeInvertPrecision(tmp1, tmp2, false);
             CommonOps.mult(tmp2, Pi, tmp1);
             idMinusA(tmp1);
@@ -594,18 +669,22 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
     void partialMean(int ibo, int jbo, int kbo,
                      int ido, int jdo) {
+        partialMean(ibo, jbo, kbo, sharedWorkspace);
+    }
+
+    private void partialMean(int ibo, int jbo, int kbo, Workspace workspace) {
         if (TIMING) {
             startTime("peel4");
         }
 
-        final double[] tmp = vectorPMk;
-        weightedSum(partials, ibo, matrixPip, partials, jbo, matrixPjp, dimTrait, tmp);
+        final double[] tmp = workspace.vectorPMk;
+        weightedSum(partials, ibo, workspace.matrixPip, partials, jbo, workspace.matrixPjp, dimTrait, tmp);
 
 
         final WrappedVector kPartials = new WrappedVector.Raw(partials, kbo, dimTrait);
         final WrappedVector wrapTmp = new WrappedVector.Raw(tmp, 0, dimTrait);
 
-        safeSolve(matrixPk, wrapTmp, kPartials, false);
+        safeSolve(workspace.matrixPk, wrapTmp, kPartials, false);
 
         if (TIMING) {
             endTime("peel4");
@@ -628,14 +707,27 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             System.err.println("Prior buffer index is " + priorBufferIndex);
         }
 
-        int rootOffset = dimPartial * rootBufferIndex;
-        int priorOffset = dimPartial * priorBufferIndex;
+        forEachTraitBlock((fromTrait, toTrait, workspace) ->
+                calculateRootLogLikelihood(fromTrait, toTrait, workspace, rootBufferIndex, priorBufferIndex,
+                        logLikelihoods, isIntegratedProcess));
+
+        if (DEBUG) {
+            System.err.println("End");
+        }
+    }
+
+    private void calculateRootLogLikelihood(int fromTrait, int toTrait, Workspace workspace,
+                                            int rootBufferIndex, int priorBufferIndex,
+                                            final double[] logLikelihoods, boolean isIntegratedProcess) {
+
+        int rootOffset = dimPartial * rootBufferIndex + dimPartialForTrait * fromTrait;
+        int priorOffset = dimPartial * priorBufferIndex + dimPartialForTrait * fromTrait;
 
         final DenseMatrix64F Pd = wrap(diffusions, precisionOffset, dimProcess, dimProcess);
 //        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
 
-        // TODO For each trait in parallel
-        for (int trait = 0; trait < numTraits; ++trait) {
+        // For each trait in the block
+        for (int trait = fromTrait; trait < toTrait; ++trait) {
 
             final DenseMatrix64F PPrior = wrap(partials, priorOffset + dimTrait, dimTrait, dimTrait);
             final DenseMatrix64F VPrior = wrap(partials, priorOffset + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
@@ -645,26 +737,29 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             {
 
                 if (!isIntegratedProcess) {
-                    final DenseMatrix64F PTmp = new DenseMatrix64F(dimTrait, dimTrait);
+                    final DenseMatrix64F PTmp = workspace.matrixPTmp;
                     CommonOps.mult(Pd, PPrior, PTmp);
                     PPrior.set(PTmp); // TODO What does this do?
                 } else {
-                    DenseMatrix64F Pdbis = new DenseMatrix64F(dimTrait, dimTrait);
+                    DenseMatrix64F Pdbis = workspace.matrixPdbis;
+                    Pdbis.zero();
                     blockUnwrap(Pd, Pdbis.data, 0, 0, 0, dimTrait);
                     blockUnwrap(Pd, Pdbis.data, dimProcess, dimProcess, 0, dimTrait);
 
-                    final DenseMatrix64F PTmp = new DenseMatrix64F(dimTrait, dimTrait);
+                    final DenseMatrix64F PTmp = workspace.matrixPTmp;
                     CommonOps.mult(Pdbis, PPrior, PTmp);
                     PPrior.set(PTmp);
                 }
             }
 
-            final DenseMatrix64F VTotal = new DenseMatrix64F(dimTrait, dimTrait);
+            final DenseMatrix64F VTotal = workspace.matrixVTotal;
+            VTotal.zero();
 
-            final DenseMatrix64F PTotal = new DenseMatrix64F(dimTrait, dimTrait);
+            final DenseMatrix64F PTotal = workspace.matrixPTotal;
+            PTotal.zero();
             CommonOps.invert(VTotal, PTotal);  // TODO Does this do anything?
 
-            InversionResult ctot = increaseVariances(rootOffset, rootBufferIndex, VPrior, PPrior, PTotal, true);
+            InversionResult ctot = increaseVariances(rootOffset, rootBufferIndex, VPrior, PPrior, PTotal, true, workspace);
 
             double SS = weightedInnerProductOfDifferences(
                     partials, rootOffset,
@@ -696,10 +791,6 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             rootOffset += dimPartialForTrait;
             priorOffset += dimPartialForTrait;
         }
-
-        if (DEBUG) {
-            System.err.println("End");
-        }
     }
 
 //    private InversionResult computeBranchAdjustedPrecision(final double[] partials,
@@ -741,16 +832,96 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
                      final int kbo,
                      final DenseMatrix64F Pk,
                      final int dimTrait) {
+        return computeSS(ibo, Pip, jbo, Pjp, kbo, sharedWorkspace);
+    }
+
+    private double computeSS(final int ibo,
+                             final DenseMatrix64F Pip,
+                             final int jbo,
+                             final DenseMatrix64F Pjp,
+                             final int kbo,
+                             final Workspace workspace) {
         return weightedThreeInnerProductNormalized(partials, ibo, Pip,
                 partials, jbo, Pjp,
                 partials, kbo,
-                vectorPMk, 0,
+                workspace.vectorPMk, 0,
                 dimTrait);
     }
 
+    ///////////////////////////////////////////////////////////////////////////
+    /// Trait-parallel integration
+    ///////////////////////////////////////////////////////////////////////////
+
+    private interface TraitBlockOperation {
+        void apply(int fromTrait, int toTrait, Workspace workspace);
+    }
+
+    /**
+     * Applies the operation to all the traits, either serially using the shared workspace or to
+     * each block of traits in parallel (on the shared pool) using the block's workspace.
+     */
+    private void forEachTraitBlock(TraitBlockOperation operation) {
+        if (workspaces == null) {
+            operation.apply(0, numTraits, sharedWorkspace);
+        } else {
+            ParallelBlocks.forEachBlock(workspaces.length, workspaces.length, block ->
+                    operation.apply(traitBlockStarts[block], traitBlockStarts[block + 1], workspaces[block]));
+        }
+    }
+
+    /**
+     * The temporary matrices and vectors used to integrate a trait.
+     */
+    private static final class Workspace {
+
+        Workspace(int dimTrait) {
+            this(dimTrait, new DenseMatrix64F(dimTrait, dimTrait), new DenseMatrix64F(dimTrait, dimTrait),
+                    new DenseMatrix64F(dimTrait, dimTrait), new DenseMatrix64F(dimTrait, dimTrait),
+                    new DenseMatrix64F(dimTrait, dimTrait), new DenseMatrix64F(dimTrait, dimTrait),
+                    new double[dimTrait], new double[dimTrait]);
+        }
+
+        Workspace(int dimTrait, DenseMatrix64F matrix0, DenseMatrix64F matrix1,
+                  DenseMatrix64F matrixPip, DenseMatrix64F matrixPjp, DenseMatrix64F matrixPk,
+                  DenseMatrix64F matrixQjPjp, double[] vectorDelta, double[] vectorPMk) {
+            this.matrix0 = matrix0;
+            this.matrix1 = matrix1;
+            this.matrixPip = matrixPip;
+            this.matrixPjp = matrixPjp;
+            this.matrixPk = matrixPk;
+            this.matrixQjPjp = matrixQjPjp;
+            this.vectorDelta = vectorDelta;
+            this.vectorPMk = vectorPMk;
+
+            matrixPTmp = new DenseMatrix64F(dimTrait, dimTrait);
+            matrixPdbis = new DenseMatrix64F(dimTrait, dimTrait);
+            matrixVTotal = new DenseMatrix64F(dimTrait, dimTrait);
+            matrixPTotal = new DenseMatrix64F(dimTrait, dimTrait);
+        }
+
+        final DenseMatrix64F matrix0;
+        final DenseMatrix64F matrix1;
+        final DenseMatrix64F matrixPip;
+        final DenseMatrix64F matrixPjp;
+        final DenseMatrix64F matrixPk;
+        final DenseMatrix64F matrixQjPjp;
+        final double[] vectorDelta;
+        final double[] vectorPMk;
+
+        // for the root
+        final DenseMatrix64F matrixPTmp;
+        final DenseMatrix64F matrixPdbis;
+        final DenseMatrix64F matrixVTotal;
+        final DenseMatrix64F matrixPTotal;
+    }
+
     private final int effectiveDimensionOffset;
     private final int determinantOffset;
 
+    private final Workspace sharedWorkspace;
+    private final Workspace[] workspaces;
+    private final int[] traitBlockStarts;
+
     private DenseMatrix64F matrixQjPjp;
     private double[] vectorDelta;
     double[] vectorPMk;
@@ -29,7 +29,7 @@ package dr.evomodel.treedatalikelihood.discrete;
 
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
-import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
 import dr.inference.model.Parameter;
 
@@ -42,7 +42,7 @@ public class BranchRateGradientForDiscreteTrait extends DiscreteTraitBranchRateG
 
     public BranchRateGradientForDiscreteTrait(String traitName,
                                               TreeDataLikelihood treeDataLikelihood,
-                                              BeagleDataLikelihoodDelegate likelihoodDelegate,
+                                              DataLikelihoodDelegate likelihoodDelegate,
                                               Parameter rateParameter,
                                               boolean useHessian) {
         super(traitName, treeDataLikelihood, likelihoodDelegate, rateParameter, useHessian);
@@ -34,6 +34,7 @@ import dr.evolution.tree.TreeTraitProvider;
 import dr.evomodel.branchratemodel.BranchRateModel;
 import dr.evomodel.branchratemodel.DifferentiableBranchRates;
 import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.ProcessSimulation;
 import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
 import dr.evomodel.treedatalikelihood.preorder.ProcessSimulationDelegate;
@@ -73,7 +74,7 @@ public class DiscreteTraitBranchRateGradient
     // TODO Maybe use:  AbstractBranchRateGradient, DiscreteTraitBranchRateGradient, ContinuousTraitBranchRateGradient
     public DiscreteTraitBranchRateGradient(String traitName,
                                            TreeDataLikelihood treeDataLikelihood,
-                                           BeagleDataLikelihoodDelegate likelihoodDelegate,
+                                           DataLikelihoodDelegate likelihoodDelegate,
                                            Parameter rateParameter,
                                            boolean useHessian) {
 
@@ -91,7 +92,11 @@ public class DiscreteTraitBranchRateGradient
         TreeTrait test = treeDataLikelihood.getTreeTrait(name);
 
         if (test == null) {
-            ProcessSimulationDelegate gradientDelegate = makeGradientDelegate(traitName, tree, likelihoodDelegate);
+            if (!(likelihoodDelegate instanceof BeagleDataLikelihoodDelegate)) {
+                throw new RuntimeException("Gradient is not available from this likelihood delegate");
+            }
+            ProcessSimulationDelegate gradientDelegate = makeGradientDelegate(traitName, tree,
+                    (BeagleDataLikelihoodDelegate) likelihoodDelegate);
             TreeTraitProvider traitProvider = new ProcessSimulation(treeDataLikelihood, gradientDelegate);
             treeDataLikelihood.addTraits(traitProvider.getTreeTraits());
         }
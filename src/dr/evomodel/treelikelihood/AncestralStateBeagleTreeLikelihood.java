@@ -39,9 +39,11 @@ import dr.evomodel.tree.TreeModel;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.math.MathUtils;
+import dr.util.ParallelBlocks;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.SplittableRandom;
 import java.util.function.Function;
 
 /**
@@ -114,6 +116,8 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
         this.useMAP = useMAP;
         this.returnMarginalLogLikelihood = returnML;
 
+        setReconstructionThreadCount(1);
+
         boolean stripHiddenState = false; // TODO Pass as option
         this.formatter = new CodeFormatter(dataType, stripHiddenState);
 
@@ -241,7 +245,11 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
         return internalNodeCount + 2;
     }
 
-    private int drawChoice(double[] measure) {
+    /**
+     * Draws a state from an unnormalised measure (or its log, which may be overwritten), using the
+     * given stream or the global MathUtils generator if this is null.
+     */
+    private int drawChoice(double[] measure, SplittableRandom random) {
         if (useMAP) {
             double max = measure[0];
             int choice = 0;
@@ -252,14 +260,36 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
                 }
             }
             return choice;
+        } else if (conditionalProbabilitiesInLogSpace) {
+            return (random == null ? MathUtils.randomChoiceLogPDF(measure) : MathUtils.randomChoiceLogPDF(measure, random));
         } else {
-            if(conditionalProbabilitiesInLogSpace){
-                return MathUtils.randomChoiceLogPDF(measure);
+            return (random == null ? MathUtils.randomChoicePDF(measure) : MathUtils.randomChoicePDF(measure, random));
+        }
+    }
+
+    /**
+     * Sets the number of threads used to sample the states (if <= 0 then the number of processors).
+     * With more than one thread the patterns are sampled in blocks, each with its own random number
+     * stream seeded from MathUtils, so the states drawn depend on the seed but not on the number of
+     * threads. With one thread (the default) the states are drawn from MathUtils in pattern order.
+     */
+    public void setReconstructionThreadCount(int threadCount) {
+        this.threadCount = ParallelBlocks.getThreadCount(threadCount);
+
+        if (this.threadCount > 1) {
+            int blockCount = (patternCount + PATTERN_BLOCK_SIZE - 1) / PATTERN_BLOCK_SIZE;
+            blocks = new SamplingBlock[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blocks[i] = new SamplingBlock(i * PATTERN_BLOCK_SIZE, Math.min(patternCount, (i + 1) * PATTERN_BLOCK_SIZE));
             }
-            return MathUtils.randomChoicePDF(measure);
+        } else {
+            blocks = new SamplingBlock[]{new SamplingBlock(0, patternCount)};
         }
     }
 
+    public int getReconstructionThreadCount() {
+        return threadCount;
+    }
 
     public void makeDirty() {
         super.makeDirty();
@@ -267,6 +297,21 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
     }
 
     public void redrawAncestralStates() {
+        if (statesStored) {
+            // keep the stored states and draw into the other buffer
+            int[][] temp = reconstructedStates;
+            reconstructedStates = storedReconstructedStates;
+            storedReconstructedStates = temp;
+            statesStored = false;
+        }
+
+        if (blocks.length > 1) {
+            // a fresh independent stream for each block of patterns
+            for (SamplingBlock block : blocks) {
+                block.random = new SplittableRandom(MathUtils.nextLong());
+            }
+        }
+
         // Sample states
         jointLogLikelihood = 0;
         traverseSample(treeModel, treeModel.getRoot(), null, null);
@@ -381,11 +426,8 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
 
         super.storeState();
 
-        if (areStatesRedrawn) {
-            for (int i = 0; i < reconstructedStates.length; i++) {
-                System.arraycopy(reconstructedStates[i], 0, storedReconstructedStates[i], 0, reconstructedStates[i].length);
-            }
-        }
+        // rather than copying the states, they are left in place and only swapped out if they are redrawn
+        statesStored = areStatesRedrawn;
         // TODO MAS: I do not understand why these are NOT necessary
 
         storedAreStatesRedrawn = areStatesRedrawn;
@@ -396,9 +438,12 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
 
         super.restoreState();
 
-        int[][] temp = reconstructedStates;
-        reconstructedStates = storedReconstructedStates;
-        storedReconstructedStates = temp;
+        if (!statesStored) {
+            int[][] temp = reconstructedStates;
+            reconstructedStates = storedReconstructedStates;
+            storedReconstructedStates = temp;
+        }
+        statesStored = storedAreStatesRedrawn;
 
         areStatesRedrawn = storedAreStatesRedrawn;
         jointLogLikelihood = storedJointLogLikelihood;
@@ -412,9 +457,10 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
 
         // This function assumes that all partial likelihoods have already been calculated
         // If the node is internal, then sample its state given the state of its parent (pre-order traversal).
+        // The partials and matrices are fetched once for the node and all the patterns are sampled
+        // together (in parallel blocks if there is more than one thread).
 
-        double[] conditionalProbabilities = new double[stateCount];
-        int[] state = new int[patternCount];
+        final int[] state = reconstructedStates[nodeNum];
 
         if (!tree.isExternal(node)) {
 
@@ -423,58 +469,23 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
                 // This is the root node
                 getPartials(nodeNum, partials);
 
-                boolean sampleCategory = categoryCount > 1;
-                double[] posteriorWeightedCategory = null;
-                double[] priorWeightedCategory = null;
+                final boolean sampleCategory = categoryCount > 1;
+                final double[] priorWeightedCategory;
 
                 if (sampleCategory) {
-                    rateCategory = new int[patternCount];
-                    posteriorWeightedCategory = new double[categoryCount];
+                    if (sampledRateCategory == null) {
+                        sampledRateCategory = new int[patternCount];
+                    }
+                    rateCategory = sampledRateCategory;
                     priorWeightedCategory = siteRateModel.getCategoryProportions();
+                } else {
+                    priorWeightedCategory = null;
                 }
 
-                for (int j = 0; j < patternCount; j++) {
-
-                    // Sample across-site-rate-variation, if it exists
-                    if (sampleCategory) {
-                        for (int r = 0; r < categoryCount; r++) {
-                            posteriorWeightedCategory[r] = 0;
-                            for (int k = 0; k < stateCount; k++) {
-                                posteriorWeightedCategory[r] += partials[r * stateCount * patternCount +
-                                        j * stateCount + k];
-                            }
-                            posteriorWeightedCategory[r] *= priorWeightedCategory[r];
-                        }
-                        rateCategory[j] = drawChoice(posteriorWeightedCategory);
-                    }
-
-                    // Sample root character state
-                    int partialsIndex = (rateCategory == null ? 0 : rateCategory[j]) * stateCount * patternCount + j * stateCount;
-
-
-                    double[] frequencies = substitutionModelDelegate.getRootStateFrequencies(); // TODO May have more than one set of frequencies
+                final double[] frequencies = substitutionModelDelegate.getRootStateFrequencies(); // TODO May have more than one set of frequencies
+                final int[] categories = rateCategory;
 
-                    for (int i = 0; i < stateCount; i++) {
-                         if (conditionalProbabilitiesInLogSpace) {
-                             conditionalProbabilities[i] = Math.log(partials[partialsIndex + i]) + Math.log(frequencies[i]);
-                         } else {
-                             conditionalProbabilities[i] = partials[partialsIndex + i] * frequencies[i];
-                         }
-                    }
-
-                    try {
-                        state[j] = drawChoice(conditionalProbabilities);
-                    } catch (Error e) {
-                        System.err.println(e.toString());
-                        System.err.println("Please report error to Marc");
-                        state[j] = 0;
-                    }
-                    reconstructedStates[nodeNum][j] = state[j];
-
-                    if (!returnMarginalLogLikelihood) {
-                        jointLogLikelihood += Math.log(frequencies[state[j]]);
-                    }
-                }
+                sampleBlocks(block -> sampleRootStates(block, state, categories, frequencies, priorWeightedCategory));
 
                 if (sampleCategory) {
                     if (this.rateCategory == null) {
@@ -486,8 +497,7 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
             } else {
 
                 // This is an internal node, but not the root
-                double[] partialLikelihood = new double[stateCount * patternCount * categoryCount];
-                getPartials(nodeNum, partialLikelihood);
+                getPartials(nodeNum, partials);
 
                 // Sibon says that this actually works now
 //                if (categoryCount > 1)
@@ -495,34 +505,8 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
 
                 getMatrix(nodeNum, probabilities);
 
-                for (int j = 0; j < patternCount; j++) {
-
-                    int parentIndex = parentState[j] * stateCount;
-                    int childIndex = j * stateCount;
-
-                    int category = rateCategory == null ? 0 : rateCategory[j];
-                    int matrixIndex = category * stateCount * stateCount;
-                    int partialIndex = category * stateCount * patternCount;
-
-                    for (int i = 0; i < stateCount; i++) {
-                        if (conditionalProbabilitiesInLogSpace) {
-                            conditionalProbabilities[i] = Math.log(partialLikelihood[partialIndex + childIndex + i])
-                                    + Math.log(probabilities[matrixIndex + parentIndex + i]);
-                        } else {
-                            conditionalProbabilities[i] = partialLikelihood[partialIndex + childIndex + i]
-                                    * probabilities[matrixIndex + parentIndex + i];
-                        }
-
-                    }
-
-                    state[j] = drawChoice(conditionalProbabilities);
-                    reconstructedStates[nodeNum][j] = state[j];
-
-                    if (!returnMarginalLogLikelihood) {
-                        double contrib = probabilities[parentIndex + state[j]];
-                        jointLogLikelihood += Math.log(contrib);
-                    }
-                }
+                final int[] categories = rateCategory;
+                sampleBlocks(block -> sampleInternalStates(block, parentState, state, categories));
 
                 hookCalculation(tree, parent, node, parentState, state, probabilities, rateCategory);
             }
@@ -536,82 +520,217 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
         } else {
 
             // This is an external leaf
+            final int[] categories = rateCategory;
 
             if (useAmbiguities()) {
 
                 getMatrix(nodeNum, probabilities);
-                double[] partials = tipPartials[nodeNum];
+                final double[] partials = tipPartials[nodeNum];
+
+                sampleBlocks(block -> sampleTipPartialsStates(block, parentState, partials, state, categories));
 
-                for (int j = 0; j < patternCount; j++) {
-                    final int parentIndex = parentState[j] * stateCount;
-                    int category = rateCategory == null ? 0 : rateCategory[j];
-                    int matrixIndex = category * stateCount * stateCount;
+            } else {
 
-                    int probabilityIndex = parentIndex + matrixIndex;
+                getTipStates(nodeNum, state);
+
+                // Check for ambiguity codes and sample them
+                boolean matrixNeeded = !returnMarginalLogLikelihood;
+                for (int j = 0; j < patternCount && !matrixNeeded; j++) {
+                    matrixNeeded = dataType.isAmbiguousState(state[j]);
+                }
+
+                if (matrixNeeded) {
+                    getMatrix(nodeNum, probabilities);
+                    sampleBlocks(block -> sampleTipStates(block, parentState, state, categories));
+                }
+            }
+            hookCalculation(tree, parent, node, parentState, state, null, rateCategory);
+        }
+    }
+
+    /**
+     * Samples the states of the patterns in each block, in parallel if there is more than one
+     * thread, and adds the contributions to the joint log likelihood in block order.
+     */
+    private void sampleBlocks(final BlockSampler sampler) {
+        ParallelBlocks.forEachBlock(threadCount, blocks.length, b -> {
+            blocks[b].logLikelihood = sampler.sample(blocks[b]);
+        });
+        for (SamplingBlock block : blocks) {
+            jointLogLikelihood += block.logLikelihood;
+        }
+    }
+
+    private double sampleRootStates(SamplingBlock block, int[] state, int[] categories,
+                                    double[] frequencies, double[] priorWeightedCategory) {
+        final double[] conditionalProbabilities = block.conditionalProbabilities;
+        final double[] posteriorWeightedCategory = block.posteriorWeightedCategory;
+        final int partialsStride = stateCount * patternCount;
+
+        double logLikelihood = 0.0;
+        for (int j = block.start; j < block.end; j++) {
+
+            // Sample across-site-rate-variation, if it exists
+            if (priorWeightedCategory != null) {
+                for (int r = 0; r < categoryCount; r++) {
+                    posteriorWeightedCategory[r] = 0;
                     for (int k = 0; k < stateCount; k++) {
-                        if(conditionalProbabilitiesInLogSpace){
-                            conditionalProbabilities[k] = Math.log(probabilities[probabilityIndex + k])+ Math.log(partials[j * stateCount + k]);
-                        }else{
-                            conditionalProbabilities[k] = probabilities[probabilityIndex + k]* partials[j * stateCount + k];
-                        }
+                        posteriorWeightedCategory[r] += partials[r * partialsStride + j * stateCount + k];
                     }
-                    reconstructedStates[nodeNum][j] = drawChoice(conditionalProbabilities);
+                    posteriorWeightedCategory[r] *= priorWeightedCategory[r];
+                }
+                categories[j] = drawChoice(posteriorWeightedCategory, block.random);
+            }
 
-                    if (!returnMarginalLogLikelihood) {
-                        double contrib = probabilities[parentIndex + reconstructedStates[nodeNum][j]];
-                        jointLogLikelihood += Math.log(contrib);
-                    }
+            // Sample root character state
+            int partialsIndex = (categories == null ? 0 : categories[j]) * partialsStride + j * stateCount;
+
+            for (int i = 0; i < stateCount; i++) {
+                if (conditionalProbabilitiesInLogSpace) {
+                    conditionalProbabilities[i] = Math.log(partials[partialsIndex + i]) + Math.log(frequencies[i]);
+                } else {
+                    conditionalProbabilities[i] = partials[partialsIndex + i] * frequencies[i];
                 }
+            }
 
-            } else {
+            try {
+                state[j] = drawChoice(conditionalProbabilities, block.random);
+            } catch (Error e) {
+                System.err.println(e.toString());
+                System.err.println("Please report error to Marc");
+                state[j] = 0;
+            }
 
-                getTipStates(nodeNum, reconstructedStates[nodeNum]);
+            if (!returnMarginalLogLikelihood) {
+                logLikelihood += Math.log(frequencies[state[j]]);
+            }
+        }
+        return logLikelihood;
+    }
 
-                // Check for ambiguity codes and sample them
+    private double sampleInternalStates(SamplingBlock block, int[] parentState, int[] state, int[] categories) {
+        final double[] conditionalProbabilities = block.conditionalProbabilities;
+
+        double logLikelihood = 0.0;
+        for (int j = block.start; j < block.end; j++) {
 
-                for (int j = 0; j < patternCount; j++) {
+            int parentIndex = parentState[j] * stateCount;
+            int childIndex = j * stateCount;
 
-                    final int thisState = reconstructedStates[nodeNum][j];
+            int category = categories == null ? 0 : categories[j];
+            int matrixIndex = category * stateCount * stateCount;
+            int partialIndex = category * stateCount * patternCount;
 
-                    if (dataType.isAmbiguousState(thisState)) {
+            for (int i = 0; i < stateCount; i++) {
+                if (conditionalProbabilitiesInLogSpace) {
+                    conditionalProbabilities[i] = Math.log(partials[partialIndex + childIndex + i])
+                            + Math.log(probabilities[matrixIndex + parentIndex + i]);
+                } else {
+                    conditionalProbabilities[i] = partials[partialIndex + childIndex + i]
+                            * probabilities[matrixIndex + parentIndex + i];
+                }
+            }
 
-                        final int parentIndex = parentState[j] * stateCount;
-                        int category = rateCategory == null ? 0 : rateCategory[j];
-                        int matrixIndex = category * stateCount * stateCount;
+            state[j] = drawChoice(conditionalProbabilities, block.random);
 
-                        getMatrix(nodeNum, probabilities);
-                        System.arraycopy(probabilities, parentIndex + matrixIndex, conditionalProbabilities, 0, stateCount);
+            if (!returnMarginalLogLikelihood) {
+                double contrib = probabilities[parentIndex + state[j]];
+                logLikelihood += Math.log(contrib);
+            }
+        }
+        return logLikelihood;
+    }
 
-                        if (useAmbiguities && !dataType.isUnknownState(thisState)) { // Not completely unknown
-                            boolean[] stateSet = dataType.getStateSet(thisState);
+    private double sampleTipPartialsStates(SamplingBlock block, int[] parentState, double[] partials,
+                                           int[] state, int[] categories) {
+        final double[] conditionalProbabilities = block.conditionalProbabilities;
+
+        double logLikelihood = 0.0;
+        for (int j = block.start; j < block.end; j++) {
+            final int parentIndex = parentState[j] * stateCount;
+            int category = categories == null ? 0 : categories[j];
+            int matrixIndex = category * stateCount * stateCount;
+
+            int probabilityIndex = parentIndex + matrixIndex;
+            for (int k = 0; k < stateCount; k++) {
+                if (conditionalProbabilitiesInLogSpace) {
+                    conditionalProbabilities[k] = Math.log(probabilities[probabilityIndex + k]) + Math.log(partials[j * stateCount + k]);
+                } else {
+                    conditionalProbabilities[k] = probabilities[probabilityIndex + k] * partials[j * stateCount + k];
+                }
+            }
+            state[j] = drawChoice(conditionalProbabilities, block.random);
 
-                            for (int k = 0; k < stateCount; k++) {
-                                if (!stateSet[k]) {
-                                    conditionalProbabilities[k] = 0.0;
-                                }
-                            }
-                        }
+            if (!returnMarginalLogLikelihood) {
+                double contrib = probabilities[parentIndex + state[j]];
+                logLikelihood += Math.log(contrib);
+            }
+        }
+        return logLikelihood;
+    }
+
+    private double sampleTipStates(SamplingBlock block, int[] parentState, int[] state, int[] categories) {
+        final double[] conditionalProbabilities = block.conditionalProbabilities;
+
+        double logLikelihood = 0.0;
+        for (int j = block.start; j < block.end; j++) {
+
+            final int thisState = state[j];
+            final int parentIndex = parentState[j] * stateCount;
+
+            if (dataType.isAmbiguousState(thisState)) {
+
+                int category = categories == null ? 0 : categories[j];
+                int matrixIndex = category * stateCount * stateCount;
 
-                        if (conditionalProbabilitiesInLogSpace) {
-                            for (int k = 0; k < stateCount; k++) {
-                                conditionalProbabilities[k] = Math.log(conditionalProbabilities[k]);
-                            }
+                System.arraycopy(probabilities, parentIndex + matrixIndex, conditionalProbabilities, 0, stateCount);
+
+                if (useAmbiguities && !dataType.isUnknownState(thisState)) { // Not completely unknown
+                    boolean[] stateSet = dataType.getStateSet(thisState);
+
+                    for (int k = 0; k < stateCount; k++) {
+                        if (!stateSet[k]) {
+                            conditionalProbabilities[k] = 0.0;
                         }
-                        reconstructedStates[nodeNum][j] = drawChoice(conditionalProbabilities);
                     }
+                }
 
-                    if (!returnMarginalLogLikelihood) {
-                        final int parentIndex = parentState[j] * stateCount;
-                        getMatrix(nodeNum, probabilities);
-                        if (!returnMarginalLogLikelihood) {
-                            double contrib = probabilities[parentIndex + reconstructedStates[nodeNum][j]];
-                            jointLogLikelihood += Math.log(contrib);
-                        }
+                if (conditionalProbabilitiesInLogSpace) {
+                    for (int k = 0; k < stateCount; k++) {
+                        conditionalProbabilities[k] = Math.log(conditionalProbabilities[k]);
                     }
                 }
+                state[j] = drawChoice(conditionalProbabilities, block.random);
             }
-            hookCalculation(tree, parent, node, parentState, reconstructedStates[nodeNum], null, rateCategory);
+
+            if (!returnMarginalLogLikelihood) {
+                double contrib = probabilities[parentIndex + state[j]];
+                logLikelihood += Math.log(contrib);
+            }
+        }
+        return logLikelihood;
+    }
+
+    private interface BlockSampler {
+        double sample(SamplingBlock block);
+    }
+
+    /**
+     * A range of patterns with its own workspace and (if there is more than one block) random number stream.
+     */
+    private class SamplingBlock {
+
+        SamplingBlock(int start, int end) {
+            this.start = start;
+            this.end = end;
         }
+
+        final int start;
+        final int end;
+        SplittableRandom random = null;
+        final double[] conditionalProbabilities = new double[stateCount];
+        final double[] posteriorWeightedCategory = new double[categoryCount];
+        double logLikelihood;
     }
 
     protected void hookCalculation(Tree tree, NodeRef parentNode, NodeRef childNode,
@@ -641,6 +760,15 @@ public class AncestralStateBeagleTreeLikelihood extends BeagleTreeLikelihood imp
     private double[] partials;
 
     protected int[] rateCategory = null;
+    private int[] sampledRateCategory = null;
+
+    // the stored states are in reconstructedStates until they are redrawn
+    private boolean statesStored = false;
+
+    private static final int PATTERN_BLOCK_SIZE = 1024;
+
+    private int threadCount;
+    private SamplingBlock[] blocks;
     private final boolean conditionalProbabilitiesInLogSpace;
 //    private double[] rootPartials;
 //    private int[][] cumulativeScaleBuffers;
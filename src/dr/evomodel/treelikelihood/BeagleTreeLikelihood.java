@@ -1026,8 +1026,6 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
                 // }
             }
 
-            beagle.getSiteLogLikelihoods(patternLogLikelihoods);
-
             if (ascertainedSitePatterns) {
                 // Need to correct for ascertainedSitePatterns
                 beagle.getSiteLogLikelihoods(patternLogLikelihoods);
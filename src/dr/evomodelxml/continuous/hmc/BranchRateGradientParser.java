@@ -30,6 +30,7 @@ package dr.evomodelxml.continuous.hmc;
 import dr.evomodel.branchratemodel.*;
 import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
 import dr.evomodel.treedatalikelihood.continuous.BranchRateGradient;
 import dr.evomodel.treedatalikelihood.continuous.ContinuousDataLikelihoodDelegate;
@@ -129,6 +130,17 @@ public class BranchRateGradientParser extends AbstractXMLObjectParser {
                 }
                 return new BranchRateGradientForDiscreteTrait(traitName, treeDataLikelihood, beagleData, branchRates, useHessian);
 
+            } else if (delegate instanceof JavaDataLikelihoodDelegate) {
+
+                JavaDataLikelihoodDelegate javaData = (JavaDataLikelihoodDelegate) delegate;
+                if (!javaData.isUsePreOrder()) {
+                    throw new XMLParseException("To use gradients TreeDataLikelihood must have attribute usePreOrder=\"true\"");
+                }
+                if (useHessian) {
+                    throw new XMLParseException("The Hessian is only available when using BEAGLE");
+                }
+                return new BranchRateGradientForDiscreteTrait(traitName, treeDataLikelihood, javaData, branchRates, useHessian);
+
             } else {
                 throw new XMLParseException("Unknown likelihood delegate type");
             }
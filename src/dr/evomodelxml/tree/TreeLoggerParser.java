@@ -32,7 +32,6 @@ import dr.evolution.tree.*;
 import dr.evomodel.tree.TreeLogger;
 import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.Loggable;
-import dr.inference.loggers.TabDelimitedFormatter;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
@@ -40,7 +39,6 @@ import dr.inferencexml.loggers.LoggerParser;
 import dr.util.Identifiable;
 import dr.xml.*;
 
-import java.io.PrintWriter;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
@@ -325,9 +323,7 @@ public class TreeLoggerParser extends LoggerParser {
             format.setMaximumFractionDigits(dp);
         }
 
-        final PrintWriter pw = getLogFile(xo, getParserName());
-
-        formatter = new TabDelimitedFormatter(pw);
+        formatter = getLogFormatter(xo, getParserName());
 
         treeAttributeProviders = new TreeAttributeProvider[taps.size()];
         taps.toArray(treeAttributeProviders);
@@ -383,6 +379,8 @@ public class TreeLoggerParser extends LoggerParser {
     private final XMLSyntaxRule[] rules = {
             AttributeRule.newIntegerRule(LOG_EVERY, true),
             AttributeRule.newBooleanRule(ALLOW_OVERWRITE_LOG, true),
+            AttributeRule.newBooleanRule(ASYNC, true, "Write the tree log file on a background thread"),
+            AttributeRule.newBooleanRule(COMPRESS, true, "Compress the tree log file using gzip"),
             new StringAttributeRule(FILE_NAME,
                     "The name of the file to send log output to. " +
                             "If no file name is specified then log is sent to standard output", true),
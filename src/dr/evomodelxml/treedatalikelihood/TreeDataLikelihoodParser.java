@@ -131,8 +131,12 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
         }
 
         boolean useJava = Boolean.parseBoolean(System.getProperty("java.only", "false"));
+        if (!useJava && !BeagleFunctionality.IS_BEAGLE_AVAILABLE()) {
+            logger.info("  BEAGLE is not available - using the Java likelihood core.");
+            useJava = true;
+        }
         if (useJava) {
-            logger.warning("  Java-only computation is not available - ignoring this option.");
+            useBeagle3MultiPartition = false;
         }
 
         int beagleThreadCount = -1;
@@ -209,16 +213,30 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
 
             for (int j = 0; j < bic; j++) {
                 PatternList subPatterns = new Patterns(partitionPatterns, j, bic);
-                DataLikelihoodDelegate dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
-                        treeModel,
-                        subPatterns,
-                        branchModels.get(i),
-                        siteRateModels.get(i),
-                        useAmbiguities,
-                        preferGPU,
-                        scalingScheme,
-                        delayRescalingUntilUnderflow,
-                        settings);
+                DataLikelihoodDelegate dataLikelihoodDelegate;
+                if (useJava) {
+                    dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(
+                            treeModel,
+                            subPatterns,
+                            branchModels.get(i),
+                            siteRateModels.get(i),
+                            useAmbiguities,
+                            scalingScheme,
+                            delayRescalingUntilUnderflow,
+                            settings,
+                            beagleThreadCount);
+                } else {
+                    dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
+                            treeModel,
+                            subPatterns,
+                            branchModels.get(i),
+                            siteRateModels.get(i),
+                            useAmbiguities,
+                            preferGPU,
+                            scalingScheme,
+                            delayRescalingUntilUnderflow,
+                            settings);
+                }
 
                 TreeDataLikelihood treeDataLikelihood = new TreeDataLikelihood(
                         dataLikelihoodDelegate,
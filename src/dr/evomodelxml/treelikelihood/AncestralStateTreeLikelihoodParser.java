@@ -62,6 +62,7 @@ public class AncestralStateTreeLikelihoodParser extends BeagleTreeLikelihoodPars
     public static final String MAP_RECONSTRUCTION = "useMAP";
     public static final String MARGINAL_LIKELIHOOD = "useMarginalLikelihood";
     public static final String CONDITIONAL_PROBABILITIES_IN_LOG_SPACE = "conditionalProbabilitiesInLogSpace";
+    public static final String RECONSTRUCTION_THREADS = "reconstructionThreads";
 
     public String getParserName() {
         return RECONSTRUCTING_TREE_LIKELIHOOD;
@@ -98,7 +99,7 @@ public class AncestralStateTreeLikelihoodParser extends BeagleTreeLikelihoodPars
             throw new XMLParseException("Ancestral state reconstruction cannot be used with compressed (unique) patterns.");
         }
 
-        return new AncestralStateBeagleTreeLikelihood(  // Current just returns a OldBeagleTreeLikelihood
+        AncestralStateBeagleTreeLikelihood treeLikelihood = new AncestralStateBeagleTreeLikelihood(  // Current just returns a OldBeagleTreeLikelihood
                 patternList,
                 treeModel,
                 branchModel,
@@ -115,12 +116,18 @@ public class AncestralStateTreeLikelihoodParser extends BeagleTreeLikelihoodPars
                 useMarginalLogLikelihood,
                 conditionalProbabilitiesInLogSpace
         );
+
+        treeLikelihood.setReconstructionThreadCount(xo.getAttribute(RECONSTRUCTION_THREADS, 1));
+
+        return treeLikelihood;
     }
 
     public XMLSyntaxRule[] getSyntaxRules() {
         return new XMLSyntaxRule[] {
                 AttributeRule.newBooleanRule(BeagleTreeLikelihoodParser.USE_AMBIGUITIES, true),
                 AttributeRule.newStringRule(RECONSTRUCTION_TAG_NAME, true),
+                AttributeRule.newIntegerRule(RECONSTRUCTION_THREADS, true,
+                        "The number of threads used to sample the ancestral states (if <= 0 then the number of processors)"),
                 new ElementRule(PatternList.class),
                 new ElementRule(MutableTreeModel.class),
                 new ElementRule(GammaSiteRateModel.class),
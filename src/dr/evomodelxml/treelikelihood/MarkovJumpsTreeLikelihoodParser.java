@@ -123,6 +123,8 @@ public class MarkovJumpsTreeLikelihoodParser extends AncestralStateTreeLikelihoo
                 conditionalProbabilitiesInLogSpace
         );
 
+        treeLikelihood.setReconstructionThreadCount(xo.getAttribute(RECONSTRUCTION_THREADS, 1));
+
         int registersFound = parseAllChildren(xo, treeLikelihood, dataType.getStateCount(), jumpTag,
                 MarkovJumpsType.COUNTS, false); // For backwards compatibility
 
@@ -223,6 +225,7 @@ public class MarkovJumpsTreeLikelihoodParser extends AncestralStateTreeLikelihoo
                     AttributeRule.newBooleanRule(BeagleTreeLikelihoodParser.USE_AMBIGUITIES, true),
                     AttributeRule.newStringRule(RECONSTRUCTION_TAG_NAME, true),
                     AttributeRule.newStringRule(JUMP_TAG_NAME, true),
+                    AttributeRule.newIntegerRule(RECONSTRUCTION_THREADS, true),
                     AttributeRule.newBooleanRule(SCALE_REWARDS,true),
                     AttributeRule.newBooleanRule(USE_UNIFORMIZATION,true),
                     AttributeRule.newBooleanRule(REPORT_UNCONDITIONED_COLUMNS, true),
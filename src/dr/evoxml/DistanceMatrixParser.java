@@ -32,6 +32,7 @@ import dr.evolution.datatype.Nucleotides;
 import dr.evolution.distance.DistanceMatrix;
 import dr.evolution.distance.F84DistanceMatrix;
 import dr.evolution.distance.JukesCantorDistanceMatrix;
+import dr.evolution.distance.PackedNucleotideDistanceMatrix;
 import dr.evolution.distance.SMMDistanceMatrix;
 import dr.xml.*;
 
@@ -46,6 +47,8 @@ public class DistanceMatrixParser extends AbstractXMLObjectParser {
 
     public static final String DISTANCE_MATRIX = "distanceMatrix";
     public static final String CORRECTION = "correction";
+    public static final String THREADS = "threads";
+    public static final String MEMORY_MAPPED = "memoryMapped";
 
     public String getParserName() { return DISTANCE_MATRIX; }
 
@@ -56,7 +59,15 @@ public class DistanceMatrixParser extends AbstractXMLObjectParser {
         DistanceMatrix matrix = null;
 
         String type = xo.getStringAttribute(CORRECTION);
-        if (type.equals(Nucleotides.JC)) {
+        int threadCount = xo.getAttribute(THREADS, -1);
+        boolean memoryMapped = xo.getAttribute(MEMORY_MAPPED, false);
+
+        if (patterns.getDataType() instanceof Nucleotides && (type.equals(Nucleotides.JC) || type.equals("none"))) {
+            boolean jukesCantor = type.equals(Nucleotides.JC);
+            Logger.getLogger("dr.evoxml").info("Creating " + (jukesCantor ? "Jukes-Cantor" : "uncorrected") +
+                    " distance matrix from packed sequences" + (memoryMapped ? " (memory-mapped)" : ""));
+            matrix = new PackedNucleotideDistanceMatrix(patterns, jukesCantor, threadCount, memoryMapped);
+        } else if (type.equals(Nucleotides.JC)) {
 	        Logger.getLogger("dr.evoxml").info("Creating Jukes-Cantor distance matrix");
             matrix = new JukesCantorDistanceMatrix(patterns);
         } else if (type.equals(Nucleotides.F84)) {
@@ -80,6 +91,10 @@ public class DistanceMatrixParser extends AbstractXMLObjectParser {
         new StringAttributeRule(CORRECTION,
             "The type of distance correction used",
             new String[] { "none", Nucleotides.JC, Nucleotides.F84, "SMM" }, false),
+        AttributeRule.newIntegerRule(THREADS, true,
+            "The number of threads used to calculate nucleotide distances (default is the number of processors)"),
+        AttributeRule.newBooleanRule(MEMORY_MAPPED, true,
+            "Whether to keep nucleotide distances in a memory-mapped file rather than on the heap"),
         new ElementRule(PatternList.class)
     };
 
@@ -29,6 +29,7 @@ package dr.evoxml;
 
 import dr.evolution.distance.DistanceMatrix;
 import dr.evolution.tree.NeighborJoiningTree;
+import dr.evolution.tree.RapidNeighborJoiningTree;
 import dr.evolution.tree.Tree;
 import dr.xml.*;
 
@@ -43,12 +44,18 @@ public class NeighborJoiningParser extends AbstractXMLObjectParser {
     // Public stuff
     //
     public final static String NEIGHBOR_JOINING_TREE = "neighborJoiningTree";
+    public final static String RAPID = "rapid";
+    public final static String MEMORY_MAPPED = "memoryMapped";
 
     public String getParserName() { return NEIGHBOR_JOINING_TREE; }
 
     public Object parseXMLObject(XMLObject xo) throws XMLParseException {
 
         DistanceMatrix distances = (DistanceMatrix)xo.getChild(DistanceMatrix.class);
+        if (xo.getAttribute(RAPID, true)) {
+            boolean memoryMapped = xo.getAttribute(MEMORY_MAPPED, false);
+            return new RapidNeighborJoiningTree(distances, memoryMapped, RapidNeighborJoiningTree.DEFAULT_PREFIX_LENGTH);
+        }
         return new NeighborJoiningTree(distances);
     }
 
@@ -61,6 +68,10 @@ public class NeighborJoiningParser extends AbstractXMLObjectParser {
     public XMLSyntaxRule[] getSyntaxRules() { return rules; }
 
     private XMLSyntaxRule[] rules = new XMLSyntaxRule[] {
+        AttributeRule.newBooleanRule(RAPID, true,
+            "Whether to prune the search for each pair to join as RapidNJ does (the default)"),
+        AttributeRule.newBooleanRule(MEMORY_MAPPED, true,
+            "Whether to keep the working distances of the rapid search in a memory-mapped file"),
         new ElementRule(DistanceMatrix.class)
     };
 }
\ No newline at end of file
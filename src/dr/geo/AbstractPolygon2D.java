@@ -107,6 +107,11 @@ public abstract class AbstractPolygon2D {
     }
 
     protected void convertPointsToArrays() {
+        // the bounds and edge index are of the old coordinates
+        min = null;
+        max = null;
+        edgeIndex = null;
+
         final int length = point2Ds.size();
         if (x == null || x.length != length) {
             x = new double[length];
@@ -192,10 +197,30 @@ public abstract class AbstractPolygon2D {
 
     private static boolean TRY_ROUGH = false;
 
+    // polygons with fewer edges than this are tested by looking at every edge
+    private static final int INDEXED_EDGE_COUNT = 32;
+
+    /**
+     * @return an index of the edges of the polygon by latitude, built on first use
+     */
+    PolygonEdgeIndex getEdgeIndex() {
+        PolygonEdgeIndex index = edgeIndex;
+        if (index == null) {
+            index = new PolygonEdgeIndex(x, y, length);
+            edgeIndex = index;
+        }
+        return index;
+    }
+
     public abstract double getProbability(Point2D Point2D, boolean outside);
 
     public abstract double getLogProbability(Point2D Point2D, boolean outside);
 
+    /**
+     * @return the log probability of a point given whether the polygon contains it
+     */
+    public abstract double getLogProbability(boolean contains, boolean outside);
+
     public boolean containsPoint2D(Point2D Point2D) {
 
         if (TRY_ROUGH) {
@@ -204,8 +229,15 @@ public abstract class AbstractPolygon2D {
             }
         }
 
-        final double inX = Point2D.getX();
-        final double inY = Point2D.getY();
+        return containsPoint2D(Point2D.getX(), Point2D.getY());
+    }
+
+    public boolean containsPoint2D(final double inX, final double inY) {
+
+        if (length >= INDEXED_EDGE_COUNT) {
+            return getEdgeIndex().contains(inX, inY);
+        }
+
         boolean contains = false;
 
         // Take a horizontal ray from (inX,inY) to the right.
@@ -669,4 +701,6 @@ public abstract class AbstractPolygon2D {
     protected double[] max;
     protected double[] min;
 
+    private PolygonEdgeIndex edgeIndex = null;
+
 }
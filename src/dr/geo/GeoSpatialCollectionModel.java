@@ -62,6 +62,23 @@ public class GeoSpatialCollectionModel extends AbstractModelLikelihood {
         addVariable(points);
 
         this.isIntersection = isIntersection;
+
+        // the regions are indexed if every point is tested the same way against all of them
+        boolean allInside = true;
+        boolean allOutside = true;
+        for (GeoSpatialDistribution distribution : geoSpatialDistributions) {
+            allInside &= !distribution.getOutside();
+            allOutside &= distribution.getOutside();
+        }
+        GeoSpatialRegionIndex index = null;
+        indexedUnion = !isIntersection && allInside;
+        if (!geoSpatialDistributions.isEmpty()) {
+            index = new GeoSpatialRegionIndex(geoSpatialDistributions);
+            if (!indexedUnion && !((isIntersection || allOutside) && index.isOutsideZeroOrNegativeInfinity())) {
+                index = null;
+            }
+        }
+        regionIndex = index;
     }
 
     protected void handleModelChangedEvent(Model model, Object object, int index) {
@@ -120,22 +137,28 @@ public class GeoSpatialCollectionModel extends AbstractModelLikelihood {
                     point[j] = points.getParameterValue(offset + j);
 
                 double pointLogLikelihood = 0;
-                for (GeoSpatialDistribution distribution : geoSpatialDistributions) {
-                    //if we consider the union of polygons and the point must be inside, than it is good enough that the point is in one polygon
-                    //so we look for a polygon that does not yield -inf
-                    if (!isIntersection && !distribution.getOutside()) {
-                        final double logPdf = distribution.logPdf(point);
-                        if (logPdf != Double.NEGATIVE_INFINITY) {
-                            pointLogLikelihood = logPdf;
-                            break;
+                if (regionIndex != null) {
+                    pointLogLikelihood = indexedUnion ?
+                            regionIndex.getFirstNotNegativeInfinityLogPdf(point) :
+                            regionIndex.getSumLogPdf(point);
+                } else {
+                    for (GeoSpatialDistribution distribution : geoSpatialDistributions) {
+                        //if we consider the union of polygons and the point must be inside, than it is good enough that the point is in one polygon
+                        //so we look for a polygon that does not yield -inf
+                        if (!isIntersection && !distribution.getOutside()) {
+                            final double logPdf = distribution.logPdf(point);
+                            if (logPdf != Double.NEGATIVE_INFINITY) {
+                                pointLogLikelihood = logPdf;
+                                break;
+                            } else {
+                                pointLogLikelihood = logPdf;
+                            }
                         } else {
-                            pointLogLikelihood = logPdf;
+                            // Below is for intersections (or unions of complements)
+                            pointLogLikelihood += distribution.logPdf(point);
+                            if (pointLogLikelihood == Double.NEGATIVE_INFINITY)
+                                break; // No need to finish
                         }
-                    } else {
-                        // Below is for intersections (or unions of complements)
-                        pointLogLikelihood += distribution.logPdf(point);
-                        if (pointLogLikelihood == Double.NEGATIVE_INFINITY)
-                            break; // No need to finish
                     }
                 }
                 cachedPointLogLikelihood[i] = pointLogLikelihood;
@@ -176,4 +199,7 @@ public class GeoSpatialCollectionModel extends AbstractModelLikelihood {
     private boolean[] storedValidPointLogLikelihood;
 
     private final boolean isIntersection;
+
+    private final GeoSpatialRegionIndex regionIndex;
+    private final boolean indexedUnion;
 }
@@ -71,7 +71,32 @@ public class GeoSpatialDistribution implements MultivariateDistribution, Citable
         this.outside = !inside;
     }
 
+    /**
+     * The log density of the point. The last few points are cached, keyed on their coordinates, as
+     * the same locations are queried again and again during an MCMC (the regions are assumed to
+     * be fixed once the distribution has been created).
+     */
     public double logPdf(double[] x) {
+        final double x0 = x[0];
+        final double x1 = x[1];
+
+        CachedPoint[] cache = cachedPoints;
+        if (cache == null) {
+            cache = new CachedPoint[CACHE_SIZE];
+            cachedPoints = cache;
+        }
+        final int slot = getCacheSlot(x0, x1);
+        final CachedPoint cached = cache[slot];
+        if (cached != null && cached.matches(x0, x1)) {
+            return cached.logPdf;
+        }
+
+        final double logPdf = computeLogPdf(x);
+        cache[slot] = new CachedPoint(x0, x1, logPdf);
+        return logPdf;
+    }
+
+    protected double computeLogPdf(double[] x) {
         /*final boolean contains = region.containsPoint2D(new Point2D.Double(x[0], x[1]));
         if (region.hasFillValue()) {
             if (contains) {
@@ -110,9 +135,40 @@ public class GeoSpatialDistribution implements MultivariateDistribution, Citable
         return region;
     }
 
+    private static int getCacheSlot(double x0, double x1) {
+        long bits = Double.doubleToLongBits(x0) * 31 + Double.doubleToLongBits(x1);
+        int hash = (int) (bits ^ (bits >>> 32));
+        hash ^= (hash >>> 16);
+        return hash & (CACHE_SIZE - 1);
+    }
+
+    /**
+     * An immutable cache entry, so the cache can be read by several threads without locking (a
+     * race only loses an entry).
+     */
+    private static final class CachedPoint {
+        CachedPoint(double x0, double x1, double logPdf) {
+            this.x0 = x0;
+            this.x1 = x1;
+            this.logPdf = logPdf;
+        }
+
+        boolean matches(double x0, double x1) {
+            return Double.doubleToLongBits(this.x0) == Double.doubleToLongBits(x0) &&
+                    Double.doubleToLongBits(this.x1) == Double.doubleToLongBits(x1);
+        }
+
+        final double x0;
+        final double x1;
+        final double logPdf;
+    }
+
+    private static final int CACHE_SIZE = 64; // must be a power of 2
+
     protected AbstractPolygon2D region;
     protected String label = null;
     private boolean outside = false;
+    private CachedPoint[] cachedPoints = null;
 
     public static XMLObjectParser FLAT_GEOSPATIAL_PRIOR_PARSER = new AbstractXMLObjectParser() {
 
@@ -0,0 +1,313 @@
+/*
+ * GeoSpatialRegionIndex.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.geo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A uniform grid over the bounding boxes of a list of GeoSpatialDistributions so that only the
+ * regions whose bounding box contains a point need to be tested against it.
+ * <p/>
+ * The value of a region for a point outside its bounding box is known without testing (it is the
+ * value when the polygon doesn't contain the point) so the queries below give exactly the same
+ * answer as looping over all the regions in order.
+ *
+ * @author agent
+ */
+final class GeoSpatialRegionIndex {
+
+    private static final int MAX_CELLS_PER_SIDE = 256;
+
+    private static final int[] NO_REGIONS = new int[0];
+
+    GeoSpatialRegionIndex(List<GeoSpatialDistribution> regions) {
+        this.regions = regions.toArray(new GeoSpatialDistribution[regions.size()]);
+        final int regionCount = this.regions.length;
+
+        outsideLogPdfs = new double[regionCount];
+        List<Integer> finite = new ArrayList<Integer>();
+        List<Integer> notNegativeInfinity = new ArrayList<Integer>();
+        int zeroCount = 0;
+        int negativeInfinityCount = 0;
+        boolean outsideZeroOrNegativeInfinity = true;
+        for (int r = 0; r < regionCount; r++) {
+            GeoSpatialDistribution region = this.regions[r];
+            double logPdf = region.getRegion().getLogProbability(false, region.getOutside());
+            outsideLogPdfs[r] = logPdf;
+            if (!Double.isInfinite(logPdf)) {
+                finite.add(r);
+            }
+            if (logPdf != Double.NEGATIVE_INFINITY) {
+                notNegativeInfinity.add(r);
+            }
+            if (logPdf == 0.0) {
+                zeroCount++;
+            } else if (logPdf == Double.NEGATIVE_INFINITY) {
+                negativeInfinityCount++;
+            } else {
+                outsideZeroOrNegativeInfinity = false;
+            }
+        }
+        finiteOutside = toArray(finite);
+        notNegativeInfinityOutside = toArray(notNegativeInfinity);
+        zeroOutsideCount = zeroCount;
+        negativeInfinityOutsideCount = negativeInfinityCount;
+        this.outsideZeroOrNegativeInfinity = outsideZeroOrNegativeInfinity;
+
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        PolygonEdgeIndex[] bounds = new PolygonEdgeIndex[regionCount];
+        for (int r = 0; r < regionCount; r++) {
+            PolygonEdgeIndex index = this.regions[r].getRegion().getEdgeIndex();
+            if (!index.isEmpty()) {
+                bounds[r] = index;
+                minX = Math.min(minX, index.getMinX());
+                maxX = Math.max(maxX, index.getMaxX());
+                minY = Math.min(minY, index.getMinY());
+                maxY = Math.max(maxY, index.getMaxY());
+            }
+        }
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+
+        // about one region's bounding box per cell
+        int side = (int) Math.ceil(Math.sqrt(regionCount));
+        side = Math.max(1, Math.min(MAX_CELLS_PER_SIDE, side));
+        xCellCount = (maxX > minX ? side : 1);
+        yCellCount = (maxY > minY ? side : 1);
+
+        int[] counts = new int[xCellCount * yCellCount];
+        for (int r = 0; r < regionCount; r++) {
+            if (bounds[r] != null) {
+                for (int cy = getYCell(bounds[r].getMinY()); cy <= getYCell(bounds[r].getMaxY()); cy++) {
+                    for (int cx = getXCell(bounds[r].getMinX()); cx <= getXCell(bounds[r].getMaxX()); cx++) {
+                        counts[cy * xCellCount + cx]++;
+                    }
+                }
+            }
+        }
+        cells = new int[counts.length][];
+        for (int c = 0; c < counts.length; c++) {
+            cells[c] = (counts[c] > 0 ? new int[counts[c]] : NO_REGIONS);
+            counts[c] = 0;
+        }
+        // regions are added in order so each cell lists them in ascending order
+        for (int r = 0; r < regionCount; r++) {
+            if (bounds[r] != null) {
+                for (int cy = getYCell(bounds[r].getMinY()); cy <= getYCell(bounds[r].getMaxY()); cy++) {
+                    for (int cx = getXCell(bounds[r].getMinX()); cx <= getXCell(bounds[r].getMaxX()); cx++) {
+                        int c = cy * xCellCount + cx;
+                        cells[c][counts[c]++] = r;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    // the cell functions are monotonic so a point in a bounding box maps to one of the box's cells
+
+    private int getXCell(double x) {
+        return getCell(x, minX, maxX, xCellCount);
+    }
+
+    private int getYCell(double y) {
+        return getCell(y, minY, maxY, yCellCount);
+    }
+
+    private static int getCell(double value, double min, double max, int cellCount) {
+        if (cellCount == 1) {
+            return 0;
+        }
+        int cell = (int) ((value - min) * (cellCount / (max - min)));
+        if (cell < 0) {
+            return 0;
+        }
+        return Math.min(cell, cellCount - 1);
+    }
+
+    /**
+     * @return the indices, in ascending order, of the regions whose bounding box may contain the point
+     */
+    private int[] getCandidates(double x, double y) {
+        if (!(x >= minX && x <= maxX && y >= minY && y <= maxY)) {
+            return NO_REGIONS;
+        }
+        return cells[getYCell(y) * xCellCount + getXCell(x)];
+    }
+
+    private double getLogPdf(int region, double[] point) {
+        GeoSpatialDistribution distribution = regions[region];
+        AbstractPolygon2D polygon = distribution.getRegion();
+        if (!polygon.getEdgeIndex().mayContain(point[0], point[1])) {
+            return outsideLogPdfs[region];
+        }
+        return polygon.getLogProbability(polygon.containsPoint2D(point[0], point[1]), distribution.getOutside());
+    }
+
+    /**
+     * @return the log density of the first region (in order) for which it is not infinite, or
+     * negative infinity if there is none
+     */
+    double getFirstFiniteLogPdf(double[] point) {
+        return getFirstLogPdf(point, finiteOutside, true);
+    }
+
+    /**
+     * @return the log density of the first region (in order) for which it is not negative
+     * infinity, or negative infinity if there is none
+     */
+    double getFirstNotNegativeInfinityLogPdf(double[] point) {
+        return getFirstLogPdf(point, notNegativeInfinityOutside, false);
+    }
+
+    /**
+     * Merges the candidate regions with those that are accepted without containing the point.
+     */
+    private double getFirstLogPdf(double[] point, int[] acceptedOutside, boolean finite) {
+        final int[] candidates = getCandidates(point[0], point[1]);
+        int c = 0;
+        int o = 0;
+        while (c < candidates.length || o < acceptedOutside.length) {
+            int region;
+            if (o == acceptedOutside.length || (c < candidates.length && candidates[c] <= acceptedOutside[o])) {
+                region = candidates[c];
+                c++;
+                if (o < acceptedOutside.length && acceptedOutside[o] == region) {
+                    o++;
+                }
+            } else {
+                region = acceptedOutside[o];
+                o++;
+            }
+            double logPdf = getLogPdf(region, point);
+            if (finite ? !Double.isInfinite(logPdf) : logPdf != Double.NEGATIVE_INFINITY) {
+                return logPdf;
+            }
+        }
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return true if the log density of any region is zero
+     */
+    boolean anyZeroLogPdf(double[] point) {
+        final int[] candidates = getCandidates(point[0], point[1]);
+        if (zeroOutsideCount > countOutside(candidates, 0.0)) {
+            // one of the others doesn't need to be tested
+            return true;
+        }
+        for (int region : candidates) {
+            if (getLogPdf(region, point) == 0.0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the log density of any region is negative infinity
+     */
+    boolean anyNegativeInfinityLogPdf(double[] point) {
+        final int[] candidates = getCandidates(point[0], point[1]);
+        if (negativeInfinityOutsideCount > countOutside(candidates, Double.NEGATIVE_INFINITY)) {
+            return true;
+        }
+        for (int region : candidates) {
+            if (getLogPdf(region, point) == Double.NEGATIVE_INFINITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the value of every region outside its polygon is zero or negative infinity
+     * (so these add nothing to a finite sum)
+     */
+    boolean isOutsideZeroOrNegativeInfinity() {
+        return outsideZeroOrNegativeInfinity;
+    }
+
+    /**
+     * @return the sum of the log densities of the regions, added in order and stopping at negative
+     * infinity. Requires isOutsideZeroOrNegativeInfinity().
+     */
+    double getSumLogPdf(double[] point) {
+        final int[] candidates = getCandidates(point[0], point[1]);
+        if (negativeInfinityOutsideCount > countOutside(candidates, Double.NEGATIVE_INFINITY)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double sum = 0.0;
+        for (int region : candidates) {
+            sum += getLogPdf(region, point);
+            if (sum == Double.NEGATIVE_INFINITY) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private int countOutside(int[] candidates, double value) {
+        int count = 0;
+        for (int region : candidates) {
+            if (outsideLogPdfs[region] == value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private final GeoSpatialDistribution[] regions;
+    private final double[] outsideLogPdfs;
+    private final int[] finiteOutside;
+    private final int[] notNegativeInfinityOutside;
+    private final int zeroOutsideCount;
+    private final int negativeInfinityOutsideCount;
+    private final boolean outsideZeroOrNegativeInfinity;
+
+    private final double minX;
+    private final double maxX;
+    private final double minY;
+    private final double maxY;
+    private final int xCellCount;
+    private final int yCellCount;
+    private final int[][] cells;
+}
@@ -28,6 +28,7 @@
 package dr.geo;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -40,43 +41,35 @@ public class MultiRegionGeoSpatialDistribution extends GeoSpatialDistribution {
         regions = new ArrayList<GeoSpatialDistribution>();
         union = false;
         fillValue = false;
+        regionIndex = new GeoSpatialRegionIndex(regions);
     }
 
     public MultiRegionGeoSpatialDistribution(String label, List<GeoSpatialDistribution> regions, boolean union, boolean fillValue) {
         super(label);
-        this.regions = regions;
+        // copied so the regions can't change after they have been indexed
+        this.regions = new ArrayList<GeoSpatialDistribution>(regions);
         this.union = union;
         this.fillValue = fillValue;
+        // index the regions now rather than on the first evaluation
+        this.regionIndex = new GeoSpatialRegionIndex(this.regions);
     }
 
-    public double logPdf(double[] x) {
+    protected double computeLogPdf(double[] x) {
 
         if (fillValue) {
-            //System.err.println("fillValue set to true");
-            //int test = 0;
-            for (GeoSpatialDistribution region : regions) {
-                //System.err.println(test);
-                //test++;
-                if (!Double.isInfinite(region.logPdf(x))) {
-                    return region.logPdf(x);
-                }
-            }
-            return Double.NEGATIVE_INFINITY;
+            // the first region with a non-infinite density
+            return regionIndex.getFirstFiniteLogPdf(x);
         }
 
         if (union) {
-            for (GeoSpatialDistribution region : regions) {
-                if (region.logPdf(x) == 0.0) { // matches
-                    return 0.0;
-                }
+            if (regionIndex.anyZeroLogPdf(x)) { // matches
+                return 0.0;
             }
             return Double.NEGATIVE_INFINITY;
         } // else is intersection
 
-        for (GeoSpatialDistribution region : regions) {
-            if (region.logPdf(x) == Double.NEGATIVE_INFINITY) {
-                return Double.NEGATIVE_INFINITY;
-            }
+        if (regionIndex.anyNegativeInfinityLogPdf(x)) {
+            return Double.NEGATIVE_INFINITY;
         }
         return 0.0;
     }
@@ -102,11 +95,12 @@ public class MultiRegionGeoSpatialDistribution extends GeoSpatialDistribution {
     }
 
     public List<GeoSpatialDistribution> getRegions() {
-        return regions;
+        return Collections.unmodifiableList(regions);
     }
 
     private final List<GeoSpatialDistribution> regions;
     private final boolean union;
     private final boolean fillValue;
+    private final GeoSpatialRegionIndex regionIndex;
 
 }
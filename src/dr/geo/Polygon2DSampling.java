@@ -66,8 +66,7 @@ public class Polygon2DSampling extends Polygon2D {
         }
     }
 
-    public double getLogProbability(Point2D Point2D, boolean outside) {
-        boolean contains = containsPoint2D(Point2D);
+    public double getLogProbability(boolean contains, boolean outside) {
         if (contains) {
             return this.logFillValue;
         } else {
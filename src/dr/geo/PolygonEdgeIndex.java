@@ -0,0 +1,210 @@
+/*
+ * PolygonEdgeIndex.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.geo;
+
+/**
+ * Buckets the edges of a polygon into horizontal bands so that the ray casting test for a point
+ * only has to look at the edges which span the point's latitude, rather than at every edge.
+ * <p/>
+ * An edge is put into every band that its y-range [min(y_i, y_j), max(y_i, y_j)) touches and the
+ * test for each edge is the same as in AbstractPolygon2D, so the answer is exactly that of testing
+ * all the edges. The index shares the coordinate arrays of the polygon and must be discarded when
+ * these change.
+ *
+ * @author agent
+ */
+final class PolygonEdgeIndex {
+
+    private static final int EDGES_PER_BAND = 8;
+    private static final int MAX_BAND_COUNT = 4096;
+
+    // the bands are halved while the edges spanning several bands would make the index bigger than this
+    private static final int MAX_ENTRIES_PER_EDGE = 16;
+
+    PolygonEdgeIndex(double[] x, double[] y, int length) {
+        this.x = x;
+        this.y = y;
+        this.length = length;
+
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++) {
+            if (x[i] < minX) {
+                minX = x[i];
+            }
+            if (x[i] > maxX) {
+                maxX = x[i];
+            }
+            if (y[i] < minY) {
+                minY = y[i];
+            }
+            if (y[i] > maxY) {
+                maxY = y[i];
+            }
+        }
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+
+        // the crossing point of the ray with an edge is computed and may fall just outside the
+        // x-range of the edge, so a point within this distance of the bounds may still be inside
+        double scale = Math.max(1.0, Math.max(Math.abs(minX), Math.abs(maxX)));
+        this.padX = scale * 1E-9;
+
+        int bandCount = (maxY > minY) ? Math.max(1, Math.min(MAX_BAND_COUNT, length / EDGES_PER_BAND)) : 1;
+        int[] counts;
+        int entryCount;
+        while (true) {
+            counts = new int[bandCount];
+            entryCount = 0;
+            for (int i = 0; i < length; i++) {
+                int j = (i == 0 ? length - 1 : i - 1);
+                if (isCrossable(i, j)) {
+                    int first = getBand(Math.min(y[i], y[j]), bandCount);
+                    int last = getBand(Math.max(y[i], y[j]), bandCount);
+                    for (int b = first; b <= last; b++) {
+                        counts[b]++;
+                    }
+                    entryCount += last - first + 1;
+                }
+            }
+            if (bandCount == 1 || entryCount <= MAX_ENTRIES_PER_EDGE * length) {
+                break;
+            }
+            bandCount /= 2;
+        }
+        this.bandCount = bandCount;
+
+        bandStarts = new int[bandCount + 1];
+        for (int b = 0; b < bandCount; b++) {
+            bandStarts[b + 1] = bandStarts[b] + counts[b];
+        }
+        edges = new int[entryCount];
+        int[] next = new int[bandCount];
+        System.arraycopy(bandStarts, 0, next, 0, bandCount);
+        for (int i = 0; i < length; i++) {
+            int j = (i == 0 ? length - 1 : i - 1);
+            if (isCrossable(i, j)) {
+                int first = getBand(Math.min(y[i], y[j]), bandCount);
+                int last = getBand(Math.max(y[i], y[j]), bandCount);
+                for (int b = first; b <= last; b++) {
+                    edges[next[b]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * A horizontal ray can only cross an edge with a y-range (horizontal edges, or ones with
+     * undefined coordinates, never pass the test).
+     */
+    private boolean isCrossable(int i, int j) {
+        return y[i] < y[j] || y[j] < y[i];
+    }
+
+    /**
+     * Maps a latitude to a band. This is monotonic in y so an edge that spans y is in its band.
+     */
+    private int getBand(double value, int bandCount) {
+        if (bandCount == 1) {
+            return 0;
+        }
+        int band = (int) ((value - minY) * (bandCount / (maxY - minY)));
+        if (band < 0) {
+            return 0;
+        }
+        return Math.min(band, bandCount - 1);
+    }
+
+    /**
+     * @return true if the point is inside the polygon by the even-odd rule, exactly as
+     * AbstractPolygon2D.containsPoint2D
+     */
+    boolean contains(double inX, double inY) {
+        // every edge that passes the test below has min <= inY < max
+        if (!(inY >= minY && inY < maxY)) {
+            return false;
+        }
+
+        final int band = getBand(inY, bandCount);
+        boolean contains = false;
+        for (int k = bandStarts[band], end = bandStarts[band + 1]; k < end; k++) {
+            final int i = edges[k];
+            final int j = (i == 0 ? length - 1 : i - 1);
+            if ((((y[i] <= inY) && (inY < y[j])) ||
+                    ((y[j] <= inY) && (inY < y[i]))) &&
+                    (inX < (x[j] - x[i]) * (inY - y[i]) / (y[j] - y[i]) + x[i]))
+                contains = !contains;
+        }
+        return contains;
+    }
+
+    /**
+     * @return false if the point is certainly outside the polygon
+     */
+    boolean mayContain(double inX, double inY) {
+        return inY >= minY && inY < maxY && inX >= minX - padX && inX <= maxX + padX;
+    }
+
+    boolean isEmpty() {
+        return !(maxY > minY);
+    }
+
+    double getMinX() {
+        return minX - padX;
+    }
+
+    double getMaxX() {
+        return maxX + padX;
+    }
+
+    double getMinY() {
+        return minY;
+    }
+
+    double getMaxY() {
+        return maxY;
+    }
+
+    private final double[] x;
+    private final double[] y;
+    private final int length;
+
+    private final double minX;
+    private final double maxX;
+    private final double minY;
+    private final double maxY;
+    private final double padX;
+
+    private final int bandCount;
+    private final int[] bandStarts;
+    private final int[] edges;
+}
@@ -295,15 +295,18 @@ public class HawkesLikelihood extends AbstractModelLikelihood implements Reporta
         }
 
         HawkesCore core;
-        //if (computeMode >= HawkesCore.USE_NATIVE_HPH) {
+        if (computeMode >= HawkesCore.USE_NATIVE_HPH) {
             System.err.println("Attempting to use a native HPH core with flag: " + computeMode + "; may the force be with you ....");
             core = new MassivelyParallelHPHImpl();
             flags = computeMode;
-        //} else {
-            //System.err.println("Computer mode found: " + computeMode + " vs. " + r);
-            //core = new HawkesCoreImpl();
-
-        //}
+        } else {
+            try {
+                core = new MassivelyParallelHPHImpl();
+            } catch (UnsatisfiedLinkError error) {
+                System.err.println("Unable to load the native HPH library; using the Java core");
+                core = new MultiThreadedHPHImpl();
+            }
+        }
         return core;
     }
 
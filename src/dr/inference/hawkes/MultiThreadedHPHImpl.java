@@ -0,0 +1,617 @@
+/*
+ * MultiThreadedHPHImpl.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.hawkes;
+
+import dr.math.distributions.NormalDistribution;
+import dr.util.ParallelBlocks;
+
+import java.util.Arrays;
+
+import static dr.inference.hawkes.NativeHPHSingleton.THREADS;
+
+/**
+ * MultiThreadedHPHImpl - a pure Java core for the spatio-temporal Hawkes process likelihood. The
+ * rate at event i is
+ * <p/>
+ * lambda_i = sum_{j != i} mu0 tauX^d tauT phi_d(tauX |x_i - x_j|) phi(tauT (t_i - t_j))
+ * + sum_{t_j < t_i} theta r_j omega exp(-omega (t_i - t_j)) sigmaX^d phi_d(sigmaX |x_i - x_j|)
+ * <p/>
+ * where phi_d is the standard d-dimensional normal density and r_j are the (optional) random rates. The
+ * parameters sigmaXprec, tauXprec and tauTprec act as the inverse standard deviations of the kernels.
+ * The log likelihood is sum_i log(lambda_i) less the integral of the rate over the observed times.
+ * <p/>
+ * The O(n^2) sums are computed in blocks of rows on the shared fork-join pool and added in a fixed
+ * order, so the results do not depend on the number of threads ('hph.threads'). If only a few locations have changed
+ * since the rates were last computed, the rates are updated by the difference made by each of these
+ * locations, so only O(n) work is needed per location. Pairs further apart than 'hph.cutoff' kernel
+ * standard deviations in space (by default there is no cutoff) are ignored.
+ *
+ * @author agent
+ */
+public class MultiThreadedHPHImpl implements HawkesCore {
+
+    static final String CUTOFF = "hph.cutoff";
+
+    private static final int ROW_BLOCK_SIZE = 32;
+    private static final int LINE_BLOCK_SIZE = 1024;
+
+    // the rates are updated per location if no more than 1 in this many locations have changed
+    private static final int INCREMENTAL_FRACTION = 4;
+
+    // a rate that loses this much in an incremental update is recomputed in full
+    private static final double CANCELLATION_TOLERANCE = 1E-8;
+
+    private static final double LOG_2_PI = Math.log(2 * Math.PI);
+
+    public MultiThreadedHPHImpl() {
+        this(getIntegerProperty(THREADS, 1), getDoubleProperty(CUTOFF, Double.POSITIVE_INFINITY));
+    }
+
+    public MultiThreadedHPHImpl(int threadCount, double cutoff) {
+        this.threadCount = Math.max(threadCount, 1);
+        this.cutoff = cutoff;
+    }
+
+    private static int getIntegerProperty(String name, int defaultValue) {
+        String r = System.getProperty(name);
+        if (r != null) {
+            try {
+                return Integer.parseInt(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + name + "' environmental property");
+            }
+        }
+        return defaultValue;
+    }
+
+    private static double getDoubleProperty(String name, double defaultValue) {
+        String r = System.getProperty(name);
+        if (r != null) {
+            try {
+                return Double.parseDouble(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + name + "' environmental property");
+            }
+        }
+        return defaultValue;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    @Override
+    public void initialize(int embeddingDimension, int locationCount, long flags) {
+        this.embeddingDimension = embeddingDimension;
+        this.locationCount = locationCount;
+
+        parameters = new double[PARAMETER_COUNT];
+        storedParameters = new double[PARAMETER_COUNT];
+
+        times = new double[locationCount];
+        storedTimes = new double[locationCount];
+        randomRates = new double[locationCount];
+        Arrays.fill(randomRates, 1.0);
+        storedRandomRates = new double[locationCount];
+
+        locations = new double[locationCount * embeddingDimension];
+        storedLocations = new double[locationCount * embeddingDimension];
+        rateLocations = new double[locationCount * embeddingDimension];
+        storedRateLocations = new double[locationCount * embeddingDimension];
+
+        rates = new double[locationCount];
+        storedRates = new double[locationCount];
+
+        dirtyLocations = new int[locationCount];
+
+        rowBlockCount = (locationCount + ROW_BLOCK_SIZE - 1) / ROW_BLOCK_SIZE;
+        lineBlockCount = (locationCount + LINE_BLOCK_SIZE - 1) / LINE_BLOCK_SIZE;
+        lineBlockSums = new double[lineBlockCount];
+
+        makeDirty();
+    }
+
+    @Override
+    public void setParameters(double[] parameters) {
+        if (!Arrays.equals(parameters, this.parameters)) {
+            saveState();
+            System.arraycopy(parameters, 0, this.parameters, 0, PARAMETER_COUNT);
+            makeDirty();
+        }
+    }
+
+    @Override
+    public void setTimesData(double[] timesData) {
+        if (timesData.length != locationCount) {
+            throw new RuntimeException("Times data is not the correct dimension");
+        }
+        if (!Arrays.equals(timesData, times)) {
+            saveState();
+            System.arraycopy(timesData, 0, times, 0, locationCount);
+            makeDirty();
+        }
+    }
+
+    @Override
+    public void setRandomRates(double[] randomRates) {
+        if (randomRates.length != locationCount) {
+            throw new RuntimeException("Random rates are not the correct dimension");
+        }
+        if (!Arrays.equals(randomRates, this.randomRates)) {
+            saveState();
+            System.arraycopy(randomRates, 0, this.randomRates, 0, locationCount);
+            makeDirty();
+        }
+    }
+
+    @Override
+    public void updateLocation(int locationIndex, double[] location) {
+        saveState();
+
+        if (locationIndex != -1) {
+            if (location.length != embeddingDimension) {
+                throw new RuntimeException("Location is not the correct dimension");
+            }
+            System.arraycopy(location, 0, locations, locationIndex * embeddingDimension, embeddingDimension);
+        } else {
+            if (location.length != embeddingDimension * locationCount) {
+                throw new RuntimeException("Location is the not correct dimension");
+            }
+            System.arraycopy(location, 0, locations, 0, locations.length);
+        }
+
+        // the locations that have actually changed are found when the rates are next needed
+        locationsChanged = true;
+    }
+
+    @Override
+    public double calculateLogLikelihood() {
+        updateRates();
+
+        if (!integralKnown) {
+            integral = computeIntegral();
+            integralKnown = true;
+        }
+
+        if (!sumOfLogRatesKnown) {
+            ParallelBlocks.forEachBlock(threadCount, lineBlockCount, block -> {
+                int end = Math.min((block + 1) * LINE_BLOCK_SIZE, locationCount);
+                double sum = 0.0;
+                for (int i = block * LINE_BLOCK_SIZE; i < end; ++i) {
+                    sum += Math.log(rates[i]);
+                }
+                lineBlockSums[block] = sum;
+            });
+
+            sumOfLogRates = 0.0;
+            for (int block = 0; block < lineBlockCount; ++block) {
+                sumOfLogRates += lineBlockSums[block];
+            }
+            sumOfLogRatesKnown = true;
+        }
+
+        return sumOfLogRates - integral;
+    }
+
+    @Override
+    public void storeState() {
+        // the state is only copied if something changes
+        stateSaved = false;
+    }
+
+    @Override
+    public void restoreState() {
+        // may be called more than once (by the likelihood and its model)
+        if (stateSaved) {
+            System.arraycopy(storedParameters, 0, parameters, 0, PARAMETER_COUNT);
+            System.arraycopy(storedTimes, 0, times, 0, locationCount);
+            System.arraycopy(storedRandomRates, 0, randomRates, 0, locationCount);
+            System.arraycopy(storedLocations, 0, locations, 0, locations.length);
+            System.arraycopy(storedRateLocations, 0, rateLocations, 0, rateLocations.length);
+            System.arraycopy(storedRates, 0, rates, 0, locationCount);
+
+            locationsChanged = storedLocationsChanged;
+            ratesKnown = storedRatesKnown;
+            integral = storedIntegral;
+            integralKnown = storedIntegralKnown;
+            sumOfLogRates = storedSumOfLogRates;
+            sumOfLogRatesKnown = storedSumOfLogRatesKnown;
+
+            stateSaved = false;
+        }
+    }
+
+    @Override
+    public void acceptState() {
+        stateSaved = false;
+    }
+
+    @Override
+    public void makeDirty() {
+        ratesKnown = false;
+        integralKnown = false;
+        sumOfLogRatesKnown = false;
+    }
+
+    /**
+     * Copies the state before it is first changed after storeState.
+     */
+    private void saveState() {
+        if (!stateSaved) {
+            System.arraycopy(parameters, 0, storedParameters, 0, PARAMETER_COUNT);
+            System.arraycopy(times, 0, storedTimes, 0, locationCount);
+            System.arraycopy(randomRates, 0, storedRandomRates, 0, locationCount);
+            System.arraycopy(locations, 0, storedLocations, 0, locations.length);
+            System.arraycopy(rateLocations, 0, storedRateLocations, 0, rateLocations.length);
+            System.arraycopy(rates, 0, storedRates, 0, locationCount);
+
+            storedLocationsChanged = locationsChanged;
+            storedRatesKnown = ratesKnown;
+            storedIntegral = integral;
+            storedIntegralKnown = integralKnown;
+            storedSumOfLogRates = sumOfLogRates;
+            storedSumOfLogRatesKnown = sumOfLogRatesKnown;
+
+            stateSaved = true;
+        }
+    }
+
+    @Override
+    public void getLocationGradient(double[] gradient) {
+        if (gradient.length != locations.length) {
+            throw new RuntimeException("Gradient is not the correct dimension");
+        }
+
+        updateRates();
+
+        ParallelBlocks.forEachBlock(threadCount, rowBlockCount, block -> {
+            int end = Math.min((block + 1) * ROW_BLOCK_SIZE, locationCount);
+            for (int i = block * ROW_BLOCK_SIZE; i < end; ++i) {
+                computeLocationGradient(i, gradient);
+            }
+        });
+    }
+
+    @Override
+    public void getRandomRatesGradient(double[] gradient) {
+        if (gradient.length != locationCount) {
+            throw new RuntimeException("Gradient is not the correct dimension");
+        }
+
+        updateRates();
+
+        final double maxTime = getMaxTime();
+
+        ParallelBlocks.forEachBlock(threadCount, rowBlockCount, block -> {
+            int end = Math.min((block + 1) * ROW_BLOCK_SIZE, locationCount);
+            for (int j = block * ROW_BLOCK_SIZE; j < end; ++j) {
+                int offsetJ = j * embeddingDimension;
+                double sum = 0.0;
+                for (int i = 0; i < locationCount; ++i) {
+                    double timeDifference = times[i] - times[j];
+                    if (timeDifference > 0.0) {
+                        double distance2 = calculateSquaredDistance(rateLocations, i * embeddingDimension, rateLocations, offsetJ);
+                        if (distance2 <= cutoffDistance2) {
+                            sum += excitationScale * Math.exp(-halfSigmaX2 * distance2 - omega * timeDifference) / rates[i];
+                        }
+                    }
+                }
+                gradient[j] = sum - theta * (1.0 - Math.exp(-omega * (maxTime - times[j])));
+            }
+        });
+    }
+
+    @Override
+    public int getInternalDimension() {
+        return embeddingDimension;
+    }
+
+    /**
+     * Brings the rates up to date with the locations, either by updating them for each location that
+     * has changed or by recomputing them all.
+     */
+    private void updateRates() {
+        if (ratesKnown && !locationsChanged) {
+            return;
+        }
+
+        saveState();
+        setConstants();
+
+        int dirtyCount = 0;
+        if (ratesKnown) {
+            for (int k = 0; k < locationCount && dirtyCount * INCREMENTAL_FRACTION <= locationCount; ++k) {
+                int offset = k * embeddingDimension;
+                for (int d = 0; d < embeddingDimension; ++d) {
+                    if (locations[offset + d] != rateLocations[offset + d]) {
+                        dirtyLocations[dirtyCount] = k;
+                        dirtyCount++;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (!ratesKnown || dirtyCount * INCREMENTAL_FRACTION > locationCount) {
+            computeRates();
+        } else {
+            for (int k = 0; k < dirtyCount; ++k) {
+                updateRates(dirtyLocations[k]);
+            }
+        }
+
+        locationsChanged = false;
+        ratesKnown = true;
+        sumOfLogRatesKnown = false;
+    }
+
+    private void computeRates() {
+        System.arraycopy(locations, 0, rateLocations, 0, locations.length);
+
+        ParallelBlocks.forEachBlock(threadCount, rowBlockCount, block -> {
+            int end = Math.min((block + 1) * ROW_BLOCK_SIZE, locationCount);
+            for (int i = block * ROW_BLOCK_SIZE; i < end; ++i) {
+                rates[i] = computeRate(i, 0, locationCount);
+            }
+        });
+    }
+
+    /**
+     * Moves location k from where the rates were computed to its current position, updating the
+     * contribution it makes to every other rate and recomputing its own.
+     */
+    private void updateRates(final int k) {
+        final int offsetK = k * embeddingDimension;
+        final double[] previousLocation = Arrays.copyOfRange(rateLocations, offsetK, offsetK + embeddingDimension);
+
+        System.arraycopy(locations, offsetK, rateLocations, offsetK, embeddingDimension);
+
+        ParallelBlocks.forEachBlock(threadCount, lineBlockCount, block -> {
+            int end = Math.min((block + 1) * LINE_BLOCK_SIZE, locationCount);
+            for (int i = block * LINE_BLOCK_SIZE; i < end; ++i) {
+                if (i != k) {
+                    int offsetI = i * embeddingDimension;
+                    double oldRate = computePairRate(rateLocations, offsetI, times[i], previousLocation, 0, times[k], randomRates[k]);
+                    double newRate = computePairRate(rateLocations, offsetI, times[i], rateLocations, offsetK, times[k], randomRates[k]);
+                    double rate = rates[i] + (newRate - oldRate);
+                    if (rate < CANCELLATION_TOLERANCE * oldRate) {
+                        // most of the rate was lost so recompute rather than trust the difference
+                        rate = computeRate(i, 0, locationCount);
+                    }
+                    rates[i] = rate;
+                }
+            }
+        });
+
+        ParallelBlocks.forEachBlock(threadCount, lineBlockCount, block -> {
+            int start = block * LINE_BLOCK_SIZE;
+            lineBlockSums[block] = computeRate(k, start, Math.min(start + LINE_BLOCK_SIZE, locationCount));
+        });
+
+        double rate = 0.0;
+        for (int block = 0; block < lineBlockCount; ++block) {
+            rate += lineBlockSums[block];
+        }
+        rates[k] = rate;
+    }
+
+    /**
+     * @return the sum of the contributions to the rate of event i from the events [start, end).
+     */
+    private double computeRate(int i, int start, int end) {
+        int offsetI = i * embeddingDimension;
+        double rate = 0.0;
+        for (int j = start; j < end; ++j) {
+            if (j != i) {
+                rate += computePairRate(rateLocations, offsetI, times[i], rateLocations, j * embeddingDimension, times[j], randomRates[j]);
+            }
+        }
+        return rate;
+    }
+
+    /**
+     * @return the contribution to the rate of event i (at x[offsetX...]) from event j (at y[offsetY...]).
+     */
+    private double computePairRate(double[] x, int offsetX, double timeI,
+                                   double[] y, int offsetY, double timeJ, double randomRate) {
+        double distance2 = calculateSquaredDistance(x, offsetX, y, offsetY);
+        if (distance2 > cutoffDistance2) {
+            return 0.0;
+        }
+
+        double timeDifference = timeI - timeJ;
+        double rate = backgroundScale * Math.exp(-halfTauX2 * distance2 - halfTauT2 * timeDifference * timeDifference);
+        if (timeDifference > 0.0) {
+            rate += excitationScale * randomRate * Math.exp(-halfSigmaX2 * distance2 - omega * timeDifference);
+        }
+        return rate;
+    }
+
+    private void computeLocationGradient(int i, double[] gradient) {
+        final int offsetI = i * embeddingDimension;
+        final double tauX2 = 2.0 * halfTauX2;
+        final double sigmaX2 = 2.0 * halfSigmaX2;
+
+        for (int d = 0; d < embeddingDimension; ++d) {
+            gradient[offsetI + d] = 0.0;
+        }
+
+        for (int j = 0; j < locationCount; ++j) {
+            if (j == i) {
+                continue;
+            }
+
+            int offsetJ = j * embeddingDimension;
+            double distance2 = calculateSquaredDistance(rateLocations, offsetI, rateLocations, offsetJ);
+            if (distance2 > cutoffDistance2) {
+                continue;
+            }
+
+            double timeDifference = times[i] - times[j];
+            double background = tauX2 * backgroundScale *
+                    Math.exp(-halfTauX2 * distance2 - halfTauT2 * timeDifference * timeDifference);
+
+            // the derivatives of the rate at i (from j) and of the rate at j (from i)
+            double weight = background / rates[i] + background / rates[j];
+            if (timeDifference > 0.0) {
+                weight += sigmaX2 * excitationScale * randomRates[j] *
+                        Math.exp(-halfSigmaX2 * distance2 - omega * timeDifference) / rates[i];
+            } else if (timeDifference < 0.0) {
+                weight += sigmaX2 * excitationScale * randomRates[i] *
+                        Math.exp(-halfSigmaX2 * distance2 + omega * timeDifference) / rates[j];
+            }
+
+            for (int d = 0; d < embeddingDimension; ++d) {
+                gradient[offsetI + d] -= weight * (rateLocations[offsetI + d] - rateLocations[offsetJ + d]);
+            }
+        }
+    }
+
+    /**
+     * @return the integral of the rate over space and the observed period
+     */
+    private double computeIntegral() {
+        setConstants();
+
+        final double minTime = getMinTime();
+        final double maxTime = getMaxTime();
+
+        double sum = 0.0;
+        for (int i = 0; i < locationCount; ++i) {
+            sum += mu0 * (NormalDistribution.standardCDF((maxTime - times[i]) * tauT, false) -
+                    NormalDistribution.standardCDF((minTime - times[i]) * tauT, false));
+            sum += theta * randomRates[i] * (1.0 - Math.exp(-omega * (maxTime - times[i])));
+        }
+        return sum;
+    }
+
+    private void setConstants() {
+        final double sigmaX = parameters[0];
+        final double tauX = parameters[1];
+        tauT = parameters[2];
+        omega = parameters[3];
+        theta = parameters[4];
+        mu0 = parameters[5];
+
+        halfSigmaX2 = 0.5 * sigmaX * sigmaX;
+        halfTauX2 = 0.5 * tauX * tauX;
+        halfTauT2 = 0.5 * tauT * tauT;
+
+        backgroundScale = mu0 * Math.pow(tauX, embeddingDimension) * tauT *
+                Math.exp(-0.5 * (embeddingDimension + 1) * LOG_2_PI);
+        excitationScale = theta * omega * Math.pow(sigmaX, embeddingDimension) *
+                Math.exp(-0.5 * embeddingDimension * LOG_2_PI);
+
+        // beyond this distance both spatial kernels are more than 'cutoff' standard deviations out
+        double minScale = Math.min(sigmaX, tauX);
+        cutoffDistance2 = cutoff * cutoff / (minScale * minScale);
+    }
+
+    private double getMinTime() {
+        double min = Double.POSITIVE_INFINITY;
+        for (double time : times) {
+            min = Math.min(min, time);
+        }
+        return min;
+    }
+
+    private double getMaxTime() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double time : times) {
+            max = Math.max(max, time);
+        }
+        return max;
+    }
+
+    private double calculateSquaredDistance(double[] x, int offsetX, double[] y, int offsetY) {
+        double sum = 0.0;
+        for (int i = 0; i < embeddingDimension; i++) {
+            double difference = x[offsetX + i] - y[offsetY + i];
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    private static final int PARAMETER_COUNT = 6;
+
+    private final int threadCount;
+    private final double cutoff;
+
+    private int embeddingDimension;
+    private int locationCount;
+
+    // sigmaXprec, tauXprec, tauTprec, omega, theta, mu0
+    private double[] parameters;
+    private double[] storedParameters;
+
+    private double tauT;
+    private double omega;
+    private double theta;
+    private double mu0;
+    private double halfSigmaX2;
+    private double halfTauX2;
+    private double halfTauT2;
+    private double backgroundScale;
+    private double excitationScale;
+    private double cutoffDistance2;
+
+    private double[] times;
+    private double[] storedTimes;
+    private double[] randomRates;
+    private double[] storedRandomRates;
+
+    // the current locations and those the rates were computed with
+    private double[] locations;
+    private double[] storedLocations;
+    private double[] rateLocations;
+    private double[] storedRateLocations;
+    private boolean locationsChanged = true;
+    private boolean storedLocationsChanged;
+    private int[] dirtyLocations;
+
+    private double[] rates;
+    private double[] storedRates;
+    private boolean ratesKnown = false;
+    private boolean storedRatesKnown;
+
+    private double integral;
+    private double storedIntegral;
+    private boolean integralKnown = false;
+    private boolean storedIntegralKnown;
+
+    private double sumOfLogRates;
+    private double storedSumOfLogRates;
+    private boolean sumOfLogRatesKnown = false;
+    private boolean storedSumOfLogRatesKnown;
+
+    private boolean stateSaved = false;
+
+    private int rowBlockCount;
+    private int lineBlockCount;
+    private double[] lineBlockSums;
+}
@@ -0,0 +1,349 @@
+/*
+ * AsyncLogFormatter.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.loggers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A formatter that passes everything on to another formatter on a background thread so that the
+ * MCMC thread does not wait for formatting and disk I/O.
+ * <p/>
+ * Calls are queued in order and the writer thread drains them in batches, flushing the wrapped
+ * formatter once per batch rather than once per line. The queue is bounded so if the writer
+ * falls behind the MCMC thread blocks until there is space (back-pressure) rather than holding
+ * an unlimited number of samples in memory. The output is identical to using the wrapped
+ * formatter directly.
+ * <p/>
+ * MCLogger can also hand over rows of unformatted values (see obtainRow/logRow) so that the
+ * conversion of numbers to strings is done by the writer thread as well. The rows are recycled.
+ *
+ * @author agent
+ */
+public class AsyncLogFormatter implements LogFormatter {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    public AsyncLogFormatter(LogFormatter formatter) {
+        this(formatter, DEFAULT_CAPACITY);
+    }
+
+    public AsyncLogFormatter(LogFormatter formatter, int capacity) {
+        this.formatter = formatter;
+        if (formatter instanceof TabDelimitedFormatter) {
+            // flush once per batch instead
+            ((TabDelimitedFormatter) formatter).setAutoFlush(false);
+        }
+
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<Entry>(capacity);
+        this.rowPool = new ArrayBlockingQueue<Row>(capacity);
+
+        writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        // make sure anything still queued gets written if the run is ended early
+        shutdownHook = new Thread(new Runnable() {
+            public void run() {
+                close();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public LogFormatter getFormatter() {
+        return formatter;
+    }
+
+    public void startLogging(String title) {
+        enqueue(new Entry(EntryType.START, title, null, null));
+    }
+
+    public void logHeading(String heading) {
+        enqueue(new Entry(EntryType.HEADING, heading, null, null));
+    }
+
+    public void logLine(String line) {
+        enqueue(new Entry(EntryType.LINE, line, null, null));
+    }
+
+    public void logLabels(String[] labels) {
+        enqueue(new Entry(EntryType.LABELS, null, labels, null));
+    }
+
+    /**
+     * The values array is passed on as is so it must not be modified by the caller afterwards.
+     */
+    public void logValues(String[] values) {
+        enqueue(new Entry(EntryType.VALUES, null, values, null));
+    }
+
+    /**
+     * Gets an empty row for the given number of values. If all the rows are waiting to be
+     * written this blocks until one is recycled by the writer thread.
+     */
+    public Row obtainRow(int length) {
+        checkFailure();
+        Row row = rowPool.poll();
+        if (row == null) {
+            synchronized (rowPool) {
+                if (rowCount < capacity) {
+                    rowCount++;
+                    row = new Row();
+                }
+            }
+            if (row == null) {
+                try {
+                    row = rowPool.take();
+                } catch (InterruptedException ie) {
+                    throw new RuntimeException("Interrupted waiting for the log writer");
+                }
+            }
+        }
+        row.setLength(length);
+        return row;
+    }
+
+    /**
+     * Queues a row obtained from obtainRow. The row must not be used by the caller afterwards.
+     */
+    public void logRow(Row row) {
+        enqueue(new Entry(EntryType.ROW, null, null, row));
+    }
+
+    /**
+     * Writes everything that has been queued, stops the wrapped formatter and waits for the
+     * writer thread to finish.
+     */
+    public void stopLogging() {
+        close();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException ise) {
+            // already shutting down
+        }
+        checkFailure();
+    }
+
+    private void close() {
+        synchronized (this) {
+            if (!stopped) {
+                stopped = true;
+                put(new Entry(EntryType.STOP, null, null, null));
+            }
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException ie) {
+            // give up waiting
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        checkFailure();
+        if (stopped) {
+            throw new IllegalStateException("Log has already been stopped");
+        }
+        put(entry);
+    }
+
+    private void put(Entry entry) {
+        try {
+            queue.put(entry);
+        } catch (InterruptedException ie) {
+            throw new RuntimeException("Interrupted waiting for the log writer");
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Log writer failed: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * The writer thread: takes everything that is queued, passes it on and then flushes.
+     */
+    private void write() {
+        List<Entry> batch = new ArrayList<Entry>();
+        boolean done = false;
+        while (!done) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ie) {
+                continue;
+            }
+            queue.drainTo(batch);
+
+            for (Entry entry : batch) {
+                if (entry.type == EntryType.STOP) {
+                    done = true;
+                }
+                if (failure == null) {
+                    // after a failure carry on draining the queue so the MCMC thread is not blocked
+                    try {
+                        process(entry);
+                    } catch (Throwable t) {
+                        failure = t;
+                    }
+                }
+                if (entry.row != null) {
+                    rowPool.offer(entry.row);
+                }
+            }
+            batch.clear();
+
+            if (failure == null && formatter instanceof TabDelimitedFormatter) {
+                ((TabDelimitedFormatter) formatter).flush();
+            }
+        }
+    }
+
+    private void process(Entry entry) {
+        switch (entry.type) {
+            case START:
+                formatter.startLogging(entry.text);
+                break;
+            case HEADING:
+                formatter.logHeading(entry.text);
+                break;
+            case LINE:
+                formatter.logLine(entry.text);
+                break;
+            case LABELS:
+                formatter.logLabels(entry.values);
+                break;
+            case VALUES:
+                formatter.logValues(entry.values);
+                break;
+            case ROW:
+                formatter.logValues(entry.row.format());
+                break;
+            case STOP:
+                formatter.stopLogging();
+                break;
+        }
+    }
+
+    /**
+     * A row of values for a log. Each value is either an already formatted string or a number
+     * which will be formatted at full precision (as Double.toString) by the writer thread.
+     */
+    public static final class Row {
+
+        private Row() {
+        }
+
+        private void setLength(int length) {
+            if (values == null || values.length != length) {
+                values = new String[length];
+                numbers = new double[length];
+                widths = new int[length];
+            }
+        }
+
+        public int getLength() {
+            return values.length;
+        }
+
+        public void setValue(int index, String value) {
+            values[index] = value;
+        }
+
+        public void setValue(int index, double value, int minimumWidth) {
+            values[index] = null;
+            numbers[index] = value;
+            widths[index] = minimumWidth;
+        }
+
+        private String[] format() {
+            // a fresh array as the wrapped formatter is allowed to keep the values it is given
+            String[] formatted = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    formatted[i] = values[i];
+                } else {
+                    StringBuilder sb = new StringBuilder(Double.toString(numbers[i]));
+                    while (sb.length() < widths[i]) {
+                        sb.append(' ');
+                    }
+                    formatted[i] = sb.toString();
+                }
+            }
+            return formatted;
+        }
+
+        private String[] values = null;
+        private double[] numbers = null;
+        private int[] widths = null;
+    }
+
+    private enum EntryType {
+        START,
+        HEADING,
+        LINE,
+        LABELS,
+        VALUES,
+        ROW,
+        STOP
+    }
+
+    private static final class Entry {
+        Entry(EntryType type, String text, String[] values, Row row) {
+            this.type = type;
+            this.text = text;
+            this.values = values;
+            this.row = row;
+        }
+
+        final EntryType type;
+        final String text;
+        final String[] values;
+        final Row row;
+    }
+
+    private final LogFormatter formatter;
+    private final int capacity;
+
+    private final BlockingQueue<Entry> queue;
+    private final BlockingQueue<Row> rowPool;
+    private int rowCount = 0;
+
+    private final Thread writer;
+    private final Thread shutdownHook;
+
+    private volatile boolean stopped = false;
+    private volatile Throwable failure = null;
+}
@@ -241,6 +241,12 @@ public class MCLogger implements Logger {
 
             final int columnCount = getColumnCount();
 
+            if (!performanceReport && formatters.size() == 1 && formatters.get(0) instanceof AsyncLogFormatter) {
+                // hand the numbers over unformatted so the writer thread does the formatting
+                logRow((AsyncLogFormatter) formatters.get(0), state);
+                return;
+            }
+
             String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
 
             values[0] = Long.toString(state);
@@ -285,6 +291,31 @@ public class MCLogger implements Logger {
 
     }
 
+    private void logRow(AsyncLogFormatter formatter, long state) {
+        final int columnCount = getColumnCount();
+
+        if (fullPrecision == null || fullPrecision.length != columnCount) {
+            fullPrecision = new boolean[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                LogColumn column = columns.get(i);
+                fullPrecision[i] = column instanceof NumberColumn &&
+                        ((NumberColumn) column).isFormattedAtFullPrecision();
+            }
+        }
+
+        AsyncLogFormatter.Row row = formatter.obtainRow(columnCount + 1);
+        row.setValue(0, Long.toString(state));
+        for (int i = 0; i < columnCount; i++) {
+            LogColumn column = columns.get(i);
+            if (fullPrecision[i]) {
+                row.setValue(i + 1, ((NumberColumn) column).getDoubleValue(), column.getMinimumWidth());
+            } else {
+                row.setValue(i + 1, column.getFormatted());
+            }
+        }
+        formatter.logRow(row);
+    }
+
     public void stopLogging() {
 
         for (LogFormatter formatter : formatters) {
@@ -310,6 +341,9 @@ public class MCLogger implements Logger {
 
     protected List<LogFormatter> formatters = new ArrayList<LogFormatter>();
 
+    // the columns that can be formatted from a snapshot of their value by an AsyncLogFormatter
+    private boolean[] fullPrecision = null;
+
     private boolean performanceReportStarted = false;
     private long startTime;
     private long startState;
@@ -143,6 +143,27 @@ public abstract class NumberColumn extends LogColumn.Abstract {
 		return formatValue(getDoubleValue());
 	}
 	
+	/**
+	 * Returns true if the formatted value is simply the full precision string of getDoubleValue().
+	 * A snapshot of the value can then be formatted later, on another thread, without touching
+	 * the (unsynchronized) formatters of this column.
+	 */
+	public boolean isFormattedAtFullPrecision() {
+		if (dp >= 0 || sf >= 0) {
+			return false;
+		}
+		// a subclass may have its own formatting
+		for (Class<?> c = getClass(); c != NumberColumn.class; c = c.getSuperclass()) {
+			try {
+				c.getDeclaredMethod("getFormattedValue");
+				return false;
+			} catch (NoSuchMethodException nsme) {
+				// not overridden at this level
+			}
+		}
+		return true;
+	}
+
 	private int getNumFractionDigits(double value) {
 		value = Math.abs(value);
 		for (int i = 0; i < cutoffTable.length; i++) {
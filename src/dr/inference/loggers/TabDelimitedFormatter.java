@@ -42,7 +42,7 @@ public class TabDelimitedFormatter implements LogFormatter {
     protected final PrintWriter printWriter;
     private final boolean outputLabels;
     private final boolean closeFile;
-
+    private boolean autoFlush = true;
 
     public TabDelimitedFormatter(PrintWriter printWriter) {
         this.printWriter = printWriter;
@@ -57,10 +57,26 @@ public class TabDelimitedFormatter implements LogFormatter {
     }
 
     public TabDelimitedFormatter(PrintWriter printWriter, boolean labels) {
+        this(printWriter, labels, true);
+    }
+
+    public TabDelimitedFormatter(PrintWriter printWriter, boolean labels, boolean closeFile) {
 
         this.printWriter = printWriter;
         outputLabels = labels;
-        closeFile = true;
+        this.closeFile = closeFile;
+    }
+
+    /**
+     * Sets whether the writer is flushed after every line (the default). If this is turned off
+     * then it is up to the owner to call flush().
+     */
+    public void setAutoFlush(boolean autoFlush) {
+        this.autoFlush = autoFlush;
+    }
+
+    public void flush() {
+        printWriter.flush();
     }
 
     public void startLogging(String title) {
@@ -74,12 +90,16 @@ public class TabDelimitedFormatter implements LogFormatter {
                 printWriter.println("# " + line);
             }
         }
-        printWriter.flush();
+        if (autoFlush) {
+            printWriter.flush();
+        }
     }
 
     public void logLine(String line) {
         printWriter.println(line);
-        printWriter.flush();
+        if (autoFlush) {
+            printWriter.flush();
+        }
     }
 
     public void logLabels(String[] labels) {
@@ -94,7 +114,9 @@ public class TabDelimitedFormatter implements LogFormatter {
             }
 
             printWriter.println();
-            printWriter.flush();
+            if (autoFlush) {
+                printWriter.flush();
+            }
         }
     }
 
@@ -110,7 +132,9 @@ public class TabDelimitedFormatter implements LogFormatter {
         }
 
         printWriter.println();
-        printWriter.flush();
+        if (autoFlush) {
+            printWriter.flush();
+        }
     }
 
     public void stopLogging() {
@@ -74,6 +74,8 @@ public final class MarkovChain implements Serializable {
 
     private double evaluationTestThreshold = EVALUATION_TEST_THRESHOLD;
 
+    private transient MarkovChainProfile profile = null;
+
 
     public MarkovChain(Likelihood likelihood,
                        OperatorSchedule schedule, Acceptor acceptor,
@@ -200,14 +202,21 @@ public final class MarkovChain implements Serializable {
                 fillDensities(likelihood, diagnosticDensities);
             }
 
-            // assert Profiler.startProfile("Store");
+            long phaseTime = 0;
+            if (profile != null) {
+                phaseTime = System.nanoTime();
+            }
 
             // The current model is stored here in case the proposal fails
             if (currentModel != null) {
                 currentModel.storeModelState();
             }
 
-            // assert Profiler.stopProfile("Store");
+            if (profile != null) {
+                long time = System.nanoTime();
+                profile.record(op, MarkovChainProfile.Phase.STORE, time - phaseTime);
+                phaseTime = time;
+            }
 
             boolean operatorSucceeded = true;
             double hastingsRatio = 1.0;
@@ -216,8 +225,6 @@ public final class MarkovChain implements Serializable {
             logr[0] = -Double.MAX_VALUE;
 
             // The new model is proposed
-            // assert Profiler.startProfile("Operate");
-
             if (DEBUG) {
                 System.out.println("\n>> Iteration: " + currentState);
                 System.out.println("\n&& Operator: " + mcmcOperator.getOperatorName());
@@ -229,7 +236,11 @@ public final class MarkovChain implements Serializable {
                 hastingsRatio = mcmcOperator.operate();
             }
 
-            // assert Profiler.stopProfile("Operate");
+            if (profile != null) {
+                long time = System.nanoTime();
+                profile.record(op, MarkovChainProfile.Phase.PROPOSE, time - phaseTime);
+                phaseTime = time;
+            }
             if (hastingsRatio == Double.NEGATIVE_INFINITY) {
                 // Should the evaluation be short-cutted?
                 // Previously this was set to false if OperatorFailedException was thrown.
@@ -243,9 +254,6 @@ public final class MarkovChain implements Serializable {
             //    System.err.print("" + currentState + ": ");
             if (operatorSucceeded) {
 
-                // The new model is proposed
-                // assert Profiler.startProfile("Evaluate");
-
                 if (DEBUG) {
                     System.out.println("** Evaluate");
                 }
@@ -262,6 +270,12 @@ public final class MarkovChain implements Serializable {
                 // The new model is evaluated
                 score = evaluate(likelihood);
 
+                if (profile != null) {
+                    long time = System.nanoTime();
+                    profile.recordEvaluation(op, time - phaseTime);
+                    phaseTime = time;
+                }
+
                 if (PROFILE) {
                     long duration = System.currentTimeMillis() - elapsedTime;
                     mcmcOperator.addEvaluationTime(duration);
@@ -389,22 +403,37 @@ public final class MarkovChain implements Serializable {
                             + ", old score = " + oldScore);
                 }
 
+                if (profile != null) {
+                    // don't include the full evaluation test or the acceptance test
+                    phaseTime = System.nanoTime();
+                }
+
                 mcmcOperator.accept(deviation);
                 currentModel.acceptModelState();
                 currentScore = score;
 
+                if (profile != null) {
+                    profile.record(op, MarkovChainProfile.Phase.ACCEPT, System.nanoTime() - phaseTime);
+                }
+
             } else {
                 if (DEBUG) {
                     System.out.println("** Move rejected: new score = " + score
                             + ", old score = " + oldScore + " (logr = " + logr[0] + ")");
                 }
 
-                mcmcOperator.reject();
-
-                // assert Profiler.startProfile("Restore");
+                if (profile != null) {
+                    phaseTime = System.nanoTime();
+                }
 
+                mcmcOperator.reject();
                 currentModel.restoreModelState();
 
+                if (profile != null) {
+                    profile.record(op, MarkovChainProfile.Phase.RESTORE, System.nanoTime() - phaseTime);
+                    profile.restored();
+                }
+
                 if (usingFullEvaluation) {
                     // This is a test that the state is correctly restored. The
                     // restored state is fully evaluated and the likelihood compared with
@@ -439,7 +468,6 @@ public final class MarkovChain implements Serializable {
                     }
                 }
             }
-            // assert Profiler.stopProfile("Restore");
 
 
             if (isAdapting(mcmcOperator)) {
@@ -492,6 +520,21 @@ public final class MarkovChain implements Serializable {
         return schedule;
     }
 
+    /**
+     * Sets a profile to record the time spent in each phase of each operator's moves (null to
+     * switch profiling off). The profile must have been created for this chain's schedule.
+     */
+    public void setProfile(MarkovChainProfile profile) {
+        if (profile != null && profile.getSchedule() != schedule) {
+            throw new IllegalArgumentException("The profile was created for a different operator schedule");
+        }
+        this.profile = profile;
+    }
+
+    public MarkovChainProfile getProfile() {
+        return profile;
+    }
+
     public Acceptor getAcceptor() {
         return acceptor;
     }
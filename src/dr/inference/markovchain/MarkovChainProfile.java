@@ -0,0 +1,342 @@
+/*
+ * MarkovChainProfile.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.markovchain;
+
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.Loggable;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.LikelihoodTimingProfile;
+import dr.inference.operators.OperatorSchedule;
+import dr.util.TimingHistogram;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nanosecond timing histograms for each phase of each operator's moves in the MarkovChain and
+ * for the evaluation of each component likelihood, along with the proportion of likelihood
+ * evaluations that were answered from the cache. The mean times can be logged as columns and
+ * the full profile written as a JSON or CSV report at the end of the run.
+ *
+ * @author agent
+ */
+public class MarkovChainProfile implements Loggable {
+
+    public enum Phase {
+        STORE("store"),
+        PROPOSE("propose"),
+        EVALUATE("evaluate"),
+        ACCEPT("accept"),
+        RESTORE("restore");
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        private final String name;
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    public MarkovChainProfile(OperatorSchedule schedule, Likelihood likelihood) {
+        this.schedule = schedule;
+
+        int operatorCount = schedule.getOperatorCount();
+        histograms = new TimingHistogram[operatorCount][Phase.values().length];
+        for (int i = 0; i < operatorCount; i++) {
+            for (int j = 0; j < Phase.values().length; j++) {
+                histograms[i][j] = new TimingHistogram();
+            }
+        }
+
+        Map<Likelihood, LikelihoodTimingProfile> profileMap = new LinkedHashMap<Likelihood, LikelihoodTimingProfile>();
+        if (likelihood instanceof CompoundLikelihood && CompoundLikelihood.EVALUATION_TIMERS) {
+            ((CompoundLikelihood) likelihood).enableProfiling(profileMap);
+            topLevelProfile = null;
+        } else {
+            topLevelProfile = new LikelihoodTimingProfile(likelihood);
+            profileMap.put(likelihood, topLevelProfile);
+        }
+        likelihoodProfiles = new ArrayList<LikelihoodTimingProfile>(profileMap.values());
+    }
+
+    public OperatorSchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Records the time spent in one phase of a move.
+     *
+     * @param operator the index of the operator in the schedule
+     * @param phase    the phase of the move
+     * @param nanos    the elapsed time in nanoseconds
+     */
+    public void record(int operator, Phase phase, long nanos) {
+        histograms[operator][phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * Records the evaluation of the whole likelihood. If this is a compound likelihood the
+     * components have been profiled individually so this only adds to the operator's histogram.
+     */
+    public void recordEvaluation(int operator, long nanos) {
+        record(operator, Phase.EVALUATE, nanos);
+        if (topLevelProfile != null) {
+            topLevelProfile.record(nanos);
+        }
+    }
+
+    /**
+     * Called after the model has been restored following a rejected move.
+     */
+    public void restored() {
+        for (LikelihoodTimingProfile profile : likelihoodProfiles) {
+            profile.restored();
+        }
+    }
+
+    public void reset() {
+        for (TimingHistogram[] operatorHistograms : histograms) {
+            for (TimingHistogram histogram : operatorHistograms) {
+                histogram.reset();
+            }
+        }
+        for (LikelihoodTimingProfile profile : likelihoodProfiles) {
+            profile.reset();
+        }
+    }
+
+    public TimingHistogram getHistogram(int operator, Phase phase) {
+        return histograms[operator][phase.ordinal()];
+    }
+
+    public List<LikelihoodTimingProfile> getLikelihoodTimingProfiles() {
+        return likelihoodProfiles;
+    }
+
+    private String getOperatorName(int operator) {
+        return schedule.getOperator(operator).getOperatorName();
+    }
+
+    // **************************************************************
+    // Report
+    // **************************************************************
+
+    /**
+     * Writes the profile to a file. The format is CSV if the file name ends in '.csv' and JSON otherwise.
+     */
+    public void writeReport(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        if (file.getName().toLowerCase().endsWith(".csv")) {
+            writeCSV(writer);
+        } else {
+            writeJSON(writer);
+        }
+        writer.close();
+    }
+
+    public void writeCSV(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.print("type,name,phase,count,total_ns,mean_ns,min_ns");
+        for (double q : QUANTILES) {
+            out.print(",p" + Math.round(q * 100) + "_ns");
+        }
+        out.println(",max_ns,hits,misses,hit_ratio");
+
+        for (int i = 0; i < histograms.length; i++) {
+            for (Phase phase : Phase.values()) {
+                out.print("operator," + quote(getOperatorName(i)) + "," + phase.getName() + ",");
+                printHistogram(out, histograms[i][phase.ordinal()]);
+                out.println(",,,");
+            }
+        }
+        for (LikelihoodTimingProfile profile : likelihoodProfiles) {
+            out.print("likelihood," + quote(profile.getName()) + "," + Phase.EVALUATE.getName() + ",");
+            printHistogram(out, profile.getHistogram());
+            out.println("," + profile.getHitCount() + "," + profile.getMissCount() + "," +
+                    (Double.isNaN(profile.getHitRatio()) ? "" : Double.toString(profile.getHitRatio())));
+        }
+        out.flush();
+    }
+
+    private void printHistogram(PrintWriter out, TimingHistogram histogram) {
+        out.print(histogram.getCount() + "," + histogram.getTotal() + ",");
+        if (histogram.getCount() > 0) {
+            out.print(histogram.getMean() + "," + histogram.getMin());
+            for (double q : QUANTILES) {
+                out.print("," + histogram.getQuantile(q));
+            }
+            out.print("," + histogram.getMax());
+        } else {
+            out.print(",");
+            for (int k = 0; k < QUANTILES.length; k++) {
+                out.print(",");
+            }
+            out.print(",");
+        }
+    }
+
+    private static String quote(String value) {
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    public void writeJSON(Writer writer) {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put(JsonGenerator.PRETTY_PRINTING, true);
+        JsonGeneratorFactory factory = Json.createGeneratorFactory(config);
+        JsonGenerator generator = factory.createGenerator(writer);
+
+        generator.writeStartObject();
+
+        generator.writeStartArray("operators");
+        for (int i = 0; i < histograms.length; i++) {
+            generator.writeStartObject();
+            generator.write("name", getOperatorName(i));
+            generator.writeStartObject("phases");
+            for (Phase phase : Phase.values()) {
+                generator.writeStartObject(phase.getName());
+                writeHistogram(generator, histograms[i][phase.ordinal()]);
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+            generator.writeEnd();
+        }
+        generator.writeEnd();
+
+        generator.writeStartArray("likelihoods");
+        for (LikelihoodTimingProfile profile : likelihoodProfiles) {
+            generator.writeStartObject();
+            generator.write("name", profile.getName());
+            generator.writeStartObject("evaluate");
+            writeHistogram(generator, profile.getHistogram());
+            generator.writeEnd();
+            generator.write("hits", profile.getHitCount());
+            generator.write("misses", profile.getMissCount());
+            writeDouble(generator, "hitRatio", profile.getHitRatio());
+            generator.writeEnd();
+        }
+        generator.writeEnd();
+
+        generator.writeEnd();
+        generator.flush();
+    }
+
+    private void writeHistogram(JsonGenerator generator, TimingHistogram histogram) {
+        generator.write("count", histogram.getCount());
+        generator.write("total", histogram.getTotal());
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        generator.write("mean", histogram.getMean());
+        generator.write("min", histogram.getMin());
+        for (double q : QUANTILES) {
+            generator.write("p" + Math.round(q * 100), histogram.getQuantile(q));
+        }
+        generator.write("max", histogram.getMax());
+
+        // the non-empty buckets keyed by their exclusive upper bound in nanoseconds
+        generator.writeStartObject("histogram");
+        for (int b = 0; b < TimingHistogram.BUCKET_COUNT; b++) {
+            if (histogram.getBucketCount(b) > 0) {
+                generator.write(Long.toString(TimingHistogram.getBucketUpperBound(b)), histogram.getBucketCount(b));
+            }
+        }
+        generator.writeEnd();
+    }
+
+    private static void writeDouble(JsonGenerator generator, String name, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            generator.writeNull(name);
+        } else {
+            generator.write(name, value);
+        }
+    }
+
+    // **************************************************************
+    // Loggable IMPLEMENTATION
+    // **************************************************************
+
+    /**
+     * @return a column of the mean time in nanoseconds of each phase of each operator, and the
+     * mean evaluation time and cache hit ratio of each likelihood, over the run so far.
+     */
+    public LogColumn[] getColumns() {
+        List<LogColumn> columns = new ArrayList<LogColumn>();
+        for (int i = 0; i < histograms.length; i++) {
+            for (final Phase phase : Phase.values()) {
+                final TimingHistogram histogram = histograms[i][phase.ordinal()];
+                columns.add(new NumberColumn(getOperatorName(i) + "." + phase.getName()) {
+                    @Override
+                    public double getDoubleValue() {
+                        return histogram.getMean();
+                    }
+                });
+            }
+        }
+        for (final LikelihoodTimingProfile profile : likelihoodProfiles) {
+            columns.add(new NumberColumn(profile.getName() + "." + Phase.EVALUATE.getName()) {
+                @Override
+                public double getDoubleValue() {
+                    return profile.getHistogram().getMean();
+                }
+            });
+            columns.add(new NumberColumn(profile.getName() + ".hitRatio") {
+                @Override
+                public double getDoubleValue() {
+                    return profile.getHitRatio();
+                }
+            });
+        }
+        return columns.toArray(new LogColumn[columns.size()]);
+    }
+
+    private final OperatorSchedule schedule;
+    private final TimingHistogram[][] histograms;
+    private final List<LikelihoodTimingProfile> likelihoodProfiles;
+    private final LikelihoodTimingProfile topLevelProfile;
+}
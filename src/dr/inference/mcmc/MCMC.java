@@ -285,6 +285,14 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                 }
             }
 
+            if (profileReportFile != null && mc.getProfile() != null) {
+                try {
+                    mc.getProfile().writeReport(profileReportFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
             // How should premature finish be flagged?
         }
 
@@ -389,6 +397,14 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
         this.operatorAnalysisFile = operatorAnalysisFile;
     }
 
+    /**
+     * @param profileReportFile a file to write the chain's profile to when it finishes
+     *                          (JSON, or CSV if the name ends in '.csv')
+     */
+    public void setProfileReportFile(File profileReportFile) {
+        this.profileReportFile = profileReportFile;
+    }
+
     public String getId() {
         return id;
     }
@@ -404,6 +420,7 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
     protected boolean stopping = false;
     protected boolean showOperatorAnalysis = Boolean.parseBoolean(System.getProperty(OperatorSchedule.SHOW_OPERATORS));
     protected File operatorAnalysisFile = null;
+    protected File profileReportFile = null;
     protected final dr.util.Timer timer = new dr.util.Timer();
     protected long currentState = 0;
     //private int stepsPerReport = 1000;
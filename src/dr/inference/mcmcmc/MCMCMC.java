@@ -100,7 +100,9 @@ public class MCMCMC implements Runnable {
             acceptor.setRank(i);
         }
 
-        if (USE_PARALLEL_TEMPERING_SCHEME) {
+        // the original swap is done in place below unless another scheme has been requested
+        if (USE_PARALLEL_TEMPERING_SCHEME ||
+                mcmcmcOptions.getSwapScheme() != MCMCMCOptions.SwapScheme.ORIGINAL_FLAVOR) {
             scheme = mcmcmcOptions.getSwapScheme().factory(chains, schedules, mcmcmcOptions);
         } else {
             scheme = null;
@@ -148,9 +150,14 @@ public class MCMCMC implements Runnable {
 
         chains[coldChain].addMarkovChainListener(chainListener);
 
+        coordinator = new MCMCMCCoordinator(chains.length);
+
         MCMCMCRunner[] threads = new MCMCMCRunner[chains.length];
         for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
+            // each chain draws from its own random number stream so the chains don't contend
+            // on a shared generator and the run is reproducible for a given seed
+            threads[i] = new MCMCMCRunner(chains[i], i, DEBUG_IN_SERIES ? null : coordinator,
+                    mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
             if (!DEBUG_IN_SERIES) {
                 threads[i].start();
             }
@@ -158,34 +165,25 @@ public class MCMCMC implements Runnable {
 
         while (chains[coldChain].getCurrentLength() < getChainLength()) {
 
+            boolean chainsWaiting = true;
             if (DEBUG_IN_SERIES) {
                 for (int i = 0; i < chains.length; ++i) {
                     threads[i].runSubChain();
                 }
             } else {
                 // wait for all the threads to complete their alloted chain length
-                boolean allDone;
-                do {
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException e) {
-                        //
-                    }
+                chainsWaiting = coordinator.awaitChains();
+            }
 
-                    allDone = true;
-                    for (int i = 0; i < chains.length; i++) {
-                        if (!threads[i].isChainDone()) {
-                            allDone = false;
-                        }
-                    }
-                } while (!allDone);
+            if (!chainsWaiting) {
+                break;
             }
 
             if (chains[coldChain].getCurrentLength() < getChainLength()) {
                 int oldColdChain = coldChain;
 
                 // attempt to swap two or more chains' temperatures
-                if (USE_PARALLEL_TEMPERING_SCHEME) {
+                if (scheme != null) {
                     coldChain = scheme.swapChainTemperatures(coldChain);
                 } else {
                     coldChain = swapChainTemperatures();
@@ -212,13 +210,18 @@ public class MCMCMC implements Runnable {
 
                 }
 
-                for (int i = 0; i < chains.length; i++) {
-                    threads[i].continueChain();
+                if (!DEBUG_IN_SERIES) {
+                    coordinator.releaseChains();
                 }
             }
 
         }
 
+        if (!DEBUG_IN_SERIES) {
+            // stops the runners and waits for them so none is still running during the clean up
+            coordinator.finish();
+        }
+
         finish();
 
         timer.stop();
@@ -228,7 +231,7 @@ public class MCMCMC implements Runnable {
 
         Thread[] threads = new Thread[chains.length];
         for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], length, length, false);
+            threads[i] = new MCMCMCRunner(chains[i], i, null, length, length, false);
             threads[i].start();
         }
 
@@ -360,6 +363,10 @@ public class MCMCMC implements Runnable {
             OperatorAnalysisPrinter.showOperatorAnalysis(System.out, schedules[coldChain], mcmcOptions.useAdaptation());
             System.out.println();
         }
+
+        if (coordinator != null && !DEBUG_IN_SERIES) {
+            System.out.println(coordinator.getReport());
+        }
     }
 
     private final MarkovChainListener chainListener = new MarkovChainListener() {
@@ -488,6 +495,7 @@ public class MCMCMC implements Runnable {
     private int coldChain;
 
     private final ParallelTempering scheme;
+    private MCMCMCCoordinator coordinator = null;
     private static final boolean USE_PARALLEL_TEMPERING_SCHEME = false;
 }
 
@@ -0,0 +1,215 @@
+/*
+ * MCMCMCCoordinator.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.mcmcmc;
+
+import dr.util.NumberFormatter;
+
+import java.util.concurrent.Phaser;
+
+/**
+ * Synchronises the MCMCMCRunner threads with the controlling MCMCMC thread between swap rounds.
+ * <p/>
+ * Each round has two phases. In the first the runners arrive once they have completed their
+ * sub-chain and the controller waits for all of them. In the second the controller attempts the
+ * temperature swaps and then arrives to release the runners. A runner that has completed its
+ * total length deregisters instead so the controller is never left waiting. If the controller
+ * finishes before the runners (e.g., the cold chain has reached its length) it stops them at the
+ * end of the current round and waits for them all to deregister.
+ * <p/>
+ * The coordinator also records, for each chain, the time spent running sub-chains and the time
+ * spent blocked waiting for the other chains and the swap, so load imbalance between chains can
+ * be reported.
+ *
+ * @author agent
+ */
+public class MCMCMCCoordinator {
+
+    public MCMCMCCoordinator(int chainCount) {
+        this.chainCount = chainCount;
+
+        // one party for each runner plus one for the controlling thread
+        this.phaser = new Phaser(chainCount + 1);
+
+        this.runTime = new long[chainCount];
+        this.waitTime = new long[chainCount];
+        this.maxWaitTime = new long[chainCount];
+        this.roundCount = new long[chainCount];
+    }
+
+    // Runner side **************************************************************
+
+    /**
+     * Called by a runner when it has completed a sub-chain and another is to follow. Blocks until
+     * all the chains have completed the round and the controller has performed the swap.
+     *
+     * @param chain       the chain index
+     * @param runDuration the time in nanoseconds taken to run the sub-chain
+     * @return true if the runner should continue or false if the controller has finished (in
+     * which case the runner has been deregistered)
+     */
+    public boolean awaitSwap(int chain, long runDuration) {
+        long start = System.nanoTime();
+
+        phaser.arriveAndAwaitAdvance(); // sub-chains complete
+        int phase = phaser.arriveAndAwaitAdvance(); // swap complete
+
+        recordRound(chain, runDuration, System.nanoTime() - start);
+
+        // only stop at the first swap after the controller finished, not one that had already passed
+        int stop = stopPhase;
+        if (stop >= 0 && phase > stop) {
+            phaser.arriveAndDeregister();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called by a runner when it has completed its final sub-chain.
+     *
+     * @param chain       the chain index
+     * @param runDuration the time in nanoseconds taken to run the sub-chain
+     */
+    public void chainFinished(int chain, long runDuration) {
+        recordRound(chain, runDuration, 0);
+        phaser.arriveAndDeregister();
+    }
+
+    // Controller side **********************************************************
+
+    /**
+     * Blocks until all the runners have completed the current round.
+     *
+     * @return true if the runners are waiting for a swap, false if they have all finished
+     */
+    public boolean awaitChains() {
+        if (phaser.isTerminated()) {
+            return false;
+        }
+        phaser.arriveAndAwaitAdvance();
+        return phaser.getRegisteredParties() > 1;
+    }
+
+    /**
+     * Releases the runners to start the next round once the swap has been performed. This waits
+     * for the runners to pass the barrier so that the controller cannot arrive twice in the
+     * same phase.
+     */
+    public void releaseChains() {
+        phaser.arriveAndAwaitAdvance();
+    }
+
+    /**
+     * Stops the runners at the end of their current round and waits for them all to deregister
+     * before deregistering the controller, so no runner is still advancing its chain once this
+     * returns.
+     */
+    public void finish() {
+        stopPhase = phaser.getPhase();
+
+        // keep arriving at the barriers (without swapping) until the runners have seen the flag
+        while (!phaser.isTerminated() && phaser.getRegisteredParties() > 1) {
+            phaser.arriveAndAwaitAdvance();
+        }
+        if (!phaser.isTerminated()) {
+            phaser.arriveAndDeregister();
+        }
+    }
+
+    // Statistics ***************************************************************
+
+    private synchronized void recordRound(int chain, long runDuration, long waitDuration) {
+        runTime[chain] += runDuration;
+        waitTime[chain] += waitDuration;
+        if (waitDuration > maxWaitTime[chain]) {
+            maxWaitTime[chain] = waitDuration;
+        }
+        roundCount[chain] += 1;
+    }
+
+    /**
+     * @return the total time in nanoseconds that the chain has spent blocked at the barrier
+     */
+    public synchronized long getWaitTime(int chain) {
+        return waitTime[chain];
+    }
+
+    /**
+     * @return the total time in nanoseconds that the chain has spent running sub-chains
+     */
+    public synchronized long getRunTime(int chain) {
+        return runTime[chain];
+    }
+
+    /**
+     * @return the load imbalance of the chain: the proportion of its time spent waiting
+     */
+    public synchronized double getLoadImbalance(int chain) {
+        long total = runTime[chain] + waitTime[chain];
+        return (total > 0 ? (double) waitTime[chain] / total : 0.0);
+    }
+
+    public synchronized String getReport() {
+        NumberFormatter formatter = new NumberFormatter(4);
+        formatter.setPadding(true);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Chain synchronisation (times in ms)\n");
+        sb.append(formatter.formatToFieldWidth("Chain", 8));
+        sb.append(formatter.formatToFieldWidth("Rounds", 10));
+        sb.append(formatter.formatToFieldWidth("Run", 14));
+        sb.append(formatter.formatToFieldWidth("Wait", 14));
+        sb.append(formatter.formatToFieldWidth("Wait/round", 14));
+        sb.append(formatter.formatToFieldWidth("Max wait", 14));
+        sb.append(formatter.formatToFieldWidth("Imbalance", 10));
+        sb.append("\n");
+
+        for (int i = 0; i < chainCount; i++) {
+            double rounds = Math.max(roundCount[i], 1);
+            sb.append(formatter.formatToFieldWidth(Integer.toString(i), 8));
+            sb.append(formatter.formatToFieldWidth(Long.toString(roundCount[i]), 10));
+            sb.append(formatter.formatToFieldWidth(formatter.format(runTime[i] / 1.0E6), 14));
+            sb.append(formatter.formatToFieldWidth(formatter.format(waitTime[i] / 1.0E6), 14));
+            sb.append(formatter.formatToFieldWidth(formatter.format(waitTime[i] / 1.0E6 / rounds), 14));
+            sb.append(formatter.formatToFieldWidth(formatter.format(maxWaitTime[i] / 1.0E6), 14));
+            sb.append(formatter.formatToFieldWidth(formatter.format(getLoadImbalance(i)), 10));
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    private final int chainCount;
+    private final Phaser phaser;
+    // the phase in which the controller finished or -1
+    private volatile int stopPhase = -1;
+
+    private final long[] runTime;
+    private final long[] waitTime;
+    private final long[] maxWaitTime;
+    private final long[] roundCount;
+}
@@ -28,6 +28,7 @@
 package dr.inference.mcmcmc;
 
 import dr.inference.markovchain.MarkovChain;
+import dr.math.MathUtils;
 
 /**
  * @author rambaut
@@ -37,8 +38,21 @@ import dr.inference.markovchain.MarkovChain;
 public class MCMCMCRunner extends Thread {
 
     public MCMCMCRunner(MarkovChain markovChain, long length, long totalLength, boolean disableCoerce) {
+        this(markovChain, -1, null, length, totalLength, disableCoerce);
+    }
+
+    /**
+     * @param streamIndex the index of the chain and of the random number stream this chain's thread
+     *                    should use, or -1 to share the default random number generator
+     * @param coordinator the coordinator used to wait for the swap between sub-chains or null to
+     *                    run the total length without stopping
+     */
+    public MCMCMCRunner(MarkovChain markovChain, int streamIndex, MCMCMCCoordinator coordinator,
+                        long length, long totalLength, boolean disableCoerce) {
 
         this.markovChain = markovChain;
+        this.streamIndex = streamIndex;
+        this.coordinator = coordinator;
         this.length = length;
         this.totalLength = totalLength;
         this.disableCoerce = disableCoerce;
@@ -49,49 +63,40 @@ public class MCMCMCRunner extends Thread {
     }
 
 	public void run() {
+        if (streamIndex >= 0) {
+            MathUtils.useRandomStream(streamIndex);
+        }
+
         long i = 0;
         while (i < totalLength) {
+            long start = System.nanoTime();
             runSubChain();
+            long duration = System.nanoTime() - start;
 
             i += length;
 
-	        chainDone();
-
-            if (i < totalLength) {
-                synchronized(this) {
-                    while (isChainDone()) { //DM. This test needs to be synchronized too. Otherwise, there is a nonzero chance that the MCMCMC.run thread calls continueChain, setting this.chainDone=false and notifies the thread to continue right before it starts listening, making the MC3 hang forever 
-                        try {
-                            //synchronized(this) {
-                                wait();
-                            //}
-                        } catch (InterruptedException e) {
-                            // continue...
-                        }
+            if (coordinator != null) {
+                if (i < totalLength) {
+                    // blocks until all the chains are done and the swap has been attempted
+                    if (!coordinator.awaitSwap(streamIndex, duration)) {
+                        // the controlling thread has finished
+                        break;
                     }
+                } else {
+                    coordinator.chainFinished(streamIndex, duration);
                 }
             }
         }
-    }
 
-	private synchronized void chainDone() {
-		chainDone = true;
-	}
-
-	public synchronized boolean isChainDone() {
-		return chainDone;
-	}
-
-    public synchronized void continueChain() {
-        this.chainDone = false;
-	    notify();
+        if (streamIndex >= 0) {
+            MathUtils.releaseRandomStream();
+        }
     }
 
-
 	private final MarkovChain markovChain;
+    private final int streamIndex;
+    private final MCMCMCCoordinator coordinator;
 	private final long length;
     private final long totalLength;
     private final boolean disableCoerce;
-
-	private boolean chainDone;
 }
-
@@ -193,7 +193,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     public double getLogLikelihood() {
 
-        double logLikelihood = evaluateLikelihoods(earlyLikelihoods);
+        double logLikelihood = evaluateLikelihoods(earlyLikelihoods, earlyProfiles);
 
         if( logLikelihood == Double.NEGATIVE_INFINITY ) {
             return Double.NEGATIVE_INFINITY;
@@ -201,7 +201,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
         if (pool == null) {
             // Single threaded
-            logLikelihood += evaluateLikelihoods(lateLikelihoods);
+            logLikelihood += evaluateLikelihoods(lateLikelihoods, lateProfiles);
         } else {
 
             try {
@@ -231,7 +231,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         return logLikelihood;
     }
 
-    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods) {
+    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods, LikelihoodTimingProfile[] profiles) {
         double logLikelihood = 0.0;
         int i = 0;
         for (Likelihood likelihood : likelihoods) {
@@ -239,8 +239,12 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
                 // this code is only compiled if EVALUATION_TIMERS is true
                 long time = System.nanoTime();
                 double l = likelihood.getLogLikelihood();
-                evaluationTimes[i] += System.nanoTime() - time;
+                time = System.nanoTime() - time;
+                evaluationTimes[i] += time;
                 evaluationCounts[i] ++;
+                if (profiles != null && profiles[i] != null) {
+                    profiles[i].record(time);
+                }
 
                 if( l == Double.NEGATIVE_INFINITY )
                     return Double.NEGATIVE_INFINITY;
@@ -266,6 +270,54 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         for( Likelihood likelihood : likelihoods ) {
             likelihood.makeDirty();
         }
+        if (profiles != null) {
+            for (LikelihoodTimingProfile profile : profiles.values()) {
+                profile.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Switches on the recording of evaluation time histograms and cache hit ratios for each of the
+     * component likelihoods (those in nested compound likelihoods are profiled individually).
+     * Requires EVALUATION_TIMERS.
+     *
+     * @param profiles the profiles that have already been created, keyed by likelihood, so a
+     *                 likelihood shared by more than one compound likelihood is only profiled once.
+     *                 Any new profiles are added to this.
+     */
+    public void enableProfiling(Map<Likelihood, LikelihoodTimingProfile> profiles) {
+        if (!EVALUATION_TIMERS) {
+            return;
+        }
+        this.profiles = new LinkedHashMap<Likelihood, LikelihoodTimingProfile>();
+
+        earlyProfiles = createProfiles(earlyLikelihoods, profiles);
+        lateProfiles = createProfiles(lateLikelihoods, profiles);
+        for (Callable<Double> caller : likelihoodCallers) {
+            LikelihoodCaller likelihoodCaller = (LikelihoodCaller) caller;
+            likelihoodCaller.profile = this.profiles.get(likelihoodCaller.likelihood);
+        }
+    }
+
+    private LikelihoodTimingProfile[] createProfiles(List<Likelihood> likelihoods, Map<Likelihood, LikelihoodTimingProfile> profiles) {
+        LikelihoodTimingProfile[] array = new LikelihoodTimingProfile[likelihoods.size()];
+        for (int i = 0; i < array.length; i++) {
+            Likelihood likelihood = likelihoods.get(i);
+            if (likelihood instanceof CompoundLikelihood) {
+                // the components are timed within the nested likelihood
+                ((CompoundLikelihood) likelihood).enableProfiling(profiles);
+            } else {
+                LikelihoodTimingProfile profile = profiles.get(likelihood);
+                if (profile == null) {
+                    profile = new LikelihoodTimingProfile(likelihood);
+                    profiles.put(likelihood, profile);
+                }
+                this.profiles.put(likelihood, profile);
+                array[i] = profile;
+            }
+        }
+        return array;
     }
 
     public boolean evaluateEarly() {
@@ -545,6 +597,10 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     private final List<Callable<Double>> likelihoodCallers = new ArrayList<Callable<Double>>();
 
+    private Map<Likelihood, LikelihoodTimingProfile> profiles = null;
+    private LikelihoodTimingProfile[] earlyProfiles = null;
+    private LikelihoodTimingProfile[] lateProfiles = null;
+
     class LikelihoodCaller implements Callable<Double> {
 
         public LikelihoodCaller(Likelihood likelihood, int index) {
@@ -559,8 +615,12 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
             if (EVALUATION_TIMERS) {
                 long time = System.nanoTime();
                 double logL = likelihood.getLogLikelihood();
-                evaluationTimes[index] += System.nanoTime() - time;
+                time = System.nanoTime() - time;
+                evaluationTimes[index] += time;
                 evaluationCounts[index] ++;
+                if (profile != null) {
+                    profile.record(time);
+                }
                 return logL;
             }
             return likelihood.getLogLikelihood();
@@ -568,6 +628,7 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
         private final Likelihood likelihood;
         private final int index;
+        private LikelihoodTimingProfile profile = null;
     }
 
     public static final boolean DEBUG_PARALLEL_EVALUATION = false;
@@ -0,0 +1,609 @@
+/*
+ * ForkJoinCompoundLikelihood.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.model;
+
+import dr.util.NumberFormatter;
+import dr.util.ParallelBlocks;
+import dr.xml.Reportable;
+
+import java.util.*;
+
+/**
+ * A compound likelihood which only evaluates the components whose models have changed since
+ * they were last evaluated, and evaluates those in parallel on the shared fork-join pool.
+ * <p/>
+ * Each component is tracked by listening to every model and variable it depends on, so a
+ * component is only re-evaluated if one of these has fired a change event (or after makeDirty).
+ * Changed components are kept in a list so the work done in an evaluation is proportional to the
+ * number of changes rather than the number of components. The total is kept up to date by adding
+ * the difference in each changed component using compensated (Neumaier) summation, and is
+ * recomputed from scratch after makeDirty. Components without a model can't be tracked and are
+ * always evaluated. Any nested CompoundLikelihoods are unrolled so that each of their
+ * components is tracked separately.
+ * <p/>
+ * The cached log likelihoods are stored and restored along with the models. Only the components
+ * that change after a store are recorded (with their previous values) so storing and restoring
+ * are also proportional to the number of changes.
+ * <p/>
+ * The components are evaluated using ParallelBlocks so all instances share one pool. When a
+ * compound is evaluated within a task of the pool (i.e., it is nested in another) its components
+ * are forked into the same pool so the threads are not oversubscribed.
+ *
+ * @author agent
+ */
+public class ForkJoinCompoundLikelihood implements Likelihood, Reportable {
+
+    public ForkJoinCompoundLikelihood(int threads, Collection<Likelihood> likelihoods) {
+        this.likelihoods = new ArrayList<Likelihood>();
+        for (Likelihood likelihood : likelihoods) {
+            addLikelihood(likelihood);
+        }
+
+        int count = this.likelihoods.size();
+        logLikelihoods = new double[count];
+        updatedLogLikelihoods = new double[count];
+        dirty = new boolean[count];
+        tracked = new boolean[count];
+        early = new boolean[count];
+        evaluationCounts = new long[count];
+        dirtyIndices = new int[count];
+        evaluationIndices = new int[count];
+        journaled = new boolean[count];
+        journalIndices = new int[count];
+        journalLogLikelihoods = new double[count];
+        journalDirty = new boolean[count];
+        storedDirtyIndices = new int[count];
+
+        int untrackedCount = 0;
+        for (int i = 0; i < count; i++) {
+            Likelihood likelihood = this.likelihoods.get(i);
+            if (likelihood.getModel() != null) {
+                tracked[i] = true;
+                new ComponentListener(i, likelihood.getModel());
+            } else {
+                untrackedCount++;
+            }
+            early[i] = likelihood.evaluateEarly();
+        }
+        untrackedIndices = new int[untrackedCount];
+        int u = 0;
+        for (int i = 0; i < count; i++) {
+            if (!tracked[i]) {
+                untrackedIndices[u++] = i;
+            }
+        }
+
+        // everything is evaluated the first time
+        dirtyCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (tracked[i]) {
+                dirty[i] = true;
+                dirtyIndices[dirtyCount++] = i;
+            }
+        }
+        resum = true;
+
+        this.threadCount = ParallelBlocks.getThreadCount(threads);
+    }
+
+    private void addLikelihood(Likelihood likelihood) {
+        if (likelihood instanceof CompoundLikelihood) {
+            // unrolled so that each component is tracked separately, unless this would add a
+            // likelihood more than once (which would be counted once per compound)
+            List<Likelihood> components = new ArrayList<Likelihood>();
+            getComponents(likelihood, components);
+            Set<Likelihood> unique = Collections.newSetFromMap(new IdentityHashMap<Likelihood, Boolean>());
+            unique.addAll(components);
+            boolean overlaps = unique.size() < components.size();
+            for (Likelihood l : components) {
+                overlaps |= likelihoodSet.contains(l);
+            }
+            if (!overlaps) {
+                for (Likelihood l : components) {
+                    addComponent(l);
+                }
+                return;
+            }
+        }
+        if (likelihoodSet.contains(likelihood)) {
+            throw new IllegalArgumentException("Attempted to add the same likelihood multiple times to ForkJoinCompoundLikelihood.");
+        }
+        addComponent(likelihood);
+    }
+
+    private static void getComponents(Likelihood likelihood, List<Likelihood> components) {
+        if (likelihood instanceof CompoundLikelihood) {
+            for (Likelihood l : ((CompoundLikelihood) likelihood).getLikelihoods()) {
+                getComponents(l, components);
+            }
+        } else {
+            components.add(likelihood);
+        }
+    }
+
+    private void addComponent(Likelihood likelihood) {
+        likelihoods.add(likelihood);
+        likelihoodSet.add(likelihood);
+        if (likelihood.getModel() != null) {
+            compoundModel.addModel(likelihood.getModel());
+        }
+    }
+
+    public int getLikelihoodCount() {
+        return likelihoods.size();
+    }
+
+    public final Likelihood getLikelihood(int i) {
+        return likelihoods.get(i);
+    }
+
+    public List<Likelihood> getLikelihoods() {
+        return likelihoods;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    // **************************************************************
+    // Likelihood IMPLEMENTATION
+    // **************************************************************
+
+    public Model getModel() {
+        return compoundModel;
+    }
+
+    public double getLogLikelihood() {
+
+        int evaluationCount;
+        synchronized (dirtyLock) {
+            // the flags are cleared before evaluation so that any change made while evaluating
+            // will cause another evaluation next time
+            evaluationCount = 0;
+            for (int k = 0; k < dirtyCount; k++) {
+                int i = dirtyIndices[k];
+                journal(i);
+                dirty[i] = false;
+                evaluationIndices[evaluationCount++] = i;
+            }
+            dirtyCount = 0;
+            for (int i : untrackedIndices) {
+                journal(i);
+                evaluationIndices[evaluationCount++] = i;
+            }
+        }
+
+        // the cheap components (i.e., priors) are done first, on this thread, as if any of these
+        // are zero the rest need not be evaluated
+        int lateCount = 0;
+        for (int k = 0; k < evaluationCount; k++) {
+            int i = evaluationIndices[k];
+            if (early[i]) {
+                evaluate(i);
+                update(i);
+            } else {
+                evaluationIndices[lateCount++] = i;
+            }
+        }
+        if (earlyNegativeInfinityCount > 0) {
+            // the late components that haven't been evaluated are still dirty
+            synchronized (dirtyLock) {
+                for (int k = 0; k < lateCount; k++) {
+                    markDirty(evaluationIndices[k]);
+                }
+            }
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        ParallelBlocks.forEachBlock(threadCount, lateCount, k -> evaluate(evaluationIndices[k]));
+
+        // the differences are added in a fixed order so the result doesn't depend on the order of evaluation
+        for (int k = 0; k < lateCount; k++) {
+            update(evaluationIndices[k]);
+        }
+
+        if (resum) {
+            resum();
+        }
+
+        if (nonFiniteCount > 0) {
+            // the difference can't be taken with an infinite or NaN component
+            double logLikelihood = 0.0;
+            for (double l : logLikelihoods) {
+                logLikelihood += l;
+            }
+            return logLikelihood;
+        }
+        return sum + compensation;
+    }
+
+    private void evaluate(int index) {
+        updatedLogLikelihoods[index] = likelihoods.get(index).getLogLikelihood();
+        evaluationCounts[index]++;
+    }
+
+    /**
+     * Replaces the cached value of a component with its new value and adds the difference to
+     * the total.
+     */
+    private void update(int index) {
+        double oldValue = logLikelihoods[index];
+        double newValue = updatedLogLikelihoods[index];
+        logLikelihoods[index] = newValue;
+
+        if (Double.isInfinite(oldValue) || Double.isNaN(oldValue)) {
+            nonFiniteCount--;
+        } else {
+            add(-oldValue);
+        }
+        if (Double.isInfinite(newValue) || Double.isNaN(newValue)) {
+            nonFiniteCount++;
+        } else {
+            add(newValue);
+        }
+        if (early[index]) {
+            if (oldValue == Double.NEGATIVE_INFINITY) {
+                earlyNegativeInfinityCount--;
+            }
+            if (newValue == Double.NEGATIVE_INFINITY) {
+                earlyNegativeInfinityCount++;
+            }
+        }
+    }
+
+    /**
+     * Neumaier's variant of Kahan summation, which also keeps the error when the value being
+     * added is larger than the running total.
+     */
+    private void add(double value) {
+        double t = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - t) + value;
+        } else {
+            compensation += (value - t) + sum;
+        }
+        sum = t;
+    }
+
+    /**
+     * Recomputes the total from the cached values, discarding any accumulated rounding error.
+     */
+    private void resum() {
+        sum = 0.0;
+        compensation = 0.0;
+        for (double l : logLikelihoods) {
+            if (!Double.isInfinite(l) && !Double.isNaN(l)) {
+                add(l);
+            }
+        }
+        resum = false;
+    }
+
+    /**
+     * Flags a component for evaluation. Must hold the dirtyLock.
+     */
+    private void markDirty(int index) {
+        // untracked components are evaluated every time anyway
+        if (tracked[index] && !dirty[index]) {
+            journal(index);
+            dirty[index] = true;
+            dirtyIndices[dirtyCount++] = index;
+        }
+    }
+
+    /**
+     * Records the state of a component the first time it changes after a store, so it can be
+     * restored. Must hold the dirtyLock.
+     */
+    private void journal(int index) {
+        if (!journaled[index]) {
+            journaled[index] = true;
+            journalIndices[journalCount] = index;
+            journalLogLikelihoods[journalCount] = logLikelihoods[index];
+            journalDirty[journalCount] = dirty[index];
+            journalCount++;
+        }
+    }
+
+    private void clearJournal() {
+        for (int k = 0; k < journalCount; k++) {
+            journaled[journalIndices[k]] = false;
+        }
+        journalCount = 0;
+    }
+
+    public void makeDirty() {
+        for (Likelihood likelihood : likelihoods) {
+            likelihood.makeDirty();
+        }
+        synchronized (dirtyLock) {
+            for (int i = 0; i < likelihoods.size(); i++) {
+                markDirty(i);
+            }
+        }
+        resum = true;
+    }
+
+    /**
+     * @return the number of times each component has been evaluated, in the order of getLikelihoods()
+     */
+    public long[] getEvaluationCounts() {
+        return evaluationCounts;
+    }
+
+    public boolean evaluateEarly() {
+        return false;
+    }
+
+    public Set<Likelihood> getLikelihoodSet() {
+        Set<Likelihood> set = new HashSet<Likelihood>();
+        for (Likelihood l : likelihoods) {
+            set.add(l);
+            set.addAll(l.getLikelihoodSet());
+        }
+        return set;
+    }
+
+    public String prettyName() {
+        return Abstract.getPrettyName(this);
+    }
+
+    public boolean isUsed() {
+        return used;
+    }
+
+    public void setUsed() {
+        used = true;
+        for (Likelihood l : likelihoods) {
+            l.setUsed();
+        }
+    }
+
+    public String getDiagnosis() {
+        StringBuilder sb = new StringBuilder();
+        NumberFormatter nf = new NumberFormatter(6);
+        for (int i = 0; i < likelihoods.size(); i++) {
+            Likelihood likelihood = likelihoods.get(i);
+            if (i > 0) {
+                sb.append(", ");
+            }
+            double logLikelihood = likelihood.getLogLikelihood();
+            sb.append(likelihood.prettyName()).append("=");
+            if (logLikelihood == Double.NEGATIVE_INFINITY) {
+                sb.append("-Inf");
+            } else if (Double.isNaN(logLikelihood)) {
+                sb.append("NaN");
+            } else if (logLikelihood == Double.POSITIVE_INFINITY) {
+                sb.append("+Inf");
+            } else {
+                sb.append(nf.formatDecimal(logLikelihood, 4));
+            }
+        }
+        return sb.toString();
+    }
+
+    public String toString() {
+        return getId();
+    }
+
+    // **************************************************************
+    // Loggable IMPLEMENTATION
+    // **************************************************************
+
+    public dr.inference.loggers.LogColumn[] getColumns() {
+        return new dr.inference.loggers.LogColumn[]{
+                new LikelihoodColumn(getId() == null ? "likelihood" : getId())
+        };
+    }
+
+    private class LikelihoodColumn extends dr.inference.loggers.NumberColumn {
+        public LikelihoodColumn(String label) {
+            super(label);
+        }
+
+        public double getDoubleValue() {
+            return getLogLikelihood();
+        }
+    }
+
+    // **************************************************************
+    // Reportable IMPLEMENTATION
+    // **************************************************************
+
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getClass().getName()).append("(").append(getLogLikelihood()).append(")\n");
+        sb.append("  threads = ").append(threadCount).append("\n");
+        for (int i = 0; i < likelihoods.size(); i++) {
+            sb.append("  ").append(likelihoods.get(i).prettyName()).append(": ")
+                    .append(evaluationCounts[i]).append(" evaluations")
+                    .append(tracked[i] ? "" : " (untracked)").append("\n");
+        }
+        return sb.toString();
+    }
+
+    // **************************************************************
+    // Identifiable IMPLEMENTATION
+    // **************************************************************
+
+    private String id = null;
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Flags a component as dirty when anything in its model graph changes.
+     */
+    private class ComponentListener implements ModelListener, VariableListener {
+
+        ComponentListener(int index, Model model) {
+            this.index = index;
+            addListeners(model, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+        }
+
+        private void addListeners(Model model, Set<Object> visited) {
+            if (!visited.add(model)) {
+                return;
+            }
+            model.addModelListener(this);
+            for (int i = 0; i < model.getVariableCount(); i++) {
+                Variable variable = model.getVariable(i);
+                if (visited.add(variable)) {
+                    variable.addVariableListener(this);
+                }
+            }
+            for (int i = 0; i < model.getModelCount(); i++) {
+                addListeners(model.getModel(i), visited);
+            }
+        }
+
+        public void modelChangedEvent(Model model, Object object, int index) {
+            synchronized (dirtyLock) {
+                markDirty(this.index);
+            }
+        }
+
+        public void modelRestored(Model model) {
+            // restores are handled by the compound model
+        }
+
+        public void variableChangedEvent(Variable variable, int index, Variable.ChangeType type) {
+            synchronized (dirtyLock) {
+                markDirty(this.index);
+            }
+        }
+
+        private final int index;
+    }
+
+    /**
+     * Stores and restores the cached component likelihoods along with the component models.
+     */
+    private class ForkJoinCompoundModel extends CompoundModel {
+
+        ForkJoinCompoundModel() {
+            super("forkJoinCompoundModel");
+        }
+
+        @Override
+        public void storeModelState() {
+            super.storeModelState();
+            synchronized (dirtyLock) {
+                clearJournal();
+                System.arraycopy(dirtyIndices, 0, storedDirtyIndices, 0, dirtyCount);
+                storedDirtyCount = dirtyCount;
+            }
+            storedSum = sum;
+            storedCompensation = compensation;
+            storedNonFiniteCount = nonFiniteCount;
+            storedEarlyNegativeInfinityCount = earlyNegativeInfinityCount;
+            storedResum = resum;
+        }
+
+        @Override
+        public void restoreModelState() {
+            super.restoreModelState();
+            // restoring the component models may have fired change events but the state
+            // is now that which was stored
+            synchronized (dirtyLock) {
+                for (int k = 0; k < journalCount; k++) {
+                    int i = journalIndices[k];
+                    logLikelihoods[i] = journalLogLikelihoods[k];
+                    dirty[i] = journalDirty[k];
+                }
+                clearJournal();
+                System.arraycopy(storedDirtyIndices, 0, dirtyIndices, 0, storedDirtyCount);
+                dirtyCount = storedDirtyCount;
+            }
+            sum = storedSum;
+            compensation = storedCompensation;
+            nonFiniteCount = storedNonFiniteCount;
+            earlyNegativeInfinityCount = storedEarlyNegativeInfinityCount;
+            resum = storedResum;
+        }
+
+        @Override
+        public void acceptModelState() {
+            super.acceptModelState();
+            synchronized (dirtyLock) {
+                clearJournal();
+            }
+        }
+    }
+
+    private boolean used = false;
+
+    private final int threadCount;
+
+    private final List<Likelihood> likelihoods;
+    private final Set<Likelihood> likelihoodSet = Collections.newSetFromMap(new IdentityHashMap<Likelihood, Boolean>());
+    private final CompoundModel compoundModel = new ForkJoinCompoundModel();
+
+    private final boolean[] tracked;
+    private final boolean[] early;
+    private final int[] untrackedIndices;
+    private final long[] evaluationCounts;
+
+    private final double[] logLikelihoods;
+    private final double[] updatedLogLikelihoods;
+    private final int[] evaluationIndices;
+
+    // the running total of the finite components
+    private double sum = 0.0;
+    private double compensation = 0.0;
+    private int nonFiniteCount = 0;
+    private int earlyNegativeInfinityCount = 0;
+    private boolean resum;
+
+    private double storedSum;
+    private double storedCompensation;
+    private int storedNonFiniteCount;
+    private int storedEarlyNegativeInfinityCount;
+    private boolean storedResum;
+
+    // the dirty list and journal may be changed by events from other threads
+    private final Object dirtyLock = new Object();
+
+    private final boolean[] dirty;
+    private final int[] dirtyIndices;
+    private int dirtyCount;
+    private final int[] storedDirtyIndices;
+    private int storedDirtyCount = 0;
+
+    // the components changed since the last store, with their stored values
+    private final boolean[] journaled;
+    private final int[] journalIndices;
+    private final double[] journalLogLikelihoods;
+    private final boolean[] journalDirty;
+    private int journalCount = 0;
+}
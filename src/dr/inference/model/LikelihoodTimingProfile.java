@@ -0,0 +1,163 @@
+/*
+ * LikelihoodTimingProfile.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.model;
+
+import dr.util.TimingHistogram;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Records the evaluation times of a single likelihood and whether each evaluation could have
+ * been answered from the likelihood's cached value. An evaluation is counted as a cache hit if
+ * none of the models or variables that the likelihood depends on have fired a change event
+ * since the last evaluation (or since the last restore).
+ *
+ * @author agent
+ */
+public class LikelihoodTimingProfile implements ModelListener, VariableListener {
+
+    public LikelihoodTimingProfile(Likelihood likelihood) {
+        this.likelihood = likelihood;
+
+        Model model = likelihood.getModel();
+        hasModel = model != null;
+        if (hasModel) {
+            addListeners(model, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+        }
+    }
+
+    private void addListeners(Model model, Set<Object> visited) {
+        if (!visited.add(model)) {
+            return;
+        }
+        model.addModelListener(this);
+        for (int i = 0; i < model.getVariableCount(); i++) {
+            Variable variable = model.getVariable(i);
+            if (visited.add(variable)) {
+                variable.addVariableListener(this);
+            }
+        }
+        for (int i = 0; i < model.getModelCount(); i++) {
+            addListeners(model.getModel(i), visited);
+        }
+    }
+
+    /**
+     * Records one evaluation of the likelihood.
+     *
+     * @param nanos the time taken in nanoseconds
+     */
+    public void record(long nanos) {
+        histogram.add(nanos);
+        if (changed) {
+            misses++;
+            changed = false;
+        } else {
+            hits++;
+        }
+    }
+
+    /**
+     * Called when the state has been restored to that of the last accepted evaluation.
+     */
+    public void restored() {
+        changed = false;
+    }
+
+    /**
+     * Called when the likelihood is forced to recompute.
+     */
+    public void invalidate() {
+        changed = true;
+    }
+
+    public void reset() {
+        histogram.reset();
+        hits = 0;
+        misses = 0;
+    }
+
+    public Likelihood getLikelihood() {
+        return likelihood;
+    }
+
+    public String getName() {
+        return likelihood.getId() != null ? likelihood.getId() : likelihood.prettyName();
+    }
+
+    public TimingHistogram getHistogram() {
+        return histogram;
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the proportion of evaluations which were cache hits (NaN if the likelihood has no
+     * model so changes can't be tracked)
+     */
+    public double getHitRatio() {
+        long count = hits + misses;
+        return hasModel && count > 0 ? (double) hits / count : Double.NaN;
+    }
+
+    // **************************************************************
+    // ModelListener IMPLEMENTATION
+    // **************************************************************
+
+    public void modelChangedEvent(Model model, Object object, int index) {
+        changed = true;
+    }
+
+    public void modelRestored(Model model) {
+        // restores are signalled by the chain via restored()
+    }
+
+    // **************************************************************
+    // VariableListener IMPLEMENTATION
+    // **************************************************************
+
+    public void variableChangedEvent(Variable variable, int index, Variable.ChangeType type) {
+        changed = true;
+    }
+
+    private final Likelihood likelihood;
+    private final boolean hasModel;
+    private final TimingHistogram histogram = new TimingHistogram();
+
+    private boolean changed = true;
+    private long hits = 0;
+    private long misses = 0;
+}
@@ -225,7 +225,7 @@ public class MultiDimensionalScalingLikelihood extends AbstractModelLikelihood i
             flags = computeMode;
         } else {
             System.err.println("Computer mode found: " + computeMode + " vs. " + r);
-            core = new MultiDimensionalScalingCoreImpl();
+            core = new MultiThreadedMDSImpl();
         }
         return core;
     }
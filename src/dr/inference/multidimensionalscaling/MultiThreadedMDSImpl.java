@@ -0,0 +1,545 @@
+/*
+ * MultiThreadedMDSImpl.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.multidimensionalscaling;
+
+import dr.math.distributions.NormalDistribution;
+import dr.util.ParallelBlocks;
+
+import static dr.inference.multidimensionalscaling.NativeMDSSingleton.THREADS;
+
+/**
+ * MultiThreadedMDSImpl - a pure Java core that supports both symmetric and (row x column) layouts,
+ * analytic gradients with respect to the locations and observations, and is multithreaded over
+ * blocks of rows.
+ * <p/>
+ * Rather than keeping a matrix of increments, when a single location changes the sum is updated by the
+ * difference between its row (or column) of increments at the new and previous location, so only that
+ * location needs to be stored and restored. Partial sums are accumulated in fixed size blocks and added
+ * in order, so the results do not depend on the number of threads.
+ * <p/>
+ * The number of threads is taken from the 'mds.threads' property (as for the native core).
+ *
+ * @author agent
+ */
+public class MultiThreadedMDSImpl implements MultiDimensionalScalingCore {
+
+    private static final int ROW_BLOCK_SIZE = 32;
+    private static final int LINE_BLOCK_SIZE = 1024;
+
+    private static final int NONE = -1;
+
+    private static final double LOG_SQRT_2_PI = 0.5 * Math.log(2 * Math.PI);
+
+    public MultiThreadedMDSImpl() {
+        this(getThreadCountProperty());
+    }
+
+    public MultiThreadedMDSImpl(int threadCount) {
+        this.threadCount = Math.max(threadCount, 1);
+    }
+
+    private static int getThreadCountProperty() {
+        String r = System.getProperty(THREADS);
+        if (r != null) {
+            try {
+                return Integer.parseInt(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + THREADS + "' environmental property");
+            }
+        }
+        return 1;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    @Override
+    public void initialize(int embeddingDimension, int locationCount, long flags) {
+        initialize(embeddingDimension, new MultiDimensionalScalingLayout(locationCount), flags);
+    }
+
+    @Override
+    public void initialize(int embeddingDimension, MultiDimensionalScalingLayout layout, long flags) {
+        this.embeddingDimension = embeddingDimension;
+        this.isSymmetric = layout.isSymmetric();
+        this.rowCount = layout.rowLocationCount;
+        this.columnCount = layout.columnLocationCount;
+        this.columnOffset = layout.columnLocationOffset;
+        this.locationCount = layout.uniqueLocationCount;
+
+        isLeftTruncated = (flags & MultiDimensionalScalingCore.LEFT_TRUNCATION) != 0;
+
+        if (isSymmetric) {
+            // each pair is only counted once and the diagonal is ignored
+            nonMissingObservationCount = (rowCount * (rowCount - 1)) / 2;
+        } else {
+            nonMissingObservationCount = layout.observationCount;
+        }
+
+        observations = new double[rowCount * columnCount];
+
+        locations = new double[locationCount * embeddingDimension];
+        storedLocations = new double[locationCount * embeddingDimension];
+        previousLocation = new double[embeddingDimension];
+
+        rowBlockCount = (rowCount + ROW_BLOCK_SIZE - 1) / ROW_BLOCK_SIZE;
+        rowBlockSums = new double[rowBlockCount];
+
+        int maxLineLength = Math.max(rowCount, columnCount);
+        lineBlockSums = new double[(maxLineLength + LINE_BLOCK_SIZE - 1) / LINE_BLOCK_SIZE];
+
+        makeDirty();
+    }
+
+    @Override
+    public void setNonMissingObservationCount(int count) {
+        this.nonMissingObservationCount = count;
+    }
+
+    @Override
+    public void setPairwiseData(double[] observations) {
+        if (observations.length != this.observations.length) {
+            throw new RuntimeException("Observation data is not the correct dimension");
+        }
+
+        System.arraycopy(observations, 0, this.observations, 0, observations.length);
+
+        if (isSymmetric) {
+            // if the matrix is symmetric (as it usually is) only the upper triangle need be read
+            isSymmetricData = true;
+            for (int i = 0; i < rowCount && isSymmetricData; ++i) {
+                for (int j = i + 1; j < columnCount; ++j) {
+                    double x = observations[i * columnCount + j];
+                    double y = observations[j * columnCount + i];
+                    if (Double.doubleToLongBits(x) != Double.doubleToLongBits(y)) {
+                        isSymmetricData = false;
+                        break;
+                    }
+                }
+            }
+        }
+
+        makeDirty();
+    }
+
+    @Override
+    public double[] getPairwiseData() {
+        double[] data = new double[observations.length];
+        System.arraycopy(observations, 0, data, 0, observations.length);
+        return data;
+    }
+
+    @Override
+    public int getInternalDimension() {
+        return embeddingDimension;
+    }
+
+    @Override
+    public void setParameters(double[] parameters) {
+        precision = parameters[0];
+
+        // Handle truncations
+        if (isLeftTruncated) {
+            makeDirty();
+        }
+    }
+
+    @Override
+    public void updateLocation(int locationIndex, double[] location) {
+        if (locationIndex != -1) {
+            if (location.length != embeddingDimension) {
+                throw new RuntimeException("Location is not the correct dimension");
+            }
+
+            if (!updateAll) {
+                if (pendingLocation == NONE) {
+                    // keep the location the current sum was computed with
+                    System.arraycopy(locations, locationIndex * embeddingDimension, previousLocation, 0, embeddingDimension);
+                    pendingLocation = locationIndex;
+                } else if (pendingLocation != locationIndex) {
+                    // more than one location updated - do a full re-computation
+                    updateAll = true;
+                }
+            }
+
+            System.arraycopy(location, 0, locations, locationIndex * embeddingDimension, embeddingDimension);
+
+        } else {
+            if (location.length != embeddingDimension * locationCount) {
+                throw new RuntimeException("Location is the not correct dimension");
+            }
+
+            System.arraycopy(location, 0, locations, 0, locations.length);
+            updateAll = true;
+        }
+
+        sumOfIncrementsKnown = false;
+    }
+
+    @Override
+    public double calculateLogLikelihood() {
+        if (!sumOfIncrementsKnown) {
+
+            if (updateAll || pendingLocation == NONE) {
+                computeSumOfIncrements();
+            } else {
+                updateSumOfIncrements(pendingLocation);
+            }
+            pendingLocation = NONE;
+            updateAll = false;
+            sumOfIncrementsKnown = true;
+        }
+
+        double logLikelihood = 0.5 * (Math.log(precision) - Math.log(2 * Math.PI)) * nonMissingObservationCount;
+
+        if (isLeftTruncated) {
+            logLikelihood -= sumOfIncrements; // If truncated, then values on difference scale
+        } else {
+            logLikelihood -= 0.5 * precision * sumOfIncrements;
+        }
+
+        return logLikelihood;
+    }
+
+    @Override
+    public void storeState() {
+        storedSumOfIncrements = sumOfIncrements;
+        storedSumOfIncrementsKnown = sumOfIncrementsKnown;
+
+        System.arraycopy(locations, 0, storedLocations, 0, locations.length);
+
+        storedPrecision = precision;
+    }
+
+    @Override
+    public void restoreState() {
+        sumOfIncrements = storedSumOfIncrements;
+        sumOfIncrementsKnown = storedSumOfIncrementsKnown;
+        pendingLocation = NONE;
+        updateAll = !sumOfIncrementsKnown;
+
+        double[] tmp = storedLocations;
+        storedLocations = locations;
+        locations = tmp;
+
+        precision = storedPrecision;
+    }
+
+    @Override
+    public void acceptState() {
+        // nothing to do
+    }
+
+    @Override
+    public void makeDirty() {
+        sumOfIncrementsKnown = false;
+        updateAll = true;
+    }
+
+    /**
+     * Gets the gradient of the log likelihood with respect to the locations (stored by location).
+     */
+    @Override
+    public void getGradient(double[] gradient) {
+        if (gradient.length != locations.length) {
+            throw new RuntimeException("Gradient is not the correct dimension");
+        }
+
+        final double sqrtPrecision = Math.sqrt(precision);
+
+        ParallelBlocks.forEachBlock(threadCount, rowBlockCount, block -> {
+            int end = Math.min((block + 1) * ROW_BLOCK_SIZE, rowCount);
+            for (int i = block * ROW_BLOCK_SIZE; i < end; ++i) {
+                computeRowGradient(i, gradient, sqrtPrecision);
+            }
+        });
+
+        if (!isSymmetric) {
+            int columnBlockCount = (columnCount + ROW_BLOCK_SIZE - 1) / ROW_BLOCK_SIZE;
+            ParallelBlocks.forEachBlock(threadCount, columnBlockCount, block ->
+                    computeColumnGradient(block * ROW_BLOCK_SIZE,
+                            Math.min((block + 1) * ROW_BLOCK_SIZE, columnCount), gradient, sqrtPrecision));
+        }
+    }
+
+    /**
+     * Gets the gradient of the log likelihood with respect to each observation
+     */
+    @Override
+    public void getObservationGradient(double[] gradient) {
+        if (gradient.length != observations.length) {
+            throw new RuntimeException("Gradient is not the correct dimension");
+        }
+
+        // in the symmetric layout each cell contributes half of its pair
+        final double scale = isSymmetric ? 0.5 * precision : precision;
+
+        ParallelBlocks.forEachBlock(threadCount, rowBlockCount, block -> {
+            int end = Math.min((block + 1) * ROW_BLOCK_SIZE, rowCount);
+            for (int i = block * ROW_BLOCK_SIZE; i < end; ++i) {
+                int rowLocation = i * embeddingDimension;
+                for (int j = 0; j < columnCount; ++j) {
+                    int cell = i * columnCount + j;
+                    double observation = observations[cell];
+                    if (Double.isNaN(observation) || (isSymmetric && i == j)) {
+                        gradient[cell] = 0.0;
+                    } else {
+                        double distance = calculateDistance(locations, rowLocation, (columnOffset + j) * embeddingDimension);
+                        gradient[cell] = scale * (distance - observation);
+                    }
+                }
+            }
+        });
+    }
+
+    private void computeSumOfIncrements() {
+
+        final double oneOverSd = Math.sqrt(precision);
+        final double scale = 0.5 * precision;
+
+        ParallelBlocks.forEachBlock(threadCount, rowBlockCount, block -> {
+            int end = Math.min((block + 1) * ROW_BLOCK_SIZE, rowCount);
+            double sum = 0.0;
+            for (int i = block * ROW_BLOCK_SIZE; i < end; ++i) {
+                // in the symmetric layout only the pairs (i, j > i) are visited
+                int start = isSymmetric ? i + 1 : 0;
+                sum += sumRow(i, locations, i * embeddingDimension, start, columnCount, scale, oneOverSd);
+            }
+            rowBlockSums[block] = sum;
+        });
+
+        sumOfIncrements = 0.0;
+        for (int block = 0; block < rowBlockCount; ++block) {
+            sumOfIncrements += rowBlockSums[block];
+        }
+    }
+
+    /**
+     * Updates the sum by the difference in the increments that depend on a single location.
+     */
+    private void updateSumOfIncrements(int location) {
+
+        final double oneOverSd = Math.sqrt(precision);
+        final double scale = 0.5 * precision;
+
+        final boolean isRow = isSymmetric || location < rowCount;
+        final int length = isRow ? columnCount : rowCount;
+        final int blockCount = (length + LINE_BLOCK_SIZE - 1) / LINE_BLOCK_SIZE;
+        final int offset = location * embeddingDimension;
+
+        ParallelBlocks.forEachBlock(threadCount, blockCount, block -> {
+            int start = block * LINE_BLOCK_SIZE;
+            int end = Math.min(start + LINE_BLOCK_SIZE, length);
+            double delta;
+            if (isRow) {
+                delta = sumRow(location, locations, offset, start, end, scale, oneOverSd) -
+                        sumRow(location, previousLocation, 0, start, end, scale, oneOverSd);
+            } else {
+                int column = location - columnOffset;
+                delta = sumColumn(column, locations, offset, start, end, scale, oneOverSd) -
+                        sumColumn(column, previousLocation, 0, start, end, scale, oneOverSd);
+            }
+            lineBlockSums[block] = delta;
+        });
+
+        for (int block = 0; block < blockCount; ++block) {
+            sumOfIncrements += lineBlockSums[block];
+        }
+    }
+
+    /**
+     * Sums the increments of the row i for the columns [start, end) with the row location given by
+     * x[offset...].
+     */
+    private double sumRow(int i, double[] x, int offset, int start, int end, double scale, double oneOverSd) {
+        double sum = 0.0;
+        for (int j = start; j < end; ++j) {
+            if (isSymmetric && i == j) {
+                continue;
+            }
+            double distance = calculateDistance(x, offset, (columnOffset + j) * embeddingDimension);
+            double increment = computeIncrement(observations[i * columnCount + j], distance, scale, oneOverSd);
+            if (isSymmetric && !isSymmetricData) {
+                // a pair contributes the mean of its two cells (i.e. half the sum over all cells)
+                increment = 0.5 * (increment +
+                        computeIncrement(observations[j * columnCount + i], distance, scale, oneOverSd));
+            }
+            sum += increment;
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the increments of the column j for the rows [start, end) with the column location given by
+     * x[offset...].
+     */
+    private double sumColumn(int j, double[] x, int offset, int start, int end, double scale, double oneOverSd) {
+        double sum = 0.0;
+        for (int i = start; i < end; ++i) {
+            double distance = calculateDistance(x, offset, i * embeddingDimension);
+            sum += computeIncrement(observations[i * columnCount + j], distance, scale, oneOverSd);
+        }
+        return sum;
+    }
+
+    private double computeIncrement(double observation, double distance, double scale, double oneOverSd) {
+        if (Double.isNaN(observation)) {
+            return 0.0;
+        }
+        double residual = distance - observation;
+        double increment = residual * residual;
+        if (isLeftTruncated) {
+            increment = scale * increment;
+            increment += computeTruncation(distance, oneOverSd);
+        }
+        return increment;
+    }
+
+    /**
+     * @return the derivative of the log likelihood of an observation with respect to the distance
+     */
+    private double computeDerivative(double observation, double distance, double sqrtPrecision) {
+        if (Double.isNaN(observation)) {
+            return 0.0;
+        }
+        double derivative = -precision * (distance - observation);
+        if (isLeftTruncated) {
+            double x = distance * sqrtPrecision;
+            double logPdf = -0.5 * x * x - LOG_SQRT_2_PI;
+            derivative -= sqrtPrecision * Math.exp(logPdf - NormalDistribution.standardCDF(x, true));
+        }
+        return derivative;
+    }
+
+    private void computeRowGradient(int i, double[] gradient, double sqrtPrecision) {
+        int rowLocation = i * embeddingDimension;
+        for (int k = 0; k < embeddingDimension; ++k) {
+            gradient[rowLocation + k] = 0.0;
+        }
+
+        for (int j = 0; j < columnCount; ++j) {
+            if (isSymmetric && i == j) {
+                continue;
+            }
+
+            int columnLocation = (columnOffset + j) * embeddingDimension;
+            double distance = calculateDistance(locations, rowLocation, columnLocation);
+            if (distance == 0.0) {
+                continue;
+            }
+
+            double derivative = computeDerivative(observations[i * columnCount + j], distance, sqrtPrecision);
+            if (isSymmetric && !isSymmetricData) {
+                derivative = 0.5 * (derivative +
+                        computeDerivative(observations[j * columnCount + i], distance, sqrtPrecision));
+            }
+
+            double weight = derivative / distance;
+            for (int k = 0; k < embeddingDimension; ++k) {
+                gradient[rowLocation + k] += weight * (locations[rowLocation + k] - locations[columnLocation + k]);
+            }
+        }
+    }
+
+    private void computeColumnGradient(int start, int end, double[] gradient, double sqrtPrecision) {
+        for (int j = start; j < end; ++j) {
+            int columnLocation = (columnOffset + j) * embeddingDimension;
+            for (int k = 0; k < embeddingDimension; ++k) {
+                gradient[columnLocation + k] = 0.0;
+            }
+        }
+
+        // rows outer so the observations are read a block of columns at a time
+        for (int i = 0; i < rowCount; ++i) {
+            int rowLocation = i * embeddingDimension;
+            for (int j = start; j < end; ++j) {
+                int columnLocation = (columnOffset + j) * embeddingDimension;
+                double distance = calculateDistance(locations, rowLocation, columnLocation);
+                if (distance == 0.0) {
+                    continue;
+                }
+
+                double weight = computeDerivative(observations[i * columnCount + j], distance, sqrtPrecision) / distance;
+                for (int k = 0; k < embeddingDimension; ++k) {
+                    gradient[columnLocation + k] += weight * (locations[columnLocation + k] - locations[rowLocation + k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the distance between x[offsetX...] and the location at locations[offsetY...]
+     */
+    private double calculateDistance(double[] x, int offsetX, int offsetY) {
+        double sum = 0.0;
+        for (int i = 0; i < embeddingDimension; i++) {
+            double difference = x[offsetX + i] - locations[offsetY + i];
+            sum += difference * difference;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private double computeTruncation(double mean, double oneOverSd) {
+        return NormalDistribution.standardCDF(mean * oneOverSd, true); // Should be standardCDF(mean / sd, true);
+    }
+
+    private final int threadCount;
+
+    private int embeddingDimension;
+    private boolean isLeftTruncated = false;
+    private boolean isSymmetric;
+    private boolean isSymmetricData = false;
+    private int rowCount;
+    private int columnCount;
+    private int columnOffset;
+    private int locationCount;
+    private int nonMissingObservationCount;
+
+    private double precision;
+    private double storedPrecision;
+
+    private double[] observations;
+    private double[] locations;
+    private double[] storedLocations;
+
+    // the location that has changed since the sum was computed, and where it was
+    private int pendingLocation = NONE;
+    private double[] previousLocation;
+    private boolean updateAll = true;
+
+    private boolean sumOfIncrementsKnown = false;
+    private boolean storedSumOfIncrementsKnown = false;
+
+    private int rowBlockCount;
+    private double[] rowBlockSums;
+    private double[] lineBlockSums;
+
+    private double sumOfIncrements;
+    private double storedSumOfIncrements;
+}
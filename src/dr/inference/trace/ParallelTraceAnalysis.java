@@ -0,0 +1,353 @@
+/*
+ * ParallelTraceAnalysis.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.inference.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Analyses the traces in one or more logs with the columns shared out between threads. Each
+ * column is analysed by a single task that only writes to its own trace so no locking is needed.
+ * The results are passed to a listener in column order as they become available so a report
+ * can be written while the remaining columns are still being analysed.
+ * <p/>
+ * With several logs of the same model (independent runs) each column is analysed in every run
+ * and the Gelman-Rubin potential scale reduction factor (R-hat) is reported along with it.
+ *
+ * @author agent
+ */
+public class ParallelTraceAnalysis {
+
+    // the number of columns analysed ahead of the one being reported, per thread
+    private static final int LOOK_AHEAD_PER_THREAD = 4;
+
+    public interface Listener {
+        void traceAnalysed(int index, TraceCorrelation statistics);
+    }
+
+    public interface RunsListener {
+        void traceAnalysed(RunStatistics statistics);
+    }
+
+    /**
+     * @param threadCount the number of threads (<= 0 for the number of processors)
+     */
+    public ParallelTraceAnalysis(int threadCount) {
+        if (threadCount <= 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        lookAhead = threadCount * LOOK_AHEAD_PER_THREAD;
+        if (threadCount > 1) {
+            pool = Executors.newFixedThreadPool(threadCount, runnable -> {
+                Thread thread = new Thread(runnable, "trace-analysis");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            pool = null;
+        }
+    }
+
+    /**
+     * Analyses all the traces in a trace list (with its burn-in already set).
+     *
+     * @param traces   the traces
+     * @param listener notified of each trace's statistics in order (may be null)
+     */
+    public void analyseTraces(final TraceList traces, final Listener listener) throws TraceException {
+        final int traceCount = traces.getTraceCount();
+        Deque<Future<TraceCorrelation>> pending = new ArrayDeque<Future<TraceCorrelation>>();
+        int next = 0;
+        for (int i = 0; i < traceCount; i++) {
+            while (next < traceCount && next < i + lookAhead) {
+                final int index = next;
+                pending.add(submit(() -> {
+                    traces.analyseTrace(index);
+                    return traces.getCorrelationStatistics(index);
+                }));
+                next++;
+            }
+            TraceCorrelation statistics = getResult(pending.poll());
+            if (listener != null) {
+                listener.traceAnalysed(i, statistics);
+            }
+        }
+    }
+
+    /**
+     * Loads a set of logs, one file per task.
+     *
+     * @param files  the log files
+     * @param burnin the number of states to discard from each (-1 for 10% of each log)
+     * @return the traces of each log with the burn-in set
+     */
+    public List<LogFileTraces> loadRuns(List<File> files, final long burnin) throws IOException, TraceException {
+        List<Future<LogFileTraces>> futures = new ArrayList<Future<LogFileTraces>>();
+        for (final File file : files) {
+            futures.add(submit(() -> {
+                LogFileTraces traces = new LogFileTraces(file.getName(), file);
+                traces.loadTraces();
+                traces.setBurnIn(burnin < 0 ? traces.getMaxState() / 10 : burnin);
+                return traces;
+            }));
+        }
+
+        List<LogFileTraces> runs = new ArrayList<LogFileTraces>();
+        for (Future<LogFileTraces> future : futures) {
+            try {
+                runs.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw unwrap(e);
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Analyses the traces of several runs of the same model. Only the traces that are present in
+     * every run are analysed, in the order they appear in the first run.
+     *
+     * @param runs     the traces of each run (with the burn-in already set)
+     * @param listener notified of each trace's statistics in order
+     */
+    public void analyseRuns(final List<? extends TraceList> runs, final RunsListener listener) throws TraceException {
+        if (runs.size() == 0) {
+            return;
+        }
+
+        // the index of each shared trace in each run
+        final List<int[]> indices = new ArrayList<int[]>();
+        final List<String> names = new ArrayList<String>();
+        TraceList first = runs.get(0);
+        for (int i = 0; i < first.getTraceCount(); i++) {
+            String name = first.getTraceName(i);
+            int[] index = new int[runs.size()];
+            boolean shared = true;
+            for (int j = 0; j < runs.size() && shared; j++) {
+                index[j] = runs.get(j).getTraceIndex(name);
+                shared = index[j] >= 0;
+            }
+            if (shared) {
+                indices.add(index);
+                names.add(name);
+            }
+        }
+
+        final int traceCount = names.size();
+        Deque<Future<RunStatistics>> pending = new ArrayDeque<Future<RunStatistics>>();
+        int next = 0;
+        for (int i = 0; i < traceCount; i++) {
+            while (next < traceCount && next < i + lookAhead) {
+                final int k = next;
+                pending.add(submit(() -> {
+                    int[] index = indices.get(k);
+                    TraceCorrelation[] statistics = new TraceCorrelation[runs.size()];
+                    for (int j = 0; j < statistics.length; j++) {
+                        runs.get(j).analyseTrace(index[j]);
+                        statistics[j] = runs.get(j).getCorrelationStatistics(index[j]);
+                    }
+                    return new RunStatistics(names.get(k), statistics);
+                }));
+                next++;
+            }
+            listener.traceAnalysed(getResult(pending.poll()));
+        }
+    }
+
+    /**
+     * Stops the threads. The analysis can't be used after this.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private <T> Future<T> submit(Callable<T> callable) {
+        FutureTask<T> task = new FutureTask<T>(callable);
+        if (pool != null) {
+            pool.execute(task);
+        } else {
+            task.run();
+        }
+        return task;
+    }
+
+    private static <T> T getResult(Future<T> future) throws TraceException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TraceException(e.getMessage());
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static TraceException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof TraceException) {
+            return (TraceException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new TraceException(cause.getMessage());
+    }
+
+    /**
+     * The statistics of one trace in each of several runs.
+     */
+    public static class RunStatistics {
+
+        RunStatistics(String name, TraceCorrelation[] statistics) {
+            this.name = name;
+            this.statistics = statistics;
+
+            double sum = 0.0;
+            int count = 0;
+            double ess = 0.0;
+            for (TraceCorrelation run : statistics) {
+                sum += run.getMean() * run.getSize();
+                count += run.getSize();
+                ess += run.getESS();
+            }
+            mean = sum / count;
+            this.ess = ess;
+            rHat = ParallelTraceAnalysis.getRHat(statistics);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getRunCount() {
+            return statistics.length;
+        }
+
+        public TraceCorrelation getStatistics(int run) {
+            return statistics[run];
+        }
+
+        /**
+         * @return the mean of all the samples from all the runs
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return the sum of the ESS of each run
+         */
+        public double getESS() {
+            return ess;
+        }
+
+        /**
+         * @return the potential scale reduction factor, or NaN if this is not a numeric trace that
+         * varies, or there are fewer than two runs
+         */
+        public double getRHat() {
+            return rHat;
+        }
+
+        private final String name;
+        private final TraceCorrelation[] statistics;
+        private final double mean;
+        private final double ess;
+        private final double rHat;
+    }
+
+    /**
+     * Computes Gelman & Rubin's (1992) potential scale reduction factor from the mean and variance
+     * of each run. If the runs are of different lengths then the shortest is used for the length.
+     *
+     * @param statistics the statistics of the trace in each run
+     * @return R-hat, or NaN if it is undefined
+     */
+    static double getRHat(TraceCorrelation[] statistics) {
+        final int m = statistics.length;
+        if (m < 2) {
+            return Double.NaN;
+        }
+
+        int n = Integer.MAX_VALUE;
+        double meanOfMeans = 0.0;
+        for (TraceCorrelation run : statistics) {
+            if (!run.getTraceType().isNumber()) {
+                return Double.NaN;
+            }
+            n = Math.min(n, run.getSize());
+            meanOfMeans += run.getMean();
+        }
+        meanOfMeans /= m;
+        if (n < 2) {
+            return Double.NaN;
+        }
+
+        // the between run variance of the means (B / n) and the mean within run variance (W)
+        double between = 0.0;
+        double within = 0.0;
+        for (TraceCorrelation run : statistics) {
+            double d = run.getMean() - meanOfMeans;
+            between += d * d;
+            within += run.getVariance();
+        }
+        between /= (m - 1);
+        within /= m;
+
+        if (within <= 0.0) {
+            return Double.NaN;
+        }
+
+        double pooledVariance = ((double) (n - 1) / n) * within + between;
+        return Math.sqrt(pooledVariance / within);
+    }
+
+    private final ExecutorService pool;
+    private final int lookAhead;
+}
@@ -48,7 +48,7 @@ public class Trace {
     private static final int MAX_UNIQUE_VALUES = 100; // the maximum allowed number of unique values
 
     private TraceType traceType = TraceType.REAL;
-    private List<Double> values = new ArrayList<Double>();
+    private final TraceStorage values = TraceStorage.create();
     private String name;
 
     private boolean isConstant = true;
@@ -74,9 +74,16 @@ public class Trace {
      * @param value the valued to be added
      */
     public void add(Double value) {
+        add(value.doubleValue());
+    }
+
+    /**
+     * @param value the valued to be added
+     */
+    public void add(double value) {
         if (uniqueValues.size() < MAX_UNIQUE_VALUES) {
             // unique values are treated as integers
-            uniqueValues.add(value.intValue());
+            uniqueValues.add((int) value);
         }
 
         // check if the trace is still constant
@@ -215,7 +222,7 @@ public class Trace {
     }
 
     public int getCategory(int index) {
-        return values.get(index).intValue();
+        return (int) values.get(index);
     }
 
     public String getCategoryLabel(int index) {
@@ -232,9 +239,10 @@ public class Trace {
 
         if (getTraceType().isNumber()) {
 
-            Double min = Double.MAX_VALUE;
-            Double max = Double.MIN_VALUE;
-            for (Double value : values) {
+            double min = Double.MAX_VALUE;
+            double max = Double.MIN_VALUE;
+            for (int i = 0; i < values.size(); i++) {
+                final double value = values.get(i);
                 if ( value < min) {
                     min = value;
                 } else if (value > max) {
@@ -257,10 +265,7 @@ public class Trace {
     }
 
     public List<Double> getValues(int fromIndex, int toIndex, boolean[] filtered) {
-        if (toIndex > getValueCount() || fromIndex > toIndex) {
-            throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
-                    + "; List size = " + getValueCount() + "; in Trace " + name);
-        }
+        checkRange(fromIndex, toIndex);
 
         if (filtered == null || filtered.length < 1) {
             return values.subList(fromIndex, toIndex);
@@ -277,6 +282,46 @@ public class Trace {
         }
     }
 
+    /**
+     * Copies the values into a primitive array without boxing them.
+     *
+     * @param fromIndex low endpoint (inclusive) of the range.
+     * @param toIndex   high endpoint (exclusive) of the range.
+     * @param filtered  the values to exclude (if not null)
+     * @return the values (which are selected values if filter applied)
+     */
+    public double[] getValuesArray(int fromIndex, int toIndex, boolean[] filtered) {
+        checkRange(fromIndex, toIndex);
+
+        if (filtered == null || filtered.length < 1) {
+            double[] valuesArray = new double[toIndex - fromIndex];
+            values.copyTo(fromIndex, toIndex, valuesArray, 0);
+            return valuesArray;
+        } else {
+            int count = 0;
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (!filtered[i]) count++;
+            }
+            if (count < 1)
+                throw new RuntimeException("There is no value left after all filters are applied !");
+
+            double[] valuesArray = new double[count];
+            int k = 0;
+            for (int i = fromIndex; i < toIndex; i++) {
+                if (!filtered[i])
+                    valuesArray[k++] = values.get(i);
+            }
+            return valuesArray;
+        }
+    }
+
+    private void checkRange(int fromIndex, int toIndex) {
+        if (toIndex > getValueCount() || fromIndex > toIndex) {
+            throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
+                    + "; List size = " + getValueCount() + "; in Trace " + name);
+        }
+    }
+
     public String getName() {
         return name;
     }
@@ -45,15 +45,27 @@ public class TraceAnalysis {
      * @throws TraceException      if trace file in wrong format or corrupted
      */
     public static LogFileTraces analyzeLogFile(String fileName, long burnin) throws java.io.IOException, TraceException {
+        return analyzeLogFile(fileName, burnin, 1);
+    }
+
+    /**
+     * @param fileName    the name of the log file to analyze
+     * @param burnin      the state to discard up to
+     * @param threadCount the number of threads to analyse the statistics with (<= 0 for the number of processors)
+     * @return an array og analyses of the statistics in a log file.
+     * @throws java.io.IOException if general error reading file
+     * @throws TraceException      if trace file in wrong format or corrupted
+     */
+    public static LogFileTraces analyzeLogFile(String fileName, long burnin, int threadCount) throws java.io.IOException, TraceException {
 
         File file = new File(fileName);
         LogFileTraces traces = new LogFileTraces(fileName, file);
         traces.loadTraces();
         traces.setBurnIn(burnin);
 
-        for (int i = 0; i < traces.getTraceCount(); i++) {
-            traces.analyseTrace(i);
-        }
+        ParallelTraceAnalysis analysis = new ParallelTraceAnalysis(threadCount);
+        analysis.analyseTraces(traces, null);
+        analysis.shutdown();
         return traces;
     }
 
@@ -67,6 +79,11 @@ public class TraceAnalysis {
 
     public static TraceList report(String fileName, int inBurnin, String likelihoodName, boolean withStdError)
             throws java.io.IOException, TraceException {
+        return report(fileName, inBurnin, likelihoodName, withStdError, 1);
+    }
+
+    public static TraceList report(String fileName, int inBurnin, String likelihoodName, final boolean withStdError,
+                                   int threadCount) throws java.io.IOException, TraceException {
 
 //        int fieldWidth = 14;
 //        int firstField = 25;
@@ -108,11 +125,9 @@ public class TraceAnalysis {
         }
         System.out.println();
 
-        int warning = 0;
-        for (int i = 0; i < traces.getTraceCount(); i++) {
-            traces.analyseTrace(i);
-            TraceCorrelation distribution = traces.getCorrelationStatistics(i);
-
+        final int[] warning = {0};
+        ParallelTraceAnalysis traceAnalysis = new ParallelTraceAnalysis(threadCount);
+        traceAnalysis.analyseTraces(traces, (i, distribution) -> {
             double ess = distribution.getESS();
             System.out.print(traces.getTraceName(i));
             System.out.print("\t" + formattedNumber(distribution.getMean()));
@@ -133,15 +148,16 @@ public class TraceAnalysis {
             }
 
             if (ess < 100) {
-                warning += 1;
+                warning[0] += 1;
                 System.out.println("\t" + "*");
             } else {
                 System.out.println("\t");
             }
-        }
+        });
+        traceAnalysis.shutdown();
         System.out.println();
 
-        if (warning > 0) {
+        if (warning[0] > 0) {
             System.out.println(" * WARNING: The results of this MCMC analysis may be invalid as ");
             System.out.println("            one or more statistics had very low effective sample sizes (ESS)");
         }
@@ -242,8 +258,15 @@ public class TraceAnalysis {
                                         final int burnin, boolean drawHeader,
                                         boolean hpds, boolean individualESSs, boolean stdErr,
                                         String likelihoodName) throws java.io.IOException, TraceException {
+        return shortReport(filename, burnin, drawHeader, hpds, individualESSs, stdErr, likelihoodName, 1);
+    }
 
-        TraceList traces = analyzeLogFile(filename, burnin);
+    public static TraceList shortReport(String filename,
+                                        final int burnin, boolean drawHeader,
+                                        boolean hpds, boolean individualESSs, boolean stdErr,
+                                        String likelihoodName, int threadCount) throws java.io.IOException, TraceException {
+
+        TraceList traces = analyzeLogFile(filename, burnin, threadCount);
 
         long maxState = traces.getMaxState();
 
@@ -324,6 +347,62 @@ public class TraceAnalysis {
         return traces;
     }
 
+    /**
+     * Reports the statistics of several independent runs of the same model, giving the mean and
+     * ESS of the runs combined and the Gelman-Rubin potential scale reduction factor (R-hat) for
+     * each statistic. The rows are written as the statistics are analysed.
+     *
+     * @param files       the log file of each run
+     * @param burnin      the number of states to discard from each run or if -1 then use 10%
+     * @param threadCount the number of threads (<= 0 for the number of processors)
+     * @return the traces of each run
+     * @throws java.io.IOException if general error reading file
+     * @throws TraceException      if trace file in wrong format or corrupted
+     */
+    public static List<LogFileTraces> reportRuns(List<File> files, long burnin, int threadCount)
+            throws java.io.IOException, TraceException {
+
+        ParallelTraceAnalysis analysis = new ParallelTraceAnalysis(threadCount);
+        List<LogFileTraces> runs = analysis.loadRuns(files, burnin);
+
+        System.out.println("runs     = " + runs.size());
+        for (LogFileTraces run : runs) {
+            System.out.println(run.getName() + ": burnIn   <= " + run.getBurnIn() + ",   maxState  = " + run.getMaxState());
+        }
+        System.out.println();
+
+        System.out.println("statistic\tmean\tESS\tR-hat");
+
+        final int[] warning = {0};
+        analysis.analyseRuns(runs, statistics -> {
+            System.out.print(statistics.getName());
+            System.out.print("\t" + formattedNumber(statistics.getMean()));
+            System.out.print("\t" + formattedNumber(statistics.getESS()));
+            double rHat = statistics.getRHat();
+            System.out.print("\t" + (Double.isNaN(rHat) ? "-" : formattedNumber(rHat, 4)));
+
+            if (rHat > MAX_R_HAT) {
+                warning[0] += 1;
+                System.out.println("\t" + "*");
+            } else {
+                System.out.println("\t");
+            }
+        });
+        analysis.shutdown();
+        System.out.println();
+
+        if (warning[0] > 0) {
+            System.out.println(" * WARNING: The runs may not have converged to the same distribution as");
+            System.out.println("            one or more statistics had a potential scale reduction factor (R-hat) above " + MAX_R_HAT);
+        }
+
+        System.out.flush();
+        return runs;
+    }
+
+    // the R-hat above which the runs are considered not to have converged (Gelman et al. 2004)
+    private static final double MAX_R_HAT = 1.1;
+
     public static String formattedNumber(double value) {
         DecimalFormat formatter = new DecimalFormat("0.####E0");
         DecimalFormat formatter2 = new DecimalFormat("####0.####");
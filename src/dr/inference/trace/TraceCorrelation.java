@@ -27,6 +27,9 @@
 
 package dr.inference.trace;
 
+import dr.math.ComplexArray;
+import dr.math.FastFourierTransform;
+
 import java.util.List;
 import java.util.Map;
 
@@ -46,6 +49,10 @@ public class TraceCorrelation extends TraceDistribution {
     }
 
     public TraceCorrelation(List<Double> values, TraceType traceType, long stepSize, boolean isConstant) {
+        this(Trace.toArray(values), traceType, stepSize, isConstant);
+    }
+
+    public TraceCorrelation(double[] values, TraceType traceType, long stepSize, boolean isConstant) {
         super(values, traceType, isConstant);
         this.stepSize = stepSize;
 
@@ -55,6 +62,10 @@ public class TraceCorrelation extends TraceDistribution {
     }
 
     public TraceCorrelation(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, long stepSize, boolean isConstant) {
+        this(Trace.toArray(values), categoryLabelMap, categoryOrder, stepSize, isConstant);
+    }
+
+    public TraceCorrelation(double[] values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, long stepSize, boolean isConstant) {
         super(values, categoryLabelMap, categoryOrder, isConstant);
 
         this.stepSize = stepSize;
@@ -88,17 +99,16 @@ public class TraceCorrelation extends TraceDistribution {
 
     private static final int MAX_LAG = 2000;
 
-    private void analyseCorrelation(List<Double> values, long stepSize) {
+    // the approximate number of multiply-adds per element per log2(length) for the pair of FFTs
+    private static final int FFT_COST = 10;
+
+    private void analyseCorrelation(double[] values, long stepSize) {
 //        this.values = values; // move to TraceDistribution(T[] values)
 
         if (stepSize > 0) {
             if (getTraceType().isNumber()) {
                 if (!isConstant()) {
-                    double[] doubleValues = new double[values.size()];
-                    for (int i = 0; i < values.size(); i++) {
-                        doubleValues[i] = values.get(i);
-                    }
-                    analyseCorrelationNumeric(doubleValues, stepSize);
+                    analyseCorrelationNumeric(values, stepSize);
                 } else {
                     stdErrorOfMean = 0.0;
                     ACT = Double.NaN;
@@ -131,6 +141,10 @@ public class TraceCorrelation extends TraceDistribution {
         int maxLag = Math.min(samples - 1, MAX_LAG);
 
         double[] gammaStat = new double[maxLag];
+        double[] fftGammaStat = null;
+        // the cost of the direct sums so far and of doing all the lags by FFT instead
+        long directCost = 0;
+        final long fftCost = getFFTCost(samples + maxLag);
         //double[] varGammaStat = new double[maxLag];
         double varStat = 0.0;
         //double varVarStat = 0.0;
@@ -138,14 +152,24 @@ public class TraceCorrelation extends TraceDistribution {
         //double del1, del2;
 
         for (int lag = 0; lag < maxLag; lag++) {
-            for (int j = 0; j < samples - lag; j++) {
-                final double del1 = values[j] - mean;
-                final double del2 = values[j + lag] - mean;
-                gammaStat[lag] += (del1 * del2);
-                //varGammaStat[lag] += (del1*del1*del2*del2);
+            if (fftGammaStat == null && directCost > fftCost) {
+                // slowly mixing so it is quicker to get the rest of the lags by FFT
+                fftGammaStat = getAutoCovariances(values, mean, maxLag);
             }
 
-            gammaStat[lag] /= ((double) (samples - lag));
+            if (fftGammaStat != null) {
+                gammaStat[lag] = fftGammaStat[lag];
+            } else {
+                for (int j = 0; j < samples - lag; j++) {
+                    final double del1 = values[j] - mean;
+                    final double del2 = values[j + lag] - mean;
+                    gammaStat[lag] += (del1 * del2);
+                    //varGammaStat[lag] += (del1*del1*del2*del2);
+                }
+
+                gammaStat[lag] /= ((double) (samples - lag));
+                directCost += samples - lag;
+            }
             //varGammaStat[lag] /= ((double) samples-lag);
             //varGammaStat[lag] -= (gammaStat[0] * gammaStat[0]);
 
@@ -190,4 +214,51 @@ public class TraceCorrelation extends TraceDistribution {
 //        minEqualToMax = true;
     }
 
-}
\ No newline at end of file
+    /**
+     * Computes the autocovariances of the values for lags 0 to maxLag - 1 using the FFT of the
+     * centred values, zero padded so the lags don't wrap around. Each is divided by the number of
+     * pairs of values at that lag, as the direct sum in analyseCorrelationNumeric is.
+     *
+     * @param values the values
+     * @param mean   the mean of the values
+     * @param maxLag the number of lags
+     * @return the autocovariances
+     */
+    static double[] getAutoCovariances(double[] values, double mean, int maxLag) {
+        final int samples = values.length;
+        final int length = getFFTLength(samples + maxLag);
+
+        double[] real = new double[length];
+        for (int i = 0; i < samples; i++) {
+            real[i] = values[i] - mean;
+        }
+        ComplexArray ca = new ComplexArray(real);
+        FastFourierTransform.fft(ca, false);
+
+        // the power spectrum transforms back to the circular autocovariance
+        for (int i = 0; i < length; i++) {
+            ca.real[i] = ca.real[i] * ca.real[i] + ca.complex[i] * ca.complex[i];
+            ca.complex[i] = 0.0;
+        }
+        FastFourierTransform.fft(ca, true);
+
+        double[] gammaStat = new double[maxLag];
+        for (int lag = 0; lag < maxLag; lag++) {
+            gammaStat[lag] = ca.real[lag] / length / (samples - lag);
+        }
+        return gammaStat;
+    }
+
+    private static int getFFTLength(int minLength) {
+        int length = 1;
+        while (length < minLength) {
+            length <<= 1;
+        }
+        return length;
+    }
+
+    private static long getFFTCost(int minLength) {
+        int length = getFFTLength(minLength);
+        return (long) FFT_COST * length * Integer.numberOfTrailingZeros(length);
+    }
+}
@@ -55,6 +55,10 @@ public class TraceDistribution {
     }
 
     public TraceDistribution(List<Double> values, TraceType traceType, boolean isConstant) {
+        this(Trace.toArray(values), traceType, isConstant);
+    }
+
+    public TraceDistribution(double[] values, TraceType traceType, boolean isConstant) {
         this.traceType = traceType;
         this.isConstant = isConstant;
 
@@ -64,6 +68,10 @@ public class TraceDistribution {
     }
 
     public TraceDistribution(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
+        this(Trace.toArray(values), categoryLabelMap, categoryOrder, isConstant);
+    }
+
+    public TraceDistribution(double[] values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, boolean isConstant) {
         this.traceType = TraceType.CATEGORICAL;
         this.categoryLabelMap = categoryLabelMap;
         this.categoryOrder = categoryOrder;
@@ -71,8 +79,8 @@ public class TraceDistribution {
         initStatistics(values, 0.95);
     }
 
-    private void initStatistics(List<Double> values, double proportion) {
-        if (values.size() < 1) throw new RuntimeException("There is no value sent to statistics calculation !");
+    private void initStatistics(double[] values, double proportion) {
+        if (values.length < 1) throw new RuntimeException("There is no value sent to statistics calculation !");
 
         if (traceType.isNumber()) {
             analyseDistributionNumeric(values, proportion);
@@ -174,14 +182,9 @@ public class TraceDistribution {
 
     /**
      * The major method to analyse traces in numeric values including Double, Integer
-     * @param valueList the values to analyze
+     * @param values the values to analyze
      */
-    private void analyseDistributionNumeric(List<Double> valueList, double proportion) {
-        double[] values = new double[valueList.size()];
-        for (int i = 0; i < valueList.size(); i++) {
-            values[i] = valueList.get(i);
-        }
-
+    private void analyseDistributionNumeric(double[] values, double proportion) {
         size = values.length;
 
         if (!isConstant) {
@@ -264,10 +267,10 @@ public class TraceDistribution {
 
 
     // init FrequencyCounter used for Integer and String
-    private void analyseDistributionDiscrete(List<Double> valueList, double proportion) {
-        List<Integer> integerValues = new ArrayList<Integer>();
-        for (Double value : valueList) {
-            integerValues.add(value.intValue());
+    private void analyseDistributionDiscrete(double[] values, double proportion) {
+        List<Integer> integerValues = new ArrayList<Integer>(values.length);
+        for (double value : values) {
+            integerValues.add((int) value);
         }
 
         if (size == 0) {
@@ -0,0 +1,224 @@
+/*
+ * TraceStorage.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Primitive, append-only storage for the values of a single trace.
+ * <p/>
+ * The default storage is a growable double array on the heap. Setting the system property
+ * 'trace.storage' to 'mapped' keeps the values in chunks of a memory-mapped temporary file
+ * instead so very large logs can be loaded without holding every column on the heap.
+ *
+ * @author agent
+ */
+public abstract class TraceStorage {
+
+    public static final String TRACE_STORAGE_PROPERTY = "trace.storage";
+
+    public enum Type {
+        HEAP,
+        MAPPED
+    }
+
+    public static TraceStorage create() {
+        String type = System.getProperty(TRACE_STORAGE_PROPERTY);
+        if (type != null && type.equalsIgnoreCase(Type.MAPPED.name())) {
+            return new Mapped();
+        }
+        return new Heap();
+    }
+
+    public abstract void add(double value);
+
+    public abstract double get(int index);
+
+    public abstract int size();
+
+    /**
+     * Copies a range of values into a primitive array.
+     *
+     * @param fromIndex   low endpoint (inclusive)
+     * @param toIndex     high endpoint (exclusive)
+     * @param destination the array to copy into
+     * @param offset      the position in the destination of the first value
+     */
+    public void copyTo(int fromIndex, int toIndex, double[] destination, int offset) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            destination[offset + i - fromIndex] = get(i);
+        }
+    }
+
+    /**
+     * @return a read-only list view of a range of the values. Values are boxed on access only.
+     */
+    public List<Double> subList(final int fromIndex, final int toIndex) {
+        return new ListView(fromIndex, toIndex);
+    }
+
+    private class ListView extends AbstractList<Double> implements RandomAccess {
+        ListView(int fromIndex, int toIndex) {
+            this.fromIndex = fromIndex;
+            this.size = toIndex - fromIndex;
+        }
+
+        @Override
+        public Double get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return TraceStorage.this.get(fromIndex + index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private final int fromIndex;
+        private final int size;
+    }
+
+    /**
+     * A growable array on the heap.
+     */
+    static class Heap extends TraceStorage {
+
+        @Override
+        public void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(INITIAL_CAPACITY, values.length + (values.length >> 1)));
+            }
+            values[size] = value;
+            size++;
+        }
+
+        @Override
+        public double get(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void copyTo(int fromIndex, int toIndex, double[] destination, int offset) {
+            System.arraycopy(values, fromIndex, destination, offset, toIndex - fromIndex);
+        }
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private double[] values = new double[0];
+        private int size = 0;
+    }
+
+    /**
+     * Fixed size chunks of a memory-mapped temporary file. The file is only created when the
+     * first value is added and is deleted when the JVM exits.
+     */
+    static class Mapped extends TraceStorage {
+
+        @Override
+        public void add(double value) {
+            int chunk = size >> CHUNK_SHIFT;
+            if (chunk == chunks.size()) {
+                chunks.add(mapChunk(chunk));
+            }
+            chunks.get(chunk).put(size & CHUNK_MASK, value);
+            size++;
+        }
+
+        @Override
+        public double get(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return chunks.get(index >> CHUNK_SHIFT).get(index & CHUNK_MASK);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void copyTo(int fromIndex, int toIndex, double[] destination, int offset) {
+            int i = fromIndex;
+            while (i < toIndex) {
+                int position = i & CHUNK_MASK;
+                int length = Math.min(CHUNK_SIZE - position, toIndex - i);
+                DoubleBuffer chunk = chunks.get(i >> CHUNK_SHIFT).duplicate();
+                chunk.position(position);
+                chunk.get(destination, offset + i - fromIndex, length);
+                i += length;
+            }
+        }
+
+        private DoubleBuffer mapChunk(int chunk) {
+            try {
+                if (file == null) {
+                    file = File.createTempFile("trace", ".dat");
+                    file.deleteOnExit();
+                }
+                // the mapping remains valid after the file is closed
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                try {
+                    return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                            (long) chunk * CHUNK_SIZE * Double.BYTES, (long) CHUNK_SIZE * Double.BYTES).asDoubleBuffer();
+                } finally {
+                    randomAccessFile.close();
+                }
+            } catch (IOException ioe) {
+                throw new RuntimeException("Unable to map trace storage: " + ioe.getMessage());
+            }
+        }
+
+        private static final int CHUNK_SHIFT = 16;
+        private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        private final List<DoubleBuffer> chunks = new ArrayList<DoubleBuffer>();
+        private File file = null;
+        private int size = 0;
+    }
+}
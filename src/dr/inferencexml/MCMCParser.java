@@ -29,6 +29,7 @@ package dr.inferencexml;
 
 import dr.inference.loggers.Logger;
 import dr.inference.markovchain.MarkovChain;
+import dr.inference.markovchain.MarkovChainProfile;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmc.MCMCOptions;
 import dr.inference.model.CompoundLikelihood;
@@ -40,6 +41,7 @@ import dr.inference.smc.SMC;
 import dr.inference.smc.SMCOptions;
 import dr.inference.state.Factory;
 import dr.inference.state.StateLoaderSaver;
+import dr.inferencexml.loggers.MarkovChainProfileParser;
 import dr.xml.*;
 
 import java.io.File;
@@ -176,6 +178,26 @@ public class MCMCParser extends AbstractXMLObjectParser {
 
 
         MarkovChain mc = mcmc.getMarkovChain();
+
+        MarkovChainProfile profile = (MarkovChainProfile) xo.getChild(MarkovChainProfile.class);
+        File profileReportFile = null;
+        if (xo.hasAttribute(PROFILE_REPORT)) {
+            profileReportFile = XMLParser.getLogFile(xo, PROFILE_REPORT);
+        } else if (System.getProperty("mcmc.profile_report") != null) {
+            profileReportFile = new File(System.getProperty("mcmc.profile_report"));
+        }
+        if (profile == null && profileReportFile != null) {
+            profile = new MarkovChainProfile(opsched, likelihood);
+        }
+        if (profile != null) {
+            if (profile.getSchedule() != opsched) {
+                throw new XMLParseException("The " + MarkovChainProfileParser.MARKOV_CHAIN_PROFILE +
+                        " element must use the same operator schedule as the " + MCMC + " element");
+            }
+            mc.setProfile(profile);
+            mcmc.setProfileReportFile(profileReportFile);
+        }
+
         double initialScore = mc.getCurrentScore();
 
         if (initialScore == Double.NEGATIVE_INFINITY) {
@@ -294,8 +316,10 @@ public class MCMCParser extends AbstractXMLObjectParser {
             AttributeRule.newBooleanRule(SPAWN, true),
             AttributeRule.newStringRule(NAME, true),
             AttributeRule.newStringRule(OPERATOR_ANALYSIS, true),
+            AttributeRule.newStringRule(PROFILE_REPORT, true),
             new ElementRule(OperatorSchedule.class),
             new ElementRule(Likelihood.class),
+            new ElementRule(MarkovChainProfile.class, true),
             new ElementRule(Logger.class, 1, Integer.MAX_VALUE),
     };
 
@@ -315,6 +339,7 @@ public class MCMCParser extends AbstractXMLObjectParser {
     public static final String TEMPERATURE = "temperature";
     public static final String SPAWN = "spawn";
     public static final String OPERATOR_ANALYSIS = "operatorAnalysis";
+    public static final String PROFILE_REPORT = "profileReport";
 
     public static final long DEFAULT_FULL_EVALUATION_COUNT = 1000;
 
@@ -36,9 +36,9 @@ import dr.util.Identifiable;
 import dr.util.Property;
 import dr.xml.*;
 
-import java.io.File;
-import java.io.PrintWriter;
+import java.io.*;
 import java.util.Date;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author Alexei Drummond
@@ -58,6 +58,10 @@ public class LoggerParser extends AbstractXMLObjectParser {
     public static final String PRETTY = "pretty";
     public static final String LOG_EVERY = "logEvery";
     public static final String ALLOW_OVERWRITE_LOG = "overwrite";
+    public static final String ASYNC = "async";
+    public static final String COMPRESS = "compress";
+
+    public static final String ASYNC_LOG_PROPERTY = "log.async";
 
     public static final String COLUMNS = "columns";
     public static final String COLUMN = "column";
@@ -78,9 +82,7 @@ public class LoggerParser extends AbstractXMLObjectParser {
         // You must say how often you want to log
         final int logEvery = xo.getIntegerAttribute(LOG_EVERY);
 
-        final PrintWriter pw = getLogFile(xo, getParserName());
-
-        final LogFormatter formatter = new TabDelimitedFormatter(pw);
+        final LogFormatter formatter = getLogFormatter(xo, getParserName());
 
         boolean performanceReport = false;
 
@@ -148,6 +150,38 @@ public class LoggerParser extends AbstractXMLObjectParser {
         return XMLParser.getFilePrintWriter(xo, parserName);
     }
 
+    /**
+     * Creates a tab delimited formatter for a log element. A file log can be gzip compressed and
+     * can be written on a background thread (if the async attribute or the 'log.async' system
+     * property is set). Logs to the screen are always written directly.
+     */
+    public static LogFormatter getLogFormatter(XMLObject xo, String parserName) throws XMLParseException {
+        if (!xo.hasAttribute(FILE_NAME)) {
+            return new TabDelimitedFormatter(getLogFile(xo, parserName));
+        }
+
+        final TabDelimitedFormatter formatter;
+        if (xo.getAttribute(COMPRESS, false)) {
+            final File logFile = XMLParser.getLogFile(xo, FILE_NAME);
+            try {
+                PrintWriter pw = new PrintWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(logFile))));
+                // the file is closed at the end so the compressed stream is completed
+                formatter = new TabDelimitedFormatter(pw, true, true);
+            } catch (IOException ioe) {
+                throw new XMLParseException("File '" + logFile.getAbsolutePath() +
+                        "' can not be opened for " + parserName + " element.");
+            }
+        } else {
+            formatter = new TabDelimitedFormatter(getLogFile(xo, parserName));
+        }
+
+        final boolean async = xo.getAttribute(ASYNC, Boolean.parseBoolean(System.getProperty(ASYNC_LOG_PROPERTY, "false")));
+        if (async) {
+            return new AsyncLogFormatter(formatter);
+        }
+        return formatter;
+    }
+
     //************************************************************************
     // AbstractXMLObjectParser implementation
     //************************************************************************
@@ -159,6 +193,8 @@ public class LoggerParser extends AbstractXMLObjectParser {
     private final XMLSyntaxRule[] rules = {
             AttributeRule.newIntegerRule(LOG_EVERY),
             AttributeRule.newBooleanRule(ALLOW_OVERWRITE_LOG, true),
+            AttributeRule.newBooleanRule(ASYNC, true, "Format and write the log file on a background thread"),
+            AttributeRule.newBooleanRule(COMPRESS, true, "Compress the log file using gzip"),
             new StringAttributeRule(FILE_NAME,
                     "The name of the file to send log output to. " +
                             "If no file name is specified then log is sent to standard output", true),
@@ -0,0 +1,78 @@
+/*
+ * MarkovChainProfileParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.loggers;
+
+import dr.inference.markovchain.MarkovChainProfile;
+import dr.inference.model.Likelihood;
+import dr.inference.operators.OperatorSchedule;
+import dr.xml.*;
+
+/**
+ * Creates a profile of the time spent in each phase of each operator's moves and in each
+ * likelihood. This should be given (or referenced) as a child of the mcmc element which uses
+ * the same operators and likelihood, and can be added to a log to record the mean times.
+ *
+ * @author agent
+ */
+public class MarkovChainProfileParser extends AbstractXMLObjectParser {
+
+    public static final String MARKOV_CHAIN_PROFILE = "markovChainProfile";
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+        OperatorSchedule schedule = (OperatorSchedule) xo.getChild(OperatorSchedule.class);
+        Likelihood likelihood = (Likelihood) xo.getChild(Likelihood.class);
+
+        return new MarkovChainProfile(schedule, likelihood);
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserName() {
+        return MARKOV_CHAIN_PROFILE;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            new ElementRule(OperatorSchedule.class),
+            new ElementRule(Likelihood.class)
+    };
+
+    public String getParserDescription() {
+        return "Records timing histograms for each operator and likelihood in the Markov chain";
+    }
+
+    public Class getReturnType() {
+        return MarkovChainProfile.class;
+    }
+
+}
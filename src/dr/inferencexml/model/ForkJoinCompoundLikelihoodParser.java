@@ -0,0 +1,108 @@
+/*
+ * ForkJoinCompoundLikelihoodParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.model;
+
+import dr.inference.model.ForkJoinCompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.xml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * @author agent
+ */
+public class ForkJoinCompoundLikelihoodParser extends AbstractXMLObjectParser {
+
+    public static final String FORK_JOIN_COMPOUND_LIKELIHOOD = "forkJoinCompoundLikelihood";
+    public static final String THREADS = CompoundLikelihoodParser.THREADS;
+
+    public String getParserName() {
+        return FORK_JOIN_COMPOUND_LIKELIHOOD;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        // the default is -1 threads (one per processor) but an XML attribute can override it
+        int threads = xo.getAttribute(THREADS, -1);
+
+        // both the XML attribute and a system property can override it
+        if (System.getProperty("thread.count") != null) {
+            threads = Integer.parseInt(System.getProperty("thread.count"));
+            if (threads < -1 || threads > 1000) {
+                threads = -1;
+            }
+        }
+
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            final Object child = xo.getChild(i);
+            if (child instanceof Likelihood) {
+                if (likelihoods.contains(child)) {
+                    throw new XMLParseException("The likelihood element, '" + ((Likelihood) child).getId() +
+                            "', is already present in the " + FORK_JOIN_COMPOUND_LIKELIHOOD + " element");
+                }
+                likelihoods.add((Likelihood) child);
+            } else {
+                throw new XMLParseException("An element (" + child + ") which is not a likelihood has been added to a "
+                        + FORK_JOIN_COMPOUND_LIKELIHOOD + " element");
+            }
+        }
+
+        ForkJoinCompoundLikelihood compoundLikelihood = new ForkJoinCompoundLikelihood(threads, likelihoods);
+
+        Logger.getLogger("dr.evomodel").info("\nLikelihood computation of " + likelihoods.size() +
+                " components is using a shared fork-join pool of " + compoundLikelihood.getThreadCount() +
+                " threads and only evaluating components that have changed.");
+
+        return compoundLikelihood;
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserDescription() {
+        return "A likelihood function which is the product of its components, only evaluating those which have " +
+                "changed, in parallel.";
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newIntegerRule(THREADS, true),
+            new ElementRule(Likelihood.class, 1, Integer.MAX_VALUE)
+    };
+
+    public Class getReturnType() {
+        return ForkJoinCompoundLikelihood.class;
+    }
+}
@@ -31,6 +31,8 @@ import dr.util.NumberFormatter;
 
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.Map;
+import java.util.SplittableRandom;
 
 /**
  * Handy utility functions which have some Mathematical relavance.
@@ -51,7 +53,8 @@ public class MathUtils {
      * MersenneTwisterFast is currently (as of 9/01) not synchronized using
      * this function may cause concurrency issues. Use the static get methods of the
      * MersenneTwisterFast class for access to a single instance of the class, that
-     * has synchronization.
+     * has synchronization. Threads that have been bound to their own stream using
+     * useRandomStream draw from that stream instead.
      */
     private static final MersenneTwisterFast random = MersenneTwisterFast.DEFAULT_INSTANCE;
 
@@ -80,8 +83,21 @@ public class MathUtils {
      * @return a sample according to an unnormalized probability distribution
      */
     public static int randomChoicePDF(double[] pdf) {
+        return randomChoicePDF(pdf, MathUtils.nextDouble());
+    }
 
-        double U = MathUtils.nextDouble() * getTotal(pdf);
+    /**
+     * @param pdf    array of unnormalized probabilities
+     * @param random the stream to draw from (e.g., one for each thread)
+     * @return a sample according to an unnormalized probability distribution
+     */
+    public static int randomChoicePDF(double[] pdf, SplittableRandom random) {
+        return randomChoicePDF(pdf, random.nextDouble());
+    }
+
+    private static int randomChoicePDF(double[] pdf, double uniform) {
+
+        double U = uniform * getTotal(pdf);
         for (int i = 0; i < pdf.length; i++) {
 
             U -= pdf[i];
@@ -137,6 +153,35 @@ public class MathUtils {
 
     }
 
+    /**
+     * As randomChoiceLogPDF(logpdf) but drawing from the given stream. To avoid allocating, the
+     * log probabilities are replaced by the unnormalised probabilities.
+     *
+     * @param logpdf array of unnormalised log probabilities
+     * @param random the stream to draw from (e.g., one for each thread)
+     * @return a sample according to an unnormalised probability distribution
+     */
+    public static int randomChoiceLogPDF(double[] logpdf, SplittableRandom random) {
+
+        double scalingFactor = Double.NEGATIVE_INFINITY;
+
+        for (double aLogpdf : logpdf) {
+            if (aLogpdf > scalingFactor) {
+                scalingFactor = aLogpdf;
+            }
+        }
+
+        if (scalingFactor == Double.NEGATIVE_INFINITY) {
+            throw new Error("randomChoiceLogPDF falls through -- all -INF components in input distribution");
+        }
+
+        for (int j = 0; j < logpdf.length; j++) {
+            logpdf[j] = Math.exp(logpdf[j] - scalingFactor);
+        }
+
+        return randomChoicePDF(logpdf, random);
+    }
+
     /**
      * @param array to normalize
      * @return a new double array where all the values sum to 1.
@@ -193,12 +238,18 @@ public class MathUtils {
         synchronized (random) {
             random.setSeed(seed);
         }
+        // the streams are derived from the master seed so must be recreated
+        RandomStreams.reset();
     }
 
     /**
      * Access a default instance of this class, access is synchronized
      */
     public static byte nextByte() {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextByte();
+        }
         synchronized (random) {
             return random.nextByte();
         }
@@ -208,6 +259,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static boolean nextBoolean() {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextBoolean();
+        }
         synchronized (random) {
             return random.nextBoolean();
         }
@@ -217,6 +272,11 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static void nextBytes(byte[] bs) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            stream.nextBytes(bs);
+            return;
+        }
         synchronized (random) {
             random.nextBytes(bs);
         }
@@ -226,6 +286,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static char nextChar() {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextChar();
+        }
         synchronized (random) {
             return random.nextChar();
         }
@@ -235,6 +299,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static double nextGaussian() {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextGaussian();
+        }
         synchronized (random) {
             return random.nextGaussian();
         }
@@ -244,6 +312,10 @@ public class MathUtils {
     //Variance = alpha / (lambda*lambda)
 
     public static double nextGamma(double alpha, double lambda) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextGamma(alpha, lambda);
+        }
         synchronized (random) {
             return random.nextGamma(alpha, lambda);
         }
@@ -265,6 +337,10 @@ public class MathUtils {
      * @return a pseudo random double precision floating point number in [01)
      */
     public static double nextDouble() {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextDouble();
+        }
         synchronized (random) {
             return random.nextDouble();
         }
@@ -281,18 +357,18 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static double nextExponential(double lambda) {
-        synchronized (random) {
-            return -1.0 * Math.log(1 - random.nextDouble()) / lambda;
-        }
+        return -1.0 * Math.log(1 - nextDouble()) / lambda;
     }
 
     /**
      * Access a default instance of this class, access is synchronized
      */
     public static double nextInverseGaussian(double mu, double lambda) {
-        synchronized (random) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        final MersenneTwisterFast rng = (stream != null ? stream : random);
+        synchronized (rng) {
             /* CODE TAKEN FROM WIKIPEDIA. TESTING DONE WITH RESULTS GENERATED IN R AND LOOK COMPARABLE */
-            double v = random.nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
+            double v = rng.nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
             double y = v * v;
             double x = mu + (mu * mu * y) / (2 * lambda) - (mu / (2 * lambda)) * Math.sqrt(4 * mu * lambda * y + mu * mu * y * y);
             double test = MathUtils.nextDouble();  // sample from a uniform distribution between 0 and 1
@@ -309,6 +385,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static float nextFloat() {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextFloat();
+        }
         synchronized (random) {
             return random.nextFloat();
         }
@@ -318,6 +398,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static long nextLong() {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextLong();
+        }
         synchronized (random) {
             return random.nextLong();
         }
@@ -327,6 +411,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static short nextShort() {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextShort();
+        }
         synchronized (random) {
             return random.nextShort();
         }
@@ -336,6 +424,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static int nextInt() {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextInt();
+        }
         synchronized (random) {
             return random.nextInt();
         }
@@ -345,6 +437,10 @@ public class MathUtils {
      * Access a default instance of this class, access is synchronized
      */
     public static int nextInt(int n) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.nextInt(n);
+        }
         synchronized (random) {
             return random.nextInt(n);
         }
@@ -363,6 +459,11 @@ public class MathUtils {
      * Shuffles an array.
      */
     public static void shuffle(int[] array) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            stream.shuffle(array);
+            return;
+        }
         synchronized (random) {
             random.shuffle(array);
         }
@@ -372,6 +473,11 @@ public class MathUtils {
      * Shuffles an array. Shuffles numberOfShuffles times
      */
     public static void shuffle(int[] array, int numberOfShuffles) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            stream.shuffle(array, numberOfShuffles);
+            return;
+        }
         synchronized (random) {
             random.shuffle(array, numberOfShuffles);
         }
@@ -383,6 +489,10 @@ public class MathUtils {
      * @param l length of the array required.
      */
     public static int[] shuffled(int l) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.shuffled(l);
+        }
         synchronized (random) {
             return random.shuffled(l);
         }
@@ -390,10 +500,12 @@ public class MathUtils {
 
 
     public static int[] sampleIndicesWithReplacement(int length) {
-        synchronized (random) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        final MersenneTwisterFast rng = (stream != null ? stream : random);
+        synchronized (rng) {
             int[] result = new int[length];
             for (int i = 0; i < length; i++)
-                result[i] = random.nextInt(length);
+                result[i] = rng.nextInt(length);
             return result;
         }
     }
@@ -402,6 +514,11 @@ public class MathUtils {
      * Permutes an array.
      */
     public static void permute(int[] array) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            stream.permute(array);
+            return;
+        }
         synchronized (random) {
             random.permute(array);
         }
@@ -413,6 +530,10 @@ public class MathUtils {
      * @param l length of the array required.
      */
     public static int[] permuted(int l) {
+        final MersenneTwisterFast stream = RandomStreams.current();
+        if (stream != null) {
+            return stream.permuted(l);
+        }
         synchronized (random) {
             return random.permuted(l);
         }
@@ -469,6 +590,40 @@ public class MathUtils {
         }
     }
 
+    // ===================== Independent random number streams ===========
+
+    /**
+     * Binds the calling thread to an independent random number stream. All subsequent draws
+     * made through the static methods of this class from that thread use the stream and do not
+     * lock the shared default instance. The seed of each stream is derived from the current
+     * seed and the stream index, so runs with the same seed are reproducible provided each
+     * stream is only ever used by one thread at a time.
+     *
+     * @param index the stream index (e.g., the chain number in an MC3 analysis)
+     */
+    public static void useRandomStream(int index) {
+        RandomStreams.bind(index, getSeed());
+    }
+
+    /**
+     * Unbinds the calling thread from its random number stream so that it uses the shared
+     * default instance again.
+     */
+    public static void releaseRandomStream() {
+        RandomStreams.release();
+    }
+
+    /**
+     * @return the internal states of all the random number streams, keyed by stream index
+     */
+    public static Map<Integer, int[]> getRandomStreamStates() {
+        return RandomStreams.getStates();
+    }
+
+    public static void setRandomStreamState(int index, int[] rngState) {
+        RandomStreams.setState(index, rngState, getSeed());
+    }
+
     public static boolean isClose(double[] x, double[] y, double tolerance) {
         if (x.length != y.length) return false;
 
@@ -0,0 +1,147 @@
+/*
+ * RandomStreams.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.math;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A registry of independent random number streams that can be bound to individual threads.
+ * <p/>
+ * Each stream is a separate MersenneTwisterFast whose seed is derived deterministically from
+ * the master seed (the seed of the default instance) and the stream index, so a given master
+ * seed always produces the same set of streams. A thread that is bound to a stream draws all
+ * of its MathUtils random numbers from that stream without taking the lock on the shared
+ * default instance. Threads that are not bound continue to use the shared instance.
+ * <p/>
+ * This is package private - it should be accessed using the static methods in MathUtils.
+ *
+ * @author agent
+ */
+final class RandomStreams {
+
+    private RandomStreams() {
+    }
+
+    /**
+     * Returns the stream bound to the current thread or null if the thread uses the shared
+     * default instance.
+     */
+    static MersenneTwisterFast current() {
+        return CURRENT_STREAM.get();
+    }
+
+    /**
+     * Binds the current thread to the stream with the given index, creating the stream if required.
+     *
+     * @param index      the stream index (e.g., the chain number)
+     * @param masterSeed the seed from which the stream seed is derived
+     */
+    static void bind(int index, long masterSeed) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Random stream index must be non-negative");
+        }
+        MersenneTwisterFast stream;
+        synchronized (STREAMS) {
+            stream = STREAMS.get(index);
+            if (stream == null) {
+                stream = new MersenneTwisterFast(deriveSeed(masterSeed, index));
+                STREAMS.put(index, stream);
+            }
+        }
+        CURRENT_STREAM.set(stream);
+    }
+
+    /**
+     * Unbinds the current thread so it goes back to using the shared default instance.
+     */
+    static void release() {
+        CURRENT_STREAM.remove();
+    }
+
+    /**
+     * Discards all the streams so that they are recreated from a new master seed when next bound.
+     */
+    static void reset() {
+        synchronized (STREAMS) {
+            STREAMS.clear();
+        }
+    }
+
+    /**
+     * @return the internal states of all the streams created so far, keyed by stream index
+     */
+    static Map<Integer, int[]> getStates() {
+        Map<Integer, int[]> states = new TreeMap<Integer, int[]>();
+        synchronized (STREAMS) {
+            for (Map.Entry<Integer, MersenneTwisterFast> entry : STREAMS.entrySet()) {
+                MersenneTwisterFast stream = entry.getValue();
+                synchronized (stream) {
+                    states.put(entry.getKey(), stream.getRandomState());
+                }
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Sets the internal state of a stream, creating the stream if required.
+     */
+    static void setState(int index, int[] state, long masterSeed) {
+        MersenneTwisterFast stream;
+        synchronized (STREAMS) {
+            stream = STREAMS.get(index);
+            if (stream == null) {
+                stream = new MersenneTwisterFast(deriveSeed(masterSeed, index));
+                STREAMS.put(index, stream);
+            }
+        }
+        synchronized (stream) {
+            stream.setRandomState(state);
+        }
+    }
+
+    /**
+     * Derives a non-zero 32 bit seed for a stream by passing the master seed and the stream
+     * index through the SplitMix64 finaliser. Neighbouring indices give uncorrelated seeds.
+     */
+    static long deriveSeed(long masterSeed, int index) {
+        long z = masterSeed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+
+        // MersenneTwisterFast only uses the lower 32 bits and requires a non-zero seed
+        int seed = (int) (z ^ (z >>> 32));
+        return (seed == 0 ? 1 : seed);
+    }
+
+    private static final Map<Integer, MersenneTwisterFast> STREAMS = new TreeMap<Integer, MersenneTwisterFast>();
+
+    private static final ThreadLocal<MersenneTwisterFast> CURRENT_STREAM = new ThreadLocal<MersenneTwisterFast>();
+}
@@ -0,0 +1,177 @@
+/*
+ * PackedLowerTriangle.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A symmetric matrix of doubles with a zero diagonal held as the packed lower triangle, either on
+ * the heap or in a memory-mapped file, so it takes half the memory of the full matrix. It is held
+ * in chunks as an array (or a single mapping) is limited to 2^31 elements (or bytes).
+ * <p/>
+ * Distinct elements can be set from different threads at the same time.
+ *
+ * @author agent
+ */
+public class PackedLowerTriangle {
+
+    private static final int CHUNK_SHIFT = 24;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Creates a matrix on the heap with all the elements zero.
+     */
+    public PackedLowerTriangle(int size) {
+        this.size = size;
+        this.file = null;
+
+        long length = getLength();
+        chunks = new DoubleBuffer[getChunkCount(length)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = DoubleBuffer.allocate(getChunkLength(i, length));
+        }
+    }
+
+    /**
+     * Creates a matrix mapped from the given file. Any existing contents are overwritten.
+     */
+    public PackedLowerTriangle(int size, File file) throws IOException {
+        this.size = size;
+        this.file = file;
+
+        long length = getLength();
+        chunks = new DoubleBuffer[getChunkCount(length)];
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length * Double.BYTES);
+            FileChannel channel = randomAccessFile.getChannel();
+            for (int i = 0; i < chunks.length; i++) {
+                // the mapping remains valid after the file is closed
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) i * CHUNK_SIZE * Double.BYTES, (long) getChunkLength(i, length) * Double.BYTES).asDoubleBuffer();
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return a temporary file that is deleted on exit
+     */
+    public static File createTempFile() throws IOException {
+        File file = File.createTempFile("distances", ".dat");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * @return the position in the packed lower triangle of element i, j (i > j)
+     */
+    public static long getIndex(int i, int j) {
+        return ((long) i * (i - 1)) / 2 + j;
+    }
+
+    private static int getChunkCount(long length) {
+        return (int) ((length + CHUNK_SIZE - 1) >> CHUNK_SHIFT);
+    }
+
+    private static int getChunkLength(int chunk, long length) {
+        return (int) Math.min(CHUNK_SIZE, length - (long) chunk * CHUNK_SIZE);
+    }
+
+    /**
+     * @return the file the matrix is mapped from or null if it is on the heap
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of rows (and columns)
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of elements in the packed lower triangle
+     */
+    public long getLength() {
+        return getIndex(size, 0);
+    }
+
+    public double get(int i, int j) {
+        if (i == j) {
+            return 0.0;
+        }
+        return get(i > j ? getIndex(i, j) : getIndex(j, i));
+    }
+
+    public void set(int i, int j, double value) {
+        if (i == j) {
+            throw new IllegalArgumentException("The diagonal of a distance matrix is fixed at zero");
+        }
+        set(i > j ? getIndex(i, j) : getIndex(j, i), value);
+    }
+
+    /**
+     * @param index a position given by getIndex
+     */
+    public double get(long index) {
+        return chunks[(int) (index >> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+    }
+
+    /**
+     * @param index a position given by getIndex
+     */
+    public void set(long index, double value) {
+        chunks[(int) (index >> CHUNK_SHIFT)].put((int) (index & CHUNK_MASK), value);
+    }
+
+    /**
+     * @return the sum of the elements in the lower triangle
+     */
+    public double getSum() {
+        double sum = 0.0;
+        for (DoubleBuffer chunk : chunks) {
+            for (int i = 0; i < chunk.limit(); i++) {
+                sum += chunk.get(i);
+            }
+        }
+        return sum;
+    }
+
+    private final int size;
+    private final File file;
+    private final DoubleBuffer[] chunks;
+}
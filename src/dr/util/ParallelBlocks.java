@@ -0,0 +1,135 @@
+/*
+ * ParallelBlocks.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package dr.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies an operation to a range of independent blocks of work in parallel on a single fork-join
+ * pool shared by everything in the program. The range is split in half recursively down to
+ * single blocks so idle threads steal the remaining halves.
+ * <p/>
+ * The pool is created when it is first needed with the number of threads given by the
+ * 'thread.count' property (the BEAST -threads option) or otherwise a thread for each processor.
+ * Its threads are daemons so it never needs to be shut down. A thread count asked for by a
+ * caller only determines whether its work is done in parallel and, usually, how it is divided
+ * into blocks.
+ *
+ * @author agent
+ */
+public final class ParallelBlocks {
+
+    public static final String THREAD_COUNT = "thread.count";
+
+    private ParallelBlocks() {
+    }
+
+    public interface BlockOperation {
+        void apply(int block);
+    }
+
+    /**
+     * @param threadCount a requested number of threads
+     * @return the number of threads to use: the number of processors if threadCount <= 0
+     */
+    public static int getThreadCount(int threadCount) {
+        return (threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the shared pool
+     */
+    public static synchronized ForkJoinPool getSharedPool() {
+        if (sharedPool == null) {
+            int threadCount = Runtime.getRuntime().availableProcessors();
+            String property = System.getProperty(THREAD_COUNT);
+            if (property != null) {
+                try {
+                    int count = Integer.parseInt(property.trim());
+                    if (count >= 0) {
+                        threadCount = Math.max(count, 1);
+                    }
+                } catch (NumberFormatException nfe) {
+                    // use the number of processors
+                }
+            }
+            sharedPool = new ForkJoinPool(threadCount);
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Applies the operation to each block in [0, blockCount) and returns when they are all done.
+     * If threadCount or blockCount is less than 2 the blocks are done in order in the calling
+     * thread. If the caller is itself running in a fork-join pool (i.e., this is nested within
+     * another parallel operation) then the blocks are forked into that pool.
+     *
+     * @param threadCount the number of threads requested by the caller
+     * @param blockCount  the number of blocks
+     * @param operation   the operation which must be safe to apply to different blocks concurrently
+     */
+    public static void forEachBlock(int threadCount, int blockCount, BlockOperation operation) {
+        if (threadCount < 2 || blockCount < 2) {
+            for (int block = 0; block < blockCount; block++) {
+                operation.apply(block);
+            }
+        } else {
+            BlockTask task = new BlockTask(operation, 0, blockCount);
+            if (ForkJoinTask.inForkJoinPool()) {
+                task.invoke();
+            } else {
+                getSharedPool().invoke(task);
+            }
+        }
+    }
+
+    private static class BlockTask extends RecursiveAction {
+        BlockTask(BlockOperation operation, int fromBlock, int toBlock) {
+            this.operation = operation;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock == 1) {
+                operation.apply(fromBlock);
+            } else {
+                int middle = (fromBlock + toBlock) >>> 1;
+                invokeAll(new BlockTask(operation, fromBlock, middle), new BlockTask(operation, middle, toBlock));
+            }
+        }
+
+        private final BlockOperation operation;
+        private final int fromBlock;
+        private final int toBlock;
+    }
+
+    private static ForkJoinPool sharedPool = null;
+}
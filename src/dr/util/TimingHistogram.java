@@ -0,0 +1,141 @@
+/*
+ * TimingHistogram.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.util;
+
+/**
+ * A histogram of durations in nanoseconds with power of two buckets. Adding a value is a few
+ * arithmetic operations and no allocation so it can be left on in the MCMC loop. The bucket for a
+ * value v > 0 is the number of bits needed to represent it, i.e., it holds [2^(b-1), 2^b).
+ * <p/>
+ * Not thread safe - each histogram should only be updated by one thread at a time.
+ *
+ * @author agent
+ */
+public class TimingHistogram {
+
+    public static final int BUCKET_COUNT = 64;
+
+    public void add(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[BUCKET_COUNT - Long.numberOfLeadingZeros(nanos)]++;
+        if (count == 0 || nanos < min) {
+            min = nanos;
+        }
+        if (nanos > max) {
+            max = nanos;
+        }
+        count++;
+        total += nanos;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        min = 0;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the total time in nanoseconds
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public double getMean() {
+        return count > 0 ? (double) total / count : Double.NaN;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getBucketCount(int bucket) {
+        return buckets[bucket];
+    }
+
+    /**
+     * @return the exclusive upper bound of the values in a bucket
+     */
+    public static long getBucketUpperBound(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Estimates a quantile by interpolating (geometrically) within the bucket that contains it,
+     * clamped to the observed minimum and maximum.
+     *
+     * @param p the probability (0 to 1)
+     * @return the estimated quantile in nanoseconds
+     */
+    public double getQuantile(double p) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double target = p * count;
+        long cumulative = 0;
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            if (buckets[b] == 0) {
+                continue;
+            }
+            if (cumulative + buckets[b] >= target) {
+                if (b == 0) {
+                    return 0.0;
+                }
+                double lower = Math.max(min, 1L << (b - 1));
+                double upper = Math.min(max, (double) getBucketUpperBound(b));
+                double fraction = (target - cumulative) / buckets[b];
+                if (upper <= lower) {
+                    return lower;
+                }
+                return lower * Math.pow(upper / lower, fraction);
+            }
+            cumulative += buckets[b];
+        }
+        return max;
+    }
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count = 0;
+    private long total = 0;
+    private long min = 0;
+    private long max = 0;
+}
@@ -0,0 +1,266 @@
+/*
+ * BinaryCheckpointFormatTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package test.dr.app.checkpoint;
+
+import dr.app.checkpoint.BinaryCheckpointFormat;
+import dr.app.checkpoint.CheckpointState;
+import dr.app.checkpoint.CheckpointWriter;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * @author agent
+ */
+public class BinaryCheckpointFormatTest extends TestCase {
+
+    private File directory;
+
+    public BinaryCheckpointFormatTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("checkpoint").toFile();
+    }
+
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    /**
+     * A checkpoint with two parameters, two operators and a 3 taxon tree with one trait.
+     */
+    private static CheckpointState createState(long state, double rate) {
+        CheckpointState checkpoint = new CheckpointState();
+        checkpoint.rngState = new int[]{1, 2, 3, state > 0 ? 4 : 5};
+        checkpoint.rngStreamStates.put(0, new int[]{6, 7});
+        checkpoint.rngStreamStates.put(1, new int[]{8, 9});
+        checkpoint.state = state;
+        checkpoint.lnL = -1234.5678 - state;
+
+        checkpoint.parameters.add(new CheckpointState.ParameterState("kappa", new double[]{2.0}));
+        checkpoint.parameters.add(new CheckpointState.ParameterState("rates", new double[]{rate, Math.PI, Double.MIN_VALUE}));
+
+        CheckpointState.OperatorState scale = new CheckpointState.OperatorState();
+        scale.name = "scale(kappa)";
+        scale.acceptCount = 10 + state;
+        scale.rejectCount = 20;
+        scale.adaptable = true;
+        scale.adaptableParameter = 0.75;
+        scale.adaptationCount = 30 + state;
+        checkpoint.operators.add(scale);
+
+        CheckpointState.OperatorState exchange = new CheckpointState.OperatorState();
+        exchange.name = "narrowExchange(treeModel)";
+        exchange.acceptCount = 1;
+        exchange.rejectCount = 2;
+        checkpoint.operators.add(exchange);
+
+        CheckpointState.TreeState tree = new CheckpointState.TreeState();
+        tree.name = "treeModel";
+        tree.taxa = new String[]{"A", "B", "C"};
+        tree.heights = new double[]{0.0, 0.0, 0.1, 0.3 + rate, 0.5 + rate};
+        tree.parents = new int[]{3, 3, 4, 4, -1};
+        tree.childOrder = new int[]{0, 1, 1, 0, -1};
+        tree.traits = new double[][]{{1.0, 1.1, 1.2, 1.3, 0.0}};
+        checkpoint.trees.add(tree);
+
+        return checkpoint;
+    }
+
+    private static void assertStateEquals(CheckpointState expected, CheckpointState actual) {
+        assertTrue(Arrays.equals(expected.rngState, actual.rngState));
+        assertEquals(expected.rngStreamStates.keySet(), actual.rngStreamStates.keySet());
+        for (Integer stream : expected.rngStreamStates.keySet()) {
+            assertTrue(Arrays.equals(expected.rngStreamStates.get(stream), actual.rngStreamStates.get(stream)));
+        }
+        assertEquals(expected.state, actual.state);
+        assertEquals(Double.doubleToLongBits(expected.lnL), Double.doubleToLongBits(actual.lnL));
+
+        assertEquals(expected.parameters.size(), actual.parameters.size());
+        for (int i = 0; i < expected.parameters.size(); i++) {
+            assertEquals(expected.parameters.get(i).name, actual.parameters.get(i).name);
+            assertTrue(Arrays.equals(expected.parameters.get(i).values, actual.parameters.get(i).values));
+        }
+
+        assertEquals(expected.operators.size(), actual.operators.size());
+        for (int i = 0; i < expected.operators.size(); i++) {
+            CheckpointState.OperatorState e = expected.operators.get(i);
+            CheckpointState.OperatorState a = actual.operators.get(i);
+            assertEquals(e.name, a.name);
+            assertEquals(e.acceptCount, a.acceptCount);
+            assertEquals(e.rejectCount, a.rejectCount);
+            assertEquals(e.adaptable, a.adaptable);
+            assertEquals(e.adaptableParameter, a.adaptableParameter, 0.0);
+            assertEquals(e.adaptationCount, a.adaptationCount);
+        }
+
+        assertEquals(expected.trees.size(), actual.trees.size());
+        for (int i = 0; i < expected.trees.size(); i++) {
+            CheckpointState.TreeState e = expected.trees.get(i);
+            CheckpointState.TreeState a = actual.trees.get(i);
+            assertEquals(e.name, a.name);
+            assertTrue(Arrays.equals(e.taxa, a.taxa));
+            assertTrue(Arrays.equals(e.heights, a.heights));
+            assertTrue(Arrays.equals(e.parents, a.parents));
+            assertTrue(Arrays.equals(e.childOrder, a.childOrder));
+            assertTrue(Arrays.deepEquals(e.traits, a.traits));
+        }
+    }
+
+    private static void assertRejected(File file, String message) {
+        try {
+            BinaryCheckpointFormat.read(file);
+            fail("The checkpoint should have been rejected");
+        } catch (IOException ioe) {
+            assertTrue(ioe.getMessage(), ioe.getMessage().contains(message));
+        }
+    }
+
+    public void testFullRoundTrip() throws IOException {
+        File file = new File(directory, "full.chkpt");
+        CheckpointState checkpoint = createState(1000, 0.25);
+        BinaryCheckpointFormat.writeFull(file, checkpoint);
+
+        assertTrue(BinaryCheckpointFormat.isBinary(file));
+        assertStateEquals(checkpoint, BinaryCheckpointFormat.read(file));
+    }
+
+    public void testDeltaRoundTrip() throws IOException {
+        File baseFile = new File(directory, "run.chkpt.base.1000");
+        CheckpointState base = createState(1000, 0.25);
+        long checksum = BinaryCheckpointFormat.writeFull(baseFile, base);
+
+        File file = new File(directory, "run.chkpt");
+        CheckpointState checkpoint = createState(2000, 0.5);
+        checkpoint.trees.get(0).traits[0][2] = 9.0;
+        BinaryCheckpointFormat.writeDelta(file, checkpoint, base, baseFile.getName(), checksum);
+
+        // the delta only holds what changed so is smaller than the base
+        assertTrue(file.length() < baseFile.length());
+        assertStateEquals(checkpoint, BinaryCheckpointFormat.read(file));
+    }
+
+    public void testWriterWithDeltas() throws IOException {
+        File file = new File(directory, "run.chkpt");
+        CheckpointWriter writer = new CheckpointWriter(3);
+
+        CheckpointState checkpoint = null;
+        for (int i = 1; i <= 5; i++) {
+            checkpoint = createState(i * 1000, i * 0.1);
+            assertTrue(writer.save(file, checkpoint));
+        }
+        assertTrue(writer.awaitCompletion());
+
+        assertStateEquals(checkpoint, BinaryCheckpointFormat.read(file));
+
+        // the first base has been replaced by the one written at the fourth save
+        assertFalse(new File(directory, "run.chkpt.base.1000").exists());
+        assertTrue(new File(directory, "run.chkpt.base.4000").exists());
+    }
+
+    public void testMissingBase() throws IOException {
+        File baseFile = new File(directory, "run.chkpt.base.1000");
+        CheckpointState base = createState(1000, 0.25);
+        long checksum = BinaryCheckpointFormat.writeFull(baseFile, base);
+
+        File file = new File(directory, "run.chkpt");
+        BinaryCheckpointFormat.writeDelta(file, createState(2000, 0.5), base, baseFile.getName(), checksum);
+
+        assertTrue(baseFile.delete());
+        assertRejected(file, "is missing");
+    }
+
+    public void testMismatchedBase() throws IOException {
+        File baseFile = new File(directory, "run.chkpt.base.1000");
+        CheckpointState base = createState(1000, 0.25);
+        long checksum = BinaryCheckpointFormat.writeFull(baseFile, base);
+
+        File file = new File(directory, "run.chkpt");
+        BinaryCheckpointFormat.writeDelta(file, createState(2000, 0.5), base, baseFile.getName(), checksum);
+
+        // a different full checkpoint written over the base
+        BinaryCheckpointFormat.writeFull(baseFile, createState(1000, 0.3));
+        assertRejected(file, "does not match");
+    }
+
+    public void testChecksumMismatch() throws IOException {
+        File file = new File(directory, "full.chkpt");
+        BinaryCheckpointFormat.writeFull(file, createState(1000, 0.25));
+
+        // flip a bit in the middle of the payload
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        long position = raf.length() / 2;
+        raf.seek(position);
+        int b = raf.read();
+        raf.seek(position);
+        raf.write(b ^ 0x10);
+        raf.close();
+
+        assertRejected(file, "checksum does not match");
+    }
+
+    public void testTruncated() throws IOException {
+        File file = new File(directory, "full.chkpt");
+        BinaryCheckpointFormat.writeFull(file, createState(1000, 0.25));
+        long length = file.length();
+
+        // cut off in the checksum, in the payload and in the header
+        for (long truncatedLength : new long[]{length - 3, length / 2, 15}) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(truncatedLength);
+            raf.close();
+            assertRejected(file, "is truncated");
+        }
+    }
+
+    public void testDamagedLength() throws IOException {
+        File file = new File(directory, "full.chkpt");
+        BinaryCheckpointFormat.writeFull(file, createState(1000, 0.25));
+
+        // the payload length follows the magic number, version and kind
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(13);
+        raf.writeInt(Integer.MAX_VALUE);
+        raf.close();
+
+        assertRejected(file, "is truncated");
+    }
+}
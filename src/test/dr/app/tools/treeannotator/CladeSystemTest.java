@@ -0,0 +1,112 @@
+/*
+ * CladeSystemTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.tools.treeannotator;
+
+import dr.app.tools.treeannotator.CladeSystem;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.Tree;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the hashed clade keys and the concurrent clade table of CladeSystem.
+ *
+ * @author agent
+ */
+public class CladeSystemTest extends TestCase {
+
+    private static final String[] TREES = {
+            "(((A:1,B:1):1,C:2):1,(D:1,E:1):2);",
+            "((B:1,A:1):2,(C:2,(E:1,D:1):1):1);",
+            "(((A:1,C:1):1,B:2):1,(D:1,E:1):2);",
+            "((E:1,D:1):2,(C:2,(A:1,B:1):1):1);"
+    };
+
+    public void testCladeCounts() throws Exception {
+        CladeSystem cladeSystem = new CladeSystem(false);
+        for (String newick : TREES) {
+            cladeSystem.add(readTree(newick));
+        }
+
+        // AB, ABC, DE, CDE, AC and the root
+        assertEquals(6, cladeSystem.getCladeCount());
+        // the root and DE are in all four trees, AB and ABC in three
+        assertEquals(2, cladeSystem.getCladeFrequencyCount(4));
+        assertEquals(2, cladeSystem.getCladeFrequencyCount(3));
+        assertEquals(0, cladeSystem.getCladeFrequencyCount(2));
+        assertEquals(2, cladeSystem.getCladeFrequencyCount(1));
+
+        cladeSystem.calculateCladeCredibilities(TREES.length);
+        Tree tree = readTree(TREES[0]);
+        assertEquals(Math.log(0.75 * 0.75), cladeSystem.getLogCladeCredibility(tree), 1E-12);
+
+        // keys are the same for the same clade however the children are ordered
+        assertEquals(cladeSystem.getCladeKeys(tree), cladeSystem.getCladeKeys(readTree(TREES[3])));
+        assertEquals(9, cladeSystem.getCladeKeys(tree).size());
+    }
+
+    public void testConcurrentAdd() throws Exception {
+        List<Tree> trees = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            trees.add(readTree(TREES[i % TREES.length]));
+        }
+
+        CladeSystem serial = new CladeSystem(true);
+        for (Tree tree : trees) {
+            serial.add(tree);
+        }
+
+        CladeSystem concurrent = new CladeSystem(true);
+        concurrent.add(trees.get(0));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (final Tree tree : trees.subList(1, trees.size())) {
+            futures.add(pool.submit(() -> concurrent.add(tree)));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        assertEquals(serial.getCladeCount(), concurrent.getCladeCount());
+        assertEquals(serial.getCommonCladeCount(concurrent), concurrent.getCladeCount());
+        for (int count = 1; count <= trees.size(); count++) {
+            assertEquals(serial.getCladeFrequencyCount(count), concurrent.getCladeFrequencyCount(count));
+        }
+    }
+
+    private static Tree readTree(String newick) throws Exception {
+        return new FlexibleTree(new NewickImporter(newick).importTree(null));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Benchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.benchmark;
+
+/**
+ * A single benchmarked operation. The runner calls setUp once for each data set size, then
+ * calls run repeatedly (first to warm up, then timed) and finally tearDown. Everything that
+ * run computes should be passed to the Blackhole so the JIT can't eliminate it.
+ *
+ * @author agent
+ */
+public abstract class Benchmark {
+
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Builds the synthetic data set for the given number of taxa.
+     */
+    public abstract void setUp(int taxonCount) throws Exception;
+
+    /**
+     * Performs the operation being timed.
+     */
+    public abstract void run(Blackhole blackhole) throws Exception;
+
+    public void tearDown() {
+    }
+
+    /**
+     * @return the number of operations that one call to run performs (the times are reported per operation)
+     */
+    public int getOperationsPerInvocation() {
+        return 1;
+    }
+
+    /**
+     * @return the largest data set this benchmark is run on (some cores need memory proportional to
+     * taxa x patterns and won't fit in a normal heap for the largest trees)
+     */
+    public int getMaximumTaxonCount() {
+        return Integer.MAX_VALUE;
+    }
+
+    private final String name;
+}
@@ -0,0 +1,386 @@
+/*
+ * BenchmarkRunner.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.benchmark;
+
+import dr.app.util.Arguments;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.distribution.TDistributionImpl;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the hot path benchmarks over synthetic data sets of increasing size and reports the time
+ * per operation with a 99.9% confidence interval. Each benchmark is warmed up before it is timed
+ * and each iteration runs for a fixed length of time.
+ * <p/>
+ * The results can be written to a file and given as the baseline for a later run (e.g., of a new
+ * build) in which case any benchmark that has got significantly slower is reported and the runner
+ * exits with a non-zero status.
+ *
+ * @author agent
+ */
+public class BenchmarkRunner {
+
+    public static final int[] DEFAULT_TAXON_COUNTS = {100, 1000, 10000};
+    public static final double CONFIDENCE_LEVEL = 0.999;
+
+    public static List<Benchmark> getBenchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new TreeDataLikelihoodBenchmark(TreeDataLikelihoodBenchmark.Move.NARROW_EXCHANGE));
+        benchmarks.add(new TreeDataLikelihoodBenchmark(TreeDataLikelihoodBenchmark.Move.SUBTREE_LEAP));
+        benchmarks.add(new TreeDataLikelihoodBenchmark(TreeDataLikelihoodBenchmark.Move.NODE_HEIGHT));
+        benchmarks.add(new TreeModelBenchmark());
+        benchmarks.add(new TreeIntervalsBenchmark(false));
+        benchmarks.add(new TreeIntervalsBenchmark(true));
+        benchmarks.add(new CoalescentLikelihoodBenchmark());
+        benchmarks.add(new SkygridLikelihoodBenchmark());
+        benchmarks.add(new ContinuousDataLikelihoodBenchmark());
+        benchmarks.add(new NexusImporterBenchmark());
+        return benchmarks;
+    }
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationTime, long seed) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationTime = iterationTime;
+        this.seed = seed;
+    }
+
+    public List<Result> run(List<Benchmark> benchmarks, int[] taxonCounts, PrintStream out) {
+        List<Result> results = new ArrayList<Result>();
+
+        for (Benchmark benchmark : benchmarks) {
+            for (int taxonCount : taxonCounts) {
+                if (taxonCount > benchmark.getMaximumTaxonCount()) {
+                    out.println(String.format("%-40s %8d  skipped (maximum is %d taxa)", benchmark.getName(),
+                            taxonCount, benchmark.getMaximumTaxonCount()));
+                    continue;
+                }
+
+                try {
+                    Result result = run(benchmark, taxonCount);
+                    out.println(String.format("%-40s %8d  %14.1f +- %12.1f ns/op", result.name, result.taxonCount,
+                            result.mean, result.error));
+                    results.add(result);
+                } catch (Exception e) {
+                    out.println(String.format("%-40s %8d  failed: %s", benchmark.getName(), taxonCount, e));
+                } catch (OutOfMemoryError oome) {
+                    out.println(String.format("%-40s %8d  failed: out of memory", benchmark.getName(), taxonCount));
+                } finally {
+                    benchmark.tearDown();
+                    releaseModels();
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private Result run(Benchmark benchmark, int taxonCount) throws Exception {
+        MathUtils.setSeed(seed);
+        System.gc();
+
+        benchmark.setUp(taxonCount);
+
+        Blackhole blackhole = new Blackhole();
+
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(benchmark, blackhole);
+        }
+
+        double[] times = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            times[i] = iterate(benchmark, blackhole);
+        }
+
+        blackhole.publish();
+
+        return new Result(benchmark.getName(), taxonCount, times);
+    }
+
+    /**
+     * Every model and parameter registers itself in a static set so these have to be cleared for
+     * the data set to be garbage collected.
+     */
+    private void releaseModels() {
+        Model.FULL_MODEL_SET.clear();
+        Model.CONNECTED_MODEL_SET.clear();
+        Parameter.FULL_PARAMETER_SET.clear();
+        Parameter.CONNECTED_PARAMETER_SET.clear();
+    }
+
+    /**
+     * Calls the benchmark for at least the iteration time.
+     *
+     * @return the time per operation in nanoseconds
+     */
+    private double iterate(Benchmark benchmark, Blackhole blackhole) throws Exception {
+        long limit = iterationTime * 1000000L;
+        long invocations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            benchmark.run(blackhole);
+            invocations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < limit);
+
+        return (double) elapsed / (invocations * benchmark.getOperationsPerInvocation());
+    }
+
+    public static class Result {
+        Result(String name, int taxonCount, double mean, double error) {
+            this.name = name;
+            this.taxonCount = taxonCount;
+            this.mean = mean;
+            this.error = error;
+        }
+
+        Result(String name, int taxonCount, double[] times) {
+            this.name = name;
+            this.taxonCount = taxonCount;
+
+            double sum = 0.0;
+            for (double time : times) {
+                sum += time;
+            }
+            mean = sum / times.length;
+
+            if (times.length > 1) {
+                double ss = 0.0;
+                for (double time : times) {
+                    ss += (time - mean) * (time - mean);
+                }
+                double se = Math.sqrt(ss / (times.length - 1)) / Math.sqrt(times.length);
+                double t;
+                try {
+                    t = new TDistributionImpl(times.length - 1).inverseCumulativeProbability(0.5 + CONFIDENCE_LEVEL / 2);
+                } catch (MathException me) {
+                    t = 3.29;
+                }
+                error = t * se;
+            } else {
+                error = Double.NaN;
+            }
+        }
+
+        String getKey() {
+            return name + "\t" + taxonCount;
+        }
+
+        /**
+         * A regression is a slow down of more than the threshold where the confidence intervals don't overlap
+         */
+        boolean isRegression(Result baseline, double threshold) {
+            double error = Double.isNaN(this.error) ? 0.0 : this.error;
+            double baselineError = Double.isNaN(baseline.error) ? 0.0 : baseline.error;
+            return mean > baseline.mean * (1.0 + threshold) && mean - error > baseline.mean + baselineError;
+        }
+
+        final String name;
+        final int taxonCount;
+        final double mean;
+        final double error;
+    }
+
+    public static void writeResults(File file, List<Result> results) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        writer.println("benchmark\ttaxa\tns/op\terror");
+        for (Result result : results) {
+            writer.println(result.getKey() + "\t" + result.mean + "\t" + result.error);
+        }
+        writer.close();
+    }
+
+    public static Map<String, Result> readResults(File file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line = reader.readLine(); // header
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split("\t");
+            if (fields.length < 4) {
+                continue;
+            }
+            Result result = new Result(fields[0], Integer.parseInt(fields[1]),
+                    Double.parseDouble(fields[2]), Double.parseDouble(fields[3]));
+            results.put(result.getKey(), result);
+        }
+        reader.close();
+        return results;
+    }
+
+    /**
+     * Compares the results with a baseline run.
+     *
+     * @return the number of regressions
+     */
+    public static int compareResults(List<Result> results, Map<String, Result> baseline, double threshold, PrintStream out) {
+        int regressionCount = 0;
+
+        out.println();
+        out.println(String.format("%-40s %8s  %14s  %14s  %8s", "benchmark", "taxa", "baseline", "current", "change"));
+        for (Result result : results) {
+            Result base = baseline.get(result.getKey());
+            if (base == null) {
+                continue;
+            }
+            boolean regression = result.isRegression(base, threshold);
+            if (regression) {
+                regressionCount++;
+            }
+            out.println(String.format("%-40s %8d  %14.1f  %14.1f  %+7.1f%%%s", result.name, result.taxonCount,
+                    base.mean, result.mean, 100.0 * (result.mean - base.mean) / base.mean,
+                    regression ? "  REGRESSION" : ""));
+        }
+
+        return regressionCount;
+    }
+
+    private static int[] parseTaxonCounts(String value) throws Arguments.ArgumentException {
+        String[] fields = value.split("[,\\s]+");
+        int[] taxonCounts = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            try {
+                taxonCounts[i] = Integer.parseInt(fields[i]);
+            } catch (NumberFormatException nfe) {
+                throw new Arguments.ArgumentException("Bad number of taxa: " + fields[i]);
+            }
+            if (taxonCounts[i] < 4) {
+                throw new Arguments.ArgumentException("The number of taxa should be at least 4");
+            }
+        }
+        return taxonCounts;
+    }
+
+    public static void main(String[] args) {
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.StringOption("taxa", "list", "comma separated numbers of taxa [default 100,1000,10000]"),
+                        new Arguments.StringOption("filter", "regex", "only run the benchmarks whose names match"),
+                        new Arguments.IntegerOption("warmup", 0, Integer.MAX_VALUE, "number of warm up iterations [default 3]"),
+                        new Arguments.IntegerOption("iterations", 1, Integer.MAX_VALUE, "number of measured iterations [default 5]"),
+                        new Arguments.IntegerOption("time", 1, Integer.MAX_VALUE, "length of each iteration in milliseconds [default 1000]"),
+                        new Arguments.LongOption("seed", "random number seed for the synthetic data [default 666]"),
+                        new Arguments.StringOption("output", "file", "write the results to this file"),
+                        new Arguments.StringOption("baseline", "file", "compare the results with those in this file"),
+                        new Arguments.RealOption("threshold", 0.0, Double.MAX_VALUE, "relative slow down reported as a regression [default 0.1]"),
+                        new Arguments.Option("help", "option to print this message"),
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println(ae);
+            arguments.printUsage("benchmark", "");
+            System.exit(1);
+        }
+
+        if (arguments.hasOption("help")) {
+            arguments.printUsage("benchmark", "");
+            System.exit(0);
+        }
+
+        int[] taxonCounts = DEFAULT_TAXON_COUNTS;
+        if (arguments.hasOption("taxa")) {
+            try {
+                taxonCounts = parseTaxonCounts(arguments.getStringOption("taxa"));
+            } catch (Arguments.ArgumentException ae) {
+                System.out.println(ae.getMessage());
+                System.exit(1);
+            }
+        }
+
+        int warmup = arguments.hasOption("warmup") ? arguments.getIntegerOption("warmup") : 3;
+        int iterations = arguments.hasOption("iterations") ? arguments.getIntegerOption("iterations") : 5;
+        int time = arguments.hasOption("time") ? arguments.getIntegerOption("time") : 1000;
+        long seed = arguments.hasOption("seed") ? arguments.getLongOption("seed") : 666;
+        double threshold = arguments.hasOption("threshold") ? arguments.getRealOption("threshold") : 0.1;
+
+        // the models report their set up at INFO level
+        Logger.getLogger("dr").setLevel(Level.WARNING);
+
+        List<Benchmark> benchmarks = getBenchmarks();
+        if (arguments.hasOption("filter")) {
+            String filter = arguments.getStringOption("filter");
+            Iterator<Benchmark> iterator = benchmarks.iterator();
+            while (iterator.hasNext()) {
+                if (!iterator.next().getName().matches(".*(" + filter + ").*")) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        System.out.println("BEAST hot path benchmarks");
+        System.out.println("JVM: " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") +
+                ", " + Runtime.getRuntime().availableProcessors() + " processors, " +
+                (Runtime.getRuntime().maxMemory() / (1024 * 1024)) + "MB maximum heap");
+        System.out.println(warmup + " warm up and " + iterations + " measured iterations of " + time + "ms each");
+        System.out.println();
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, time, seed);
+        List<Result> results = runner.run(benchmarks, taxonCounts, System.out);
+
+        try {
+            if (arguments.hasOption("output")) {
+                writeResults(new File(arguments.getStringOption("output")), results);
+            }
+
+            if (arguments.hasOption("baseline")) {
+                File baselineFile = new File(arguments.getStringOption("baseline"));
+                if (!baselineFile.exists()) {
+                    System.out.println();
+                    System.out.println("No baseline results found in " + baselineFile + " - not comparing");
+                } else {
+                    int regressionCount = compareResults(results, readResults(baselineFile), threshold, System.out);
+                    if (regressionCount > 0) {
+                        System.out.println();
+                        System.out.println(regressionCount + " benchmark(s) are more than " +
+                                Math.round(threshold * 100) + "% slower than the baseline");
+                        System.exit(1);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            System.out.println("Unable to read or write results: " + ioe.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationTime;
+    private final long seed;
+}
@@ -0,0 +1,57 @@
+/*
+ * Blackhole.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.benchmark;
+
+/**
+ * A sink for benchmark results. The values are folded into a field that is published at the end
+ * of the run so the work that produced them can't be removed as dead code.
+ *
+ * @author agent
+ */
+public final class Blackhole {
+
+    public void consume(double value) {
+        sink = sink * 31 + Double.doubleToRawLongBits(value);
+    }
+
+    public void consume(int value) {
+        sink = sink * 31 + value;
+    }
+
+    public void consume(Object value) {
+        sink = sink * 31 + System.identityHashCode(value);
+    }
+
+    long publish() {
+        published = sink;
+        return published;
+    }
+
+    private long sink = 0;
+    private volatile long published;
+}
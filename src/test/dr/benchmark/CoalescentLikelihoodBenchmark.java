@@ -0,0 +1,78 @@
+/*
+ * CoalescentLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package test.dr.benchmark;
+
+import dr.evolution.util.Units;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.demographicmodel.ConstantPopulationModel;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+
+/**
+ * Times the constant size coalescent likelihood after a node height move, including the store
+ * and restore that surround it in the MCMC.
+ *
+ * @author agent
+ */
+public class CoalescentLikelihoodBenchmark extends Benchmark {
+
+    public CoalescentLikelihoodBenchmark() {
+        super("coalescentLikelihood.nodeHeight");
+    }
+
+    @Override
+    public void setUp(int taxonCount) {
+        treeModel = new DefaultTreeModel("treeModel", SyntheticData.createTree(taxonCount));
+
+        ConstantPopulationModel demographicModel = new ConstantPopulationModel(
+                new Parameter.Default(SyntheticData.POPULATION_SIZE), Units.Type.YEARS);
+        likelihood = new CoalescentLikelihood(new BigFastTreeIntervals(treeModel), demographicModel);
+
+        likelihood.getLogLikelihood();
+    }
+
+    @Override
+    public void run(Blackhole blackhole) {
+        likelihood.storeModelState();
+        SyntheticData.moveNodeHeight(treeModel);
+        blackhole.consume(likelihood.getLogLikelihood());
+        likelihood.restoreModelState();
+    }
+
+    @Override
+    public void tearDown() {
+        treeModel = null;
+        likelihood = null;
+    }
+
+    private TreeModel treeModel;
+    private CoalescentLikelihood likelihood;
+}
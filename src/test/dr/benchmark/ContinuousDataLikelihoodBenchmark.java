@@ -0,0 +1,104 @@
+/*
+ * ContinuousDataLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package test.dr.benchmark;
+
+import dr.evomodel.branchratemodel.BranchRateModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.continuous.MultivariateDiffusionModel;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.continuous.*;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.inference.model.MatrixParameter;
+import dr.inference.model.Parameter;
+
+/**
+ * Times the integration of multivariate Brownian motion traits by ContinuousDataLikelihoodDelegate
+ * after a node height move, including the store and restore that surround it in the MCMC.
+ *
+ * @author agent
+ */
+public class ContinuousDataLikelihoodBenchmark extends Benchmark {
+
+    private static final int TRAIT_DIMENSION = 3;
+
+    public ContinuousDataLikelihoodBenchmark() {
+        super("continuousDataLikelihood.nodeHeight");
+    }
+
+    @Override
+    public void setUp(int taxonCount) {
+        treeModel = new DefaultTreeModel("treeModel", SyntheticData.createTree(taxonCount));
+
+        Parameter[] precisionRows = new Parameter[TRAIT_DIMENSION];
+        for (int i = 0; i < TRAIT_DIMENSION; i++) {
+            double[] row = new double[TRAIT_DIMENSION];
+            row[i] = 1.0;
+            precisionRows[i] = new Parameter.Default(row);
+        }
+        MultivariateDiffusionModel diffusionModel = new MultivariateDiffusionModel(
+                new MatrixParameter("precisionMatrix", precisionRows));
+
+        ContinuousTraitPartialsProvider dataModel = new ContinuousTraitDataModel("dataModel",
+                SyntheticData.createTraits(treeModel, TRAIT_DIMENSION),
+                new boolean[taxonCount * TRAIT_DIMENSION], true,
+                TRAIT_DIMENSION, PrecisionType.FULL);
+
+        ConjugateRootTraitPrior rootPrior = new ConjugateRootTraitPrior(
+                new Parameter.Default(TRAIT_DIMENSION, 0.0), new Parameter.Default(0.001));
+
+        BranchRateModel rateModel = new DefaultBranchRateModel();
+
+        ContinuousDataLikelihoodDelegate delegate = new ContinuousDataLikelihoodDelegate(treeModel,
+                new HomogeneousDiffusionModelDelegate(treeModel, diffusionModel), dataModel, rootPrior,
+                new ContinuousRateTransformation.Default(treeModel, false, false), rateModel, true);
+
+        likelihood = new TreeDataLikelihood(delegate, treeModel, rateModel);
+
+        likelihood.getLogLikelihood();
+    }
+
+    @Override
+    public void run(Blackhole blackhole) {
+        likelihood.storeModelState();
+        SyntheticData.moveNodeHeight(treeModel);
+        blackhole.consume(likelihood.getLogLikelihood());
+        likelihood.restoreModelState();
+    }
+
+    @Override
+    public void tearDown() {
+        treeModel = null;
+        likelihood = null;
+    }
+
+    private TreeModel treeModel;
+    private TreeDataLikelihood likelihood;
+}
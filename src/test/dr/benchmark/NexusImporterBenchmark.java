@@ -0,0 +1,87 @@
+/*
+ * NexusImporterBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package test.dr.benchmark;
+
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.Tree;
+
+import java.io.StringReader;
+
+/**
+ * Times NexusImporter reading a file of trees logged with a translate table.
+ *
+ * @author agent
+ */
+public class NexusImporterBenchmark extends Benchmark {
+
+    private static final int MAX_TREE_COUNT = 10;
+
+    public NexusImporterBenchmark() {
+        super("nexusImporter.importNextTree");
+    }
+
+    @Override
+    public void setUp(int taxonCount) {
+        // fewer trees for the largest data sets so an invocation doesn't take minutes
+        treeCount = Math.max(1, Math.min(MAX_TREE_COUNT, 100000 / taxonCount));
+
+        Tree[] trees = new Tree[treeCount];
+        for (int i = 0; i < treeCount; i++) {
+            trees[i] = SyntheticData.createTree(taxonCount);
+        }
+        nexus = SyntheticData.createNexus(trees);
+    }
+
+    @Override
+    public void run(Blackhole blackhole) throws Exception {
+        NexusImporter importer = new NexusImporter(new StringReader(nexus));
+        int count = 0;
+        while (importer.hasTree()) {
+            Tree tree = importer.importNextTree();
+            blackhole.consume(tree.getNodeHeight(tree.getRoot()));
+            count++;
+        }
+        if (count != treeCount) {
+            throw new RuntimeException("Expected " + treeCount + " trees but read " + count);
+        }
+    }
+
+    @Override
+    public int getOperationsPerInvocation() {
+        return treeCount;
+    }
+
+    @Override
+    public void tearDown() {
+        nexus = null;
+    }
+
+    private String nexus;
+    private int treeCount;
+}
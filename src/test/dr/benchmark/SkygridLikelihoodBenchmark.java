@@ -0,0 +1,91 @@
+/*
+ * SkygridLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package test.dr.benchmark;
+
+import dr.evolution.coalescent.IntervalList;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.coalescent.GMRFSkygridLikelihood;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Times the GMRF skygrid likelihood (coalescent and smoothing prior) after a node height move,
+ * including the store and restore that surround it in the MCMC.
+ *
+ * @author agent
+ */
+public class SkygridLikelihoodBenchmark extends Benchmark {
+
+    private static final int GRID_POINT_COUNT = 50;
+
+    public SkygridLikelihoodBenchmark() {
+        super("skygridLikelihood.nodeHeight");
+    }
+
+    @Override
+    public void setUp(int taxonCount) {
+        treeModel = new DefaultTreeModel("treeModel", SyntheticData.createTree(taxonCount));
+
+        List<IntervalList> intervalsList = Collections.<IntervalList>singletonList(new BigFastTreeIntervals(treeModel));
+        double cutOff = 1.1 * treeModel.getNodeHeight(treeModel.getRoot());
+
+        likelihood = new GMRFSkygridLikelihood(intervalsList,
+                new Parameter.Default(GRID_POINT_COUNT + 1, Math.log(SyntheticData.POPULATION_SIZE)),
+                null,
+                new Parameter.Default(1.0),
+                new Parameter.Default(1.0),
+                null, null, false,
+                cutOff, GRID_POINT_COUNT,
+                null,
+                new Parameter.Default(1.0));
+
+        likelihood.getLogLikelihood();
+    }
+
+    @Override
+    public void run(Blackhole blackhole) {
+        likelihood.storeModelState();
+        SyntheticData.moveNodeHeight(treeModel);
+        blackhole.consume(likelihood.getLogLikelihood());
+        likelihood.restoreModelState();
+    }
+
+    @Override
+    public void tearDown() {
+        treeModel = null;
+        likelihood = null;
+    }
+
+    private TreeModel treeModel;
+    private GMRFSkygridLikelihood likelihood;
+}
@@ -0,0 +1,295 @@
+/*
+ * SyntheticData.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.benchmark;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.SimpleNode;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+import dr.inference.model.CompoundParameter;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates the data sets used by the benchmarks: serially sampled coalescent trees, sequences
+ * simulated down them under JC69 and Brownian motion traits. All of these are linear (or n log n)
+ * in the number of taxa and avoid recursion so they can be used up to 100k taxa.
+ *
+ * @author agent
+ */
+public class SyntheticData {
+
+    public static final double POPULATION_SIZE = 1.0;
+    public static final double SAMPLING_WINDOW = 0.5;
+    public static final double SUBSTITUTION_RATE = 0.05;
+
+    private static final char[] NUCLEOTIDES = {'A', 'C', 'G', 'T'};
+
+    private SyntheticData() {
+        // static methods only
+    }
+
+    /**
+     * Simulates a constant size coalescent tree with tips sampled uniformly over the sampling window.
+     */
+    public static SimpleTree createTree(int taxonCount) {
+        SimpleNode[] tips = new SimpleNode[taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            tips[i] = new SimpleNode();
+            tips[i].setTaxon(new Taxon("taxon_" + (i + 1)));
+            tips[i].setHeight(i == 0 ? 0.0 : MathUtils.nextDouble() * SAMPLING_WINDOW);
+        }
+
+        SimpleNode[] sampled = tips.clone();
+        Arrays.sort(sampled, new Comparator<SimpleNode>() {
+            public int compare(SimpleNode a, SimpleNode b) {
+                return Double.compare(a.getHeight(), b.getHeight());
+            }
+        });
+
+        SimpleNode[] active = new SimpleNode[taxonCount];
+        int activeCount = 0;
+        int nextSample = 0;
+        double height = 0.0;
+
+        while (nextSample < taxonCount || activeCount > 1) {
+            while (nextSample < taxonCount && sampled[nextSample].getHeight() <= height) {
+                active[activeCount] = sampled[nextSample];
+                activeCount++;
+                nextSample++;
+            }
+
+            double nextSampleHeight = (nextSample < taxonCount ? sampled[nextSample].getHeight() : Double.POSITIVE_INFINITY);
+
+            if (activeCount < 2) {
+                height = nextSampleHeight;
+                continue;
+            }
+
+            double rate = (activeCount * (activeCount - 1) / 2.0) / POPULATION_SIZE;
+            double nextCoalescentHeight = height + MathUtils.nextExponential(rate);
+            if (nextCoalescentHeight >= nextSampleHeight) {
+                height = nextSampleHeight;
+                continue;
+            }
+            height = nextCoalescentHeight;
+
+            int i = MathUtils.nextInt(activeCount);
+            SimpleNode left = active[i];
+            active[i] = active[activeCount - 1];
+            activeCount--;
+            int j = MathUtils.nextInt(activeCount);
+            SimpleNode right = active[j];
+
+            SimpleNode parent = new SimpleNode();
+            parent.setHeight(height);
+            parent.addChild(left);
+            parent.addChild(right);
+            active[j] = parent;
+        }
+
+        return new SimpleTree(active[0]);
+    }
+
+    /**
+     * Simulates nucleotide sequences down the tree under JC69 with a strict clock.
+     */
+    public static SimpleAlignment createAlignment(Tree tree, int siteCount) {
+        int[][] states = new int[tree.getNodeCount()][];
+
+        NodeRef root = tree.getRoot();
+        states[root.getNumber()] = new int[siteCount];
+        for (int k = 0; k < siteCount; k++) {
+            states[root.getNumber()][k] = MathUtils.nextInt(4);
+        }
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+
+        Deque<NodeRef> stack = new ArrayDeque<NodeRef>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            NodeRef node = stack.pop();
+            int[] nodeStates = states[node.getNumber()];
+
+            for (int c = 0; c < tree.getChildCount(node); c++) {
+                NodeRef child = tree.getChild(node, c);
+                double distance = (tree.getNodeHeight(node) - tree.getNodeHeight(child)) * SUBSTITUTION_RATE;
+                double pChange = 0.75 * (1.0 - Math.exp(-4.0 * distance / 3.0));
+
+                int[] childStates = new int[siteCount];
+                for (int k = 0; k < siteCount; k++) {
+                    if (MathUtils.nextDouble() < pChange) {
+                        childStates[k] = (nodeStates[k] + 1 + MathUtils.nextInt(3)) % 4;
+                    } else {
+                        childStates[k] = nodeStates[k];
+                    }
+                }
+                states[child.getNumber()] = childStates;
+                stack.push(child);
+            }
+            if (!tree.isRoot(node)) {
+                // only the tips are needed after this
+                states[node.getNumber()] = tree.isExternal(node) ? nodeStates : null;
+            }
+        }
+
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            NodeRef tip = tree.getExternalNode(i);
+            char[] sequence = new char[siteCount];
+            for (int k = 0; k < siteCount; k++) {
+                sequence[k] = NUCLEOTIDES[states[tip.getNumber()][k]];
+            }
+            alignment.addSequence(new Sequence(tree.getNodeTaxon(tip), new String(sequence)));
+        }
+
+        return alignment;
+    }
+
+    /**
+     * Simulates uncorrelated Brownian motion traits down the tree. The tip parameters are in
+     * external node order as the trait data models expect.
+     */
+    public static CompoundParameter createTraits(Tree tree, int dimension) {
+        double[][] values = new double[tree.getNodeCount()][];
+        NodeRef root = tree.getRoot();
+        values[root.getNumber()] = new double[dimension];
+
+        Deque<NodeRef> stack = new ArrayDeque<NodeRef>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            NodeRef node = stack.pop();
+            for (int c = 0; c < tree.getChildCount(node); c++) {
+                NodeRef child = tree.getChild(node, c);
+                double sd = Math.sqrt(tree.getNodeHeight(node) - tree.getNodeHeight(child));
+                double[] childValues = new double[dimension];
+                for (int d = 0; d < dimension; d++) {
+                    childValues[d] = values[node.getNumber()][d] + MathUtils.nextGaussian() * sd;
+                }
+                values[child.getNumber()] = childValues;
+                stack.push(child);
+            }
+        }
+
+        Parameter[] tipParameters = new Parameter[tree.getExternalNodeCount()];
+        for (int i = 0; i < tipParameters.length; i++) {
+            NodeRef tip = tree.getExternalNode(i);
+            tipParameters[i] = new Parameter.Default(tree.getNodeTaxon(tip).getId(), values[tip.getNumber()]);
+        }
+        return new CompoundParameter("traits", tipParameters);
+    }
+
+    /**
+     * Draws a new height for a random internal node uniformly between its oldest child and its
+     * parent (the root can move up to twice as far above its oldest child).
+     */
+    public static void moveNodeHeight(MutableTree tree) {
+        NodeRef node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+        double height = tree.getNodeHeight(node);
+
+        double lower = 0.0;
+        for (int c = 0; c < tree.getChildCount(node); c++) {
+            lower = Math.max(lower, tree.getNodeHeight(tree.getChild(node, c)));
+        }
+        double upper = tree.isRoot(node) ? lower + 2.0 * (height - lower) : tree.getNodeHeight(tree.getParent(node));
+
+        tree.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    /**
+     * Writes the trees as a NEXUS trees block with a translate table, as BEAST logs them.
+     */
+    public static String createNexus(Tree[] trees) {
+        Tree first = trees[0];
+        int taxonCount = first.getExternalNodeCount();
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("#NEXUS\n\nBegin taxa;\n\tDimensions ntax=").append(taxonCount).append(";\n\tTaxlabels\n");
+        for (int i = 0; i < taxonCount; i++) {
+            builder.append("\t\t").append(first.getTaxonId(i)).append("\n");
+        }
+        builder.append("\t\t;\nEnd;\n\nBegin trees;\n\tTranslate\n");
+        for (int i = 0; i < taxonCount; i++) {
+            builder.append("\t\t").append(i + 1).append(" ").append(first.getTaxonId(i));
+            builder.append(i < taxonCount - 1 ? ",\n" : "\n");
+        }
+        builder.append("\t\t;\n");
+
+        Map<String, Integer> taxonNumbers = new HashMap<String, Integer>();
+        for (int i = 0; i < taxonCount; i++) {
+            taxonNumbers.put(first.getTaxonId(i), i + 1);
+        }
+
+        for (int t = 0; t < trees.length; t++) {
+            builder.append("tree STATE_").append(t * 1000).append(" [&lnP=-").append(1000 + t).append("] = [&R] ");
+            appendNewick(builder, trees[t], taxonNumbers);
+            builder.append(";\n");
+        }
+        builder.append("End;\n");
+
+        return builder.toString();
+    }
+
+    private static void appendNewick(StringBuilder builder, Tree tree, Map<String, Integer> taxonNumbers) {
+        // iterative post-order with the node and the index of the next child to visit
+        Deque<int[]> stack = new ArrayDeque<int[]>();
+        stack.push(new int[]{tree.getRoot().getNumber(), 0});
+        while (!stack.isEmpty()) {
+            int[] frame = stack.peek();
+            NodeRef node = tree.getNode(frame[0]);
+
+            if (tree.isExternal(node)) {
+                builder.append(taxonNumbers.get(tree.getNodeTaxon(node).getId()));
+            } else if (frame[1] < tree.getChildCount(node)) {
+                builder.append(frame[1] == 0 ? "(" : ",");
+                stack.push(new int[]{tree.getChild(node, frame[1]).getNumber(), 0});
+                frame[1]++;
+                continue;
+            } else {
+                builder.append(")");
+            }
+
+            stack.pop();
+            if (!tree.isRoot(node)) {
+                builder.append("[&rate=").append(1.0).append("]:").append(tree.getBranchLength(node));
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * TreeDataLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.benchmark;
+
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.StrictClockBranchRates;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeLeapOperator;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.*;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.MCMCOperator;
+
+/**
+ * Times TreeDataLikelihood.calculateLogLikelihood after a tree move, including the store and
+ * restore that surround it in the MCMC. BEAGLE is used if it is installed, otherwise the Java
+ * likelihood core.
+ *
+ * @author agent
+ */
+public class TreeDataLikelihoodBenchmark extends Benchmark {
+
+    public enum Move {
+        NARROW_EXCHANGE("narrowExchange"),
+        SUBTREE_LEAP("subtreeLeap"),
+        NODE_HEIGHT("nodeHeight");
+
+        Move(String name) {
+            this.name = name;
+        }
+
+        private final String name;
+    }
+
+    private static final int SITE_COUNT = 200;
+    private static final int CATEGORY_COUNT = 4;
+
+    public TreeDataLikelihoodBenchmark(Move move) {
+        super("treeDataLikelihood." + move.name);
+        this.move = move;
+    }
+
+    @Override
+    public void setUp(int taxonCount) {
+        treeModel = new DefaultTreeModel("treeModel", SyntheticData.createTree(taxonCount));
+        SitePatterns patterns = new SitePatterns(SyntheticData.createAlignment(treeModel, SITE_COUNT));
+
+        FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE, patterns.getStateFrequencies());
+        HKY hky = new HKY(new Parameter.Default(2.0), frequencies);
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma", null, 1.0,
+                new Parameter.Default(0.5), CATEGORY_COUNT, null);
+        StrictClockBranchRates branchRateModel = new StrictClockBranchRates(
+                new Parameter.Default(SyntheticData.SUBSTITUTION_RATE));
+
+        DataLikelihoodDelegate delegate;
+        if (BeagleFunctionality.IS_BEAGLE_AVAILABLE()) {
+            delegate = new BeagleDataLikelihoodDelegate(treeModel, patterns, new HomogeneousBranchModel(hky),
+                    siteRateModel, false, false, PartialsRescalingScheme.DEFAULT, false,
+                    PreOrderSettings.getDefault());
+        } else {
+            delegate = new JavaDataLikelihoodDelegate(treeModel, patterns, new HomogeneousBranchModel(hky),
+                    siteRateModel, false, PartialsRescalingScheme.DEFAULT, false,
+                    PreOrderSettings.getDefault(), Runtime.getRuntime().availableProcessors());
+        }
+
+        likelihood = new TreeDataLikelihood(delegate, treeModel, branchRateModel);
+
+        switch (move) {
+            case NARROW_EXCHANGE:
+                operator = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+                break;
+            case SUBTREE_LEAP:
+                operator = new SubtreeLeapOperator(treeModel, 1.0,
+                        0.05 * treeModel.getNodeHeight(treeModel.getRoot()),
+                        SubtreeLeapOperator.DistanceKernelType.NORMAL, AdaptationMode.ADAPTATION_OFF, 0.234);
+                break;
+            default:
+                operator = null;
+        }
+
+        likelihood.getLogLikelihood();
+    }
+
+    @Override
+    public void run(Blackhole blackhole) {
+        likelihood.storeModelState();
+
+        if (operator != null) {
+            operator.operate();
+        } else {
+            SyntheticData.moveNodeHeight(treeModel);
+        }
+
+        blackhole.consume(likelihood.getLogLikelihood());
+
+        likelihood.restoreModelState();
+        if (operator != null) {
+            operator.reject();
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        treeModel = null;
+        likelihood = null;
+        operator = null;
+    }
+
+    /**
+     * The partials buffers are nodes x patterns x categories x states for each of two buffers.
+     */
+    @Override
+    public int getMaximumTaxonCount() {
+        return 10000;
+    }
+
+    private final Move move;
+
+    private TreeModel treeModel;
+    private TreeDataLikelihood likelihood;
+    private MCMCOperator operator;
+}
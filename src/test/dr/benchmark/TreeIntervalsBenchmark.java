@@ -0,0 +1,76 @@
+/*
+ * TreeIntervalsBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package test.dr.benchmark;
+
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+
+/**
+ * Times BigFastTreeIntervals.calculateIntervals, either after a single node height change (which
+ * is updated in place) or from scratch.
+ *
+ * @author agent
+ */
+public class TreeIntervalsBenchmark extends Benchmark {
+
+    public TreeIntervalsBenchmark(boolean full) {
+        super("bigFastTreeIntervals." + (full ? "full" : "nodeHeight"));
+        this.full = full;
+    }
+
+    @Override
+    public void setUp(int taxonCount) {
+        treeModel = new DefaultTreeModel("treeModel", SyntheticData.createTree(taxonCount));
+        intervals = new BigFastTreeIntervals(treeModel);
+    }
+
+    @Override
+    public void run(Blackhole blackhole) {
+        if (full) {
+            intervals.makeDirty();
+        } else {
+            SyntheticData.moveNodeHeight(treeModel);
+        }
+        intervals.calculateIntervals();
+
+        blackhole.consume(intervals.getTotalDuration());
+    }
+
+    @Override
+    public void tearDown() {
+        treeModel = null;
+        intervals = null;
+    }
+
+    private final boolean full;
+
+    private TreeModel treeModel;
+    private BigFastTreeIntervals intervals;
+}
@@ -0,0 +1,65 @@
+/*
+ * TreeModelBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package test.dr.benchmark;
+
+import dr.evomodel.tree.NewTreeModel;
+
+/**
+ * Times a store, a node height change and a restore of a NewTreeModel - the bookkeeping done
+ * for every rejected tree move.
+ *
+ * @author agent
+ */
+public class TreeModelBenchmark extends Benchmark {
+
+    public TreeModelBenchmark() {
+        super("newTreeModel.storeRestore");
+    }
+
+    @Override
+    public void setUp(int taxonCount) {
+        treeModel = new NewTreeModel("treeModel", SyntheticData.createTree(taxonCount));
+    }
+
+    @Override
+    public void run(Blackhole blackhole) {
+        treeModel.storeModelState();
+        SyntheticData.moveNodeHeight(treeModel);
+        treeModel.restoreModelState();
+
+        blackhole.consume(treeModel.getNodeHeight(treeModel.getRoot()));
+    }
+
+    @Override
+    public void tearDown() {
+        treeModel = null;
+    }
+
+    private NewTreeModel treeModel;
+}
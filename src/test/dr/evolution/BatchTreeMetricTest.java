@@ -0,0 +1,140 @@
+/*
+ * BatchTreeMetricTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package test.dr.evolution;
+
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evolution.tree.treemetrics.*;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that BatchTreeMetric gives the same distances as the individual TreeMetrics.
+ *
+ * @author agent
+ */
+public class BatchTreeMetricTest extends TestCase {
+
+    private static final int TREE_COUNT = 30;
+
+    private List<Tree> trees;
+
+    @Override
+    protected void setUp() throws Exception {
+        MathUtils.setSeed(666);
+
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < 7; i++) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+        }
+
+        ConstantPopulation constant = new ConstantPopulation(Units.Type.YEARS);
+        constant.setN0(1.0);
+        CoalescentSimulator simulator = new CoalescentSimulator();
+
+        trees = new ArrayList<Tree>();
+        for (int i = 0; i < TREE_COUNT; i++) {
+            // the individual metrics need the tips numbered in the same order in each tree
+            Tree tree = simulator.simulateTree(taxa, constant);
+            trees.add(new NewickImporter(TreeUtils.newick(tree)).importTree(taxa));
+        }
+    }
+
+    public void testRobinsonFoulds() throws Exception {
+        checkMetric(new BatchTreeMetric(TreeMetric.Type.ROBINSON_FOULDS), new RobinsonFouldsMetric());
+    }
+
+    public void testBranchScore() throws Exception {
+        checkMetric(new BatchTreeMetric(TreeMetric.Type.BRANCH_SCORE), new BranchScoreMetric());
+        checkMetric(new BatchTreeMetric(TreeMetric.Type.ROOTED_BRANCH_SCORE), new RootedBranchScoreMetric());
+    }
+
+    public void testBranchScoreCountsTrailingClades() throws Exception {
+        // the clade (C,D) of the second tree sorts after all the clades of the first tree
+        Tree treeOne = new NewickImporter("(((A:1,B:1):1,C:2):1,D:3)").importNextTree();
+        Tree treeTwo = new NewickImporter("((A:1,B:1):2,(C:2,D:2):1)").importNextTree();
+
+        // (A,B) differs by 1, (A,B,C) is only in the first tree and (C,D) only in the second
+        double expected = Math.sqrt(1.0 + 1.0 + 1.0);
+
+        assertEquals(expected, new BranchScoreMetric().getMetric(treeOne, treeTwo), 1E-10);
+        assertEquals(expected, new BranchScoreMetric().getMetric(treeTwo, treeOne), 1E-10);
+        assertEquals(expected, new BatchTreeMetric(TreeMetric.Type.BRANCH_SCORE).getDistance(treeOne, treeTwo), 1E-10);
+    }
+
+    public void testPathDifference() throws Exception {
+        checkMetric(new BatchTreeMetric(TreeMetric.Type.STEEL_PENNY), new SteelPennyPathDifferenceMetric());
+        for (double lambda : new double[]{0.0, 0.5, 1.0}) {
+            checkMetric(new BatchTreeMetric(TreeMetric.Type.KENDALL_COLIJN, lambda),
+                    new KendallColijnPathDifferenceMetric(lambda));
+        }
+    }
+
+    public void testRotatedTree() throws Exception {
+        // the same tree with the children swapped and the taxa in a different order
+        Tree tree1 = new NewickImporter("((A:1,B:1):1,(C:1.5,D:1.5):0.5)").importNextTree();
+        Tree tree2 = new NewickImporter("((D:1.5,C:1.5):0.5,(B:1,A:1):1)").importNextTree();
+        Tree tree3 = new NewickImporter("((A:1,C:1):1,(B:1.5,D:1.5):0.5)").importNextTree();
+
+        for (TreeMetric.Type type : new TreeMetric.Type[]{TreeMetric.Type.ROBINSON_FOULDS,
+                TreeMetric.Type.ROOTED_BRANCH_SCORE, TreeMetric.Type.STEEL_PENNY}) {
+            assertEquals(0.0, new BatchTreeMetric(type).getDistance(tree1, tree2), 1E-12);
+        }
+        assertEquals(2.0, new BatchTreeMetric(TreeMetric.Type.ROBINSON_FOULDS).getDistance(tree1, tree3), 1E-12);
+    }
+
+    public void testUnsupportedMetric() {
+        try {
+            new BatchTreeMetric(TreeMetric.Type.CLADE_HEIGHT);
+            fail("Clade height should not be supported");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    private void checkMetric(BatchTreeMetric batchMetric, TreeMetric metric) throws Exception {
+        TreeDistanceMatrix matrix = batchMetric.getDistances(trees, 2);
+        assertEquals(TREE_COUNT, matrix.getSize());
+        for (int i = 0; i < TREE_COUNT; i++) {
+            assertEquals(0.0, matrix.get(i, i));
+            for (int j = 0; j < i; j++) {
+                double expected = metric.getMetric(trees.get(i), trees.get(j));
+                assertEquals(metric.toString(), expected, matrix.get(i, j), 1E-10);
+                assertEquals(matrix.get(i, j), matrix.get(j, i));
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * NeighborJoiningTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package test.dr.evolution;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.distance.DistanceMatrix;
+import dr.evolution.distance.JukesCantorDistanceMatrix;
+import dr.evolution.distance.PackedNucleotideDistanceMatrix;
+import dr.evolution.distance.TriangularDistanceMatrix;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.*;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import junit.framework.TestCase;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests that the packed nucleotide distances match the existing distance matrices and that
+ * RapidNeighborJoiningTree builds the same tree as NeighborJoiningTree.
+ *
+ * @author agent
+ */
+public class NeighborJoiningTest extends TestCase {
+
+    private static final String STATES = "ACGTACGTACGTRN-";
+
+    public void testPackedDistances() {
+        SitePatterns patterns = createPatterns(new Random(666), 12, 2000);
+
+        DistanceMatrix uncorrected = new DistanceMatrix(patterns);
+        DistanceMatrix jukesCantor = new JukesCantorDistanceMatrix(patterns);
+
+        for (boolean memoryMapped : new boolean[]{false, true}) {
+            checkMatrix(uncorrected, new PackedNucleotideDistanceMatrix(patterns, false, 2, memoryMapped));
+            checkMatrix(jukesCantor, new PackedNucleotideDistanceMatrix(patterns, true, 2, memoryMapped));
+        }
+    }
+
+    public void testSetPatterns() {
+        SitePatterns patterns1 = createPatterns(new Random(7), 12, 500);
+        SitePatterns patterns2 = createPatterns(new Random(8), 20, 500);
+
+        for (boolean memoryMapped : new boolean[]{false, true}) {
+            PackedNucleotideDistanceMatrix matrix = new PackedNucleotideDistanceMatrix(patterns1, false, 2, memoryMapped);
+            checkMatrix(new DistanceMatrix(patterns1), matrix);
+
+            // the stored triangle is for 12 taxa so must be reallocated for 20
+            matrix.setPatterns(patterns2);
+            checkMatrix(new DistanceMatrix(patterns2), matrix);
+        }
+    }
+
+    public void testRapidNeighborJoining() {
+        Random random = new Random(42);
+        for (int prefixLength : new int[]{1, 4, RapidNeighborJoiningTree.DEFAULT_PREFIX_LENGTH}) {
+            DistanceMatrix distances = createDistances(random, 150);
+
+            Tree expected = new NeighborJoiningTree(distances);
+            Tree tree = new RapidNeighborJoiningTree(distances, prefixLength == 4, prefixLength);
+
+            assertEquals(expected.getNodeCount(), tree.getNodeCount());
+            checkSplits(getSplits(expected), getSplits(tree));
+        }
+    }
+
+    public void testPackedNeighborJoining() {
+        SitePatterns patterns = createPatterns(new Random(1), 40, 500);
+        DistanceMatrix distances = new PackedNucleotideDistanceMatrix(patterns, true, 1, false);
+
+        Tree expected = new NeighborJoiningTree(new JukesCantorDistanceMatrix(patterns));
+        Tree tree = new RapidNeighborJoiningTree(distances);
+
+        checkSplits(getSplits(expected), getSplits(tree));
+    }
+
+    private void checkMatrix(DistanceMatrix expected, TriangularDistanceMatrix matrix) {
+        int n = expected.getTaxonCount();
+        assertEquals(n, matrix.getTaxonCount());
+        for (int i = 0; i < n; i++) {
+            assertEquals(0.0, matrix.getElement(i, i));
+            for (int j = 0; j < n; j++) {
+                assertEquals(expected.getElement(i, j), matrix.getElement(i, j), 1E-12);
+            }
+        }
+        assertEquals(expected.getMeanDistance(), matrix.getMeanDistance(), 1E-12);
+    }
+
+    /**
+     * An alignment of sequences mutated from a common ancestor, so there are many repeated
+     * patterns, with some ambiguities and gaps.
+     */
+    private SitePatterns createPatterns(Random random, int taxonCount, int siteCount) {
+        char[] ancestor = new char[siteCount];
+        for (int k = 0; k < siteCount; k++) {
+            ancestor[k] = STATES.charAt(random.nextInt(4));
+        }
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < taxonCount; i++) {
+            char[] sequence = ancestor.clone();
+            for (int k = 0; k < siteCount; k++) {
+                if (random.nextDouble() < 0.1) {
+                    sequence[k] = STATES.charAt(random.nextInt(STATES.length()));
+                }
+            }
+            Sequence s = new Sequence(new String(sequence));
+            s.setTaxon(new Taxon("taxon" + i));
+            s.setDataType(Nucleotides.INSTANCE);
+            alignment.addSequence(s);
+        }
+        return new SitePatterns(alignment);
+    }
+
+    /**
+     * Euclidean distances between random points so there are no ties.
+     */
+    private DistanceMatrix createDistances(Random random, int taxonCount) {
+        Taxa taxa = new Taxa();
+        double[][] points = new double[taxonCount][5];
+        for (int i = 0; i < taxonCount; i++) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+            for (int k = 0; k < points[i].length; k++) {
+                points[i][k] = random.nextDouble();
+            }
+        }
+
+        DistanceMatrix distances = new DistanceMatrix(taxa);
+        for (int i = 0; i < taxonCount; i++) {
+            for (int j = 0; j < i; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < points[i].length; k++) {
+                    sum += (points[i][k] - points[j][k]) * (points[i][k] - points[j][k]);
+                }
+                distances.setElement(i, j, Math.sqrt(sum));
+                distances.setElement(j, i, Math.sqrt(sum));
+            }
+        }
+        return distances;
+    }
+
+    private void checkSplits(Map<BitSet, Double> expected, Map<BitSet, Double> splits) {
+        assertEquals(expected.keySet(), splits.keySet());
+        for (BitSet split : expected.keySet()) {
+            assertEquals(expected.get(split), splits.get(split), 1E-10);
+        }
+    }
+
+    /**
+     * The unrooted splits (as the side without the first taxon) and their branch lengths - the
+     * last join in neighbor-joining is a three way tie so the root can fall on any of its branches.
+     */
+    private Map<BitSet, Double> getSplits(Tree tree) {
+        Map<BitSet, Double> splits = new HashMap<BitSet, Double>();
+        getSplits(tree, tree.getRoot(), splits);
+        return splits;
+    }
+
+    private BitSet getSplits(Tree tree, NodeRef node, Map<BitSet, Double> splits) {
+        BitSet clade = new BitSet();
+        if (tree.isExternal(node)) {
+            clade.set(Integer.parseInt(tree.getNodeTaxon(node).getId().substring(5)));
+        } else {
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                clade.or(getSplits(tree, tree.getChild(node, i), splits));
+            }
+        }
+        if (!tree.isRoot(node)) {
+            BitSet split = (BitSet) clade.clone();
+            if (split.get(0)) {
+                split.flip(0, tree.getExternalNodeCount());
+            }
+            double length = tree.getNodeHeight(tree.getParent(node)) - tree.getNodeHeight(node);
+            Double existing = splits.get(split);
+            // the two branches either side of the root form one split
+            splits.put(split, existing == null ? length : existing + length);
+        }
+        return clade;
+    }
+}
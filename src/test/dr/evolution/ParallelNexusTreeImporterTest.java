@@ -0,0 +1,152 @@
+/*
+ * ParallelNexusTreeImporterTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evolution;
+
+import dr.evolution.io.NexusImporter;
+import dr.evolution.io.ParallelNexusTreeImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.util.Attributable;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+/**
+ * Tests that ParallelNexusTreeImporter makes the same trees as NexusImporter.
+ *
+ * @author agent
+ */
+public class ParallelNexusTreeImporterTest extends TestCase {
+
+    private static final String TAXA_FILE = "#NEXUS\n" +
+            "[ a comment; with a semicolon ]\n" +
+            "Begin taxa;\n" +
+            "\tDimensions ntax=4;\n" +
+            "\tTaxlabels 'Homo sapiens' Pan Gorilla 'Pongo''s';\n" +
+            "End;\n" +
+            "Begin trees;\n" +
+            "\ttree first [&lnP=-10.5,note=\"a b\"] = [&R] (('Homo sapiens':1.5,Pan:1.5)[&rate=0.5]:0.5,(Gorilla[&loc=\"X\"]:1.0,'Pongo''s':1.0):1.0);\n" +
+            "\ttree 'second tree' = [&W 0.25] (('Homo sapiens' : 1.5 , Pan : 1.5 ) [&rate=0.5,set={1,2,3}] : 0.5 ,\n" +
+            "\t\t( Gorilla:1 ,'Pongo''s':1):1.0)[&rate=1];\n" +
+            "\ttree third = ((Pan:2,(Gorilla:1,'Homo sapiens':1)[&x,y=2]:1):1,'Pongo''s':3)label:0.0;\n" +
+            "End;\n";
+
+    // the last tree is incomplete (as if the file is still being written)
+    private static final String TRANSLATE_FILE = "#NEXUS\n" +
+            "begin trees;\n" +
+            "translate\n 1 A,\n 2 'B c',\n 3 C\n ;\n" +
+            "tree STATE_0 = ((1[&rate=1.5]:1,2:1):1,3:2);\n" +
+            "tree STATE_10 = ((3:1,'2':1):1,1:2);\n" +
+            "tree STATE_20 = ((3:1,2:1):1,1:2\n";
+
+    public void testTaxaBlock() throws Exception {
+        compare(TAXA_FILE, 3, false);
+        compare(TAXA_FILE, 3, true);
+    }
+
+    public void testTranslateTable() throws Exception {
+        compare(TRANSLATE_FILE, 2, false);
+    }
+
+    public void testManyTrees() throws Exception {
+        StringBuilder file = new StringBuilder("#NEXUS\nbegin trees;\ntranslate\n");
+        int taxonCount = 50;
+        for (int i = 1; i <= taxonCount; i++) {
+            file.append(i).append(" taxon").append(i).append(i < taxonCount ? ",\n" : ";\n");
+        }
+        Random random = new Random(42);
+        for (int k = 0; k < 200; k++) {
+            List<String> nodes = new ArrayList<>();
+            for (int i = 1; i <= taxonCount; i++) {
+                nodes.add(i + "[&trait=" + random.nextInt(3) + "]:" + random.nextDouble());
+            }
+            while (nodes.size() > 1) {
+                String left = nodes.remove(random.nextInt(nodes.size()));
+                String right = nodes.remove(random.nextInt(nodes.size()));
+                nodes.add("(" + left + "," + right + ")[&rate=" + random.nextDouble() + "]:" + random.nextDouble());
+            }
+            file.append("tree STATE_").append(k).append(" = [&R] ").append(nodes.get(0)).append(";\n");
+        }
+        file.append("End;\n");
+        compare(file.toString(), 200, false);
+    }
+
+    private void compare(String content, int treeCount, boolean ignoreMetaComments) throws Exception {
+        File file = File.createTempFile("trees", ".nex");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write(content);
+        writer.close();
+
+        NexusImporter nexusImporter = new NexusImporter(new StringReader(content), ignoreMetaComments);
+        ParallelNexusTreeImporter importer = new ParallelNexusTreeImporter(file, ignoreMetaComments, 3);
+
+        assertEquals(treeCount, importer.countTrees());
+
+        int count = 0;
+        while (nexusImporter.hasTree()) {
+            assertTrue(importer.hasTree());
+            assertEquals(describe(nexusImporter.importNextTree()), describe(importer.importNextTree()));
+            count++;
+        }
+        assertFalse(importer.hasTree());
+        assertEquals(treeCount, count);
+        importer.close();
+    }
+
+    private static String describe(Tree tree) throws IOException {
+        StringBuilder sb = new StringBuilder(tree.getId());
+        Iterator<String> names = tree.getAttributeNames();
+        while (names != null && names.hasNext()) {
+            String name = names.next();
+            sb.append(' ').append(name).append('=').append(tree.getAttribute(name));
+        }
+        sb.append('\n');
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            NodeRef node = tree.getNode(i);
+            sb.append(node.getNumber()).append(' ').append(tree.getNodeTaxon(node)).append(' ')
+                    .append(tree.getNodeHeight(node)).append(' ')
+                    .append(tree.isRoot(node) ? -1 : tree.getParent(node).getNumber());
+            Map<String, String> attributes = new TreeMap<>();
+            Attributable attributable = (Attributable) node;
+            Iterator<String> iter = attributable.getAttributeNames();
+            while (iter != null && iter.hasNext()) {
+                String name = iter.next();
+                Object value = attributable.getAttribute(name);
+                attributes.put(name, value instanceof Object[] ? Arrays.deepToString((Object[]) value) :
+                        value + " (" + value.getClass().getSimpleName() + ")");
+            }
+            sb.append(' ').append(attributes).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -50,8 +50,17 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 import test.dr.inference.trace.TraceCorrelationAssert;
 
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.datatype.DataType;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.Random;
 
 
 /**
@@ -99,6 +108,141 @@ public class SitePatternsTest extends TraceCorrelationAssert {
         assertEquals("Wrong number of compressed patterns", patterns.getPatternCount(), 37);
     }
 
+    public void testAmbUniqueSitePatterns() {
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true, SitePatterns.CompressionType.AMBIGUOUS_UNIQUE);
+        System.out.println("Unique + ambiguous unique patterns = " + patterns.getPatternCount());
+
+        assertEquals("Wrong number of compressed patterns", patterns.getPatternCount(), 64);
+    }
+
+    /**
+     * Compares the compression of a large alignment with ambiguities (enough sites to be read in
+     * parallel) with a linear search over the patterns.
+     */
+    public void testLargeAlignmentPatterns() {
+        SimpleAlignment alignment = createRandomAlignment(20, 6000, new Random(666));
+        DataType dataType = alignment.getDataType();
+
+        SitePatterns unique = new SitePatterns(alignment, null, 0, -1, 1, false, SitePatterns.CompressionType.UNIQUE_ONLY);
+        List<int[]> expected = new ArrayList<int[]>();
+        List<Double> expectedWeights = new ArrayList<Double>();
+        for (int i = 0; i < alignment.getSiteCount(); i++) {
+            int[] pattern = alignment.getSitePattern(i);
+            int index = 0;
+            while (index < expected.size() && !Arrays.equals(expected.get(index), pattern)) {
+                index++;
+            }
+            if (index == expected.size()) {
+                expected.add(pattern);
+                expectedWeights.add(0.0);
+            }
+            expectedWeights.set(index, expectedWeights.get(index) + 1.0);
+            assertEquals("Wrong pattern index for site " + i, index, unique.getPatternIndex(i));
+        }
+        assertPatterns(unique, expected, expectedWeights);
+
+        // the ambiguous compression starts with the constant patterns and then merges each pattern
+        // into the first matching one, which takes its place if it is less ambiguous
+        SitePatterns ambiguous = new SitePatterns(alignment, null, 0, -1, 1, false, SitePatterns.CompressionType.AMBIGUOUS_UNIQUE);
+        int stateCount = dataType.getStateCount();
+        List<int[]> merged = new ArrayList<int[]>();
+        List<Double> mergedWeights = new ArrayList<Double>();
+        for (int state = 0; state < stateCount; state++) {
+            int[] pattern = new int[alignment.getTaxonCount()];
+            Arrays.fill(pattern, state);
+            merged.add(pattern);
+            mergedWeights.add(0.0);
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            int[] pattern = expected.get(i);
+            int constant = 0;
+            while (constant < stateCount && !Arrays.equals(merged.get(constant), pattern)) {
+                constant++;
+            }
+            if (constant < stateCount) {
+                mergedWeights.set(constant, mergedWeights.get(constant) + expectedWeights.get(i));
+                continue;
+            }
+            int match = -1;
+            if (getCanonicalStateCount(pattern, stateCount) >= SitePatterns.MINIMUM_UNAMBIGUOUS) {
+                for (int j = 0; j < merged.size() && match < 0; j++) {
+                    if (areCompatible(dataType, merged.get(j), pattern)) {
+                        match = j;
+                    }
+                }
+            }
+            if (match >= 0) {
+                if (getCanonicalStateCount(pattern, stateCount) > getCanonicalStateCount(merged.get(match), stateCount)) {
+                    merged.set(match, pattern);
+                }
+                mergedWeights.set(match, mergedWeights.get(match) + expectedWeights.get(i));
+            } else {
+                merged.add(pattern);
+                mergedWeights.add(expectedWeights.get(i));
+            }
+        }
+        assertPatterns(ambiguous, merged, mergedWeights);
+    }
+
+    private void assertPatterns(SitePatterns patterns, List<int[]> expected, List<Double> expectedWeights) {
+        assertEquals("Wrong number of patterns", expected.size(), patterns.getPatternCount());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue("Wrong pattern " + i, Arrays.equals(expected.get(i), patterns.getPattern(i)));
+            assertEquals("Wrong weight for pattern " + i, expectedWeights.get(i), patterns.getPatternWeight(i), 0.0);
+        }
+    }
+
+    private static int getCanonicalStateCount(int[] pattern, int stateCount) {
+        int count = 0;
+        for (int state : pattern) {
+            if (state < stateCount) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean areCompatible(DataType dataType, int[] pattern1, int[] pattern2) {
+        for (int k = 0; k < pattern1.length; k++) {
+            if (dataType.areUnambiguouslyDifferent(pattern1[k], pattern2[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An alignment of mutated copies of a random sequence with a scattering of ambiguity codes and gaps.
+     */
+    private static SimpleAlignment createRandomAlignment(int taxonCount, int siteCount, Random random) {
+        String states = "ACGT";
+        String ambiguities = "NRYMKSW-";
+        char[] ancestor = new char[siteCount];
+        for (int j = 0; j < siteCount; j++) {
+            ancestor[j] = states.charAt(random.nextInt(states.length()));
+        }
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < taxonCount; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < siteCount; j++) {
+                double u = random.nextDouble();
+                if (u < 0.02) {
+                    sb.append(ambiguities.charAt(random.nextInt(ambiguities.length())));
+                } else if (u < 0.1) {
+                    sb.append(states.charAt(random.nextInt(states.length())));
+                } else {
+                    sb.append(ancestor[j]);
+                }
+            }
+            Sequence sequence = new Sequence(sb.toString());
+            sequence.setTaxon(new Taxon("taxon" + i));
+            sequence.setDataType(Nucleotides.INSTANCE);
+            alignment.addSequence(sequence);
+        }
+        return alignment;
+    }
 
     public static Test suite() {
         return new TestSuite(SitePatternsTest.class);
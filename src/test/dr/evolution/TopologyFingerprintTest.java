@@ -0,0 +1,111 @@
+/*
+ * TopologyFingerprintTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package test.dr.evolution;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.TopologyFingerprint;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that TopologyFingerprint distinguishes topologies in the same way as uniqueNewick.
+ *
+ * @author agent
+ */
+public class TopologyFingerprintTest extends TestCase {
+
+    public void testRotatedTrees() throws Exception {
+        Tree tree1 = importTree("((A:1,B:1):1,(C:1.5,D:1.5):0.5)");
+        Tree tree2 = importTree("((D:1,C:1):2,(B:0.5,A:0.5):2.5)");
+        Tree tree3 = importTree("((A:1,C:1):1,(B:1,D:1):1)");
+        Tree tree4 = importTree("(A:2,B:2,(C:1,D:1):1)");
+
+        assertEquals(new TopologyFingerprint(tree1), new TopologyFingerprint(tree2));
+        assertEquals(new TopologyFingerprint(tree1).hashCode(), new TopologyFingerprint(tree2).hashCode());
+        assertTrue(TreeUtils.isSameTopology(tree1, tree2));
+
+        assertFalse(new TopologyFingerprint(tree1).equals(new TopologyFingerprint(tree3)));
+        assertFalse(TreeUtils.isSameTopology(tree1, tree3));
+
+        // a polytomy is a different topology
+        assertFalse(new TopologyFingerprint(tree1).equals(new TopologyFingerprint(tree4)));
+    }
+
+    public void testAgreesWithUniqueNewick() throws Exception {
+        Random random = new Random(42);
+        String[] taxa = {"A", "B", "C", "D", "E", "F"};
+
+        List<Tree> trees = new ArrayList<Tree>();
+        for (int i = 0; i < 300; i++) {
+            trees.add(importTree(randomNewick(taxa, random)));
+        }
+
+        for (Tree tree1 : trees) {
+            TopologyFingerprint fingerprint1 = new TopologyFingerprint(tree1);
+            String newick1 = TreeUtils.uniqueNewick(tree1, tree1.getRoot());
+            for (Tree tree2 : trees) {
+                boolean same = newick1.equals(TreeUtils.uniqueNewick(tree2, tree2.getRoot()));
+                assertEquals(same, fingerprint1.equals(new TopologyFingerprint(tree2)));
+            }
+        }
+    }
+
+    /**
+     * Joins random pairs of subtrees (and occasionally three) until one is left.
+     */
+    private static String randomNewick(String[] taxa, Random random) {
+        List<String> subtrees = new ArrayList<String>();
+        for (String taxon : taxa) {
+            subtrees.add(taxon + ":1");
+        }
+        while (subtrees.size() > 1) {
+            int count = subtrees.size() > 2 && random.nextInt(10) == 0 ? 3 : 2;
+            StringBuilder builder = new StringBuilder("(");
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    builder.append(",");
+                }
+                builder.append(subtrees.remove(random.nextInt(subtrees.size())));
+            }
+            builder.append("):1");
+            subtrees.add(builder.toString());
+        }
+        String newick = subtrees.get(0);
+        return newick.substring(0, newick.length() - 2);
+    }
+
+    private static Tree importTree(String newick) throws IOException, Importer.ImportException {
+        return new NewickImporter(newick).importNextTree();
+    }
+}
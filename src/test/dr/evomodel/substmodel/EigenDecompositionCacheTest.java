@@ -0,0 +1,173 @@
+/*
+ * EigenDecompositionCacheTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package test.dr.evomodel.substmodel;
+
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.substmodel.BaseSubstitutionModel;
+import dr.evomodel.substmodel.ComplexSubstitutionModel;
+import dr.evomodel.substmodel.EigenDecomposition;
+import dr.evomodel.substmodel.EigenDecompositionCache;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.GeneralSubstitutionModel;
+import dr.inference.model.Parameter;
+import junit.framework.TestCase;
+
+/**
+ * @author agent
+ */
+public class EigenDecompositionCacheTest extends TestCase {
+
+    private static final double[] FREQUENCIES = {0.1, 0.2, 0.3, 0.4};
+    private static final double[] RATES = {1.0, 2.0, 0.5, 0.8, 3.0, 1.0};
+
+    public EigenDecompositionCacheTest(String name) {
+        super(name);
+    }
+
+    private static GeneralSubstitutionModel createGeneralModel(EigenDecompositionCache cache) {
+        return createGeneralModel(cache, new Parameter.Default(RATES));
+    }
+
+    private static GeneralSubstitutionModel createGeneralModel(EigenDecompositionCache cache, Parameter rates) {
+        FrequencyModel freqModel = new FrequencyModel(Nucleotides.INSTANCE, FREQUENCIES);
+        GeneralSubstitutionModel model = new GeneralSubstitutionModel("gtr", Nucleotides.INSTANCE, freqModel, rates, 4);
+        model.setEigenDecompositionCache(cache);
+        return model;
+    }
+
+    private static double[] getMatrix(BaseSubstitutionModel model, double distance) {
+        double[] matrix = new double[16];
+        model.getTransitionProbabilities(distance, matrix);
+        return matrix;
+    }
+
+    public void testSharedBetweenModels() {
+        EigenDecompositionCache cache = new EigenDecompositionCache(1 << 20);
+        GeneralSubstitutionModel model1 = createGeneralModel(cache);
+        GeneralSubstitutionModel model2 = createGeneralModel(cache);
+        GeneralSubstitutionModel uncached = createGeneralModel(null);
+
+        EigenDecomposition eigen1 = model1.getEigenDecomposition();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // a branch-specific copy of the same model shares the decomposition
+        assertSame(eigen1, model2.getEigenDecomposition());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getEntryCount());
+
+        double[] expected = getMatrix(uncached, 0.1);
+        assertArrayEquals(expected, getMatrix(model1, 0.1));
+        assertEquals(0, cache.getMatrixHitCount());
+        assertEquals(1, cache.getMatrixMissCount());
+        assertArrayEquals(expected, getMatrix(model2, 0.1));
+        assertEquals(1, cache.getMatrixHitCount());
+    }
+
+    public void testReturnToPreviousRates() {
+        EigenDecompositionCache cache = new EigenDecompositionCache(1 << 20);
+        Parameter rates = new Parameter.Default(RATES);
+        GeneralSubstitutionModel model = createGeneralModel(cache, rates);
+        GeneralSubstitutionModel uncached = createGeneralModel(null);
+
+        double[] expected = getMatrix(uncached, 0.25);
+        EigenDecomposition eigen = model.getEigenDecomposition();
+        getMatrix(model, 0.25);
+
+        // a proposal that is rejected and later proposed again
+        model.storeModelState();
+        rates.setParameterValue(0, 5.0);
+        assertNotSame(eigen, model.getEigenDecomposition());
+        model.restoreModelState();
+        // GeneralSubstitutionModel decomposes again after a restore, which is now found in the cache
+        assertSame(eigen, model.getEigenDecomposition());
+        assertEquals(1, cache.getHitCount());
+
+        rates.setParameterValue(0, 5.0);
+        model.getEigenDecomposition();
+        rates.setParameterValue(0, RATES[0]);
+        assertSame(eigen, model.getEigenDecomposition());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+
+        assertArrayEquals(expected, getMatrix(model, 0.25));
+        assertEquals(1, cache.getMatrixHitCount());
+    }
+
+    public void testComplexModel() {
+        EigenDecompositionCache cache = new EigenDecompositionCache(1 << 20);
+        double[] values = {1.0, 2.0, 0.5, 0.8, 3.0, 1.5, 0.7, 1.2, 2.5, 0.3, 1.1, 0.9};
+
+        ComplexSubstitutionModel[] models = new ComplexSubstitutionModel[3];
+        for (int i = 0; i < models.length; i++) {
+            FrequencyModel freqModel = new FrequencyModel(Nucleotides.INSTANCE, FREQUENCIES);
+            models[i] = new ComplexSubstitutionModel("complex", Nucleotides.INSTANCE, freqModel,
+                    new Parameter.Default(values));
+        }
+        models[0].setEigenDecompositionCache(null);
+        models[1].setEigenDecompositionCache(cache);
+        models[2].setEigenDecompositionCache(cache);
+
+        double[] expected = getMatrix(models[0], 0.3);
+        assertArrayEquals(expected, getMatrix(models[1], 0.3));
+        assertArrayEquals(expected, getMatrix(models[2], 0.3));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMatrixHitCount());
+    }
+
+    public void testEviction() {
+        // room for two 4 state decompositions but not three
+        EigenDecompositionCache cache = new EigenDecompositionCache(1600);
+        Parameter rates = new Parameter.Default(RATES);
+        GeneralSubstitutionModel model = createGeneralModel(cache, rates);
+        for (int i = 0; i < 3; i++) {
+            rates.setParameterValue(0, i + 1.0);
+            model.getEigenDecomposition();
+        }
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+
+        // the least recently used was evicted
+        rates.setParameterValue(0, 1.0);
+        model.getEigenDecomposition();
+        assertEquals(4, cache.getMissCount());
+
+        // matrices are dropped rather than exceeding the budget
+        for (int i = 0; i < 10; i++) {
+            getMatrix(model, 0.1 * (i + 1));
+        }
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+    }
+
+    private static void assertArrayEquals(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0.0);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * TreeModelStoreRestoreTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package test.dr.evomodel.tree;
+
+import dr.evolution.tree.MutableTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.bigfasttree.BigFastTreeModel;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.NewTreeModel;
+import dr.inference.model.Model;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+import test.dr.benchmark.SyntheticData;
+
+import java.util.Arrays;
+
+/**
+ * Checks that the tree models restore exactly the tree that was stored after a random mix of
+ * exchanges and height changes, some of which are accepted and some rejected, so that the
+ * journal of changed nodes is exercised across several store/accept/restore cycles.
+ *
+ * @author agent
+ */
+public class TreeModelStoreRestoreTest extends TestCase {
+
+    private static final int TAXON_COUNT = 50;
+    private static final int STEPS = 2000;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        MathUtils.setSeed(666);
+    }
+
+    public void testDefaultTreeModel() {
+        DefaultTreeModel treeModel = new DefaultTreeModel("treeModel", SyntheticData.createTree(TAXON_COUNT));
+        checkStoreRestore(treeModel, treeModel);
+    }
+
+    public void testNewTreeModel() {
+        NewTreeModel treeModel = new NewTreeModel("treeModel", SyntheticData.createTree(TAXON_COUNT));
+        checkStoreRestore(treeModel, treeModel);
+    }
+
+    public void testBigFastTreeModel() {
+        BigFastTreeModel treeModel = new BigFastTreeModel("treeModel", SyntheticData.createTree(TAXON_COUNT));
+        checkStoreRestore(treeModel, treeModel);
+    }
+
+    private void checkStoreRestore(Model model, MutableTree tree) {
+        NodeRef[] nodes = new NodeRef[tree.getNodeCount()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = tree.getNode(i);
+        }
+
+        int restored = 0;
+        for (int step = 0; step < STEPS; step++) {
+            model.storeModelState();
+            String before = getState(tree);
+
+            int moves = 1 + MathUtils.nextInt(3);
+            for (int k = 0; k < moves; k++) {
+                if (MathUtils.nextBoolean()) {
+                    narrowExchange(tree);
+                } else {
+                    SyntheticData.moveNodeHeight(tree);
+                }
+            }
+
+            if (MathUtils.nextBoolean()) {
+                model.restoreModelState();
+                assertEquals("step " + step, before, getState(tree));
+                restored++;
+            } else {
+                model.acceptModelState();
+            }
+        }
+        assertTrue(restored > 0 && restored < STEPS);
+
+        // the node objects last for the life of the model
+        for (int i = 0; i < nodes.length; i++) {
+            assertSame(nodes[i], tree.getNode(i));
+        }
+    }
+
+    /**
+     * @return the parent, children and height of every node and the root
+     */
+    private static String getState(Tree tree) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(tree.getRoot().getNumber());
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            NodeRef node = tree.getNode(i);
+            NodeRef parent = tree.getParent(node);
+            int[] children = new int[tree.getChildCount(node)];
+            for (int c = 0; c < children.length; c++) {
+                children[c] = tree.getChild(node, c).getNumber();
+            }
+            builder.append(';').append(parent == null ? -1 : parent.getNumber())
+                    .append(Arrays.toString(children))
+                    .append(tree.getNodeHeight(node));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Swaps a node with its uncle if the uncle is younger than its parent.
+     */
+    private static void narrowExchange(MutableTree tree) {
+        NodeRef i;
+        do {
+            i = tree.getNode(MathUtils.nextInt(tree.getNodeCount()));
+        } while (tree.isRoot(i) || tree.isRoot(tree.getParent(i)));
+
+        NodeRef iP = tree.getParent(i);
+        NodeRef iG = tree.getParent(iP);
+        NodeRef j = tree.getChild(iG, 0) == iP ? tree.getChild(iG, 1) : tree.getChild(iG, 0);
+
+        if (tree.getNodeHeight(j) < tree.getNodeHeight(iP)) {
+            tree.beginTreeEdit();
+            tree.removeChild(iP, i);
+            tree.removeChild(iG, j);
+            tree.addChild(iP, j);
+            tree.addChild(iG, i);
+            tree.endTreeEdit();
+        }
+    }
+}
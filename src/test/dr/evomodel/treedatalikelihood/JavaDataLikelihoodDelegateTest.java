@@ -0,0 +1,244 @@
+/*
+ * JavaDataLikelihoodDelegateTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.branchmodel.EpochBranchModel;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.ArbitraryBranchRates;
+import dr.evomodel.branchratemodel.BranchRateModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.substmodel.nucleotide.GTR;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.PreOrderSettings;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.discrete.BranchRateGradientForDiscreteTrait;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.evomodelxml.substmodel.GTRParser;
+import dr.evomodelxml.substmodel.HKYParser;
+import dr.inference.model.Parameter;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.util.Arrays;
+
+/**
+ * Checks the Java likelihood core against the values from BEAGLE in TreeDataLikelihoodTest
+ * and its branch rate gradient against finite differences.
+ *
+ * @author agent
+ */
+public class JavaDataLikelihoodDelegateTest extends TraceCorrelationAssert {
+
+    private static final double TOLERANCE = 1E-5;
+
+    private TreeModel treeModel;
+
+    public JavaDataLikelihoodDelegateTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+
+        treeModel = createPrimateTreeModel();
+    }
+
+    private TreeDataLikelihood getTreeDataLikelihood(SubstitutionModel substitutionModel,
+                                                     GammaSiteRateModel siteRateModel,
+                                                     BranchRateModel branchRateModel,
+                                                     PartialsRescalingScheme rescalingScheme,
+                                                     boolean usePreOrder,
+                                                     int threadCount) {
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        JavaDataLikelihoodDelegate dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(
+                treeModel,
+                patterns,
+                new HomogeneousBranchModel(substitutionModel),
+                siteRateModel,
+                false,
+                rescalingScheme,
+                false,
+                new PreOrderSettings(usePreOrder, usePreOrder, false, false),
+                threadCount
+        );
+
+        return new TreeDataLikelihood(dataLikelihoodDelegate, treeModel, branchRateModel);
+    }
+
+    private HKY getHKY(double kappa) {
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, new Parameter.Default(alignment.getStateFrequencies()));
+        return new HKY(new Parameter.Default(HKYParser.KAPPA, kappa), f);
+    }
+
+    private GTR getGTR() {
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, new Parameter.Default(alignment.getStateFrequencies()));
+        return new GTR(
+                new Parameter.Default(GTRParser.A_TO_C, 1.0),
+                new Parameter.Default(GTRParser.A_TO_G, 1.0),
+                new Parameter.Default(GTRParser.A_TO_T, 1.0),
+                new Parameter.Default(GTRParser.C_TO_G, 1.0),
+                new Parameter.Default(GTRParser.C_TO_T, 1.0),
+                new Parameter.Default(GTRParser.G_TO_T, 1.0), f);
+    }
+
+    public void testLikelihoodJC69() {
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, new Parameter.Default(new double[]{0.25, 0.25, 0.25, 0.25}));
+        HKY hky = new HKY(new Parameter.Default(HKYParser.KAPPA, 1.0), f);
+
+        TreeDataLikelihood treeDataLikelihood = getTreeDataLikelihood(hky, new GammaSiteRateModel("gamma"),
+                new DefaultBranchRateModel(), PartialsRescalingScheme.NONE, false, 1);
+
+        assertEquals("treeLikelihoodJC69", -1992.20564, treeDataLikelihood.getLogLikelihood(), TOLERANCE);
+    }
+
+    public void testLikelihoodHKY85GI() {
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma",
+                null, 1.0,
+                new Parameter.Default(0.5),
+                4,
+                new Parameter.Default(0.75));
+
+        TreeDataLikelihood treeDataLikelihood = getTreeDataLikelihood(getHKY(8.0), siteRateModel,
+                new DefaultBranchRateModel(), PartialsRescalingScheme.DEFAULT, false, 1);
+
+        assertEquals("treeLikelihoodHKY85GI", -1815.02176, treeDataLikelihood.getLogLikelihood(), TOLERANCE);
+    }
+
+    public void testLikelihoodGTRG() {
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma",
+                null, 1.0,
+                new Parameter.Default(0.5), 4,
+                null);
+
+        TreeDataLikelihood treeDataLikelihood = getTreeDataLikelihood(getGTR(), siteRateModel,
+                new DefaultBranchRateModel(), PartialsRescalingScheme.ALWAYS, false, 1);
+
+        assertEquals("treeLikelihoodGTRG", -1949.03601, treeDataLikelihood.getLogLikelihood(), TOLERANCE);
+    }
+
+    public void testThreadsAndRestore() {
+        Parameter alpha = new Parameter.Default(0.5);
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma",
+                null, 1.0,
+                alpha, 4,
+                new Parameter.Default(0.5));
+
+        TreeDataLikelihood treeDataLikelihood = getTreeDataLikelihood(getGTR(), siteRateModel,
+                new DefaultBranchRateModel(), PartialsRescalingScheme.ALWAYS, false, 4);
+
+        assertEquals("treeLikelihoodGTRGI", -1951.62188, treeDataLikelihood.getLogLikelihood(), TOLERANCE);
+
+        // change the model and then reject the change
+        treeDataLikelihood.storeModelState();
+        alpha.setParameterValue(0, 2.0);
+        assertTrue(Math.abs(treeDataLikelihood.getLogLikelihood() + 1951.62188) > TOLERANCE);
+        treeDataLikelihood.restoreModelState();
+
+        // recompute the root from the restored partials of its children
+        treeModel.setNodeHeight(treeModel.getRoot(), treeModel.getNodeHeight(treeModel.getRoot()));
+
+        assertEquals("treeLikelihoodGTRGI", -1951.62188, treeDataLikelihood.getLogLikelihood(), TOLERANCE);
+    }
+
+    public void testBranchRateGradient() {
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma",
+                null, 1.0,
+                new Parameter.Default(0.5), 4,
+                null);
+
+        int rateCount = treeModel.getNodeCount() - 1;
+        Parameter rates = new Parameter.Default(rateCount);
+        for (int i = 0; i < rateCount; i++) {
+            rates.setParameterValue(i, 0.5 + 0.1 * i);
+        }
+        ArbitraryBranchRates branchRateModel = new ArbitraryBranchRates(treeModel, rates,
+                new ArbitraryBranchRates.BranchRateTransform.None(), false);
+
+        TreeDataLikelihood treeDataLikelihood = getTreeDataLikelihood(getHKY(8.0), siteRateModel,
+                branchRateModel, PartialsRescalingScheme.ALWAYS, true, 2);
+
+        BranchRateGradientForDiscreteTrait gradientProvider = new BranchRateGradientForDiscreteTrait("Sequence",
+                treeDataLikelihood, treeDataLikelihood.getDataLikelihoodDelegate(), rates, false);
+
+        double[] gradient = gradientProvider.getGradientLogDensity();
+
+        final double h = 1E-6;
+        for (int i = 0; i < rateCount; i++) {
+            double rate = rates.getParameterValue(i);
+
+            rates.setParameterValue(i, rate + h);
+            double logL1 = treeDataLikelihood.getLogLikelihood();
+            rates.setParameterValue(i, rate - h);
+            double logL2 = treeDataLikelihood.getLogLikelihood();
+            rates.setParameterValue(i, rate);
+
+            double numerical = (logL1 - logL2) / (2.0 * h);
+            assertEquals("gradient " + i, numerical, gradient[i], 1E-4 * Math.max(1.0, Math.abs(numerical)));
+        }
+    }
+
+    public void testEpochGradientRejected() {
+        EpochBranchModel branchModel = new EpochBranchModel(treeModel,
+                Arrays.<SubstitutionModel>asList(getHKY(2.0), getHKY(8.0)),
+                new Parameter.Default(0.01));
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        try {
+            new JavaDataLikelihoodDelegate(treeModel, patterns, branchModel, new GammaSiteRateModel("gamma"),
+                    false, PartialsRescalingScheme.NONE, false,
+                    new PreOrderSettings(true, true, false, false), 1);
+            fail("pre-order gradients with an epoch model should be rejected");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+
+        // without pre-order the epoch model is supported
+        JavaDataLikelihoodDelegate dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(treeModel, patterns,
+                branchModel, new GammaSiteRateModel("gamma"),
+                false, PartialsRescalingScheme.NONE, false,
+                new PreOrderSettings(false, false, false, false), 1);
+        TreeDataLikelihood treeDataLikelihood = new TreeDataLikelihood(dataLikelihoodDelegate, treeModel,
+                new DefaultBranchRateModel());
+        assertFalse(Double.isNaN(treeDataLikelihood.getLogLikelihood()));
+    }
+
+    public static Test suite() {
+        return new TestSuite(JavaDataLikelihoodDelegateTest.class);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * SafeMultivariateIntegratorTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.treedatalikelihood.continuous.cdi;
+
+import dr.evomodel.treedatalikelihood.continuous.cdi.CDIFlag;
+import dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.evomodel.treedatalikelihood.continuous.cdi.SafeMultivariateIntegrator;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that integrating the traits in parallel gives exactly the same partials and log likelihoods
+ * as integrating them serially.
+ *
+ * @author agent
+ */
+
+public class SafeMultivariateIntegratorTest {
+
+    private static final int NUM_TRAITS = 7;
+    private static final int DIM_TRAIT = 3;
+
+    // ((0,1)4,(2,3)5)6 with the root prior in buffer 7
+    private static final int TIP_COUNT = 4;
+    private static final int ROOT = 6;
+    private static final int PRIOR = 7;
+    private static final int BUFFER_COUNT = 8;
+
+    private static final int[] POST_ORDER_OPERATIONS = {
+            4, 0, 0, 1, 1,
+            5, 2, 2, 3, 3,
+            6, 4, 4, 5, 5
+    };
+
+    private static final int[][] PRE_ORDER_OPERATIONS = {
+            {6, 4, 4, 5, 5},
+            {6, 5, 5, 4, 4},
+            {4, 0, 0, 1, 1},
+            {4, 1, 1, 0, 0},
+            {5, 2, 2, 3, 3},
+            {5, 3, 3, 2, 2}
+    };
+
+    private static final double[] BRANCH_LENGTHS = {0.5, 1.2, 0.3, 0.8, 0.7, 0.4};
+
+    @Test
+    public void traitParallelIntegration() {
+        SafeMultivariateIntegrator serial = createIntegrator(CDIFlag.THREADING_NONE.getMask(), 1);
+        SafeMultivariateIntegrator parallel = createIntegrator(CDIFlag.THREADING_JAVA.getMask(), 3);
+
+        assertFalse(CDIFlag.THREADING_JAVA.isSet(serial.getDetails().getFlags()));
+        assertTrue(CDIFlag.THREADING_JAVA.isSet(parallel.getDetails().getFlags()));
+
+        double[] serialLogLikelihoods = integrate(serial);
+        double[] parallelLogLikelihoods = integrate(parallel);
+        for (double logLikelihood : serialLogLikelihoods) {
+            assertFalse(Double.isNaN(logLikelihood) || Double.isInfinite(logLikelihood));
+        }
+        assertIdentical(serialLogLikelihoods, parallelLogLikelihoods);
+
+        int length = NUM_TRAITS * PrecisionType.FULL.getPartialsDimension(DIM_TRAIT);
+        double[] serialPartial = new double[length];
+        double[] parallelPartial = new double[length];
+        for (int buffer = 0; buffer < BUFFER_COUNT - 1; buffer++) {
+            serial.getPostOrderPartial(buffer, serialPartial);
+            parallel.getPostOrderPartial(buffer, parallelPartial);
+            assertIdentical(serialPartial, parallelPartial);
+
+            serial.getPreOrderPartial(buffer, serialPartial);
+            parallel.getPreOrderPartial(buffer, parallelPartial);
+            assertIdentical(serialPartial, parallelPartial);
+        }
+    }
+
+    private static SafeMultivariateIntegrator createIntegrator(long flags, int threadCount) {
+        SafeMultivariateIntegrator cdi = new SafeMultivariateIntegrator(PrecisionType.FULL, NUM_TRAITS, DIM_TRAIT,
+                DIM_TRAIT, BUFFER_COUNT, 1, flags, threadCount);
+
+        Random random = new Random(1234);
+        int length = PrecisionType.FULL.getPartialsDimension(DIM_TRAIT);
+
+        for (int tip = 0; tip < TIP_COUNT; tip++) {
+            double[] partial = new double[length * NUM_TRAITS];
+            for (int trait = 0; trait < NUM_TRAITS; trait++) {
+                int offset = trait * length;
+                int observed = 0;
+                for (int i = 0; i < DIM_TRAIT; i++) {
+                    // leave a few values missing
+                    boolean missing = random.nextDouble() < 0.2;
+                    partial[offset + i] = missing ? 0.0 : random.nextGaussian();
+                    PrecisionType.FULL.fillPrecisionInPartials(partial, offset, i,
+                            PrecisionType.getObservedPrecisionValue(missing), DIM_TRAIT);
+                    if (!missing) {
+                        observed++;
+                    }
+                }
+                PrecisionType.FULL.fillEffDimInPartials(partial, offset, observed, DIM_TRAIT);
+                PrecisionType.FULL.fillNoDeterminantInPartials(partial, offset, DIM_TRAIT);
+            }
+            cdi.setPostOrderPartial(tip, partial);
+        }
+
+        double[] prior = new double[length * NUM_TRAITS];
+        for (int trait = 0; trait < NUM_TRAITS; trait++) {
+            int offset = trait * length;
+            for (int i = 0; i < DIM_TRAIT; i++) {
+                prior[offset + i] = 0.1 * i;
+                PrecisionType.FULL.fillPrecisionInPartials(prior, offset, i, 0.5, DIM_TRAIT);
+            }
+            PrecisionType.FULL.fillEffDimInPartials(prior, offset, DIM_TRAIT, DIM_TRAIT);
+        }
+        cdi.setPostOrderPartial(PRIOR, prior);
+
+        double[] precision = {
+                2.0, 0.5, 0.1,
+                0.5, 1.5, 0.3,
+                0.1, 0.3, 1.0
+        };
+        cdi.setDiffusionPrecision(0, precision, Math.log(2.585));
+
+        return cdi;
+    }
+
+    private static double[] integrate(ContinuousDiffusionIntegrator cdi) {
+        int[] branchIndices = {0, 1, 2, 3, 4, 5};
+        cdi.updateBrownianDiffusionMatrices(0, branchIndices, BRANCH_LENGTHS, null, branchIndices.length);
+        cdi.updatePostOrderPartials(POST_ORDER_OPERATIONS, POST_ORDER_OPERATIONS.length / ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE,
+                0, true, false);
+
+        double[] logLikelihoods = new double[NUM_TRAITS];
+        cdi.calculateRootLogLikelihood(ROOT, PRIOR, 0, logLikelihoods, false, false);
+
+        cdi.calculatePreOrderRoot(PRIOR, ROOT, 0);
+        for (int[] operation : PRE_ORDER_OPERATIONS) {
+            cdi.updatePreOrderPartial(operation[0], operation[1], operation[2], operation[3], operation[4]);
+        }
+        return logLikelihoods;
+    }
+
+    private static void assertIdentical(double[] expected, double[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]));
+        }
+    }
+}
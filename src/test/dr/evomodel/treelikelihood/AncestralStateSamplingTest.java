@@ -0,0 +1,268 @@
+/*
+ * AncestralStateSamplingTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.treelikelihood;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.util.Taxon;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treelikelihood.AncestralStateBeagleTreeLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests the sampling of ancestral states by AncestralStateBeagleTreeLikelihood, using the Java
+ * implementation of BEAGLE so it doesn't need the native library.
+ *
+ * @author agent
+ */
+public class AncestralStateSamplingTest extends TestCase {
+
+    private FlexibleTree tree;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        javaOnly = System.getProperty(JAVA_ONLY);
+        System.setProperty(JAVA_ONLY, "true");
+
+        MathUtils.setSeed(666);
+
+        NewickImporter importer = new NewickImporter("(0:2.0,(1:1.0,2:1.0):1.0);");
+        tree = (FlexibleTree) importer.importTree(null);
+    }
+
+    public void tearDown() throws Exception {
+        if (javaOnly == null) {
+            System.clearProperty(JAVA_ONLY);
+        } else {
+            System.setProperty(JAVA_ONLY, javaOnly);
+        }
+        super.tearDown();
+    }
+
+    // transition prob of JC69
+    private double t(boolean same, double time) {
+        if (same) {
+            return 0.25 + 0.75 * Math.exp(-4.0 / 3.0 * time);
+        } else {
+            return 0.25 - 0.25 * Math.exp(-4.0 / 3.0 * time);
+        }
+    }
+
+    public void testSampledStatesMatchMathUtils() {
+        TreeModel treeModel = new DefaultTreeModel("treeModel", tree);
+        SimpleAlignment alignment = createAlignment(500);
+        AncestralStateBeagleTreeLikelihood treeLikelihood = createSampler(alignment, treeModel);
+        treeLikelihood.getLogLikelihood();
+
+        MathUtils.setSeed(1234);
+        int[][] states = getStates(treeLikelihood, treeModel);
+
+        // the states drawn with one thread are those of drawing each pattern with MathUtils.randomChoicePDF
+        // from the root down, as before the sampling was done in blocks
+        MathUtils.setSeed(1234);
+        int[][] expected = new int[treeModel.getNodeCount()][];
+        double[][][] partials = new double[treeModel.getNodeCount()][][];
+        getPartials(treeModel, treeModel.getRoot(), alignment, partials);
+        sampleStates(treeModel, treeModel.getRoot(), null, partials, expected);
+
+        for (int i = 0; i < treeModel.getInternalNodeCount(); i++) {
+            int nodeNum = treeModel.getInternalNode(i).getNumber();
+            assertArrayEquals(expected[nodeNum], states[nodeNum]);
+        }
+    }
+
+    public void testThreadCountInvariance() {
+        TreeModel treeModel = new DefaultTreeModel("treeModel", tree);
+        AncestralStateBeagleTreeLikelihood treeLikelihood = createSampler(createAlignment(5000), treeModel);
+
+        treeLikelihood.setReconstructionThreadCount(2);
+        treeLikelihood.getLogLikelihood();
+        MathUtils.setSeed(4321);
+        int[][] states2 = getStates(treeLikelihood, treeModel);
+
+        treeLikelihood.setReconstructionThreadCount(4);
+        treeLikelihood.makeDirty();
+        treeLikelihood.getLogLikelihood();
+        MathUtils.setSeed(4321);
+        int[][] states4 = getStates(treeLikelihood, treeModel);
+
+        for (int i = 0; i < states2.length; i++) {
+            assertArrayEquals(states2[i], states4[i]);
+        }
+    }
+
+    public void testStoreRedrawRestore() {
+        for (int threadCount : new int[]{1, 4}) {
+            TreeModel treeModel = new DefaultTreeModel("treeModel", tree);
+            AncestralStateBeagleTreeLikelihood treeLikelihood = createSampler(createAlignment(5000), treeModel);
+            treeLikelihood.setReconstructionThreadCount(threadCount);
+
+            treeLikelihood.getLogLikelihood();
+            int[][] stored = getStates(treeLikelihood, treeModel);
+
+            treeLikelihood.storeModelState();
+            treeLikelihood.redrawAncestralStates();
+            int[][] redrawn = getStates(treeLikelihood, treeModel);
+            int rootNum = treeModel.getRoot().getNumber();
+            assertFalse("the redrawn states should differ", Arrays.equals(stored[rootNum], redrawn[rootNum]));
+
+            treeLikelihood.restoreModelState();
+            int[][] restored = getStates(treeLikelihood, treeModel);
+            for (int i = 0; i < stored.length; i++) {
+                assertArrayEquals(stored[i], restored[i]);
+            }
+        }
+    }
+
+    private SimpleAlignment createAlignment(int siteCount) {
+        Random random = new Random(666);
+        String[] sequences = new String[3];
+        char[] ancestor = new char[siteCount];
+        for (int k = 0; k < siteCount; k++) {
+            ancestor[k] = "ACGT".charAt(random.nextInt(4));
+        }
+        SimpleAlignment alignment = new SimpleAlignment();
+        for (int i = 0; i < sequences.length; i++) {
+            char[] sequence = ancestor.clone();
+            for (int k = 0; k < siteCount; k++) {
+                if (random.nextDouble() < 0.3) {
+                    sequence[k] = "ACGT".charAt(random.nextInt(4));
+                }
+            }
+            alignment.addSequence(new Sequence(new Taxon(Integer.toString(i)), new String(sequence)));
+        }
+        return alignment;
+    }
+
+    private AncestralStateBeagleTreeLikelihood createSampler(SimpleAlignment alignment, TreeModel treeModel) {
+        HKY hky = new HKY(new Parameter.Default(1, 1.0),
+                new FrequencyModel(Nucleotides.INSTANCE, new Parameter.Default(new double[]{0.25, 0.25, 0.25, 0.25})));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gammaModel", new Parameter.Default(1, 1.0));
+        siteRateModel.setSubstitutionModel(hky);
+
+        return new AncestralStateBeagleTreeLikelihood(alignment, treeModel, new HomogeneousBranchModel(hky),
+                siteRateModel, null, null, false, PartialsRescalingScheme.NONE, false, null,
+                hky.getDataType(), "states", false, true);
+    }
+
+    private int[][] getStates(AncestralStateBeagleTreeLikelihood treeLikelihood, TreeModel treeModel) {
+        int[][] states = new int[treeModel.getNodeCount()][];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = treeLikelihood.getStatesForNode(treeModel, treeModel.getNode(i)).clone();
+        }
+        return states;
+    }
+
+    /**
+     * The JC69 partials (by pattern then state) of each node below this one.
+     */
+    private void getPartials(TreeModel treeModel, NodeRef node, SimpleAlignment alignment, double[][][] partials) {
+        int siteCount = alignment.getSiteCount();
+        double[][] nodePartials = new double[siteCount][4];
+        if (treeModel.isExternal(node)) {
+            int taxon = alignment.getTaxonIndex(treeModel.getNodeTaxon(node).getId());
+            for (int j = 0; j < siteCount; j++) {
+                nodePartials[j][alignment.getState(taxon, j)] = 1.0;
+            }
+        } else {
+            for (double[] p : nodePartials) {
+                Arrays.fill(p, 1.0);
+            }
+            for (int c = 0; c < treeModel.getChildCount(node); c++) {
+                NodeRef child = treeModel.getChild(node, c);
+                getPartials(treeModel, child, alignment, partials);
+                double time = treeModel.getNodeHeight(node) - treeModel.getNodeHeight(child);
+                for (int j = 0; j < siteCount; j++) {
+                    for (int i = 0; i < 4; i++) {
+                        double sum = 0.0;
+                        for (int k = 0; k < 4; k++) {
+                            sum += t(i == k, time) * partials[child.getNumber()][j][k];
+                        }
+                        nodePartials[j][i] *= sum;
+                    }
+                }
+            }
+        }
+        partials[node.getNumber()] = nodePartials;
+    }
+
+    /**
+     * Samples the states of the internal nodes in the same order as the likelihood (a pattern at a
+     * time for each node, from the root down).
+     */
+    private void sampleStates(TreeModel treeModel, NodeRef node, int[] parentStates, double[][][] partials, int[][] states) {
+        if (treeModel.isExternal(node)) {
+            return;
+        }
+        double[][] nodePartials = partials[node.getNumber()];
+        int[] nodeStates = new int[nodePartials.length];
+        double[] pdf = new double[4];
+        for (int j = 0; j < nodePartials.length; j++) {
+            for (int i = 0; i < 4; i++) {
+                if (parentStates == null) {
+                    pdf[i] = 0.25 * nodePartials[j][i];
+                } else {
+                    double time = treeModel.getNodeHeight(treeModel.getParent(node)) - treeModel.getNodeHeight(node);
+                    pdf[i] = t(parentStates[j] == i, time) * nodePartials[j][i];
+                }
+            }
+            nodeStates[j] = MathUtils.randomChoicePDF(pdf);
+        }
+        states[node.getNumber()] = nodeStates;
+        for (int c = 0; c < treeModel.getChildCount(node); c++) {
+            sampleStates(treeModel, treeModel.getChild(node, c), nodeStates, partials, states);
+        }
+    }
+
+    private static void assertArrayEquals(int[] expected, int[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int j = 0; j < expected.length; j++) {
+            assertEquals("pattern " + j, expected[j], actual[j]);
+        }
+    }
+
+    private static final String JAVA_ONLY = "java.only";
+
+    private String javaOnly;
+}
@@ -0,0 +1,255 @@
+/*
+ * GeoSpatialIndexTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.geo;
+
+import dr.geo.GeoSpatialCollectionModel;
+import dr.geo.GeoSpatialDistribution;
+import dr.geo.MultiRegionGeoSpatialDistribution;
+import dr.geo.Polygon2D;
+import dr.geo.Polygon2DSampling;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the indexed point-in-polygon queries against testing every edge of every polygon.
+ *
+ * @author agent
+ */
+public class GeoSpatialIndexTest extends TestCase {
+
+    private static final int POINT_COUNT = 20000;
+
+    public void testContainsPoint() {
+        MathUtils.setSeed(666);
+        for (int vertexCount : new int[]{5, 40, 500, 5000}) {
+            double[][] xy = getStarPolygon(vertexCount, 10.0, -20.0, 5.0);
+            Polygon2D polygon = new Polygon2D(xy[0], xy[1]);
+            for (int k = 0; k < POINT_COUNT; k++) {
+                double x = 10.0 + MathUtils.uniform(-6.0, 6.0);
+                double y = -20.0 + MathUtils.uniform(-6.0, 6.0);
+                assertEquals(contains(xy[0], xy[1], x, y), polygon.containsPoint2D(x, y));
+            }
+            // the vertices themselves
+            for (int i = 0; i < vertexCount; i++) {
+                assertEquals(contains(xy[0], xy[1], xy[0][i], xy[1][i]), polygon.containsPoint2D(xy[0][i], xy[1][i]));
+            }
+        }
+    }
+
+    public void testMultiRegion() {
+        MathUtils.setSeed(666);
+        final int regionCount = 200;
+        List<double[][]> polygons = new ArrayList<double[][]>();
+        for (int r = 0; r < regionCount; r++) {
+            polygons.add(getStarPolygon(50 + MathUtils.nextInt(100),
+                    MathUtils.uniform(-100, 100), MathUtils.uniform(-50, 50), MathUtils.uniform(1, 20)));
+        }
+
+        for (boolean inside : new boolean[]{true, false}) {
+            List<GeoSpatialDistribution> regions = new ArrayList<GeoSpatialDistribution>();
+            for (double[][] xy : polygons) {
+                regions.add(new GeoSpatialDistribution("", new Polygon2D(xy[0], xy[1]), inside));
+            }
+            MultiRegionGeoSpatialDistribution union = new MultiRegionGeoSpatialDistribution("", regions, true, false);
+            MultiRegionGeoSpatialDistribution intersection = new MultiRegionGeoSpatialDistribution("", regions, false, false);
+            for (int k = 0; k < POINT_COUNT; k++) {
+                double[] point = getPoint();
+                boolean anyContains = false;
+                boolean allContain = true;
+                for (double[][] xy : polygons) {
+                    boolean contains = contains(xy[0], xy[1], point[0], point[1]);
+                    anyContains |= (contains == inside);
+                    allContain &= (contains == inside);
+                }
+                assertEquals(anyContains ? 0.0 : Double.NEGATIVE_INFINITY, union.logPdf(point));
+                assertEquals(allContain ? 0.0 : Double.NEGATIVE_INFINITY, intersection.logPdf(point));
+                // again from the cache
+                assertEquals(anyContains ? 0.0 : Double.NEGATIVE_INFINITY, union.logPdf(point));
+            }
+        }
+    }
+
+    public void testRegionsFixed() {
+        double[][] first = getStarPolygon(50, -50.0, 0.0, 10.0);
+        double[][] second = getStarPolygon(50, 50.0, 0.0, 10.0);
+        List<GeoSpatialDistribution> regions = new ArrayList<GeoSpatialDistribution>();
+        regions.add(new GeoSpatialDistribution("", new Polygon2D(first[0], first[1]), true));
+        MultiRegionGeoSpatialDistribution union = new MultiRegionGeoSpatialDistribution("", regions, true, false);
+
+        // changing the original list does not change the distribution
+        regions.add(new GeoSpatialDistribution("", new Polygon2D(second[0], second[1]), true));
+        assertEquals(1, union.getRegions().size());
+        try {
+            union.getRegions().add(regions.get(1));
+            fail("the regions should be fixed once the distribution has been created");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertEquals(0.0, union.logPdf(new double[]{-50.0, 0.0}));
+        assertEquals(Double.NEGATIVE_INFINITY, union.logPdf(new double[]{50.0, 0.0}));
+
+        // the union of both regions
+        union = new MultiRegionGeoSpatialDistribution("", regions, true, false);
+        assertEquals(0.0, union.logPdf(new double[]{-50.0, 0.0}));
+        assertEquals(0.0, union.logPdf(new double[]{50.0, 0.0}));
+    }
+
+    public void testFillValues() {
+        MathUtils.setSeed(666);
+        final int regionCount = 100;
+        List<double[][]> polygons = new ArrayList<double[][]>();
+        List<GeoSpatialDistribution> regions = new ArrayList<GeoSpatialDistribution>();
+        for (int r = 0; r < regionCount; r++) {
+            double[][] xy = getStarPolygon(50, MathUtils.uniform(-100, 100), MathUtils.uniform(-50, 50), 15.0);
+            polygons.add(xy);
+            Polygon2DSampling polygon = new Polygon2DSampling(xy[0], xy[1], 0.0);
+            polygon.setFillValue((r + 1.0) / regionCount);
+            regions.add(new GeoSpatialDistribution("", polygon, true));
+        }
+        MultiRegionGeoSpatialDistribution distribution = new MultiRegionGeoSpatialDistribution("", regions, false, true);
+
+        for (int k = 0; k < POINT_COUNT; k++) {
+            double[] point = getPoint();
+            double expected = Double.NEGATIVE_INFINITY;
+            for (int r = 0; r < regionCount; r++) {
+                double[][] xy = polygons.get(r);
+                if (contains(xy[0], xy[1], point[0], point[1])) {
+                    // the first containing region
+                    expected = Math.log((r + 1.0) / regionCount);
+                    break;
+                }
+            }
+            assertEquals(expected, distribution.logPdf(point));
+        }
+    }
+
+    public void testCollectionModel() {
+        MathUtils.setSeed(666);
+        final int regionCount = 50;
+        final int pointCount = 500;
+        List<double[][]> polygons = new ArrayList<double[][]>();
+        List<GeoSpatialDistribution> regions = new ArrayList<GeoSpatialDistribution>();
+        for (int r = 0; r < regionCount; r++) {
+            double[][] xy = getStarPolygon(100, MathUtils.uniform(-100, 100), MathUtils.uniform(-50, 50), 30.0);
+            polygons.add(xy);
+            regions.add(new GeoSpatialDistribution("", new Polygon2D(xy[0], xy[1]), true));
+        }
+        Parameter points = new Parameter.Default(pointCount * 2);
+        for (int k = 0; k < pointCount; k++) {
+            double[] point = getPoint();
+            points.setParameterValue(k * 2, point[0]);
+            points.setParameterValue(k * 2 + 1, point[1]);
+        }
+
+        int insideCount = 0;
+        for (int k = 0; k < pointCount; k++) {
+            double x = points.getParameterValue(k * 2);
+            double y = points.getParameterValue(k * 2 + 1);
+            for (double[][] xy : polygons) {
+                if (contains(xy[0], xy[1], x, y)) {
+                    insideCount++;
+                    break;
+                }
+            }
+        }
+        assertTrue(insideCount > 0 && insideCount < pointCount);
+
+        // union: every point must be in a region
+        GeoSpatialCollectionModel union = new GeoSpatialCollectionModel("union", points, regions, false);
+        assertEquals(insideCount == pointCount ? 0.0 : Double.NEGATIVE_INFINITY, union.getLogLikelihood());
+
+        // move the points outside all the regions into the first one
+        double[][] first = polygons.get(0);
+        double[] centre = {mean(first[0]), mean(first[1])};
+        assertTrue(contains(first[0], first[1], centre[0], centre[1]));
+        for (int k = 0; k < pointCount; k++) {
+            double x = points.getParameterValue(k * 2);
+            double y = points.getParameterValue(k * 2 + 1);
+            boolean inAny = false;
+            for (double[][] xy : polygons) {
+                inAny |= contains(xy[0], xy[1], x, y);
+            }
+            if (!inAny) {
+                points.setParameterValue(k * 2, centre[0]);
+                points.setParameterValue(k * 2 + 1, centre[1]);
+            }
+        }
+        assertEquals(0.0, union.getLogLikelihood());
+
+        GeoSpatialCollectionModel intersection = new GeoSpatialCollectionModel("intersection", points, regions, true);
+        assertEquals(Double.NEGATIVE_INFINITY, intersection.getLogLikelihood());
+    }
+
+    private static double[] getPoint() {
+        return new double[]{MathUtils.uniform(-130, 130), MathUtils.uniform(-80, 80)};
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0.0;
+        for (int i = 0; i < values.length - 1; i++) {
+            sum += values[i];
+        }
+        return sum / (values.length - 1);
+    }
+
+    /**
+     * A closed, irregular star shaped polygon (so horizontal rays cross many edges).
+     */
+    private static double[][] getStarPolygon(int vertexCount, double centreX, double centreY, double radius) {
+        double[] x = new double[vertexCount + 1];
+        double[] y = new double[vertexCount + 1];
+        for (int i = 0; i < vertexCount; i++) {
+            double angle = 2.0 * Math.PI * i / vertexCount;
+            double r = radius * (i % 2 == 0 ? 1.0 : MathUtils.uniform(0.2, 0.9));
+            x[i] = centreX + r * Math.cos(angle);
+            y[i] = centreY + r * Math.sin(angle);
+        }
+        x[vertexCount] = x[0];
+        y[vertexCount] = y[0];
+        return new double[][]{x, y};
+    }
+
+    /**
+     * The even-odd ray casting test over every edge.
+     */
+    private static boolean contains(double[] x, double[] y, double inX, double inY) {
+        final int length = x.length - 1;
+        boolean contains = false;
+        for (int i = 0, j = length - 1; i < length; j = i++) {
+            if ((((y[i] <= inY) && (inY < y[j])) ||
+                    ((y[j] <= inY) && (inY < y[i]))) &&
+                    (inX < (x[j] - x[i]) * (inY - y[i]) / (y[j] - y[i]) + x[i]))
+                contains = !contains;
+        }
+        return contains;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * MultiThreadedHPHTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.hawkes;
+
+import dr.inference.hawkes.HawkesCore;
+import dr.inference.hawkes.MultiThreadedHPHImpl;
+import dr.math.MathUtils;
+import dr.math.distributions.NormalDistribution;
+import test.dr.math.MathTestCase;
+
+import java.util.Arrays;
+
+/**
+ * @author agent
+ */
+public class MultiThreadedHPHTest extends MathTestCase {
+
+    private static final int DIMENSION = 2;
+
+    // sigmaXprec, tauXprec, tauTprec, omega, theta, mu0
+    private static final double[] PARAMETERS = {2.0, 0.5, 0.3, 1.5, 0.4, 1.2};
+
+    public void testAgainstDirectCalculation() {
+        MathUtils.setSeed(666);
+        final int count = 60;
+        double[] times = getTimes(count);
+        double[] locations = getLocations(count);
+        double[] randomRates = getRandomRates(count);
+
+        HawkesCore core = createCore(3, Double.POSITIVE_INFINITY, times, locations, randomRates);
+        assertEquals(directLogLikelihood(times, locations, randomRates), core.calculateLogLikelihood(), 1E-10);
+    }
+
+    public void testIncrementalUpdates() {
+        for (double cutoff : new double[]{Double.POSITIVE_INFINITY, 3.0}) {
+            MathUtils.setSeed(1234);
+            final int count = 150;
+            double[] times = getTimes(count);
+            double[] locations = getLocations(count);
+            double[] randomRates = getRandomRates(count);
+
+            HawkesCore serial = createCore(1, cutoff, times, locations, randomRates);
+            HawkesCore parallel = createCore(3, cutoff, times, locations, randomRates);
+
+            double logLikelihood = serial.calculateLogLikelihood();
+            assertEquals(logLikelihood, parallel.calculateLogLikelihood(), 0.0);
+
+            for (int step = 0; step < 40; ++step) {
+                double[] proposal = locations.clone();
+                int index = MathUtils.nextInt(count);
+                proposal[index * DIMENSION] += MathUtils.nextGaussian();
+                if (step % 5 == 0) {
+                    proposal[((index + 1) % count) * DIMENSION + 1] += MathUtils.nextGaussian();
+                }
+                boolean accept = MathUtils.nextBoolean();
+
+                double proposed = 0.0;
+                for (HawkesCore core : new HawkesCore[]{serial, parallel}) {
+                    core.storeState();
+                    if (step % 2 == 0) {
+                        // the likelihood passes all the locations each time
+                        core.updateLocation(-1, proposal);
+                    } else {
+                        core.updateLocation(index, Arrays.copyOfRange(proposal, index * DIMENSION, (index + 1) * DIMENSION));
+                        int other = (index + 1) % count;
+                        core.updateLocation(other, Arrays.copyOfRange(proposal, other * DIMENSION, (other + 1) * DIMENSION));
+                    }
+                    double value = core.calculateLogLikelihood();
+                    if (core == serial) {
+                        proposed = value;
+                    } else {
+                        assertEquals(proposed, value, 0.0);
+                    }
+                    if (accept) {
+                        core.acceptState();
+                    } else {
+                        core.restoreState();
+                        core.restoreState();
+                    }
+                }
+
+                if (accept) {
+                    locations = proposal;
+                    logLikelihood = proposed;
+                }
+                assertEquals(logLikelihood, serial.calculateLogLikelihood(), 0.0);
+
+                HawkesCore fresh = createCore(1, cutoff, times, locations, randomRates);
+                assertEquals(fresh.calculateLogLikelihood(), serial.calculateLogLikelihood(), 1E-9);
+            }
+        }
+    }
+
+    public void testGradients() {
+        MathUtils.setSeed(42);
+        final int count = 25;
+        double[] times = getTimes(count);
+        double[] locations = getLocations(count);
+        double[] randomRates = getRandomRates(count);
+
+        HawkesCore core = createCore(2, Double.POSITIVE_INFINITY, times, locations, randomRates);
+        core.calculateLogLikelihood();
+
+        double[] gradient = new double[locations.length];
+        core.getLocationGradient(gradient);
+
+        final double h = 1E-6;
+        for (int i = 0; i < locations.length; ++i) {
+            double[] x = locations.clone();
+            x[i] += h;
+            double upper = directLogLikelihood(times, x, randomRates);
+            x[i] -= 2 * h;
+            double lower = directLogLikelihood(times, x, randomRates);
+            assertEquals((upper - lower) / (2 * h), gradient[i], 1E-5);
+        }
+
+        double[] rateGradient = new double[count];
+        core.getRandomRatesGradient(rateGradient);
+
+        for (int i = 0; i < count; ++i) {
+            double[] r = randomRates.clone();
+            r[i] += h;
+            double upper = directLogLikelihood(times, locations, r);
+            r[i] -= 2 * h;
+            double lower = directLogLikelihood(times, locations, r);
+            assertEquals((upper - lower) / (2 * h), rateGradient[i], 1E-5);
+        }
+    }
+
+    private static HawkesCore createCore(int threadCount, double cutoff,
+                                         double[] times, double[] locations, double[] randomRates) {
+        HawkesCore core = new MultiThreadedHPHImpl(threadCount, cutoff);
+        core.initialize(DIMENSION, times.length, 0);
+        core.setParameters(PARAMETERS);
+        core.setTimesData(times);
+        core.setRandomRates(randomRates);
+        core.updateLocation(-1, locations);
+        return core;
+    }
+
+    private static double directLogLikelihood(double[] times, double[] locations, double[] randomRates) {
+        double sigmaX = PARAMETERS[0];
+        double tauX = PARAMETERS[1];
+        double tauT = PARAMETERS[2];
+        double omega = PARAMETERS[3];
+        double theta = PARAMETERS[4];
+        double mu0 = PARAMETERS[5];
+
+        int count = times.length;
+        double maxTime = times[count - 1];
+
+        double logLikelihood = 0.0;
+        for (int i = 0; i < count; ++i) {
+            double rate = 0.0;
+            for (int j = 0; j < count; ++j) {
+                if (i != j) {
+                    double dx = locations[i * DIMENSION] - locations[j * DIMENSION];
+                    double dy = locations[i * DIMENSION + 1] - locations[j * DIMENSION + 1];
+                    double distance = Math.sqrt(dx * dx + dy * dy);
+                    double dt = times[i] - times[j];
+
+                    rate += mu0 * tauX * tauX * tauT * NormalDistribution.pdf(dx * tauX, 0, 1) *
+                            NormalDistribution.pdf(dy * tauX, 0, 1) * NormalDistribution.pdf(dt * tauT, 0, 1);
+                    if (dt > 0) {
+                        rate += theta * randomRates[j] * omega * Math.exp(-omega * dt) * sigmaX * sigmaX *
+                                Math.exp(-0.5 * sigmaX * sigmaX * distance * distance) / (2 * Math.PI);
+                    }
+                }
+            }
+            logLikelihood += Math.log(rate);
+            logLikelihood -= mu0 * (NormalDistribution.cdf(maxTime, times[i], 1 / tauT) -
+                    NormalDistribution.cdf(0, times[i], 1 / tauT));
+            logLikelihood -= theta * randomRates[i] * (1 - Math.exp(-omega * (maxTime - times[i])));
+        }
+        return logLikelihood;
+    }
+
+    private static double[] getTimes(int count) {
+        double[] times = new double[count];
+        for (int i = 1; i < count; ++i) {
+            times[i] = times[i - 1] + 0.1 * MathUtils.nextExponential(1.0);
+        }
+        return times;
+    }
+
+    private static double[] getLocations(int count) {
+        double[] locations = new double[count * DIMENSION];
+        for (int i = 0; i < locations.length; ++i) {
+            locations[i] = MathUtils.nextGaussian();
+        }
+        return locations;
+    }
+
+    private static double[] getRandomRates(int count) {
+        double[] rates = new double[count];
+        for (int i = 0; i < count; ++i) {
+            rates[i] = 0.5 + MathUtils.nextDouble();
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * AsyncLogFormatterTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.loggers;
+
+import dr.inference.loggers.AsyncLogFormatter;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.loggers.TabDelimitedFormatter;
+import junit.framework.TestCase;
+
+import java.io.BufferedWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * @author agent
+ */
+public class AsyncLogFormatterTest extends TestCase {
+
+    private static final int STATES = 5000;
+
+    private String runLog(boolean async) {
+        StringWriter output = new StringWriter();
+        TabDelimitedFormatter tabFormatter = new TabDelimitedFormatter(new PrintWriter(output));
+
+        MCLogger logger;
+        if (async) {
+            // a small capacity so the chain is held up by the writer
+            logger = new MCLogger(new AsyncLogFormatter(tabFormatter, 4), 1, false);
+        } else {
+            logger = new MCLogger(tabFormatter, 1, false);
+        }
+
+        final double[] x = new double[1];
+        logger.setTitle("title\nsubtitle");
+        logger.addColumn(new NumberColumn("x") {
+            public double getDoubleValue() {
+                return x[0];
+            }
+        });
+        NumberColumn padded = new NumberColumn("padded") {
+            public double getDoubleValue() {
+                return x[0] * 1000.0;
+            }
+        };
+        padded.setMinimumWidth(24);
+        logger.addColumn(padded);
+        logger.addColumn(new NumberColumn("sf", 4) {
+            public double getDoubleValue() {
+                return -x[0];
+            }
+        });
+        logger.addColumn(new NumberColumn("custom") {
+            public double getDoubleValue() {
+                return x[0];
+            }
+
+            protected String getFormattedValue() {
+                return "<" + x[0] + ">";
+            }
+        });
+
+        logger.startLogging();
+        for (int state = 0; state < STATES; state++) {
+            x[0] = Math.sin(state * 0.1) / (state + 1);
+            logger.log((long) state);
+        }
+        logger.stopLogging();
+
+        return output.toString();
+    }
+
+    public void testIdenticalOutput() {
+        String expected = runLog(false);
+        String actual = runLog(true);
+
+        assertEquals(STATES + 3, actual.split("\n").length);
+        assertEquals(expected, actual);
+    }
+
+    public void testFlushedBeforeStop() throws InterruptedException {
+        StringWriter output = new StringWriter();
+        // a buffer big enough to hold everything so nothing is written unless it is flushed
+        TabDelimitedFormatter tabFormatter = new TabDelimitedFormatter(new PrintWriter(new BufferedWriter(output, 1 << 16)));
+        AsyncLogFormatter formatter = new AsyncLogFormatter(tabFormatter, 4);
+
+        formatter.logLabels(new String[]{"state", "x"});
+        for (int state = 0; state < 10; state++) {
+            formatter.logValues(new String[]{Integer.toString(state), Double.toString(state * 0.5)});
+        }
+
+        // the lines should become visible as the writer thread works through the batches
+        long timeout = System.currentTimeMillis() + 10000;
+        while (output.toString().split("\n").length < 11 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        String[] lines = output.toString().split("\n");
+        assertEquals(11, lines.length);
+        assertEquals("9\t4.5", lines[10]);
+
+        formatter.stopLogging();
+    }
+}
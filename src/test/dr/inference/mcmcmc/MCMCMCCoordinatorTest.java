@@ -0,0 +1,134 @@
+/*
+ * MCMCMCCoordinatorTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package test.dr.inference.mcmcmc;
+
+import dr.inference.mcmcmc.MCMCMCCoordinator;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author agent
+ */
+public class MCMCMCCoordinatorTest extends TestCase {
+
+    private static final int CHAIN_COUNT = 3;
+
+    public MCMCMCCoordinatorTest(String name) {
+        super(name);
+    }
+
+    private Thread[] startRunners(final MCMCMCCoordinator coordinator, final AtomicLongArray steps, final int rounds) {
+        Thread[] threads = new Thread[CHAIN_COUNT];
+        for (int i = 0; i < CHAIN_COUNT; i++) {
+            final int chain = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int round = 1; round <= rounds; round++) {
+                        // a sub-chain
+                        for (int k = 0; k < 1000 * (chain + 1); k++) {
+                            steps.incrementAndGet(chain);
+                        }
+                        if (round < rounds) {
+                            if (!coordinator.awaitSwap(chain, 0)) {
+                                break;
+                            }
+                        } else {
+                            coordinator.chainFinished(chain, 0);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        return threads;
+    }
+
+    public void testRunnersFinish() throws InterruptedException {
+        MCMCMCCoordinator coordinator = new MCMCMCCoordinator(CHAIN_COUNT);
+        AtomicLongArray steps = new AtomicLongArray(CHAIN_COUNT);
+        Thread[] threads = startRunners(coordinator, steps, 4);
+
+        int rounds = 0;
+        while (coordinator.awaitChains()) {
+            rounds++;
+            coordinator.releaseChains();
+        }
+        coordinator.finish();
+
+        assertEquals(3, rounds);
+        for (int i = 0; i < CHAIN_COUNT; i++) {
+            threads[i].join(10000);
+            assertFalse(threads[i].isAlive());
+            assertEquals(4 * 1000 * (i + 1), steps.get(i));
+        }
+    }
+
+    public void testControllerFinishesEarly() throws InterruptedException {
+        MCMCMCCoordinator coordinator = new MCMCMCCoordinator(CHAIN_COUNT);
+        AtomicLongArray steps = new AtomicLongArray(CHAIN_COUNT);
+        Thread[] threads = startRunners(coordinator, steps, 1000);
+
+        // the cold chain reaches its length while the runners are waiting for the swap
+        for (int round = 0; round < 2; round++) {
+            assertTrue(coordinator.awaitChains());
+            coordinator.releaseChains();
+        }
+        assertTrue(coordinator.awaitChains());
+        coordinator.finish();
+
+        // no runner is advancing once finish has returned
+        long[] finished = new long[CHAIN_COUNT];
+        for (int i = 0; i < CHAIN_COUNT; i++) {
+            finished[i] = steps.get(i);
+        }
+        for (int i = 0; i < CHAIN_COUNT; i++) {
+            threads[i].join(10000);
+            assertFalse(threads[i].isAlive());
+            assertEquals(finished[i], steps.get(i));
+            assertEquals(3 * 1000 * (i + 1), steps.get(i));
+        }
+    }
+
+    public void testControllerFinishesDuringSubChain() throws InterruptedException {
+        MCMCMCCoordinator coordinator = new MCMCMCCoordinator(CHAIN_COUNT);
+        AtomicLongArray steps = new AtomicLongArray(CHAIN_COUNT);
+        Thread[] threads = startRunners(coordinator, steps, 1000);
+
+        // the runners have been released and are running a sub-chain when the controller finishes
+        assertTrue(coordinator.awaitChains());
+        coordinator.releaseChains();
+        coordinator.finish();
+
+        for (int i = 0; i < CHAIN_COUNT; i++) {
+            assertEquals(2 * 1000 * (i + 1), steps.get(i));
+            threads[i].join(10000);
+            assertFalse(threads[i].isAlive());
+            assertEquals(2 * 1000 * (i + 1), steps.get(i));
+        }
+    }
+}
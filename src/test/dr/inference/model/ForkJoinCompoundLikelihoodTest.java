@@ -0,0 +1,267 @@
+/*
+ * ForkJoinCompoundLikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.model;
+
+import dr.inference.model.*;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author agent
+ */
+public class ForkJoinCompoundLikelihoodTest extends TestCase {
+
+    private static final int COMPONENT_COUNT = 8;
+
+    public ForkJoinCompoundLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        components = new ArrayList<Component>();
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            Component component = new Component(new Parameter.Default("x" + i, 1.0 + i));
+            components.add(component);
+            likelihoods.add(component);
+        }
+        compound = new ForkJoinCompoundLikelihood(4, likelihoods);
+    }
+
+    public void testOnlyChangedComponentsAreEvaluated() {
+        assertEquals(expected(), compound.getLogLikelihood(), 1E-12);
+        assertEquals(1, components.get(3).calculationCount);
+
+        compound.getModel().storeModelState();
+        components.get(3).x.setParameterValue(0, 0.5);
+        assertEquals(expected(), compound.getLogLikelihood(), 1E-12);
+        compound.getModel().acceptModelState();
+
+        assertEquals(2, components.get(3).calculationCount);
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            if (i != 3) {
+                assertEquals(1, components.get(i).calculationCount);
+            }
+        }
+    }
+
+    public void testRestore() {
+        double initial = compound.getLogLikelihood();
+
+        compound.getModel().storeModelState();
+        components.get(1).x.setParameterValue(0, 10.0);
+        components.get(6).x.setParameterValue(0, -3.0);
+        assertEquals(expected(), compound.getLogLikelihood(), 1E-12);
+        compound.getModel().restoreModelState();
+
+        assertEquals(initial, compound.getLogLikelihood(), 1E-12);
+        assertEquals(2, components.get(1).calculationCount);
+        assertEquals(2, components.get(6).calculationCount);
+        assertEquals(1, components.get(0).calculationCount);
+    }
+
+    public void testNested() {
+        List<Likelihood> outer = new ArrayList<Likelihood>();
+        outer.add(compound);
+        Component other = new Component(new Parameter.Default("y", 2.0));
+        outer.add(other);
+        ForkJoinCompoundLikelihood nested = new ForkJoinCompoundLikelihood(4, outer);
+
+        assertEquals(expected() + other.getLogLikelihood(), nested.getLogLikelihood(), 1E-12);
+
+        nested.getModel().storeModelState();
+        components.get(0).x.setParameterValue(0, 4.0);
+        other.x.setParameterValue(0, 3.0);
+        assertEquals(expected() + other.getLogLikelihood(), nested.getLogLikelihood(), 1E-12);
+        nested.getModel().acceptModelState();
+
+        assertEquals(2, components.get(0).calculationCount);
+        assertEquals(1, components.get(5).calculationCount);
+
+        nested.makeDirty();
+        assertEquals(expected() + other.getLogLikelihood(), nested.getLogLikelihood(), 1E-12);
+        assertEquals(2, components.get(5).calculationCount);
+    }
+
+    public void testUnrolledCompound() {
+        List<Likelihood> priors = new ArrayList<Likelihood>(components.subList(0, 4));
+        List<Likelihood> outer = new ArrayList<Likelihood>();
+        outer.add(new CompoundLikelihood(priors));
+        outer.addAll(components.subList(4, COMPONENT_COUNT));
+        ForkJoinCompoundLikelihood unrolled = new ForkJoinCompoundLikelihood(1, outer);
+
+        assertEquals(COMPONENT_COUNT, unrolled.getLikelihoodCount());
+        assertEquals(expected(), unrolled.getLogLikelihood(), 1E-12);
+
+        unrolled.getModel().storeModelState();
+        components.get(2).x.setParameterValue(0, 7.0);
+        assertEquals(expected(), unrolled.getLogLikelihood(), 1E-12);
+        unrolled.getModel().acceptModelState();
+
+        // only the changed component of the nested compound is evaluated
+        long[] counts = unrolled.getEvaluationCounts();
+        for (int i = 0; i < COMPONENT_COUNT; i++) {
+            assertEquals(i == 2 ? 2 : 1, counts[i]);
+        }
+    }
+
+    public void testIncrementalSum() {
+        MathUtils.setSeed(666);
+        final int count = 2000;
+        List<Component> many = new ArrayList<Component>();
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        for (int i = 0; i < count; i++) {
+            Component component = new Component(new Parameter.Default("z" + i, MathUtils.nextGaussian() * 100.0));
+            many.add(component);
+            likelihoods.add(component);
+        }
+        ForkJoinCompoundLikelihood incremental = new ForkJoinCompoundLikelihood(4, likelihoods);
+        incremental.getLogLikelihood();
+
+        for (int step = 0; step < 5000; step++) {
+            incremental.getModel().storeModelState();
+            double stored = incremental.getLogLikelihood();
+
+            int changes = 1 + MathUtils.nextInt(3);
+            for (int k = 0; k < changes; k++) {
+                many.get(MathUtils.nextInt(count)).x.setParameterValue(0, MathUtils.nextGaussian() * 100.0);
+            }
+
+            double sum = 0.0;
+            for (Component component : many) {
+                sum += component.logDensity();
+            }
+            assertEquals(sum, incremental.getLogLikelihood(), Math.abs(sum) * 1E-14);
+
+            if (MathUtils.nextBoolean()) {
+                incremental.getModel().restoreModelState();
+                assertEquals(stored, incremental.getLogLikelihood());
+            } else {
+                incremental.getModel().acceptModelState();
+            }
+        }
+    }
+
+    public void testNegativeInfinity() {
+        double initial = compound.getLogLikelihood();
+
+        compound.getModel().storeModelState();
+        components.get(5).x.setParameterValue(0, Double.POSITIVE_INFINITY);
+        assertEquals(Double.NEGATIVE_INFINITY, compound.getLogLikelihood());
+        compound.getModel().restoreModelState();
+        assertEquals(initial, compound.getLogLikelihood(), 1E-12);
+
+        compound.getModel().storeModelState();
+        components.get(5).x.setParameterValue(0, Double.POSITIVE_INFINITY);
+        assertEquals(Double.NEGATIVE_INFINITY, compound.getLogLikelihood());
+        compound.getModel().acceptModelState();
+
+        compound.getModel().storeModelState();
+        components.get(5).x.setParameterValue(0, 2.0);
+        assertEquals(expected(), compound.getLogLikelihood(), 1E-12);
+        compound.getModel().acceptModelState();
+    }
+
+    private double expected() {
+        double logL = 0.0;
+        for (Component component : components) {
+            logL += component.logDensity();
+        }
+        return logL;
+    }
+
+    private List<Component> components;
+    private ForkJoinCompoundLikelihood compound;
+
+    /**
+     * A standard normal density on a parameter that counts its calculations.
+     */
+    private static class Component extends AbstractModelLikelihood {
+
+        Component(Parameter x) {
+            super("component");
+            this.x = x;
+            addVariable(x);
+        }
+
+        double logDensity() {
+            double value = x.getParameterValue(0);
+            return -0.5 * value * value;
+        }
+
+        public Model getModel() {
+            return this;
+        }
+
+        public double getLogLikelihood() {
+            if (!likelihoodKnown) {
+                logLikelihood = logDensity();
+                likelihoodKnown = true;
+                calculationCount++;
+            }
+            return logLikelihood;
+        }
+
+        public void makeDirty() {
+            likelihoodKnown = false;
+        }
+
+        protected void handleModelChangedEvent(Model model, Object object, int index) {
+        }
+
+        protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+            likelihoodKnown = false;
+        }
+
+        protected void storeState() {
+            storedLogLikelihood = logLikelihood;
+            storedLikelihoodKnown = likelihoodKnown;
+        }
+
+        protected void restoreState() {
+            logLikelihood = storedLogLikelihood;
+            likelihoodKnown = storedLikelihoodKnown;
+        }
+
+        protected void acceptState() {
+        }
+
+        final Parameter x;
+        int calculationCount = 0;
+
+        private double logLikelihood;
+        private double storedLogLikelihood;
+        private boolean likelihoodKnown = false;
+        private boolean storedLikelihoodKnown;
+    }
+}
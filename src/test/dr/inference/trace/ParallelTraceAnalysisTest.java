@@ -0,0 +1,168 @@
+/*
+ * ParallelTraceAnalysisTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+package test.dr.inference.trace;
+
+import dr.inference.trace.ArrayTraceList;
+import dr.inference.trace.ParallelTraceAnalysis;
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceException;
+import dr.inference.trace.TraceList;
+import dr.inference.trace.TraceType;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author agent
+ */
+public class ParallelTraceAnalysisTest extends TestCase {
+
+    private static final int SAMPLES = 20000;
+    private static final long STEP_SIZE = 1000;
+
+    // an AR(1) series with a deterministic innovation
+    private static double[] createValues(double phi, double offset, double seed) {
+        double[] values = new double[SAMPLES];
+        double x = 0.0;
+        for (int i = 0; i < SAMPLES; i++) {
+            x = phi * x + Math.sin(i * 0.37 + seed) + Math.cos(i * 1.31 + 2.0 * seed);
+            values[i] = x + offset;
+        }
+        return values;
+    }
+
+    /**
+     * The ESS as TraceCorrelation calculated it with a direct sum for every lag.
+     */
+    private static double getDirectESS(double[] values, long stepSize) {
+        final int samples = values.length;
+        double mean = 0.0;
+        for (double value : values) {
+            mean += value;
+        }
+        mean /= samples;
+
+        int maxLag = Math.min(samples - 1, 2000);
+        double[] gammaStat = new double[maxLag];
+        double varStat = 0.0;
+        for (int lag = 0; lag < maxLag; lag++) {
+            for (int j = 0; j < samples - lag; j++) {
+                gammaStat[lag] += (values[j] - mean) * (values[j + lag] - mean);
+            }
+            gammaStat[lag] /= ((double) (samples - lag));
+            if (lag == 0) {
+                varStat = gammaStat[0];
+            } else if (lag % 2 == 0) {
+                if (gammaStat[lag - 1] + gammaStat[lag] > 0) {
+                    varStat += 2.0 * (gammaStat[lag - 1] + gammaStat[lag]);
+                } else {
+                    maxLag = lag;
+                }
+            }
+        }
+        double act = stepSize * varStat / gammaStat[0];
+        return (stepSize * samples) / act;
+    }
+
+    public void testESS() {
+        // quickly mixing (direct sums only) and slowly mixing (switches to the FFT)
+        for (double phi : new double[]{0.5, 0.999}) {
+            double[] values = createValues(phi, 0.0, 0.0);
+            TraceCorrelation statistics = new TraceCorrelation(values, TraceType.REAL, STEP_SIZE, false);
+            double expected = getDirectESS(values, STEP_SIZE);
+            assertEquals(expected, statistics.getESS(), expected * 1E-9);
+        }
+    }
+
+    private static TraceList createTraceList(String name, double offset, double seed) {
+        List<Trace> traces = new ArrayList<Trace>();
+        Trace state = new Trace("state", TraceType.INTEGER);
+        for (int i = 0; i < SAMPLES; i++) {
+            state.add((double) (i * STEP_SIZE));
+        }
+        traces.add(state);
+
+        double[] phis = {0.2, 0.9, 0.99, 0.999};
+        for (int k = 0; k < phis.length; k++) {
+            Trace trace = new Trace("x" + k, TraceType.REAL);
+            for (double value : createValues(phis[k], k == 0 ? offset : 0.0, seed + k)) {
+                trace.add(value);
+            }
+            traces.add(trace);
+        }
+        return new ArrayTraceList(name, traces, 0);
+    }
+
+    public void testParallelTraces() throws TraceException {
+        final TraceList sequential = createTraceList("sequential", 0.0, 0.0);
+        final TraceList parallel = createTraceList("parallel", 0.0, 0.0);
+
+        ParallelTraceAnalysis single = new ParallelTraceAnalysis(1);
+        single.analyseTraces(sequential, null);
+
+        final List<Integer> order = new ArrayList<Integer>();
+        ParallelTraceAnalysis analysis = new ParallelTraceAnalysis(3);
+        analysis.analyseTraces(parallel, (index, statistics) -> {
+            order.add(index);
+            TraceCorrelation expected = sequential.getCorrelationStatistics(index);
+            assertEquals(expected.getMean(), statistics.getMean(), 0.0);
+            assertEquals(expected.getESS(), statistics.getESS(), 0.0);
+            assertEquals(expected.getLowerHPD(), statistics.getLowerHPD(), 0.0);
+        });
+        analysis.shutdown();
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), order);
+    }
+
+    public void testRHat() throws TraceException {
+        // the first statistic of the third run is shifted well away from the others
+        List<TraceList> runs = Arrays.asList(
+                createTraceList("run1", 0.0, 0.0),
+                createTraceList("run2", 0.0, 10.0),
+                createTraceList("run3", 5.0, 20.0));
+
+        final List<ParallelTraceAnalysis.RunStatistics> results = new ArrayList<ParallelTraceAnalysis.RunStatistics>();
+        ParallelTraceAnalysis analysis = new ParallelTraceAnalysis(2);
+        analysis.analyseRuns(runs, results::add);
+        analysis.shutdown();
+
+        assertEquals(5, results.size());
+        assertEquals("x0", results.get(1).getName());
+        assertEquals(3, results.get(1).getRunCount());
+        assertTrue(results.get(1).getRHat() > 1.1);
+        assertEquals(1.0, results.get(2).getRHat(), 0.01);
+
+        double ess = 0.0;
+        for (int j = 0; j < 3; j++) {
+            ess += results.get(2).getStatistics(j).getESS();
+        }
+        assertEquals(ess, results.get(2).getESS(), 1E-9);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * TraceStorageTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.trace;
+
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceStorage;
+import dr.inference.trace.TraceType;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author agent
+ */
+public class TraceStorageTest extends TestCase {
+
+    private static final int SAMPLES = 150000;
+
+    private Trace createTrace(String storage) {
+        String old = System.getProperty(TraceStorage.TRACE_STORAGE_PROPERTY);
+        System.setProperty(TraceStorage.TRACE_STORAGE_PROPERTY, storage);
+        Trace trace = new Trace("x", TraceType.REAL);
+        if (old == null) {
+            System.clearProperty(TraceStorage.TRACE_STORAGE_PROPERTY);
+        } else {
+            System.setProperty(TraceStorage.TRACE_STORAGE_PROPERTY, old);
+        }
+
+        // an autocorrelated AR(1) series
+        double x = 0.0;
+        for (int i = 0; i < SAMPLES; i++) {
+            x = 0.9 * x + Math.sin(i * 0.37) + Math.cos(i * 1.31);
+            trace.add(x);
+        }
+        return trace;
+    }
+
+    public void testMappedStorage() {
+        Trace heap = createTrace("heap");
+        Trace mapped = createTrace("mapped");
+
+        assertEquals(heap.getValueCount(), mapped.getValueCount());
+
+        double[] heapValues = heap.getValuesArray(1000, SAMPLES, null);
+        double[] mappedValues = mapped.getValuesArray(1000, SAMPLES, null);
+        assertEquals(heapValues.length, mappedValues.length);
+        for (int i = 0; i < heapValues.length; i++) {
+            assertEquals(heapValues[i], mappedValues[i], 0.0);
+        }
+
+        List<Double> view = mapped.getValues(1000, SAMPLES);
+        assertEquals(heapValues.length, view.size());
+        assertEquals(heapValues[heapValues.length - 1], view.get(view.size() - 1), 0.0);
+    }
+
+    public void testPrimitiveStatistics() {
+        Trace trace = createTrace("heap");
+
+        List<Double> boxed = new ArrayList<Double>(trace.getValues(0, SAMPLES));
+        TraceCorrelation fromList = new TraceCorrelation(boxed, TraceType.REAL, 1000, false);
+        TraceCorrelation fromArray = new TraceCorrelation(trace.getValuesArray(0, SAMPLES, null),
+                TraceType.REAL, 1000, false);
+
+        assertEquals(fromList.getMean(), fromArray.getMean(), 0.0);
+        assertEquals(fromList.getLowerHPD(), fromArray.getLowerHPD(), 0.0);
+        assertEquals(fromList.getUpperHPD(), fromArray.getUpperHPD(), 0.0);
+        assertEquals(fromList.getESS(), fromArray.getESS(), 0.0);
+        assertEquals(fromList.getACT(), fromArray.getACT(), 0.0);
+    }
+}
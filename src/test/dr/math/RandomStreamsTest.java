@@ -0,0 +1,97 @@
+/*
+ * RandomStreamsTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.math;
+
+import dr.math.MathUtils;
+
+import java.util.Map;
+
+/**
+ * @author agent
+ */
+public class RandomStreamsTest extends MathTestCase {
+
+    private double[] drawFromStream(final int index, final int count) throws InterruptedException {
+        final double[] draws = new double[count];
+        Thread thread = new Thread() {
+            public void run() {
+                MathUtils.useRandomStream(index);
+                for (int i = 0; i < count; i++) {
+                    draws[i] = MathUtils.nextDouble();
+                }
+                MathUtils.releaseRandomStream();
+            }
+        };
+        thread.start();
+        thread.join();
+        return draws;
+    }
+
+    public void testReproducibleStreams() throws InterruptedException {
+        MathUtils.setSeed(666);
+        double[] first = drawFromStream(1, 100);
+
+        MathUtils.setSeed(666);
+        double[] second = drawFromStream(1, 100);
+
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], second[i], 0.0);
+        }
+
+        double[] other = drawFromStream(2, 100);
+        boolean allSame = true;
+        for (int i = 0; i < first.length; i++) {
+            allSame &= (first[i] == other[i]);
+        }
+        assertFalse("Streams should be independent", allSame);
+    }
+
+    public void testStreamsDoNotAdvanceDefaultInstance() throws InterruptedException {
+        MathUtils.setSeed(666);
+        double expected = MathUtils.nextDouble();
+
+        MathUtils.setSeed(666);
+        drawFromStream(0, 100);
+        assertEquals(expected, MathUtils.nextDouble(), 0.0);
+    }
+
+    public void testStreamState() throws InterruptedException {
+        MathUtils.setSeed(666);
+        drawFromStream(3, 10);
+        Map<Integer, int[]> states = MathUtils.getRandomStreamStates();
+        assertTrue(states.containsKey(3));
+
+        double[] expected = drawFromStream(3, 10);
+
+        MathUtils.setRandomStreamState(3, states.get(3));
+        double[] restored = drawFromStream(3, 10);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], restored[i], 0.0);
+        }
+    }
+}
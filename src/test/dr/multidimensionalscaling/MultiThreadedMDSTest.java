@@ -0,0 +1,253 @@
+/*
+ * MultiThreadedMDSTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.multidimensionalscaling;
+
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCore;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCoreImpl;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingLayout;
+import dr.inference.multidimensionalscaling.MultiThreadedMDSImpl;
+import dr.math.MathUtils;
+import test.dr.math.MathTestCase;
+
+/**
+ * @author agent
+ */
+public class MultiThreadedMDSTest extends MathTestCase {
+
+    private static final int DIMENSION = 2;
+    private static final double PRECISION = 1.5;
+
+    public void testAgainstReferenceCore() {
+        for (boolean truncated : new boolean[]{false, true}) {
+            final int locationCount = 70;
+            long flags = truncated ? MultiDimensionalScalingCore.LEFT_TRUNCATION : 0;
+
+            MathUtils.setSeed(666);
+            double[] observations = getSymmetricObservations(locationCount, false);
+            double[] locations = getLocations(locationCount);
+
+            MultiDimensionalScalingCore reference = new MultiDimensionalScalingCoreImpl();
+            reference.initialize(DIMENSION, locationCount, flags);
+            MultiDimensionalScalingCore core = new MultiThreadedMDSImpl(3);
+            core.initialize(DIMENSION, locationCount, flags);
+
+            for (MultiDimensionalScalingCore c : new MultiDimensionalScalingCore[]{reference, core}) {
+                c.setPairwiseData(observations);
+                c.setParameters(new double[]{PRECISION});
+                c.updateLocation(-1, locations);
+            }
+
+            assertEquals(reference.calculateLogLikelihood(), core.calculateLogLikelihood(), 1E-8);
+
+            // single location moves, accepted and rejected
+            for (int step = 0; step < 40; ++step) {
+                int index = MathUtils.nextInt(locationCount);
+                double[] location = new double[DIMENSION];
+                for (int k = 0; k < DIMENSION; ++k) {
+                    location[k] = locations[index * DIMENSION + k] + 0.1 * MathUtils.nextGaussian();
+                }
+                boolean accept = MathUtils.nextBoolean();
+
+                for (MultiDimensionalScalingCore c : new MultiDimensionalScalingCore[]{reference, core}) {
+                    c.storeState();
+                    c.updateLocation(index, location);
+                    c.calculateLogLikelihood();
+                    if (accept) {
+                        c.acceptState();
+                    } else {
+                        c.restoreState();
+                    }
+                }
+                if (accept) {
+                    System.arraycopy(location, 0, locations, index * DIMENSION, DIMENSION);
+                }
+                assertEquals(reference.calculateLogLikelihood(), core.calculateLogLikelihood(), 1E-8);
+            }
+        }
+    }
+
+    public void testIncrementalUpdates() {
+        for (boolean symmetric : new boolean[]{true, false}) {
+            for (boolean truncated : new boolean[]{false, true}) {
+                MathUtils.setSeed(1234);
+
+                final int rowCount = symmetric ? 150 : 130;
+                final int columnCount = symmetric ? 150 : 40;
+                MultiDimensionalScalingLayout layout = symmetric ?
+                        new MultiDimensionalScalingLayout(rowCount) :
+                        new MultiDimensionalScalingLayout(rowCount, columnCount);
+                final int locationCount = symmetric ? rowCount : rowCount + columnCount;
+                long flags = truncated ? MultiDimensionalScalingCore.LEFT_TRUNCATION : 0;
+
+                double[] observations = symmetric ?
+                        getSymmetricObservations(rowCount, true) :
+                        getObservations(rowCount * columnCount);
+                double[] locations = getLocations(locationCount);
+
+                MultiDimensionalScalingCore serial = createCore(1, layout, flags, observations, locations);
+                MultiDimensionalScalingCore parallel = createCore(3, layout, flags, observations, locations);
+
+                double logLikelihood = serial.calculateLogLikelihood();
+                assertEquals(logLikelihood, parallel.calculateLogLikelihood(), 0.0);
+
+                for (int step = 0; step < 50; ++step) {
+                    int index = MathUtils.nextInt(locationCount);
+                    double[] location = new double[DIMENSION];
+                    for (int k = 0; k < DIMENSION; ++k) {
+                        location[k] = MathUtils.nextGaussian();
+                    }
+                    boolean accept = MathUtils.nextBoolean();
+
+                    double proposed = 0.0;
+                    for (MultiDimensionalScalingCore c : new MultiDimensionalScalingCore[]{serial, parallel}) {
+                        c.storeState();
+                        c.updateLocation(index, location);
+                        if (step % 7 == 0) {
+                            // a second location in the same move
+                            c.updateLocation((index + 1) % locationCount, location);
+                        }
+                        double value = c.calculateLogLikelihood();
+                        if (c == serial) {
+                            proposed = value;
+                        } else {
+                            assertEquals(proposed, value, 0.0);
+                        }
+                        if (accept) {
+                            c.acceptState();
+                        } else {
+                            c.restoreState();
+                        }
+                    }
+
+                    if (accept) {
+                        System.arraycopy(location, 0, locations, index * DIMENSION, DIMENSION);
+                        if (step % 7 == 0) {
+                            System.arraycopy(location, 0, locations, ((index + 1) % locationCount) * DIMENSION, DIMENSION);
+                        }
+                        logLikelihood = proposed;
+                    }
+
+                    assertEquals(logLikelihood, serial.calculateLogLikelihood(), 0.0);
+
+                    MultiDimensionalScalingCore fresh = createCore(1, layout, flags, observations, locations);
+                    assertEquals(fresh.calculateLogLikelihood(), serial.calculateLogLikelihood(), 1E-8);
+                }
+            }
+        }
+    }
+
+    public void testGradients() {
+        for (boolean symmetric : new boolean[]{true, false}) {
+            for (boolean truncated : new boolean[]{false, true}) {
+                MathUtils.setSeed(42);
+
+                final int rowCount = symmetric ? 12 : 9;
+                final int columnCount = symmetric ? 12 : 5;
+                MultiDimensionalScalingLayout layout = symmetric ?
+                        new MultiDimensionalScalingLayout(rowCount) :
+                        new MultiDimensionalScalingLayout(rowCount, columnCount);
+                final int locationCount = symmetric ? rowCount : rowCount + columnCount;
+                long flags = truncated ? MultiDimensionalScalingCore.LEFT_TRUNCATION : 0;
+
+                double[] observations = symmetric ?
+                        getSymmetricObservations(rowCount, true) :
+                        getObservations(rowCount * columnCount);
+                double[] locations = getLocations(locationCount);
+
+                MultiDimensionalScalingCore core = createCore(2, layout, flags, observations, locations);
+
+                double[] gradient = new double[locations.length];
+                core.getGradient(gradient);
+
+                final double h = 1E-6;
+                for (int i = 0; i < locations.length; ++i) {
+                    double[] x = locations.clone();
+                    x[i] += h;
+                    double upper = createCore(1, layout, flags, observations, x).calculateLogLikelihood();
+                    x[i] -= 2 * h;
+                    double lower = createCore(1, layout, flags, observations, x).calculateLogLikelihood();
+                    assertEquals((upper - lower) / (2 * h), gradient[i], 1E-5);
+                }
+
+                double[] observationGradient = new double[observations.length];
+                core.getObservationGradient(observationGradient);
+
+                for (int i = 0; i < observations.length; ++i) {
+                    if (Double.isNaN(observations[i])) {
+                        assertEquals(0.0, observationGradient[i], 0.0);
+                        continue;
+                    }
+                    double[] y = observations.clone();
+                    y[i] += h;
+                    double upper = createCore(1, layout, flags, y, locations).calculateLogLikelihood();
+                    y[i] -= 2 * h;
+                    double lower = createCore(1, layout, flags, y, locations).calculateLogLikelihood();
+                    assertEquals((upper - lower) / (2 * h), observationGradient[i], 1E-5);
+                }
+            }
+        }
+    }
+
+    private static MultiDimensionalScalingCore createCore(int threadCount, MultiDimensionalScalingLayout layout,
+                                                          long flags, double[] observations, double[] locations) {
+        MultiDimensionalScalingCore core = new MultiThreadedMDSImpl(threadCount);
+        core.initialize(DIMENSION, layout, flags);
+        core.setPairwiseData(observations);
+        core.setParameters(new double[]{PRECISION});
+        core.updateLocation(-1, locations);
+        return core;
+    }
+
+    private static double[] getLocations(int locationCount) {
+        double[] locations = new double[locationCount * DIMENSION];
+        for (int i = 0; i < locations.length; ++i) {
+            locations[i] = MathUtils.nextGaussian();
+        }
+        return locations;
+    }
+
+    private static double[] getObservations(int count) {
+        double[] observations = new double[count];
+        for (int i = 0; i < count; ++i) {
+            observations[i] = MathUtils.nextDouble() < 0.1 ? Double.NaN : 2.0 * MathUtils.nextDouble();
+        }
+        return observations;
+    }
+
+    private static double[] getSymmetricObservations(int locationCount, boolean missing) {
+        double[] observations = new double[locationCount * locationCount];
+        for (int i = 0; i < locationCount; ++i) {
+            for (int j = i + 1; j < locationCount; ++j) {
+                double value = (missing && MathUtils.nextDouble() < 0.1) ? Double.NaN : 2.0 * MathUtils.nextDouble();
+                observations[i * locationCount + j] = value;
+                observations[j * locationCount + i] = value;
+            }
+        }
+        return observations;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * TimingHistogramTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.util;
+
+import dr.util.TimingHistogram;
+import junit.framework.TestCase;
+
+/**
+ * @author agent
+ */
+public class TimingHistogramTest extends TestCase {
+
+    public TimingHistogramTest(String name) {
+        super(name);
+    }
+
+    public void testBuckets() {
+        TimingHistogram histogram = new TimingHistogram();
+        histogram.add(0);
+        histogram.add(1);
+        histogram.add(1023);
+        histogram.add(1024);
+        histogram.add(-5);
+
+        assertEquals(2, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(1));
+        assertEquals(1, histogram.getBucketCount(10));
+        assertEquals(1, histogram.getBucketCount(11));
+        assertEquals(1024L, TimingHistogram.getBucketUpperBound(10));
+
+        assertEquals(5, histogram.getCount());
+        assertEquals(2048, histogram.getTotal());
+        assertEquals(0, histogram.getMin());
+        assertEquals(1024, histogram.getMax());
+    }
+
+    public void testQuantiles() {
+        TimingHistogram histogram = new TimingHistogram();
+        assertTrue(Double.isNaN(histogram.getQuantile(0.5)));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.add(i * 1000L);
+        }
+        assertEquals(500500.0, histogram.getMean(), 1E-10);
+
+        // the estimates are only accurate to within a bucket, i.e., a factor of two
+        double median = histogram.getQuantile(0.5);
+        assertTrue(median > 250000 && median < 1000000);
+        assertTrue(histogram.getQuantile(0.99) <= histogram.getMax());
+        assertTrue(histogram.getQuantile(0.0) >= histogram.getMin());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertTrue(Double.isNaN(histogram.getMean()));
+    }
+}